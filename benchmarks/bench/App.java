@@ -0,0 +1,153 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * La classe App donne aux benchmarks l'accès aux classes de l'application.
+ *
+ * <p>
+ * JMH refuse les benchmarks du paquetage par défaut, et une classe d'un paquetage nommé ne peut pas faire
+ * référence aux classes du paquetage par défaut, où se trouve toute l'application. Les benchmarks passent donc
+ * par des {@link MethodHandle} résolus une seule fois ; rangés dans des champs {@code static final}, ils sont
+ * traités comme des constantes par le compilateur JIT et leur appel ne coûte pas plus qu'un appel direct.
+ * Les types de l'application y apparaissent comme {@code Object}.
+ * </p>
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final Class<?> USER = type("User");
+    static final Class<?> SERVER = type("Server");
+    static final Class<?> TRANSPORT = type("Transport");
+
+    /** {@code new LoopbackTransport()} : {@code ()Object}. */
+    static final MethodHandle NEW_LOOPBACK = constructor("LoopbackTransport");
+
+    /** {@code LoopbackTransport.getServer()} : {@code (Object)Object}. */
+    static final MethodHandle LOOPBACK_SERVER = virtual("LoopbackTransport", "getServer", SERVER);
+
+    /** {@code new User(id, opinion, influence, serverIp, serverPort, port, transport)}. */
+    static final MethodHandle NEW_USER = constructor("User", String.class, double.class, double.class,
+            String.class, int.class, int.class, TRANSPORT);
+
+    /** {@code User.getOpinion(topic)} : {@code (Object, String)double}. */
+    static final MethodHandle GET_OPINION = virtual("User", "getOpinion", double.class, String.class);
+
+    /** {@code User.updateOpinion(topic, opinion, influence)} : {@code (Object, String, double, double)void}. */
+    static final MethodHandle UPDATE_TOPIC_OPINION = virtual("User", "updateOpinion", void.class, String.class, double.class, double.class);
+
+    /** {@code User.updateOpinion(opinion, influence)} : {@code (Object, double, double)void}. */
+    static final MethodHandle UPDATE_OPINION = virtual("User", "updateOpinion", void.class, double.class, double.class);
+
+    /** {@code User.receiveMessage(topic, opinion)} : {@code (Object, String, double)void}. */
+    static final MethodHandle RECEIVE_MESSAGE = virtual("User", "receiveMessage", void.class, String.class, double.class);
+
+    /** {@code User.setCoalescing(coalescing)} : {@code (Object, boolean)void}. */
+    static final MethodHandle SET_COALESCING = virtual("User", "setCoalescing", void.class, boolean.class);
+
+    /** {@code new Polarimeter(users, topic, delay, bins, alpha, k, incremental)}. */
+    static final MethodHandle NEW_POLARIMETER = constructor("Polarimeter", java.util.List.class, String.class,
+            long.class, int.class, double.class, double.class, boolean.class);
+
+    /** {@code Polarimeter.getPolarization()} : {@code (Object)double}. */
+    static final MethodHandle GET_POLARIZATION = virtual("Polarimeter", "getPolarization", double.class);
+
+    /** {@code new MessageHandler(socket, user)}. */
+    static final MethodHandle NEW_MESSAGE_HANDLER = constructor("MessageHandler", java.net.Socket.class, USER);
+
+    /** {@code MessageHandler.dispatchFrame(frame, length, user)} : {@code (byte[], int, Object)void}. */
+    static final MethodHandle DISPATCH_FRAME = staticMethod("MessageHandler", "dispatchFrame", void.class, byte[].class, int.class, USER);
+
+    /** {@code BinaryProtocol.encodePeerMessage(topic, opinion)} : {@code (String, double)byte[]}. */
+    static final MethodHandle ENCODE_PEER_MESSAGE = staticMethod("BinaryProtocol", "encodePeerMessage", byte[].class, String.class, double.class);
+
+    /** {@code new Server()}. */
+    static final MethodHandle NEW_SERVER = constructor("Server");
+
+    /** {@code Server.registerUser(userId, ipAddress, port)} : {@code (Object, String, String, int)void}. */
+    static final MethodHandle REGISTER_USER = virtual("Server", "registerUser", void.class, String.class, String.class, int.class);
+
+    /** {@code Server.getUserInfo(userId)} : {@code (Object, String)Object}. */
+    static final MethodHandle GET_USER_INFO = virtual("Server", "getUserInfo", type("UserInfo"), String.class);
+
+    /** {@code RegistrationHandler.execute(server, command, ipAddress)} : {@code (Object, String, String)String}. */
+    static final MethodHandle EXECUTE_COMMAND = staticMethod("RegistrationHandler", "execute", String.class, SERVER, String.class, String.class);
+
+    private App() {
+    }
+
+    /**
+     * Crée un utilisateur relié au transport en mémoire donné.
+     *
+     * @return L'utilisateur.
+     */
+    static Object newUser(Object transport, String id, double opinion, double influence, int port) throws Throwable {
+        return (Object) NEW_USER.invokeExact(id, opinion, influence, "loopback", 0, port, transport);
+    }
+
+    /**
+     * Réduit les journaux de l'application aux avertissements, pour mesurer le code et non la journalisation.
+     */
+    static void quietLogging() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not found: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            return erase(MethodHandles.privateLookupIn(type, LOOKUP).findConstructor(type, MethodType.methodType(void.class, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(String owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            return erase(MethodHandles.privateLookupIn(type, LOOKUP).findVirtual(type, name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(String owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            return erase(MethodHandles.privateLookupIn(type, LOOKUP).findStatic(type, name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Remplace les types de l'application par {@code Object}, en gardant les types du JDK et les types primitifs.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isApplicationType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isApplicationType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+}
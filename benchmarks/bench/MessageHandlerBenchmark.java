@@ -0,0 +1,71 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Décodage d'un message reçu par {@code MessageHandler} : les deux lignes du protocole texte (sujet puis
+ * opinion) et la trame du protocole binaire, jusqu'à l'appel de {@code User.receiveMessage}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageHandlerBenchmark {
+    private Object user;
+    private byte[] textMessage;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() throws Throwable {
+        App.quietLogging();
+        Object transport = (Object) App.NEW_LOOPBACK.invokeExact();
+        user = App.newUser(transport, "receiver", 0.5, 0.1, 1);
+        textMessage = "climate-change\n0.7321\n".getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = (byte[]) App.ENCODE_PEER_MESSAGE.invokeExact("climate-change", 0.7321);
+        frame = Arrays.copyOfRange(encoded, 1 + 4, encoded.length); // sans l'octet MAGIC ni la longueur
+    }
+
+    @Benchmark
+    public void decodeTextLines() throws Throwable {
+        Runnable handler = (Runnable) (Object) App.NEW_MESSAGE_HANDLER.invokeExact((Socket) new InMemorySocket(textMessage), user);
+        handler.run();
+    }
+
+    @Benchmark
+    public void decodeBinaryFrame() throws Throwable {
+        App.DISPATCH_FRAME.invokeExact(frame, frame.length, user);
+    }
+
+    /**
+     * Un socket dont le flux d'entrée contient un message fixe.
+     */
+    private static final class InMemorySocket extends Socket {
+        private final byte[] content;
+
+        InMemorySocket(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesure de la polarisation par {@code Polarimeter} selon la taille de la population, en parcours complet
+ * (le calcul fait à chaque mesure périodique) et en mode incrémental.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PolarimeterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int population;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private Object polarimeter;
+
+    @Setup
+    public void setUp() throws Throwable {
+        App.quietLogging();
+        Object transport = (Object) App.NEW_LOOPBACK.invokeExact();
+        Random random = new Random(42);
+        List<Object> users = new ArrayList<>(population);
+        for (int i = 0; i < population; i++) {
+            users.add(App.newUser(transport, "user" + i, random.nextDouble(), random.nextDouble(), i));
+        }
+        polarimeter = (Object) App.NEW_POLARIMETER.invokeExact((List<?>) users, "topic", 1000L, 5, 1.6, 1.0, incremental);
+    }
+
+    @Benchmark
+    public double measurePolarization() throws Throwable {
+        return (double) App.GET_POLARIZATION.invokeExact(polarimeter);
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Interprétation des commandes texte du serveur par {@code RegistrationHandler}, du découpage de la ligne
+ * à la réponse, pour les commandes les plus fréquentes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistrationHandlerBenchmark {
+    private static final int USERS = 1000;
+
+    private Object server;
+    private String bulkLookup;
+
+    @Setup
+    public void setUp() throws Throwable {
+        App.quietLogging();
+        server = (Object) App.NEW_SERVER.invokeExact();
+        StringBuilder command = new StringBuilder("GET_USERS_INFO:");
+        for (int i = 0; i < USERS; i++) {
+            App.REGISTER_USER.invokeExact(server, "user" + i, "10.0.0." + (i % 250), 5000 + i);
+            if (i < 50) {
+                command.append(i > 0 ? "," : "").append("user").append(i);
+            }
+        }
+        bulkLookup = command.toString();
+    }
+
+    @Benchmark
+    public String getUserInfo() throws Throwable {
+        return (String) App.EXECUTE_COMMAND.invokeExact(server, "GET_USER_INFO:user42", "10.0.0.1");
+    }
+
+    @Benchmark
+    public String registerUser() throws Throwable {
+        return (String) App.EXECUTE_COMMAND.invokeExact(server, "USER:user42:5042", "10.0.0.42");
+    }
+
+    @Benchmark
+    public String getUsersInfo50() throws Throwable {
+        return (String) App.EXECUTE_COMMAND.invokeExact(server, bulkLookup, "10.0.0.1");
+    }
+}
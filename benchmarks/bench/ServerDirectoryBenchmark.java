@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Annuaire du serveur sous concurrence : enregistrements ({@code Server.registerUser}) et recherches
+ * ({@code Server.getUserInfo}) simultanés, dans la proportion d'un enregistrement pour trois recherches.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ServerDirectoryBenchmark {
+    private static final int USERS = 10000;
+
+    private Object server;
+    private String[] userIds;
+
+    @Setup
+    public void setUp() throws Throwable {
+        App.quietLogging();
+        server = (Object) App.NEW_SERVER.invokeExact();
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            App.REGISTER_USER.invokeExact(server, userIds[i], "10.0.0.1", 5000 + i);
+        }
+    }
+
+    @Benchmark
+    @Group("directory")
+    @GroupThreads(1)
+    public void registerUser() throws Throwable {
+        int i = ThreadLocalRandom.current().nextInt(USERS);
+        App.REGISTER_USER.invokeExact(server, userIds[i], "10.0.0.1", 5000 + i);
+    }
+
+    @Benchmark
+    @Group("directory")
+    @GroupThreads(3)
+    public Object getUserInfo() throws Throwable {
+        return (Object) App.GET_USER_INFO.invokeExact(server, userIds[ThreadLocalRandom.current().nextInt(USERS)]);
+    }
+}
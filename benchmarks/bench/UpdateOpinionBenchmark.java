@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mises à jour concurrentes de l'opinion d'un seul utilisateur très sollicité, par plusieurs threads
+ * (comme plusieurs {@code MessageHandler} recevant des messages en même temps).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UpdateOpinionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean coalescing;
+
+    private Object user;
+
+    @Setup
+    public void setUp() throws Throwable {
+        App.quietLogging();
+        Object transport = (Object) App.NEW_LOOPBACK.invokeExact();
+        user = App.newUser(transport, "popular", 0.5, 0.1, 1);
+        App.SET_COALESCING.invokeExact(user, coalescing);
+    }
+
+    @Benchmark
+    public void updateOpinion() throws Throwable {
+        App.UPDATE_OPINION.invokeExact(user, ThreadLocalRandom.current().nextDouble(), 0.1);
+    }
+
+    @Benchmark
+    public void updateTopicOpinion() throws Throwable {
+        App.UPDATE_TOPIC_OPINION.invokeExact(user, "topic", ThreadLocalRandom.current().nextDouble(), 0.1);
+    }
+
+    @Benchmark
+    public void receiveMessage() throws Throwable {
+        App.RECEIVE_MESSAGE.invokeExact(user, "topic", ThreadLocalRandom.current().nextDouble());
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * La classe AgentHost fait tourner de nombreux utilisateurs ({@link User}, {@link Influencer},
+ * {@link CriticalThinker}...) dans une JVM, derrière un seul port TCP.
+ *
+ * <p>
+ * L'hôte est le {@link Transport} de ses utilisateurs, qui le reçoivent à leur construction avec le port de
+ * l'hôte. Il n'ouvre qu'un port et un thread d'acceptation : chaque connexion entrante désigne son
+ * destinataire par une trame {@link BinaryProtocol#TARGET}, et le {@link MessageHandler} remet ses messages à
+ * l'utilisateur désigné. Les messages entre utilisateurs du même hôte ne passent pas par le réseau. La
+ * désignation n'existant qu'en binaire, les émetteurs qui écrivent aux utilisateurs de l'hôte (serveur,
+ * autres utilisateurs) doivent utiliser ce protocole ({@link BinaryProtocol#WIRE_PROPERTY}).
+ * </p>
+ *
+ * <p>
+ * Les utilisateurs de l'hôte partagent un même {@link ServerProxy}, donc une connexion et un cache par serveur,
+ * et leurs inscriptions sont regroupées en requêtes {@code USER_BATCH} : elles sont envoyées par
+ * {@link #registerAgents()}, ou au plus tard {@link #REGISTRATION_DELAY_MS} ms après la première inscription
+ * en attente (par exemple celle d'un utilisateur qui se réinscrit après l'expiration de son bail). Un
+ * utilisateur n'est donc pas connu du serveur dès la fin de sa construction. Les inscriptions d'une requête
+ * restée sans réponse sont remises en attente et renvoyées {@link #REGISTRATION_RETRY_MS} ms plus tard.
+ * </p>
+ */
+public class AgentHost implements Transport, Closeable {
+    private static final Logger logger = Logger.getLogger(AgentHost.class.getName());
+
+    /** Délai maximal avant l'envoi groupé des inscriptions en attente (en millisecondes). */
+    public static final long REGISTRATION_DELAY_MS = 50;
+
+    /** Délai avant le renvoi des inscriptions dont la requête a échoué (en millisecondes). */
+    public static final long REGISTRATION_RETRY_MS = 1000;
+
+    /** Taille de la file d'attente des connexions entrantes, partagée par tous les utilisateurs de l'hôte. */
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    private static final LongAdder RECEIVED = Metrics.counter("user.messages.received");
+
+    private final int port;
+    private final ServerSocket serverSocket;
+    private final Map<String, User> agents = new ConcurrentHashMap<>();
+    private final Map<String, ServerProxy> proxies = new ConcurrentHashMap<>();
+    private final Map<ServerProxy, List<String>> pendingRegistrations = new HashMap<>();
+    private final Object registrationLock = new Object();
+    private final LongAdder registered = new LongAdder();
+    private boolean flushScheduled;
+    private boolean closed;
+
+    /**
+     * Constructeur de la classe AgentHost : ouvre le port de l'hôte et commence à accepter les connexions.
+     *
+     * @param port Le port partagé par tous les utilisateurs de l'hôte.
+     * @throws IOException Si le port ne peut pas être ouvert.
+     */
+    public AgentHost(int port) throws IOException {
+        this.port = port;
+        this.serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+        HandlerExecutors.startLoop("agent-host-" + port, () -> {
+            try (serverSocket) {
+                logger.info("Agent host started on port " + port);
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    HandlerExecutors.dispatch(socket, new MessageHandler(socket, this), null);
+                }
+            } catch (Exception e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Renvoie l'utilisateur de l'hôte ayant l'identifiant donné.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return L'utilisateur, ou null s'il n'est pas hébergé ici.
+     */
+    public User getAgent(String userId) {
+        return agents.get(userId);
+    }
+
+    /**
+     * Renvoie les utilisateurs de l'hôte.
+     *
+     * @return Une vue des utilisateurs, qui suit les ajouts.
+     */
+    public Collection<User> getAgents() {
+        return agents.values();
+    }
+
+    /**
+     * Envoie aussitôt au serveur les inscriptions en attente et attend leur confirmation, ainsi que celle
+     * d'un envoi groupé déjà en cours. Les inscriptions dont la requête échoue sont remises en attente.
+     *
+     * @return Le nombre d'inscriptions confirmées depuis la création de l'hôte, tous envois confondus.
+     */
+    public int registerAgents() {
+        synchronized (registrationLock) {
+            Map<ServerProxy, List<String>> pending;
+            synchronized (this) {
+                pending = new HashMap<>(pendingRegistrations);
+                pendingRegistrations.clear();
+            }
+            for (Map.Entry<ServerProxy, List<String>> registrations : pending.entrySet()) {
+                List<String> failed = new ArrayList<>();
+                registered.add(registrations.getKey().registerUsers(registrations.getValue(), port, failed));
+                if (!failed.isEmpty()) {
+                    logger.warning("Requeuing " + failed.size() + " registrations");
+                    enqueue(registrations.getKey(), failed, REGISTRATION_RETRY_MS);
+                }
+            }
+            return registered.intValue();
+        }
+    }
+
+    private void flushRegistrations() {
+        synchronized (this) {
+            flushScheduled = false;
+        }
+        try {
+            registerAgents();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public ServerChannel connect(String serverIp, int serverPort) {
+        return Transport.tcp().connect(serverIp, serverPort);
+    }
+
+    /**
+     * Renvoie le mandataire partagé par les utilisateurs de l'hôte pour le serveur donné.
+     */
+    @Override
+    public ServerProxy serverProxy(String serverIp, int serverPort) {
+        return proxies.computeIfAbsent(serverIp + ":" + serverPort, address -> new ServerProxy(this, serverIp, serverPort));
+    }
+
+    /**
+     * Met l'inscription d'un utilisateur en attente de l'envoi groupé suivant.
+     */
+    @Override
+    public void register(ServerProxy serverProxy, String userId, int port) {
+        checkPort(port);
+        enqueue(serverProxy, List.of(userId), REGISTRATION_DELAY_MS);
+    }
+
+    private void enqueue(ServerProxy serverProxy, List<String> userIds, long delayMs) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            pendingRegistrations.computeIfAbsent(serverProxy, proxy -> new ArrayList<>()).addAll(userIds);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        HandlerExecutors.timers().schedule(this::flushRegistrations, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void listen(User user, int port) {
+        checkPort(port);
+        if (agents.putIfAbsent(user.getId(), user) != null) {
+            throw new IllegalStateException("Agent already hosted: " + user.getId());
+        }
+    }
+
+    private void checkPort(int port) {
+        if (port != this.port) {
+            throw new IllegalArgumentException("Hosted agents must use the host port " + this.port + ": " + port);
+        }
+    }
+
+    @Override
+    public boolean send(String recipientId, UserInfo recipient, String topic, double opinion) {
+        User agent = recipientId != null ? agents.get(recipientId) : null;
+        if (agent == null) {
+            return Transport.tcp().send(recipientId, recipient, topic, opinion);
+        }
+        return deliverLocally(() -> {
+            RECEIVED.increment();
+            agent.receiveMessage(topic, opinion);
+        });
+    }
+
+    @Override
+    public boolean send(String recipientId, UserInfo recipient, EncodedMessage message) {
+        if (recipientId == null || !agents.containsKey(recipientId)) {
+            return Transport.tcp().send(recipientId, recipient, message);
+        }
+        return send(recipientId, recipient, message.getTopic(), message.getOpinion());
+    }
+
+    @Override
+    public boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested) {
+        User agent = agents.get(recipientId);
+        if (agent == null) {
+            return Transport.tcp().sendGossip(recipientId, recipient, entries, replyRequested);
+        }
+        return deliverLocally(() -> agent.receiveGossip(entries, replyRequested));
+    }
+
+    @Override
+    public boolean relay(String relayId, UserInfo relay, RelayTree.Relay message) {
+        User agent = agents.get(relayId);
+        if (agent == null) {
+            return Transport.tcp().relay(relayId, relay, message);
+        }
+        // Remis dans ce thread : l'agent refuse le sous-arbre si l'exécuteur ne peut pas le prendre en charge
+        RECEIVED.increment();
+        return agent.receiveRelay(message);
+    }
+
+    /**
+     * Remet un message à un utilisateur de l'hôte sur l'exécuteur partagé ; un exécuteur saturé compte comme
+     * un échec d'envoi, comme une connexion refusée.
+     */
+    private static boolean deliverLocally(Runnable delivery) {
+        try {
+            HandlerExecutors.shared().execute(delivery);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warning("Handlers saturated, local delivery dropped");
+            return false;
+        }
+    }
+
+    /**
+     * Ferme le port de l'hôte et les connexions au serveur ; les utilisateurs ne reçoivent plus de messages et
+     * les inscriptions en attente sont abandonnées.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            pendingRegistrations.clear();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (ServerProxy proxy : proxies.values()) {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Méthode principale pour exécuter un hôte d'utilisateurs. Crée les utilisateurs, avec une opinion et
+     * une influence aléatoires, puis les enregistre en une fois auprès du serveur.
+     *
+     * @param args Arguments de la ligne de commande au format :
+     *             --serverIp=<serverIp> --serverPort=<serverPort> --port=<port> [--users=<nombre>]
+     *             [--influencers=<nombre>] [--criticalThinkers=<nombre>] [--prefix=<préfixe des identifiants>]
+     *             [--heartbeat=<intervalle ms>]
+     */
+    public static void main(String[] args) {
+        String serverIp = "127.0.0.1";
+        int serverPort = 12345;
+        int port = 5000;
+        int users = 1000;
+        int influencers = 0;
+        int criticalThinkers = 0;
+        String prefix = "agent";
+        long heartbeat = 0;
+        for (String arg : args) {
+            String value = arg.split("=")[1];
+            if (arg.startsWith("--serverIp=")) {
+                serverIp = value;
+            } else if (arg.startsWith("--serverPort=")) {
+                serverPort = Integer.parseInt(value);
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else if (arg.startsWith("--users=")) {
+                users = Integer.parseInt(value);
+            } else if (arg.startsWith("--influencers=")) {
+                influencers = Integer.parseInt(value);
+            } else if (arg.startsWith("--criticalThinkers=")) {
+                criticalThinkers = Integer.parseInt(value);
+            } else if (arg.startsWith("--prefix=")) {
+                prefix = value;
+            } else if (arg.startsWith("--heartbeat=")) {
+                heartbeat = Long.parseLong(value);
+            }
+        }
+
+        if (System.getProperty(BinaryProtocol.WIRE_PROPERTY) == null) {
+            // Les utilisateurs d'autres hôtes ne peuvent être joints que par des messages désignant leur destinataire
+            System.setProperty(BinaryProtocol.WIRE_PROPERTY, "binary");
+        }
+        try {
+            AgentHost host = new AgentHost(port);
+            Random random = new Random();
+            long start = System.nanoTime();
+            for (int i = 0; i < users + influencers + criticalThinkers; i++) {
+                String id = prefix + "-" + i;
+                double opinion = random.nextDouble();
+                double influence = random.nextDouble();
+                User user = i < users ? new User(id, opinion, influence, serverIp, serverPort, port, host)
+                        : i < users + influencers ? new Influencer(id, opinion, influence, serverIp, serverPort, port, host)
+                        : new CriticalThinker(id, opinion, influence, serverIp, serverPort, port, host);
+                if (heartbeat > 0) {
+                    user.startHeartbeat(heartbeat);
+                }
+            }
+            int registered = host.registerAgents();
+            System.out.println(host.getAgents().size() + " agents started on port " + port + ", " + registered
+                    + " registered in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La classe BinaryProtocol définit le protocole binaire à trames préfixées par leur longueur, utilisé
+ * entre utilisateurs et avec le serveur en alternative au protocole texte.
+ *
+ * <p>
+ * Une connexion binaire commence par l'octet {@link #MAGIC}, qui ne peut pas débuter une ligne de texte
+ * UTF-8 : le destinataire lit le premier octet pour choisir le protocole, et les anciens clients texte
+ * continuent de fonctionner. Chaque trame a ensuite la forme {@code [longueur int][type octet][contenu]},
+ * la longueur comptant le type et le contenu. Les entiers sont en big-endian.
+ * </p>
+ *
+ * <ul>
+ *   <li>{@link #PEER_MESSAGE} : {@code [longueur du sujet u16][sujet UTF-8][opinion double, 8 octets bruts]} ;</li>
+ *   <li>{@link #REQUEST} : {@code [id long][code de commande octet][nombre d'arguments u16][arguments]} ;</li>
+ *   <li>{@link #RESPONSE} : {@code [id long][réponse]}, la réponse étant identique à celle du mode multiplexé texte ;</li>
+ *   <li>{@link #PUSH} : {@code [événement]}, identique aux événements poussés en mode texte ;</li>
+ *   <li>{@link #GOSSIP} : {@code [réponse demandée octet][nombre d'entrées u16]} puis, pour chaque entrée,
+ *       {@code [longueur u16][identifiant][longueur u16][adresse][port int][version long]} : un échange de
+ *       l'annuaire entre utilisateurs ({@link GossipDirectory}), qui n'existe qu'en binaire ;</li>
+ *   <li>{@link #RELAY} : {@code [identifiant de diffusion long][sous-arbres octet][longueur du sujet u16][sujet]
+ *       [opinion 8 octets][nombre d'adresses u16][adresses, chacune u16 + UTF-8][nombre de destinataires int]}
+ *       puis {@code [indice d'adresse u16][port int][longueur u16][identifiant]} par destinataire : un message à
+ *       relayer ({@link RelayTree}), qui n'existe qu'en binaire. Le relais qui l'a décodé répond par le seul
+ *       octet {@link #RELAY_ACK}, hors trame, qui confirme la remise du sous-arbre à l'émetteur ;</li>
+ *   <li>{@link #TARGET} : {@code [longueur u16][identifiant]} : l'utilisateur auquel sont destinées les trames
+ *       suivantes de la connexion, qui permet à un {@link AgentHost} de servir plusieurs utilisateurs sur un
+ *       seul port ; un utilisateur seul sur son port l'ignore.</li>
+ * </ul>
+ *
+ * <p>
+ * Les chaînes des requêtes, réponses et événements sont codées {@code [longueur int][UTF-8]}. Les arguments
+ * étant délimités par leur longueur, un sujet ou un identifiant peut contenir {@code ':'} ou {@code ','}.
+ * </p>
+ */
+public final class BinaryProtocol {
+
+    /** Premier octet d'une connexion binaire. */
+    public static final int MAGIC = 0xB7;
+
+    /**
+     * Propriété système choisissant le protocole des émetteurs : {@code text} (par défaut), compris par tous les
+     * récepteurs, ou {@code binary}, à réserver aux déploiements dont tous les récepteurs reconnaissent
+     * {@link #MAGIC}.
+     */
+    public static final String WIRE_PROPERTY = "plateforme.wire";
+
+    /** Longueur maximale d'une trame (en octets). */
+    public static final int MAX_FRAME_LENGTH = 16 << 20;
+
+    public static final byte PEER_MESSAGE = 1;
+    public static final byte REQUEST = 2;
+    public static final byte RESPONSE = 3;
+    public static final byte PUSH = 4;
+    public static final byte GOSSIP = 5;
+    public static final byte RELAY = 6;
+    public static final byte TARGET = 7;
+
+    /** Accusé de réception d'un {@link #RELAY}, écrit seul sur la connexion par le relais. */
+    public static final byte RELAY_ACK = 8;
+
+    /** Noms des commandes du serveur ; le code d'une commande est son indice dans ce tableau. */
+    private static final String[] COMMANDS = {"USER", "PROPOSER", "GET_USER_INFO", "GET_USERS_INFO", "REPORT", "POLARIZATION", "STATS", "SHARDS", "SUBSCRIBE", "UNSUBSCRIBE", "SAMPLE", "USERS", "HEARTBEAT", "USER_BATCH"};
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Indique si les émetteurs doivent utiliser le protocole binaire.
+     *
+     * @return true si la propriété {@code plateforme.wire} vaut {@code binary}.
+     */
+    public static boolean enabled() {
+        return "binary".equals(System.getProperty(WIRE_PROPERTY, "text"));
+    }
+
+    /**
+     * Renvoie le code binaire d'une commande du serveur.
+     *
+     * @param name Le nom de la commande (par exemple {@code GET_USER_INFO}).
+     * @return Le code de la commande.
+     */
+    public static int opcode(String name) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown command: " + name);
+    }
+
+    /**
+     * Renvoie les noms de toutes les commandes du serveur.
+     *
+     * @return Les noms des commandes, dans l'ordre de leurs codes.
+     */
+    public static List<String> commandNames() {
+        return List.of(COMMANDS);
+    }
+
+    /**
+     * Renvoie le nom de la commande correspondant à un code binaire.
+     *
+     * @param opcode Le code de la commande.
+     * @return Le nom de la commande.
+     */
+    public static String commandName(int opcode) {
+        if (opcode < 0 || opcode >= COMMANDS.length) {
+            throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+        return COMMANDS[opcode];
+    }
+
+    /**
+     * Encode un message entre utilisateurs, précédé de l'octet {@link #MAGIC}, pour une connexion ne
+     * transportant que ce message.
+     *
+     * @param topic Le sujet du message.
+     * @param opinion L'opinion contenue dans le message.
+     * @return Les octets à écrire sur la connexion.
+     */
+    public static byte[] encodePeerMessage(String topic, double opinion) {
+        byte[] topicBytes = peerTopic(topic);
+        ByteBuffer buffer = ByteBuffer.allocate(peerMessageLength(topicBytes));
+        putPeerMessage(buffer, topicBytes, opinion);
+        return buffer.array();
+    }
+
+    /**
+     * Encode le sujet d'un message entre utilisateurs.
+     *
+     * @param topic Le sujet.
+     * @return Le sujet en UTF-8.
+     */
+    static byte[] peerTopic(String topic) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (topicBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Topic too long: " + topicBytes.length + " bytes");
+        }
+        return topicBytes;
+    }
+
+    /**
+     * Renvoie la taille d'un message entre utilisateurs encodé, octet {@link #MAGIC} compris.
+     *
+     * @param topicBytes Le sujet encodé par {@link #peerTopic(String)}.
+     * @return La taille en octets.
+     */
+    static int peerMessageLength(byte[] topicBytes) {
+        return 1 + 4 + 1 + 2 + topicBytes.length + 8;
+    }
+
+    /**
+     * Écrit un message entre utilisateurs, précédé de l'octet {@link #MAGIC}, à la position courante d'un tampon.
+     *
+     * @param buffer Le tampon, d'au moins {@link #peerMessageLength(byte[])} octets restants.
+     * @param topicBytes Le sujet encodé par {@link #peerTopic(String)}.
+     * @param opinion L'opinion contenue dans le message.
+     */
+    static void putPeerMessage(ByteBuffer buffer, byte[] topicBytes, double opinion) {
+        buffer.put((byte) MAGIC);
+        buffer.putInt(1 + 2 + topicBytes.length + 8);
+        buffer.put(PEER_MESSAGE);
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.putLong(Double.doubleToRawLongBits(opinion));
+    }
+
+    /**
+     * Encode la désignation du destinataire des trames suivantes, précédée de l'octet {@link #MAGIC} : la trame
+     * suivante s'écrit ensuite sans son propre octet {@link #MAGIC}.
+     *
+     * @param userId L'identifiant du destinataire.
+     * @return Les octets à écrire en tête de la connexion.
+     */
+    public static byte[] encodeTarget(String userId) {
+        byte[] id = shortString(userId);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 1 + 2 + id.length);
+        buffer.put((byte) MAGIC);
+        buffer.putInt(1 + 2 + id.length);
+        buffer.put(TARGET);
+        buffer.putShort((short) id.length).put(id);
+        return buffer.array();
+    }
+
+    /**
+     * Fait précéder une trame encodée de la désignation de son destinataire.
+     *
+     * @param userId L'identifiant du destinataire, ou null pour laisser la trame telle quelle.
+     * @param frame La trame, précédée de l'octet {@link #MAGIC}.
+     * @return Les octets à écrire sur la connexion.
+     */
+    public static byte[] addressed(String userId, byte[] frame) {
+        if (userId == null) {
+            return frame;
+        }
+        byte[] target = encodeTarget(userId);
+        byte[] bytes = Arrays.copyOf(target, target.length + frame.length - 1);
+        System.arraycopy(frame, 1, bytes, target.length, frame.length - 1);
+        return bytes;
+    }
+
+    /**
+     * Décode l'identifiant d'une trame {@link #TARGET}.
+     *
+     * @param frame Le tableau contenant la trame, à partir de son type.
+     * @param length La longueur de la trame.
+     * @return L'identifiant du destinataire.
+     */
+    public static String decodeTarget(byte[] frame, int length) {
+        int idLength = (frame[1] & 0xFF) << 8 | (frame[2] & 0xFF);
+        if (3 + idLength > length) {
+            throw new IllegalArgumentException("Truncated target frame");
+        }
+        return new String(frame, 3, idLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode un échange d'entrées de l'annuaire entre utilisateurs, précédé de l'octet {@link #MAGIC}, pour
+     * une connexion ne transportant que cet échange.
+     *
+     * @param entries Les entrées, celle de l'émetteur en premier.
+     * @param replyRequested true si le destinataire doit répondre par ses propres entrées.
+     * @return Les octets à écrire sur la connexion.
+     */
+    public static byte[] encodeGossip(List<GossipDirectory.Entry> entries, boolean replyRequested) {
+        int count = Math.min(entries.size(), 0xFFFF);
+        byte[][] ids = new byte[count][];
+        byte[][] addresses = new byte[count][];
+        int length = 1 + 1 + 2;
+        for (int i = 0; i < count; i++) {
+            ids[i] = shortString(entries.get(i).getId());
+            addresses[i] = shortString(entries.get(i).getInfo().getIpAddress());
+            length += 2 + ids[i].length + 2 + addresses[i].length + 4 + 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + length);
+        buffer.put((byte) MAGIC);
+        buffer.putInt(length);
+        buffer.put(GOSSIP);
+        buffer.put((byte) (replyRequested ? 1 : 0));
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            GossipDirectory.Entry entry = entries.get(i);
+            buffer.putShort((short) ids[i].length).put(ids[i]);
+            buffer.putShort((short) addresses[i].length).put(addresses[i]);
+            buffer.putInt(entry.getInfo().getPort());
+            buffer.putLong(entry.getVersion());
+        }
+        return buffer.array();
+    }
+
+    private static byte[] shortString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Décode les entrées d'un échange dont le type et l'indicateur de réponse ont déjà été lus.
+     *
+     * @param frame Le contenu de la trame, positionné sur le nombre d'entrées.
+     * @return Les entrées, dans l'ordre de la trame.
+     */
+    public static List<GossipDirectory.Entry> decodeGossip(ByteBuffer frame) {
+        int count = frame.getShort() & 0xFFFF;
+        List<GossipDirectory.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = getShortString(frame);
+            String ipAddress = getShortString(frame);
+            int port = frame.getInt();
+            entries.add(new GossipDirectory.Entry(id, new UserInfo(ipAddress, port), frame.getLong()));
+        }
+        return entries;
+    }
+
+    private static String getShortString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    /**
+     * Encode un message à relayer, précédé de l'octet {@link #MAGIC}, pour une connexion ne transportant que ce
+     * message. Les adresses IP des destinataires, souvent peu nombreuses, sont écrites une seule fois.
+     *
+     * @param relay Le message et les destinataires restant à atteindre.
+     * @return Les octets à écrire sur la connexion.
+     */
+    public static byte[] encodeRelay(RelayTree.Relay relay) {
+        byte[] topic = shortString(relay.getTopic());
+        List<UserInfo> recipients = relay.getRecipients();
+        Map<String, Integer> addressIndex = new HashMap<>();
+        List<byte[]> addresses = new ArrayList<>();
+        int[] indexes = new int[recipients.size()];
+        byte[][] ids = new byte[recipients.size()][];
+        int length = 1 + 8 + 1 + 2 + topic.length + 8 + 2 + 4 + recipients.size() * (2 + 4 + 2);
+        for (int i = 0; i < indexes.length; i++) {
+            ids[i] = shortString(relay.getRecipientIds().get(i));
+            length += ids[i].length;
+            String address = recipients.get(i).getIpAddress();
+            Integer index = addressIndex.get(address);
+            if (index == null) {
+                if (addresses.size() == 0xFFFF) {
+                    throw new IllegalArgumentException("Too many distinct addresses in relay");
+                }
+                index = addresses.size();
+                addressIndex.put(address, index);
+                addresses.add(shortString(address));
+                length += 2 + addresses.get(index).length;
+            }
+            indexes[i] = index;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + length);
+        buffer.put((byte) MAGIC);
+        buffer.putInt(length);
+        buffer.put(RELAY);
+        buffer.putLong(relay.getMessageId());
+        buffer.put((byte) relay.getFanout());
+        buffer.putShort((short) topic.length).put(topic);
+        buffer.putLong(Double.doubleToRawLongBits(relay.getOpinion()));
+        buffer.putShort((short) addresses.size());
+        for (byte[] address : addresses) {
+            buffer.putShort((short) address.length).put(address);
+        }
+        buffer.putInt(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            buffer.putShort((short) indexes[i]);
+            buffer.putInt(recipients.get(i).getPort());
+            buffer.putShort((short) ids[i].length).put(ids[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Décode un message à relayer dont le type a déjà été lu.
+     *
+     * @param frame Le contenu de la trame, positionné après le type.
+     * @return Le message et ses destinataires.
+     */
+    public static RelayTree.Relay decodeRelay(ByteBuffer frame) {
+        long messageId = frame.getLong();
+        int fanout = frame.get() & 0xFF;
+        String topic = getShortString(frame);
+        double opinion = Double.longBitsToDouble(frame.getLong());
+        String[] addresses = new String[frame.getShort() & 0xFFFF];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = getShortString(frame);
+        }
+        int count = frame.getInt();
+        if (count < 0 || count > frame.remaining() / 8) {
+            throw new IllegalArgumentException("Invalid relay recipient count: " + count);
+        }
+        List<String> recipientIds = new ArrayList<>(count);
+        List<UserInfo> recipients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String address = addresses[frame.getShort() & 0xFFFF];
+            recipients.add(new UserInfo(address, frame.getInt()));
+            recipientIds.add(getShortString(frame));
+        }
+        return new RelayTree.Relay(messageId, fanout, topic, opinion, recipientIds, recipients);
+    }
+
+    /**
+     * Encode une requête destinée au serveur.
+     *
+     * @param requestId L'identifiant de la requête.
+     * @param name Le nom de la commande.
+     * @param args Les arguments de la commande.
+     * @return La trame encodée.
+     */
+    public static byte[] encodeRequest(long requestId, String name, String... args) {
+        byte[][] encodedArgs = new byte[args.length][];
+        int length = 1 + 8 + 1 + 2;
+        for (int i = 0; i < args.length; i++) {
+            encodedArgs[i] = args[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encodedArgs[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.put(REQUEST);
+        buffer.putLong(requestId);
+        buffer.put((byte) opcode(name));
+        buffer.putShort((short) args.length);
+        for (byte[] arg : encodedArgs) {
+            buffer.putInt(arg.length);
+            buffer.put(arg);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode la réponse du serveur à une requête.
+     *
+     * @param requestId L'identifiant de la requête.
+     * @param response La réponse.
+     * @return La trame encodée.
+     */
+    public static byte[] encodeResponse(long requestId, String response) {
+        byte[] text = response.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 8 + 4 + text.length);
+        buffer.putInt(1 + 8 + 4 + text.length);
+        buffer.put(RESPONSE);
+        buffer.putLong(requestId);
+        buffer.putInt(text.length);
+        buffer.put(text);
+        return buffer.array();
+    }
+
+    /**
+     * Encode un événement poussé par le serveur.
+     *
+     * @param event L'événement, sans préfixe.
+     * @return La trame encodée.
+     */
+    public static byte[] encodePush(String event) {
+        byte[] text = event.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 4 + text.length);
+        buffer.putInt(1 + 4 + text.length);
+        buffer.put(PUSH);
+        buffer.putInt(text.length);
+        buffer.put(text);
+        return buffer.array();
+    }
+
+    /**
+     * Lit une trame complète (type et contenu) dans le tampon fourni, agrandi si nécessaire.
+     *
+     * @param in Le flux d'entrée.
+     * @param buffer Le tampon de réception à réutiliser.
+     * @return Le tampon contenant la trame, positionné au début et limité à sa longueur, ou null en fin de flux.
+     * @throws IOException Si la lecture échoue ou si la trame est invalide.
+     */
+    public static ByteBuffer readFrame(InputStream in, ByteBuffer buffer) throws IOException {
+        byte[] array = buffer.array();
+        if (!readFully(in, array, 0, 4, true)) {
+            return null;
+        }
+        int length = getInt(array, 0);
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        if (length > array.length) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1);
+            array = buffer.array();
+        }
+        readFully(in, array, 0, length, false);
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Décode une requête dont le type a déjà été lu.
+     *
+     * @param frame Le contenu de la trame, positionné après le type.
+     * @return La requête décodée.
+     */
+    public static Request decodeRequest(ByteBuffer frame) {
+        long requestId = frame.getLong();
+        String name = commandName(frame.get());
+        String[] args = new String[frame.getShort() & 0xFFFF];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = getString(frame);
+        }
+        return new Request(requestId, name, args);
+    }
+
+    /**
+     * Lit une chaîne codée {@code [longueur int][UTF-8]}.
+     *
+     * @param frame Le tampon positionné sur la chaîne.
+     * @return La chaîne lue.
+     */
+    public static String getString(ByteBuffer frame) {
+        int length = frame.getInt();
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    /**
+     * Lit un entier big-endian dans un tableau d'octets.
+     *
+     * @param bytes Le tableau.
+     * @param offset La position de l'entier.
+     * @return L'entier lu.
+     */
+    public static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Lit un entier long big-endian dans un tableau d'octets.
+     *
+     * @param bytes Le tableau.
+     * @param offset La position de l'entier.
+     * @return L'entier lu.
+     */
+    public static long getLong(byte[] bytes, int offset) {
+        return (long) getInt(bytes, offset) << 32 | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static boolean readFully(InputStream in, byte[] bytes, int offset, int length, boolean eofAllowed) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, offset + read, length - read);
+            if (count < 0) {
+                if (read == 0 && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException("Truncated frame");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    /**
+     * Une requête décodée : identifiant, nom de commande et arguments.
+     */
+    public static final class Request {
+        private final long requestId;
+        private final String name;
+        private final String[] args;
+
+        Request(long requestId, String name, String[] args) {
+            this.requestId = requestId;
+            this.name = name;
+            this.args = args;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getArgs() {
+            return args;
+        }
+    }
+}
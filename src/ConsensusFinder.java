@@ -1,3 +1,8 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 import java.util.Random;
 
@@ -10,10 +15,60 @@ import java.util.Random;
  * La méthode main est utilisée pour initialiser les utilisateurs et démarrer le processus de recherche de consensus avec les arguments de la ligne de commande fournis. 
  * Les messages entre les utilisateurs sont envoyés et reçus en utilisant le protocole TCP pour assurer la fiabilité de la transmission.
  * </p>
+ *
+ * <p>
+ * Un grand nombre de paires peut être traité en parallèle ({@link #findConsensus(List, String)}) sur un
+ * {@link ForkJoinPool}. Les deux utilisateurs d'une paire sont mis à jour ensemble ({@link User#average}) :
+ * la paire prend les verrous d'opinion de ses deux utilisateurs, toujours dans le même ordre, ce qui exclut
+ * les interblocages ; les paires partageant un utilisateur sont ainsi sérialisées, et un message reçu au même
+ * moment est appliqué avant ou après la moyenne, jamais entre la lecture et le remplacement des opinions.
+ * </p>
  */
 public class ConsensusFinder {
     private static final Logger logger = Logger.getLogger(ConsensusFinder.class.getName());
 
+    /** Nombre de paires en dessous duquel une tâche n'est plus divisée. */
+    private static final int BATCH_THRESHOLD = 512;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructeur de la classe ConsensusFinder, utilisant le pool fork-join commun.
+     */
+    public ConsensusFinder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructeur de la classe ConsensusFinder.
+     *
+     * @param pool Le pool qui exécute les recherches de consensus en parallèle.
+     */
+    public ConsensusFinder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Une paire d'utilisateurs cherchant un consensus.
+     */
+    public static final class Pair {
+        private final User first;
+        private final User second;
+
+        public Pair(User first, User second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public User getFirst() {
+            return first;
+        }
+
+        public User getSecond() {
+            return second;
+        }
+    }
+
     /**
      * Trouve un consensus entre deux utilisateurs sur un sujet donné. Si un consensus
      * est atteint, met à jour les opinions des deux utilisateurs à la moyenne de leurs
@@ -24,29 +79,130 @@ public class ConsensusFinder {
      * @param topic Le sujet sur lequel le consensus doit être trouvé.
      */
     public void findConsensus(User user1, User user2, String topic) {
-        Random random = new Random();
-        if (random.nextBoolean() && random.nextBoolean()) { // Simulation de l'acceptation
-            double newOpinion = (user1.getOpinion() + user2.getOpinion()) / 2;
-            user1.updateOpinion(newOpinion, 1.0);
-            user2.updateOpinion(newOpinion, 1.0);
+        if (tryConsensus(user1, user2, topic)) {
             logger.info("Consensus trouvé entre " + user1.getId() + " et " + user2.getId() + " sur le sujet : " + topic);
         } else {
             logger.info("Consensus non atteint entre " + user1.getId() + " et " + user2.getId() + " sur le sujet : " + topic);
         }
     }
 
+    /**
+     * Cherche un consensus pour chaque paire, en parallèle sur le pool fork-join.
+     *
+     * @param pairs Les paires d'utilisateurs ; un même utilisateur peut apparaître dans plusieurs paires.
+     * @param topic Le sujet sur lequel le consensus doit être trouvé.
+     * @return Le nombre de paires ayant atteint un consensus.
+     */
+    public int findConsensus(List<Pair> pairs, String topic) {
+        int reached = pool.invoke(new ConsensusTask(pairs, 0, pairs.size(), topic));
+        logger.info("Consensus trouvé pour " + reached + " paires sur " + pairs.size() + " sur le sujet : " + topic);
+        return reached;
+    }
+
+    /**
+     * Effectue un tour de consensus : la population est répartie au hasard en paires disjointes, qui cherchent
+     * ensuite un consensus en parallèle.
+     *
+     * @param population Les utilisateurs participant au tour.
+     * @param topic Le sujet sur lequel le consensus doit être trouvé.
+     * @return Le nombre de paires ayant atteint un consensus.
+     */
+    public int runRound(List<User> population, String topic) {
+        return findConsensus(randomPairs(population), topic);
+    }
+
+    /**
+     * Répartit une population en paires disjointes tirées au hasard. Si la population est impaire, un
+     * utilisateur reste sans partenaire.
+     *
+     * @param population Les utilisateurs à répartir.
+     * @return Les paires.
+     */
+    public static List<Pair> randomPairs(List<User> population) {
+        int[] order = new int[population.size()];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < order.length; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        List<Pair> pairs = new ArrayList<>(order.length / 2);
+        for (int i = 0; i + 1 < order.length; i += 2) {
+            pairs.add(new Pair(population.get(order[i]), population.get(order[i + 1])));
+        }
+        return pairs;
+    }
+
+    /**
+     * Simule l'acceptation d'un consensus entre deux utilisateurs et, s'il est accepté, donne aux deux
+     * la moyenne de leurs opinions en une seule opération.
+     *
+     * @return true si le consensus a été atteint.
+     */
+    private boolean tryConsensus(User user1, User user2, String topic) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (!(random.nextBoolean() && random.nextBoolean())) { // Simulation de l'acceptation
+            return false;
+        }
+        if (user1 == user2) {
+            return true;
+        }
+        User.average(user1, user2, topic);
+        return true;
+    }
+
+    /**
+     * Traite une tranche de paires, en la divisant tant qu'elle reste grande.
+     */
+    private final class ConsensusTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Pair> pairs;
+        private final int from;
+        private final int to;
+        private final String topic;
+
+        ConsensusTask(List<Pair> pairs, int from, int to, String topic) {
+            this.pairs = pairs;
+            this.from = from;
+            this.to = to;
+            this.topic = topic;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                int reached = 0;
+                for (int i = from; i < to; i++) {
+                    Pair pair = pairs.get(i);
+                    if (tryConsensus(pair.first, pair.second, topic)) {
+                        reached++;
+                    }
+                }
+                return reached;
+            }
+            int middle = (from + to) >>> 1;
+            ConsensusTask left = new ConsensusTask(pairs, from, middle, topic);
+            left.fork();
+            int right = new ConsensusTask(pairs, middle, to, topic).compute();
+            return right + left.join();
+        }
+    }
+
     /**
      * Méthode principale pour exécuter le ConsensusFinder. Initialise les utilisateurs
      * avec des opinions et des influences aléatoires et tente de trouver un consensus
      * sur un sujet spécifié.
-     * Les messages entre les utilisateurs sont envoyés et reçus en utilisant le protocole TCP.
+     * Les messages entre les utilisateurs sont envoyés et reçus en utilisant le protocole TCP, ou sans socket
+     * dans cette JVM avec {@code --transport=loopback} ({@link LoopbackTransport}).
      *
      * @param args Arguments de la ligne de commande au format :
      *             --user1=<user1> --user2=<user2> --topic=<topic> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port>
+     *             [--transport=tcp|loopback]
      */
     public static void main(String[] args) {
         if (args.length < 6) {
-            System.out.println("Utilisation : java ConsensusFinder --user1=<user1> --user2=<user2> --topic=<topic> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port>");
+            System.out.println("Utilisation : java ConsensusFinder --user1=<user1> --user2=<user2> --topic=<topic> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port> [--transport=tcp|loopback]");
             return;
         }
 
@@ -56,6 +212,7 @@ public class ConsensusFinder {
         String serverIp = args[3].split("=")[1];
         int serverPort = Integer.parseInt(args[4].split("=")[1]);
         int port = Integer.parseInt(args[5].split("=")[1]);
+        Transport transport = args.length > 6 && args[6].equals("--transport=loopback") ? new LoopbackTransport() : Transport.tcp();
 
         Random random = new Random();
         double opinion1 = random.nextDouble();
@@ -63,8 +220,8 @@ public class ConsensusFinder {
         double opinion2 = random.nextDouble();
         double influence2 = random.nextDouble();
 
-        User user1 = new User(user1Id, opinion1, influence1, serverIp, serverPort, port);
-        User user2 = new User(user2Id, opinion2, influence2, serverIp, serverPort, port + 1); // Assurer des ports différents
+        User user1 = new User(user1Id, opinion1, influence1, serverIp, serverPort, port, transport);
+        User user2 = new User(user2Id, opinion2, influence2, serverIp, serverPort, port + 1, transport); // Assurer des ports différents
 
         ConsensusFinder cf = new ConsensusFinder();
         cf.findConsensus(user1, user2, topic);
@@ -5,6 +5,8 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -26,6 +28,7 @@ import java.util.Scanner;
  * </p>
  */
 public class CriticalThinker extends User {
+    private static final LongAdder REJECTED = Metrics.counter("user.messages.rejected");
 
     /**
      * Constructeur de la classe CriticalThinker.
@@ -41,6 +44,21 @@ public class CriticalThinker extends User {
         super(id, opinion, influence, serverIp, serverPort, port);
     }
 
+    /**
+     * Constructeur de la classe CriticalThinker, communiquant par le transport donné.
+     *
+     * @param id L'identifiant de l'utilisateur.
+     * @param opinion L'opinion initiale de l'utilisateur.
+     * @param influence L'influence initiale de l'utilisateur.
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param port Le port de l'utilisateur.
+     * @param transport Le transport utilisé pour communiquer.
+     */
+    public CriticalThinker(String id, double opinion, double influence, String serverIp, int serverPort, int port, Transport transport) {
+        super(id, opinion, influence, serverIp, serverPort, port, transport);
+    }
+
     /**
      * Reçoit un message contenant une opinion sur un sujet. 
      * Si l'opinion est validée, l'utilisateur met à jour son opinion en conséquence. 
@@ -54,7 +72,10 @@ public class CriticalThinker extends User {
         if (validateOpinion(opinion)) {
             super.receiveMessage(topic, opinion);
         } else {
-            logger.info("CriticalThinker " + getId() + " a rejeté le message sur le sujet " + topic);
+            REJECTED.increment();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("CriticalThinker " + getId() + " a rejeté le message sur le sujet " + topic);
+            }
         }
     }
 
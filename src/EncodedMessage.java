@@ -0,0 +1,158 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * La classe EncodedMessage est un message entre utilisateurs encodé une seule fois pour tous les destinataires
+ * d'une diffusion ({@link FanOutEngine}, {@link Influencer}).
+ *
+ * <p>
+ * Le message est écrit dans un tampon direct, emprunté à un pool de tampons par taille (puissances de deux).
+ * Chaque envoi en lit une vue en lecture seule, avec sa propre position : le même tampon est écrit sur toutes les
+ * connexions sans être recopié. En binaire, la désignation du destinataire ({@link BinaryProtocol#TARGET}) est
+ * écrite devant le message partagé par une seule écriture groupée.
+ * </p>
+ *
+ * <p>
+ * Le propriétaire du message le ferme une fois tous les envois terminés, ce qui rend le tampon au pool ; le
+ * message ne peut plus être écrit ensuite.
+ * </p>
+ */
+public final class EncodedMessage implements Closeable {
+
+    /** Taille du plus petit tampon du pool (en octets). */
+    public static final int MIN_POOLED_SIZE = 256;
+
+    /** Taille du plus grand tampon du pool (en octets) ; un message plus long a un tampon à lui. */
+    public static final int MAX_POOLED_SIZE = 128 << 10;
+
+    /** Nombre maximal de tampons libres conservés par taille. */
+    public static final int POOLED_PER_SIZE = 64;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE);
+    private static final List<ArrayBlockingQueue<ByteBuffer>> POOL = new ArrayList<>();
+    private static final LongAdder ALLOCATED = Metrics.counter("broadcast.buffers.allocated");
+    private static final LongAdder REUSED = Metrics.counter("broadcast.buffers.reused");
+
+    static {
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            POOL.add(new ArrayBlockingQueue<>(POOLED_PER_SIZE));
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final boolean binary;
+    private final String topic;
+    private final double opinion;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private EncodedMessage(ByteBuffer buffer, boolean binary, String topic, double opinion) {
+        this.buffer = buffer;
+        this.binary = binary;
+        this.topic = topic;
+        this.opinion = opinion;
+    }
+
+    /**
+     * Encode un message entre utilisateurs, en protocole binaire ou texte selon {@link BinaryProtocol#enabled()}.
+     *
+     * @param topic Le sujet du message.
+     * @param opinion L'opinion contenue dans le message.
+     * @return Le message encodé, à fermer après le dernier envoi.
+     */
+    public static EncodedMessage peerMessage(String topic, double opinion) {
+        if (BinaryProtocol.enabled()) {
+            byte[] topicBytes = BinaryProtocol.peerTopic(topic);
+            ByteBuffer buffer = acquire(BinaryProtocol.peerMessageLength(topicBytes));
+            BinaryProtocol.putPeerMessage(buffer, topicBytes, opinion);
+            return new EncodedMessage(buffer.flip(), true, topic, opinion);
+        }
+        byte[] text = (topic + "\n" + opinion + "\n").getBytes(StandardCharsets.UTF_8);
+        return new EncodedMessage(acquire(text.length).put(text).flip(), false, topic, opinion);
+    }
+
+    /**
+     * Renvoie le sujet du message, pour les transports qui ne l'écrivent pas tel quel.
+     *
+     * @return Le sujet du message.
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Renvoie l'opinion contenue dans le message, pour les transports qui ne l'écrivent pas tel quel.
+     *
+     * @return L'opinion contenue dans le message.
+     */
+    public double getOpinion() {
+        return opinion;
+    }
+
+    /**
+     * Écrit le message sur une connexion, précédé en binaire de la désignation de son destinataire.
+     *
+     * @param channel La connexion, en mode bloquant.
+     * @param recipientId L'identifiant du destinataire, ou null s'il est seul à son adresse.
+     * @throws IOException En cas d'erreur d'écriture.
+     */
+    public void writeTo(GatheringByteChannel channel, String recipientId) throws IOException {
+        if (closed.get()) {
+            throw new IllegalStateException("Encoded message already closed");
+        }
+        ByteBuffer message = buffer.asReadOnlyBuffer();
+        if (binary && recipientId != null) {
+            // La désignation commence par l'octet MAGIC, que le message n'a pas à répéter
+            message.position(1);
+            ByteBuffer[] frames = {ByteBuffer.wrap(BinaryProtocol.encodeTarget(recipientId)), message};
+            while (message.hasRemaining()) {
+                channel.write(frames);
+            }
+        } else {
+            while (message.hasRemaining()) {
+                channel.write(message);
+            }
+        }
+    }
+
+    /**
+     * Rend le tampon au pool. Les fermetures suivantes sont sans effet.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release(buffer);
+        }
+    }
+
+    private static ByteBuffer acquire(int length) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(length - 1));
+        if (shift > MAX_SHIFT) {
+            ALLOCATED.increment();
+            return ByteBuffer.allocateDirect(length);
+        }
+        ByteBuffer buffer = POOL.get(shift - MIN_SHIFT).poll();
+        if (buffer == null) {
+            ALLOCATED.increment();
+            return ByteBuffer.allocateDirect(1 << shift);
+        }
+        REUSED.increment();
+        return buffer.clear();
+    }
+
+    private static void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity >= MIN_POOLED_SIZE && capacity <= MAX_POOLED_SIZE && Integer.bitCount(capacity) == 1) {
+            // Si le pool est plein, le tampon est laissé au ramasse-miettes
+            POOL.get(Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT).offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * La classe FanOutEngine diffuse un message à de nombreux utilisateurs de manière asynchrone.
+ *
+ * <p>
+ * Chaque destinataire dispose d'une file d'envoi bornée, vidée dans l'ordre par un seul envoi à la fois ; les
+ * envois sont exécutés par un nombre borné de threads, partagé entre tous les destinataires. Une diffusion se
+ * contente de déposer le message dans les files : l'appelant n'attend jamais l'envoi, et un destinataire lent
+ * n'accumule des messages que dans sa propre file. Quand une file est pleine, sa politique de débordement
+ * ({@link OverflowPolicy}) décide du message abandonné. Chaque destinataire dispose aussi d'un délai de
+ * connexion et d'un délai d'écriture, et une file ne garde un thread que pour {@link #DRAIN_BATCH} envois ou
+ * {@link #DRAIN_BUDGET_MS} ms avant de laisser passer les autres destinataires ; elle le cède aussi dès son
+ * premier envoi échoué, si bien qu'un destinataire disparu n'immobilise un thread que pour un envoi à la fois.
+ * Chaque diffusion produit un {@link FanOutReport}.
+ * </p>
+ *
+ * <p>
+ * Les échecs consécutifs d'envoi à un même destinataire ouvrent son disjoncteur : après
+ * {@link #BREAKER_THRESHOLD} échecs, ses messages sont comptés comme échoués sans tentative d'envoi pendant un
+ * délai de {@link #BREAKER_COOLDOWN_MS} ms, doublé à chaque nouvel échec jusqu'à {@link #BREAKER_MAX_COOLDOWN_MS} ms.
+ * À l'issue du délai, un seul envoi est tenté : s'il réussit, le disjoncteur se referme. Un destinataire disparu
+ * n'immobilise ainsi plus un thread d'envoi pendant {@link #CONNECT_TIMEOUT_MS} ms par message.
+ * </p>
+ *
+ * <p>
+ * Avec le transport TCP, le message est encodé une seule fois dans un tampon direct ({@link EncodedMessage}),
+ * rendu à son pool à la fin de la diffusion, et ce même tampon est écrit directement sur chaque connexion, sous
+ * la surveillance des délais ; avec un autre {@link Transport}, chaque envoi passe par
+ * {@link Transport#send(String, UserInfo, String, double)}.
+ * </p>
+ *
+ * <p>
+ * En mode relais ({@link #relay(Map, String, double, int)}), le message n'est envoyé qu'aux racines des
+ * sous-arbres d'un {@link RelayTree}, qui le relaient elles-mêmes : les files et leurs politiques de débordement
+ * ne s'appliquent pas, pas plus que les disjoncteurs : un relais injoignable est remplacé par le suivant de son
+ * sous-arbre, et le rapport compte les destinataires remis à un relais qui en a confirmé la réception, sans
+ * garantir qu'ils recevront le message (voir {@link RelayTree}).
+ * </p>
+ *
+ * <p>
+ * Les envois réussis, échoués et abandonnés, les déconnexions, le nombre de messages en file, la latence de
+ * chaque envoi et la durée de chaque diffusion sont comptés dans les {@link Metrics} {@code server.fanout.*}.
+ * </p>
+ */
+public class FanOutEngine {
+    private static final Logger logger = Logger.getLogger(FanOutEngine.class.getName());
+
+    /** Nombre d'envois simultanés par défaut. */
+    public static final int DEFAULT_PARALLELISM = 32;
+
+    /** Capacité par défaut de la file d'envoi d'un destinataire. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /** Nombre maximal d'envois consécutifs vers un même destinataire avant de céder le thread. */
+    public static final int DRAIN_BATCH = 16;
+
+    /** Durée au-delà de laquelle une file cède son thread, même avant {@link #DRAIN_BATCH} envois (en millisecondes). */
+    public static final long DRAIN_BUDGET_MS = 50;
+
+    /** Délai de connexion à un destinataire (en millisecondes). */
+    public static final int CONNECT_TIMEOUT_MS = 2000;
+
+    /** Délai d'écriture du message vers un destinataire (en millisecondes). */
+    public static final int WRITE_TIMEOUT_MS = 2000;
+
+    /** Nombre d'échecs consécutifs d'envoi à un destinataire qui ouvrent son disjoncteur. */
+    public static final int BREAKER_THRESHOLD = 3;
+
+    /** Délai initial pendant lequel un disjoncteur ouvert écarte les envois (en millisecondes). */
+    public static final long BREAKER_COOLDOWN_MS = 1000;
+
+    /** Délai maximal pendant lequel un disjoncteur ouvert écarte les envois (en millisecondes). */
+    public static final long BREAKER_MAX_COOLDOWN_MS = 60_000;
+
+    private static final LongAdder DELIVERED = Metrics.counter("server.fanout.delivered");
+    private static final LongAdder FAILED = Metrics.counter("server.fanout.failed");
+    private static final LongAdder DROPPED = Metrics.counter("server.fanout.dropped");
+    private static final LongAdder DISCONNECTED = Metrics.counter("server.fanout.disconnected");
+    private static final LongAdder SHORT_CIRCUITED = Metrics.counter("server.fanout.shortcircuited");
+    private static final LongAdder CIRCUITS_OPENED = Metrics.counter("server.fanout.circuits.opened");
+    private static final LongAdder QUEUED = new LongAdder();
+    private static final LatencyHistogram SEND_LATENCY = Metrics.histogram("server.fanout.send");
+    private static final LatencyHistogram FAN_OUT_DURATION = Metrics.histogram("server.fanout.duration");
+
+    static {
+        Metrics.gauge("server.fanout.queued", QUEUED::sum);
+    }
+
+    /**
+     * Ce que devient un message déposé dans une file pleine.
+     */
+    public enum OverflowPolicy {
+        /** Le message le plus ancien de la file est abandonné. */
+        DROP_OLDEST,
+        /** Un message en attente sur le même sujet est remplacé ; à défaut, le plus ancien est abandonné. */
+        COALESCE,
+        /** Toute la file est abandonnée et le destinataire est signalé à l'écouteur de débordement. */
+        DISCONNECT;
+
+        /**
+         * Lit une politique écrite en minuscules avec des tirets, par exemple {@code drop-oldest}.
+         *
+         * @param name Le nom de la politique.
+         * @return La politique.
+         */
+        public static OverflowPolicy parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final Transport transport;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService watchdog;
+    private final int queueCapacity;
+    private final OverflowPolicy defaultPolicy;
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Map<String, OverflowPolicy> policies = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile Consumer<String> overflowListener = recipientId -> { };
+
+    /**
+     * Constructeur de la classe FanOutEngine.
+     *
+     * @param parallelism Le nombre maximal d'envois simultanés.
+     */
+    public FanOutEngine(int parallelism) {
+        this(parallelism, Transport.tcp());
+    }
+
+    /**
+     * Constructeur de la classe FanOutEngine, avec la capacité et la politique de débordement par défaut.
+     *
+     * @param parallelism Le nombre maximal d'envois simultanés.
+     * @param transport Le transport par lequel les messages sont envoyés.
+     */
+    public FanOutEngine(int parallelism, Transport transport) {
+        this(parallelism, transport, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructeur de la classe FanOutEngine.
+     *
+     * @param parallelism Le nombre maximal d'envois simultanés.
+     * @param transport Le transport par lequel les messages sont envoyés.
+     * @param queueCapacity Le nombre maximal de messages en attente par destinataire.
+     * @param defaultPolicy La politique de débordement des destinataires qui n'en ont pas choisi.
+     */
+    public FanOutEngine(int parallelism, Transport transport, int queueCapacity, OverflowPolicy defaultPolicy) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.transport = transport;
+        this.queueCapacity = queueCapacity;
+        this.defaultPolicy = defaultPolicy;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "fan-out-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "fan-out-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Choisit la politique de débordement de la file d'un destinataire.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     * @param policy La politique, ou null pour revenir à la politique par défaut.
+     */
+    public void setOverflowPolicy(String recipientId, OverflowPolicy policy) {
+        if (policy == null) {
+            policies.remove(recipientId);
+        } else {
+            policies.put(recipientId, policy);
+        }
+    }
+
+    /**
+     * Oublie un destinataire retiré de l'annuaire : sa politique de débordement et son disjoncteur. Les messages
+     * déjà dans sa file sont encore envoyés.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     */
+    public void forget(String recipientId) {
+        policies.remove(recipientId);
+        breakers.remove(recipientId);
+    }
+
+    /**
+     * Referme le disjoncteur d'un destinataire, par exemple parce qu'il vient de se réinscrire.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     */
+    public void closeCircuit(String recipientId) {
+        breakers.remove(recipientId);
+    }
+
+    /**
+     * Déclare l'écouteur prévenu, hors de tout verrou, quand la file d'un destinataire déborde avec la
+     * politique {@link OverflowPolicy#DISCONNECT}.
+     *
+     * @param listener L'écouteur, qui reçoit l'identifiant du destinataire.
+     */
+    public void setOverflowListener(Consumer<String> listener) {
+        this.overflowListener = listener;
+    }
+
+    /**
+     * Diffuse un sujet et une opinion à un ensemble de destinataires, sans bloquer l'appelant.
+     * Le message est encodé une seule fois pour tous les destinataires.
+     *
+     * @param recipients Les destinataires, par identifiant ; la carte n'est plus lue après le retour de la méthode.
+     * @param topic Le sujet à diffuser.
+     * @param opinion L'opinion associée au sujet.
+     * @return Un future complété par le rapport de diffusion lorsque tous les messages sont envoyés ou abandonnés.
+     */
+    public CompletableFuture<FanOutReport> fanOut(Map<String, UserInfo> recipients, String topic, double opinion) {
+        if (recipients.isEmpty()) {
+            return CompletableFuture.completedFuture(new FanOutReport(topic, 0, 0, 0, 0, 0, 0));
+        }
+        return fanOut(recipients::forEach, topic, opinion);
+    }
+
+    /**
+     * Diffuse un sujet et une opinion aux destinataires énumérés par une source, sans copier leur liste.
+     *
+     * @param recipients La source des destinataires, qui remet chacun, avec ses informations, à l'action reçue ;
+     *                   elle n'est plus appelée après le retour de la méthode.
+     * @param topic Le sujet à diffuser.
+     * @param opinion L'opinion associée au sujet.
+     * @return Un future complété par le rapport de diffusion lorsque tous les messages sont envoyés ou abandonnés.
+     */
+    public CompletableFuture<FanOutReport> fanOut(Consumer<BiConsumer<String, UserInfo>> recipients, String topic, double opinion) {
+        boolean sockets = transport == Transport.tcp();
+        // Le décompte réservé à la création empêche le rapport d'être complété avant la fin de l'énumération
+        Broadcast broadcast = new Broadcast(topic, opinion, sockets ? EncodedMessage.peerMessage(topic, opinion) : null, 1);
+        recipients.accept((recipientId, destination) -> {
+            broadcast.remaining.incrementAndGet();
+            Delivery delivery = new Delivery(destination, broadcast);
+            // Une file vidée est retirée de la carte : on recommence alors avec une nouvelle file
+            while (!outboxes.computeIfAbsent(recipientId, Outbox::new).offer(delivery)) {
+                Thread.onSpinWait();
+            }
+        });
+        broadcast.finish();
+        return broadcast.report;
+    }
+
+    /**
+     * Diffuse un sujet et une opinion par un arbre de relais, sans bloquer l'appelant : chaque sous-arbre est
+     * remis à sa racine par un thread d'envoi.
+     *
+     * @param recipients Les destinataires, par identifiant ; la carte n'est plus lue après le retour de la méthode.
+     * @param topic Le sujet à diffuser.
+     * @param opinion L'opinion associée au sujet.
+     * @param fanout Le nombre de sous-arbres.
+     * @return Un future complété par le rapport de diffusion lorsque tous les sous-arbres sont remis.
+     */
+    public CompletableFuture<FanOutReport> relay(Map<String, UserInfo> recipients, String topic, double opinion, int fanout) {
+        RelayTree.Relay relay = new RelayTree.Relay(fanout, topic, opinion, recipients);
+        List<RelayTree.Relay> subtrees = RelayTree.split(relay, fanout);
+        Broadcast broadcast = new Broadcast(topic, opinion, null, subtrees.size());
+        if (subtrees.isEmpty()) {
+            broadcast.report.complete(new FanOutReport(topic, 0, 0, 0, 0, 0, 0));
+            return broadcast.report;
+        }
+        for (RelayTree.Relay subtree : subtrees) {
+            workers.execute(() -> {
+                long start = System.nanoTime();
+                int handedOff = RelayTree.handOff(transport, subtree);
+                broadcast.relayed(handedOff, subtree.getRecipients().size() - handedOff, System.nanoTime() - start);
+            });
+        }
+        return broadcast.report;
+    }
+
+    /**
+     * L'état d'une diffusion : ses compteurs et son rapport, complété par le dernier message traité.
+     */
+    private static final class Broadcast {
+        final String topic;
+        final double opinion;
+        final EncodedMessage message;
+        final long start = System.nanoTime();
+        final AtomicInteger remaining;
+        final LongAdder delivered = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder sends = new LongAdder();
+        final LongAdder totalLatency = new LongAdder();
+        final AtomicLong maxLatency = new AtomicLong();
+        final CompletableFuture<FanOutReport> report = new CompletableFuture<>();
+
+        Broadcast(String topic, double opinion, EncodedMessage message, int count) {
+            this.topic = topic;
+            this.opinion = opinion;
+            this.message = message;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        void sent(boolean succeeded, long latency) {
+            (succeeded ? delivered : failed).increment();
+            (succeeded ? DELIVERED : FAILED).increment();
+            recordLatency(latency);
+            finish();
+        }
+
+        void relayed(int handedOff, int unreachable, long latency) {
+            delivered.add(handedOff);
+            DELIVERED.add(handedOff);
+            failed.add(unreachable);
+            FAILED.add(unreachable);
+            recordLatency(latency);
+            finish();
+        }
+
+        private void recordLatency(long latency) {
+            sends.increment();
+            SEND_LATENCY.record(latency);
+            totalLatency.add(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+        }
+
+        void shortCircuited() {
+            failed.increment();
+            FAILED.increment();
+            SHORT_CIRCUITED.increment();
+            finish();
+        }
+
+        void dropped() {
+            dropped.increment();
+            DROPPED.increment();
+            finish();
+        }
+
+        void finish() {
+            if (remaining.decrementAndGet() == 0) {
+                if (message != null) {
+                    message.close();
+                }
+                long sent = sends.sum();
+                FAN_OUT_DURATION.record(System.nanoTime() - start);
+                report.complete(new FanOutReport(topic, delivered.intValue(), failed.intValue(), dropped.intValue(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        sent == 0 ? 0 : totalLatency.sum() / 1e6 / sent, maxLatency.get() / 1e6));
+            }
+        }
+    }
+
+    /**
+     * Un message d'une diffusion, en attente d'envoi à un destinataire.
+     */
+    private static final class Delivery {
+        final UserInfo destination;
+        final Broadcast broadcast;
+
+        Delivery(UserInfo destination, Broadcast broadcast) {
+            this.destination = destination;
+            this.broadcast = broadcast;
+        }
+    }
+
+    /**
+     * La file d'envoi d'un destinataire. Au plus une tâche la vide à la fois, ce qui conserve l'ordre des
+     * messages ; une file vide est retirée de la carte des files et ne peut plus recevoir de message.
+     */
+    private final class Outbox implements Runnable {
+        private final String recipientId;
+        private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean retired;
+
+        Outbox(String recipientId) {
+            this.recipientId = recipientId;
+        }
+
+        /**
+         * Dépose un message, en appliquant la politique de débordement si la file est pleine.
+         *
+         * @return false si la file a été retirée et ne reçoit plus de message.
+         */
+        boolean offer(Delivery delivery) {
+            List<Delivery> dropped = List.of();
+            boolean disconnect = false;
+            boolean schedule = false;
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                int before = queue.size();
+                if (before < queueCapacity) {
+                    queue.add(delivery);
+                } else {
+                    switch (policies.getOrDefault(recipientId, defaultPolicy)) {
+                        case COALESCE:
+                            Delivery sameTopic = removeTopic(delivery.broadcast.topic);
+                            dropped = List.of(sameTopic != null ? sameTopic : queue.poll());
+                            queue.add(delivery);
+                            break;
+                        case DISCONNECT:
+                            dropped = new ArrayList<>(queue);
+                            dropped.add(delivery);
+                            queue.clear();
+                            disconnect = true;
+                            break;
+                        default:
+                            dropped = List.of(queue.poll());
+                            queue.add(delivery);
+                            break;
+                    }
+                }
+                QUEUED.add(queue.size() - before);
+                if (!scheduled && !queue.isEmpty()) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+            for (Delivery abandoned : dropped) {
+                abandoned.broadcast.dropped();
+            }
+            if (disconnect) {
+                DISCONNECTED.increment();
+                logger.warning("Outbound queue of " + recipientId + " overflowed, recipient disconnected");
+                overflowListener.accept(recipientId);
+            }
+            if (schedule) {
+                workers.execute(this);
+            }
+            return true;
+        }
+
+        private Delivery removeTopic(String topic) {
+            for (Iterator<Delivery> pending = queue.iterator(); pending.hasNext(); ) {
+                Delivery queued = pending.next();
+                if (queued.broadcast.topic.equals(topic)) {
+                    pending.remove();
+                    return queued;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            long turnStart = System.nanoTime();
+            for (int i = 0; i < DRAIN_BATCH && System.nanoTime() - turnStart < TimeUnit.MILLISECONDS.toNanos(DRAIN_BUDGET_MS); i++) {
+                Delivery delivery;
+                synchronized (this) {
+                    delivery = queue.poll();
+                    if (delivery == null) {
+                        scheduled = false;
+                        retired = true;
+                        outboxes.remove(recipientId, this);
+                        return;
+                    }
+                }
+                QUEUED.decrement();
+                Broadcast broadcast = delivery.broadcast;
+                long sendStart = System.nanoTime();
+                CircuitBreaker breaker = breakers.get(recipientId);
+                if (breaker != null && !breaker.allows(sendStart)) {
+                    broadcast.shortCircuited();
+                    continue;
+                }
+                boolean succeeded = broadcast.message != null
+                        ? deliver(delivery.destination, recipientId, broadcast.message)
+                        : transport.send(recipientId, delivery.destination, broadcast.topic, broadcast.opinion);
+                if (succeeded) {
+                    if (breaker != null) {
+                        breakers.remove(recipientId, breaker);
+                    }
+                } else if (breakers.computeIfAbsent(recipientId, id -> new CircuitBreaker()).failed(System.nanoTime())) {
+                    CIRCUITS_OPENED.increment();
+                    logger.warning("Circuit to " + recipientId + " opened after " + BREAKER_THRESHOLD + " consecutive failures");
+                }
+                broadcast.sent(succeeded, System.nanoTime() - sendStart);
+                if (!succeeded) {
+                    // Un échec a pu coûter les délais de connexion et d'écriture : inutile d'en risquer un autre
+                    break;
+                }
+            }
+            // Laisse passer les autres destinataires avant de reprendre cette file
+            workers.execute(this);
+        }
+    }
+
+    /**
+     * Le disjoncteur d'un destinataire dont les derniers envois ont échoué. Les envois d'un destinataire étant
+     * faits un à un par sa file, la tentative qui suit le délai d'ouverture est naturellement la seule.
+     */
+    private static final class CircuitBreaker {
+        private int failures;
+        private long cooldownNanos;
+        private long openUntil;
+
+        /**
+         * Indique si un envoi peut être tenté : le disjoncteur est fermé, ou son délai d'ouverture est écoulé.
+         */
+        synchronized boolean allows(long now) {
+            return failures < BREAKER_THRESHOLD || now - openUntil >= 0;
+        }
+
+        /**
+         * Compte un échec et ouvre le disjoncteur, pour un délai doublé à chaque échec, à partir du seuil.
+         *
+         * @return true si le disjoncteur vient de s'ouvrir.
+         */
+        synchronized boolean failed(long now) {
+            failures++;
+            if (failures < BREAKER_THRESHOLD) {
+                return false;
+            }
+            cooldownNanos = failures == BREAKER_THRESHOLD ? TimeUnit.MILLISECONDS.toNanos(BREAKER_COOLDOWN_MS)
+                    : Math.min(2 * cooldownNanos, TimeUnit.MILLISECONDS.toNanos(BREAKER_MAX_COOLDOWN_MS));
+            openUntil = now + cooldownNanos;
+            return failures == BREAKER_THRESHOLD;
+        }
+    }
+
+    /**
+     * Envoie un message déjà encodé à un destinataire en respectant les délais de connexion et d'écriture.
+     *
+     * @param destination Le destinataire.
+     * @param recipientId L'identifiant du destinataire.
+     * @param message Le message encodé, partagé par tous les destinataires de la diffusion.
+     * @return true si le message a été écrit, false en cas d'échec ou de dépassement de délai.
+     */
+    private boolean deliver(UserInfo destination, String recipientId, EncodedMessage message) {
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.socket().connect(new InetSocketAddress(destination.getIpAddress(), destination.getPort()), CONNECT_TIMEOUT_MS);
+            channel.socket().setTcpNoDelay(true);
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> closeQuietly(channel), WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            try {
+                message.writeTo(channel, recipientId);
+            } finally {
+                timeout.cancel(false);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warning("Failed to notify user at " + destination.getIpAddress() + ":" + destination.getPort() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Le socket est déjà fermé
+        }
+    }
+
+    /**
+     * Arrête les threads d'envoi. Les diffusions en cours sont interrompues.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * La classe FanOutReport résume le résultat d'une diffusion effectuée par {@link FanOutEngine} :
+ * nombre de destinataires atteints, nombre d'échecs, nombre de messages abandonnés par les files d'envoi
+ * pleines et latences observées.
+ */
+public class FanOutReport {
+    private final String topic;
+    private final int delivered;
+    private final int failed;
+    private final int dropped;
+    private final long elapsedMillis;
+    private final double averageLatencyMillis;
+    private final double maxLatencyMillis;
+
+    /**
+     * Constructeur de la classe FanOutReport.
+     *
+     * @param topic Le sujet diffusé.
+     * @param delivered Le nombre de destinataires atteints.
+     * @param failed Le nombre de destinataires en échec.
+     * @param elapsedMillis La durée totale de la diffusion (en millisecondes).
+     * @param averageLatencyMillis La latence moyenne d'un envoi (en millisecondes).
+     * @param maxLatencyMillis La latence maximale d'un envoi (en millisecondes).
+     */
+    public FanOutReport(String topic, int delivered, int failed, long elapsedMillis,
+                        double averageLatencyMillis, double maxLatencyMillis) {
+        this(topic, delivered, failed, 0, elapsedMillis, averageLatencyMillis, maxLatencyMillis);
+    }
+
+    /**
+     * Constructeur de la classe FanOutReport.
+     *
+     * @param topic Le sujet diffusé.
+     * @param delivered Le nombre de destinataires atteints.
+     * @param failed Le nombre de destinataires en échec.
+     * @param dropped Le nombre de messages abandonnés par des files d'envoi pleines.
+     * @param elapsedMillis La durée totale de la diffusion (en millisecondes).
+     * @param averageLatencyMillis La latence moyenne d'un envoi (en millisecondes).
+     * @param maxLatencyMillis La latence maximale d'un envoi (en millisecondes).
+     */
+    public FanOutReport(String topic, int delivered, int failed, int dropped, long elapsedMillis,
+                        double averageLatencyMillis, double maxLatencyMillis) {
+        this.topic = topic;
+        this.delivered = delivered;
+        this.failed = failed;
+        this.dropped = dropped;
+        this.elapsedMillis = elapsedMillis;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getDelivered() {
+        return delivered;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("topic=%s delivered=%d failed=%d dropped=%d elapsed=%dms avgLatency=%.2fms maxLatency=%.2fms",
+                topic, delivered, failed, dropped, elapsedMillis, averageLatencyMillis, maxLatencyMillis);
+    }
+}
@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe GossipDirectory est la vue partielle de l'annuaire qu'un utilisateur entretient par rumeur
+ * (gossip) avec d'autres utilisateurs, afin de trouver ses destinataires sans interroger le serveur central.
+ *
+ * <p>
+ * Chaque entrée associe un identifiant à ses informations de connexion et à une version : celle qu'un
+ * utilisateur annonce pour lui-même est l'instant de son inscription, renouvelé à chaque tour de rumeur
+ * ({@link #refreshSelf(long)}), de sorte qu'après un changement d'adresse la nouvelle entrée remplace l'ancienne
+ * partout où elle se propage. Les entrées apprises du serveur ont la version 0 et cèdent la place à toute entrée
+ * venue de leur propriétaire.
+ * </p>
+ *
+ * <p>
+ * Une entrée qu'aucune version plus récente n'a remplacée pendant la durée de vie de la vue expire : son
+ * propriétaire a sans doute quitté l'annuaire. Une entrée expirée ou retirée ({@link #remove(String)}) laisse
+ * une pierre tombale, qui écarte pendant la même durée les copies de la même version encore propagées par les
+ * autres vues : seule une version plus récente, donc annoncée par un propriétaire toujours présent, ou une
+ * entrée apprise du serveur la fait revivre.
+ * </p>
+ *
+ * <p>
+ * La vue est bornée à {@code capacity} entrées ; au-delà, une entrée tirée au hasard est oubliée. Les
+ * recherches lisent une table concurrente sans verrou ; les fusions et les tirages aléatoires, beaucoup moins
+ * fréquents, sont faits sous le verrou de la vue.
+ * </p>
+ */
+public class GossipDirectory {
+
+    /** Nombre maximal d'entrées conservées par défaut. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Nombre d'entrées envoyées à chaque échange, y compris celle de l'utilisateur. */
+    public static final int EXCHANGE_SIZE = 32;
+
+    /** Nombre d'utilisateurs contactés à chaque tour de rumeur par défaut. */
+    public static final int DEFAULT_FANOUT = 2;
+
+    /** Durée de vie par défaut d'une entrée qu'aucune version plus récente ne remplace (en millisecondes). */
+    public static final long DEFAULT_TTL_MS = 300_000;
+
+    private final String selfId;
+    private final int capacity;
+    private final long ttlNanos;
+    private final Map<String, Known> entries = new ConcurrentHashMap<>();
+    private final List<String> ids = new ArrayList<>();
+    // Dans l'ordre de leur pose, donc de leur expiration
+    private final LinkedHashMap<String, Known> tombstones = new LinkedHashMap<>();
+    private volatile Entry self;
+
+    /**
+     * Constructeur de la classe GossipDirectory, avec la durée de vie par défaut.
+     *
+     * @param selfId L'identifiant de l'utilisateur qui entretient la vue.
+     * @param capacity Le nombre maximal d'entrées conservées.
+     */
+    public GossipDirectory(String selfId, int capacity) {
+        this(selfId, capacity, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Constructeur de la classe GossipDirectory.
+     *
+     * @param selfId L'identifiant de l'utilisateur qui entretient la vue.
+     * @param capacity Le nombre maximal d'entrées conservées.
+     * @param ttlMs La durée de vie d'une entrée et d'une pierre tombale (en millisecondes).
+     */
+    public GossipDirectory(String selfId, int capacity, long ttlMs) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttlMs);
+        }
+        this.selfId = selfId;
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * Déclare l'entrée de l'utilisateur lui-même, jointe à chaque échange.
+     *
+     * @param userInfo Les informations de connexion de l'utilisateur.
+     * @param version La version de l'entrée, en général l'instant de l'inscription.
+     */
+    public void setSelf(UserInfo userInfo, long version) {
+        self = new Entry(selfId, userInfo, version);
+    }
+
+    /**
+     * Renouvelle la version de l'entrée de l'utilisateur, pour que les autres vues la gardent en vie.
+     *
+     * @param version La nouvelle version, en général l'instant présent ; la version n'est jamais diminuée.
+     */
+    public synchronized void refreshSelf(long version) {
+        Entry current = self;
+        if (current != null) {
+            self = new Entry(selfId, current.info, Math.max(version, current.version + 1));
+        }
+    }
+
+    /**
+     * Recherche un utilisateur dans la vue.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Ses informations de connexion, ou null si la vue ne le connaît pas ou si son entrée a expiré.
+     */
+    public UserInfo lookup(String userId) {
+        Known known = entries.get(userId);
+        return known != null && !known.expired(System.nanoTime()) ? known.entry.info : null;
+    }
+
+    /**
+     * Fusionne une entrée reçue : elle est retenue si elle est inconnue ou plus récente que celle de la vue, et
+     * plus récente que la pierre tombale de l'utilisateur.
+     *
+     * @param entry L'entrée reçue.
+     * @return true si la vue a changé.
+     */
+    public boolean merge(Entry entry) {
+        return merge(entry, false);
+    }
+
+    private synchronized boolean merge(Entry entry, boolean authoritative) {
+        if (entry.id.equals(selfId)) {
+            return false;
+        }
+        long now = System.nanoTime();
+        expireTombstones(now);
+        Known tombstone = tombstones.get(entry.id);
+        if (tombstone != null && tombstone.entry.version >= entry.version && !authoritative) {
+            return false;
+        }
+        Known current = entries.get(entry.id);
+        if (current != null && current.entry.version >= entry.version) {
+            return false;
+        }
+        if (current == null) {
+            if (ids.size() >= capacity) {
+                evictRandom();
+            }
+            ids.add(entry.id);
+        }
+        tombstones.remove(entry.id);
+        entries.put(entry.id, new Known(entry, now + ttlNanos));
+        return true;
+    }
+
+    /**
+     * Ajoute une entrée apprise du serveur, avec la version 0, si la vue ne connaît pas encore l'utilisateur. Le
+     * serveur faisant autorité, l'entrée passe outre une pierre tombale.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Ses informations de connexion.
+     */
+    public void learn(String userId, UserInfo userInfo) {
+        merge(new Entry(userId, userInfo, 0), true);
+    }
+
+    /**
+     * Applique un changement d'adresse poussé par le serveur à un utilisateur déjà connu de la vue, en gardant
+     * la version de son entrée. Un utilisateur inconnu n'est pas ajouté.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Ses nouvelles informations de connexion.
+     * @return true si la vue a changé.
+     */
+    public synchronized boolean update(String userId, UserInfo userInfo) {
+        Known current = entries.get(userId);
+        if (current == null || current.entry.info.equals(userInfo)) {
+            return false;
+        }
+        entries.put(userId, new Known(new Entry(userId, userInfo, current.entry.version), System.nanoTime() + ttlNanos));
+        return true;
+    }
+
+    /**
+     * Oublie un utilisateur, par exemple parce qu'il ne répond plus ou que le serveur l'a retiré de l'annuaire.
+     * Une pierre tombale écarte ensuite les copies de son entrée jusqu'à ce qu'il en annonce une plus récente.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return true si la vue le connaissait.
+     */
+    public synchronized boolean remove(String userId) {
+        Known removed = entries.remove(userId);
+        if (removed == null) {
+            return false;
+        }
+        int index = ids.indexOf(userId);
+        ids.set(index, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+        bury(removed.entry, System.nanoTime());
+        return true;
+    }
+
+    private void evictRandom() {
+        int index = ThreadLocalRandom.current().nextInt(ids.size());
+        String evicted = ids.get(index);
+        ids.set(index, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+        entries.remove(evicted);
+    }
+
+    /**
+     * Retire les entrées expirées, chacune laissant une pierre tombale.
+     */
+    private void expire(long now) {
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            String userId = ids.get(i);
+            Known known = entries.get(userId);
+            if (known.expired(now)) {
+                ids.set(i, ids.get(ids.size() - 1));
+                ids.remove(ids.size() - 1);
+                entries.remove(userId);
+                bury(known.entry, now);
+            }
+        }
+    }
+
+    private void bury(Entry entry, long now) {
+        tombstones.remove(entry.id);
+        tombstones.put(entry.id, new Known(entry, now + ttlNanos));
+        if (tombstones.size() > capacity) {
+            tombstones.remove(tombstones.keySet().iterator().next());
+        }
+    }
+
+    private void expireTombstones(long now) {
+        for (Iterator<Known> oldest = tombstones.values().iterator(); oldest.hasNext(); ) {
+            if (!oldest.next().expired(now)) {
+                break;
+            }
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Tire les entrées à envoyer lors d'un échange : celle de l'utilisateur, puis des entrées distinctes
+     * choisies au hasard dans la vue.
+     *
+     * @param count Le nombre maximal d'entrées.
+     * @return Les entrées, celle de l'utilisateur en premier si elle est déclarée.
+     */
+    public synchronized List<Entry> sample(int count) {
+        long now = System.nanoTime();
+        expire(now);
+        expireTombstones(now);
+        List<Entry> sample = new ArrayList<>(Math.min(count, ids.size() + 1));
+        Entry current = self;
+        if (current != null) {
+            sample.add(current);
+        }
+        for (String userId : randomIds(count - sample.size())) {
+            sample.add(entries.get(userId).entry);
+        }
+        return sample;
+    }
+
+    /**
+     * Tire au hasard des utilisateurs distincts de la vue, par exemple les destinataires d'un tour de rumeur.
+     *
+     * @param count Le nombre maximal d'utilisateurs.
+     * @return Les entrées tirées.
+     */
+    public synchronized List<Entry> randomPeers(int count) {
+        expire(System.nanoTime());
+        List<Entry> peers = new ArrayList<>();
+        for (String userId : randomIds(count)) {
+            peers.add(entries.get(userId).entry);
+        }
+        return peers;
+    }
+
+    /**
+     * Tire des identifiants distincts par un mélange de Fisher-Yates partiel ; l'ordre de la liste n'a pas
+     * d'importance.
+     */
+    private List<String> randomIds(int count) {
+        int n = Math.min(Math.max(count, 0), ids.size());
+        List<String> chosen = new ArrayList<>(n);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            int swap = i + random.nextInt(ids.size() - i);
+            String picked = ids.get(swap);
+            ids.set(swap, ids.get(i));
+            ids.set(i, picked);
+            chosen.add(picked);
+        }
+        return chosen;
+    }
+
+    /**
+     * Renvoie le nombre d'utilisateurs connus de la vue, sans compter l'utilisateur lui-même. Les entrées
+     * expirées y sont comptées jusqu'au tirage suivant.
+     *
+     * @return Le nombre d'entrées.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Une entrée retenue par la vue, ou sa pierre tombale, avec son instant d'expiration ({@link System#nanoTime()}).
+     */
+    private static final class Known {
+        final Entry entry;
+        final long expiresAt;
+
+        Known(Entry entry, long expiresAt) {
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean expired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * Une entrée de l'annuaire : identifiant, informations de connexion et version.
+     */
+    public static final class Entry {
+        private final String id;
+        private final UserInfo info;
+        private final long version;
+
+        /**
+         * Constructeur de la classe Entry.
+         *
+         * @param id L'identifiant de l'utilisateur.
+         * @param info Ses informations de connexion.
+         * @param version La version de l'entrée ; la plus grande l'emporte.
+         */
+        public Entry(String id, UserInfo info, long version) {
+            this.id = id;
+            this.info = info;
+            this.version = version;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public UserInfo getInfo() {
+            return info;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
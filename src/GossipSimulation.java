@@ -0,0 +1,300 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * La classe GossipSimulation mesure la convergence de l'annuaire par rumeur ({@link GossipDirectory}) entre
+ * plusieurs processus de la machine locale.
+ *
+ * <p>
+ * Le coordinateur démarre un {@link Server}, puis lance {@code --processes} JVM hôtes qui hébergent chacune
+ * {@code --users} utilisateurs TCP. Une fois tous les utilisateurs inscrits, les hôtes démarrent l'échange de
+ * l'annuaire et rendent compte à intervalles réguliers de la couverture de leurs utilisateurs : la part des
+ * autres utilisateurs connus de leur vue. Le coordinateur affiche le temps au bout duquel la couverture
+ * moyenne atteint 50 %, 90 % et 99 %, puis celui au bout duquel chaque utilisateur connaît tous les autres.
+ * Chaque hôte effectue enfin {@code --lookups} recherches de destinataires tirés au hasard, et le coordinateur
+ * compare le nombre de recherches parvenues au serveur au nombre total de recherches.
+ * </p>
+ *
+ * <p>
+ * Une couverture complète suppose que le nombre total d'utilisateurs ne dépasse pas la capacité d'une vue
+ * ({@link GossipDirectory#DEFAULT_CAPACITY}) ; au-delà, seule la couverture moyenne est significative.
+ * </p>
+ */
+public class GossipSimulation {
+    private static final Logger logger = Logger.getLogger(GossipSimulation.class.getName());
+
+    /** Intervalle entre deux comptes rendus de couverture d'un hôte (en millisecondes). */
+    private static final long REPORT_INTERVAL_MS = 50;
+
+    private static final double[] THRESHOLDS = {0.5, 0.9, 0.99};
+
+    public static void main(String[] args) {
+        String role = "coordinator";
+        int processes = 4;
+        int users = 50;
+        long interval = 200;
+        int port = 12345;
+        int basePort = 14000;
+        int lookups = 1000;
+        long timeout = 60;
+        int host = 0;
+        for (String arg : args) {
+            String value = arg.split("=")[1];
+            if (arg.startsWith("--role=")) {
+                role = value;
+            } else if (arg.startsWith("--processes=")) {
+                processes = Integer.parseInt(value);
+            } else if (arg.startsWith("--users=")) {
+                users = Integer.parseInt(value);
+            } else if (arg.startsWith("--interval=")) {
+                interval = Long.parseLong(value);
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else if (arg.startsWith("--basePort=")) {
+                basePort = Integer.parseInt(value);
+            } else if (arg.startsWith("--lookups=")) {
+                lookups = Integer.parseInt(value);
+            } else if (arg.startsWith("--timeout=")) {
+                timeout = Long.parseLong(value);
+            } else if (arg.startsWith("--host=")) {
+                host = Integer.parseInt(value);
+            }
+        }
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        try {
+            if (role.equals("host")) {
+                runHost(host, processes, users, interval, port, basePort);
+            } else {
+                runCoordinator(processes, users, interval, port, basePort, lookups, timeout);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String userId(int host, int index) {
+        return "g" + host + "-" + index;
+    }
+
+    /**
+     * Démarre le serveur et les hôtes, puis mesure la convergence et la part des recherches adressées au serveur.
+     */
+    private static void runCoordinator(int processes, int users, long interval, int port, int basePort,
+                                       int lookups, long timeout) throws Exception {
+        Server server = new Server();
+        ServerSocket serverSocket = server.listen(port);
+        List<Host> hosts = new ArrayList<>();
+        for (int i = 0; i < processes; i++) {
+            hosts.add(new Host(i, processes, users, interval, port, basePort));
+        }
+        try {
+            for (Host host : hosts) {
+                if (!host.ready.await(timeout, TimeUnit.SECONDS)) {
+                    throw new IOException("Host " + host.index + " did not start");
+                }
+            }
+            System.out.println(processes + " hosts, " + processes * users + " users, gossip every " + interval + " ms");
+
+            long start = System.nanoTime();
+            for (Host host : hosts) {
+                host.send("GO");
+            }
+            long[] reached = new long[THRESHOLDS.length];
+            long complete = -1;
+            while (complete < 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(timeout)) {
+                Thread.sleep(REPORT_INTERVAL_MS);
+                double mean = 0;
+                double min = 1;
+                for (Host host : hosts) {
+                    mean += host.meanCoverage / processes;
+                    min = Math.min(min, host.minCoverage);
+                }
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                for (int i = 0; i < THRESHOLDS.length; i++) {
+                    if (reached[i] == 0 && mean >= THRESHOLDS[i]) {
+                        reached[i] = elapsed;
+                    }
+                }
+                if (min >= 1) {
+                    complete = elapsed;
+                }
+            }
+            for (int i = 0; i < THRESHOLDS.length; i++) {
+                System.out.printf("mean coverage %3.0f%% : %s%n", THRESHOLDS[i] * 100,
+                        reached[i] > 0 ? reached[i] + " ms" : "not reached");
+            }
+            System.out.println("full coverage      : " + (complete >= 0 ? complete + " ms" : "not reached"));
+
+            LatencyHistogram serverLookups = Metrics.histogram("server.command.GET_USER_INFO");
+            long before = serverLookups.getCount();
+            for (Host host : hosts) {
+                host.send("LOOKUP " + lookups);
+            }
+            long hits = 0;
+            long misses = 0;
+            for (Host host : hosts) {
+                if (!host.lookedUp.await(timeout, TimeUnit.SECONDS)) {
+                    throw new IOException("Host " + host.index + " did not finish its lookups");
+                }
+                hits += host.hits;
+                misses += host.misses;
+            }
+            long total = hits + misses;
+            long reachedServer = serverLookups.getCount() - before;
+            System.out.printf("lookups            : %d, %d resolved by gossip, %d sent to the server (%.2f%%)%n",
+                    total, hits, reachedServer, total > 0 ? 100.0 * reachedServer / total : 0.0);
+        } finally {
+            for (Host host : hosts) {
+                host.stop();
+            }
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Héberge des utilisateurs dans une JVM fille, pilotée par les commandes reçues sur l'entrée standard :
+     * {@code GO} démarre l'échange de l'annuaire, {@code LOOKUP <n>} lance les recherches et {@code STOP}
+     * termine le processus.
+     */
+    private static void runHost(int host, int processes, int users, long interval, int port, int basePort) throws Exception {
+        List<User> hosted = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            hosted.add(new User(userId(host, i), ThreadLocalRandom.current().nextDouble(), 0.5,
+                    "127.0.0.1", port, basePort + host * users + i));
+        }
+        int others = processes * users - 1;
+        System.out.println("READY");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        Thread reporter = null;
+        String command;
+        while ((command = in.readLine()) != null) {
+            if (command.equals("GO")) {
+                for (User user : hosted) {
+                    user.startGossip(interval, GossipDirectory.DEFAULT_FANOUT);
+                }
+                reporter = new Thread(() -> reportCoverage(hosted, others), "gossip-coverage");
+                reporter.setDaemon(true);
+                reporter.start();
+            } else if (command.startsWith("LOOKUP ")) {
+                int count = Integer.parseInt(command.substring(7));
+                long hits = 0;
+                for (int i = 0; i < count; i++) {
+                    User user = hosted.get(ThreadLocalRandom.current().nextInt(hosted.size()));
+                    String target = userId(ThreadLocalRandom.current().nextInt(processes),
+                            ThreadLocalRandom.current().nextInt(users));
+                    GossipDirectory directory = user.getGossipDirectory();
+                    if (target.equals(user.getId()) || directory.lookup(target) != null) {
+                        hits++;
+                    }
+                    user.lookupUser(target);
+                }
+                System.out.println("LOOKUPS " + hits + " " + (count - hits));
+            } else if (command.equals("STOP")) {
+                break;
+            }
+        }
+        if (reporter != null) {
+            reporter.interrupt();
+        }
+        System.exit(0);
+    }
+
+    private static void reportCoverage(List<User> hosted, int others) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                double sum = 0;
+                double min = 1;
+                for (User user : hosted) {
+                    GossipDirectory directory = user.getGossipDirectory();
+                    double coverage = directory == null || others == 0 ? 1 : (double) directory.size() / others;
+                    sum += coverage;
+                    min = Math.min(min, coverage);
+                }
+                System.out.println("COVERAGE " + sum / hosted.size() + " " + min);
+                Thread.sleep(REPORT_INTERVAL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Un processus hôte, vu du coordinateur : sa sortie standard est lue par un thread dédié.
+     */
+    private static final class Host {
+        private final int index;
+        private final Process process;
+        private final PrintWriter commands;
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private final CountDownLatch lookedUp = new CountDownLatch(1);
+        private volatile double meanCoverage;
+        private volatile double minCoverage;
+        private volatile long hits;
+        private volatile long misses;
+
+        Host(int index, int processes, int users, long interval, int port, int basePort) throws IOException {
+            this.index = index;
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            this.process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-D" + Metrics.JMX_PROPERTY + "=false", GossipSimulation.class.getName(),
+                    "--role=host", "--host=" + index, "--processes=" + processes, "--users=" + users,
+                    "--interval=" + interval, "--port=" + port, "--basePort=" + basePort)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            this.commands = new PrintWriter(process.getOutputStream(), true);
+            Thread reader = new Thread(this::readOutput, "gossip-host-" + index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(String command) {
+            commands.println(command);
+        }
+
+        private void readOutput() {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    if (fields[0].equals("READY")) {
+                        ready.countDown();
+                    } else if (fields[0].equals("COVERAGE")) {
+                        meanCoverage = Double.parseDouble(fields[1]);
+                        minCoverage = Double.parseDouble(fields[2]);
+                    } else if (fields[0].equals("LOOKUPS")) {
+                        hits = Long.parseLong(fields[1]);
+                        misses = Long.parseLong(fields[2]);
+                        lookedUp.countDown();
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Host " + index + " output lost: " + e.getMessage());
+            }
+        }
+
+        void stop() {
+            send("STOP");
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
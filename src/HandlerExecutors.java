@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * La classe HandlerExecutors fournit l'exécuteur qui fait tourner les gestionnaires de connexions
+ * ({@link MessageHandler} côté utilisateur, {@link RegistrationHandler} côté serveur) ainsi que les
+ * boucles d'écoute des utilisateurs.
+ *
+ * <p>
+ * Le mode est choisi par la propriété système {@code plateforme.executor} :
+ * </p>
+ * <ul>
+ *   <li>{@code thread} (par défaut) : un thread système par tâche, réutilisé lorsqu'il se libère ;</li>
+ *   <li>{@code virtual} : un thread virtuel par tâche, ce qui permet au code bloquant existant
+ *       ({@code readLine}) de passer à l'échelle ; nécessite Java 21, sinon le mode {@code pool} est utilisé ;</li>
+ *   <li>{@code pool} : un pool borné de threads système, dont la taille est donnée par
+ *       {@code plateforme.poolSize} ; lorsque sa file est pleine, la tâche est refusée et sa connexion fermée
+ *       ({@link #dispatch(Socket, Runnable, String)}), sans jamais occuper le thread d'acceptation.</li>
+ * </ul>
+ *
+ * <p>
+ * En mode {@code pool}, une connexion persistante ({@link ServerConnection}) occupe un thread du pool tant
+ * qu'elle reste ouverte : au-delà de la taille du pool, les connexions suivantes attendent. Pour un grand
+ * nombre de clients persistants, préférer le mode {@code virtual} ou le moteur {@link NioServer}.
+ * </p>
+ */
+public final class HandlerExecutors {
+    private static final Logger logger = Logger.getLogger(HandlerExecutors.class.getName());
+
+    /** Propriété système choisissant le mode d'exécution. */
+    public static final String MODE_PROPERTY = "plateforme.executor";
+
+    /** Propriété système donnant la taille du pool en mode {@code pool}. */
+    public static final String POOL_SIZE_PROPERTY = "plateforme.poolSize";
+
+    /** Taille du pool par défaut en mode {@code pool}. */
+    public static final int DEFAULT_POOL_SIZE = 256;
+
+    private static final LongAdder REJECTED = Metrics.counter("handlers.rejected");
+
+    /**
+     * Les modes d'exécution disponibles.
+     */
+    public enum Mode {
+        THREAD, VIRTUAL, POOL
+    }
+
+    private static volatile ExecutorService shared;
+    private static volatile ScheduledExecutorService timers;
+    private static volatile Mode sharedMode;
+    private static Thread keepAlive;
+
+    private HandlerExecutors() {
+    }
+
+    /**
+     * Renvoie l'exécuteur partagé par tous les gestionnaires de connexions de la JVM,
+     * créé au premier appel selon les propriétés système.
+     *
+     * @return L'exécuteur partagé.
+     */
+    public static ExecutorService shared() {
+        if (shared == null) {
+            synchronized (HandlerExecutors.class) {
+                if (shared == null) {
+                    Mode mode = Mode.valueOf(System.getProperty(MODE_PROPERTY, "thread").toUpperCase());
+                    int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+                    ExecutorService executor = create(mode, poolSize, "handler");
+                    sharedMode = mode == Mode.VIRTUAL && executor instanceof ThreadPoolExecutor ? Mode.POOL : mode;
+                    shared = executor;
+                    logger.info("Connection handlers run in " + sharedMode + " mode");
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Confie le gestionnaire d'une connexion acceptée à l'exécuteur partagé. Si l'exécuteur est saturé, la
+     * connexion reçoit la réponse d'erreur donnée puis est fermée : le thread d'acceptation n'exécute jamais
+     * lui-même un gestionnaire, et continue d'accepter les connexions suivantes.
+     *
+     * @param socket La connexion acceptée.
+     * @param handler Le gestionnaire de la connexion.
+     * @param busyReply La ligne envoyée au client refusé, ou null pour fermer la connexion sans réponse.
+     * @return false si la connexion a été refusée.
+     */
+    public static boolean dispatch(Socket socket, Runnable handler, String busyReply) {
+        try {
+            shared().execute(handler);
+            return true;
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            logger.warning("Handlers saturated, rejecting connection from " + socket.getRemoteSocketAddress());
+            try (socket) {
+                if (busyReply != null) {
+                    // Une réponse aussi courte tient dans le tampon d'envoi d'une connexion neuve
+                    socket.getOutputStream().write((busyReply + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException closeError) {
+                // Le client est déjà parti
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Renvoie le planificateur partagé des tâches périodiques des utilisateurs de la JVM (tours de rumeur,
+     * renouvellement des baux), créé au premier appel avec un thread par processeur.
+     *
+     * @return Le planificateur, dont les threads sont des démons.
+     */
+    public static ScheduledExecutorService timers() {
+        if (timers == null) {
+            synchronized (HandlerExecutors.class) {
+                if (timers == null) {
+                    timers = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("timer"));
+                }
+            }
+        }
+        return timers;
+    }
+
+    /**
+     * Crée un exécuteur pour le mode donné.
+     *
+     * @param mode Le mode d'exécution.
+     * @param poolSize La taille du pool en mode {@link Mode#POOL} (ignorée sinon).
+     * @param name Le préfixe du nom des threads créés.
+     * @return Le nouvel exécuteur.
+     */
+    public static ExecutorService create(Mode mode, int poolSize, String name) {
+        switch (mode) {
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                logger.warning("Virtual threads require Java 21, falling back to a bounded pool");
+                return create(Mode.POOL, poolSize, name);
+            case POOL:
+                return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(poolSize * 64), daemonThreads(name),
+                        new ThreadPoolExecutor.AbortPolicy());
+            case THREAD:
+            default:
+                return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), daemonThreads(name));
+        }
+    }
+
+    /**
+     * Démarre une boucle d'écoute de longue durée (par exemple une boucle {@code accept}).
+     * En mode virtuel, la boucle tourne dans un thread virtuel de l'exécuteur partagé ; sinon elle
+     * dispose de son propre thread système, pour ne pas occuper un thread du pool borné.
+     * Les threads virtuels étant des démons, un unique thread système maintient alors la JVM en vie.
+     *
+     * @param name Le nom du thread.
+     * @param loop La boucle à exécuter.
+     */
+    public static void startLoop(String name, Runnable loop) {
+        ExecutorService executor = shared();
+        if (sharedMode == Mode.VIRTUAL) {
+            synchronized (HandlerExecutors.class) {
+                if (keepAlive == null) {
+                    keepAlive = new Thread(() -> {
+                        try {
+                            Thread.sleep(Long.MAX_VALUE);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }, "virtual-loops-keep-alive");
+                    keepAlive.start();
+                }
+            }
+            executor.execute(loop);
+        } else {
+            new Thread(loop, name).start();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,7 +1,14 @@
 import java.util.Random;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * La classe Influencer est une extension de la classe User, qui permet à l'utilisateur
@@ -19,6 +26,11 @@ import java.util.Scanner;
  */
 public class Influencer extends User {
 
+    /** Nombre maximal de connexions simultanées ouvertes lors d'une diffusion. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private volatile int relayFanout;
+
     /**
      * Constructeur de la classe Influencer.
      *
@@ -33,6 +45,21 @@ public class Influencer extends User {
         super(id, opinion, influence, serverIp, serverPort, port);
     }
 
+    /**
+     * Constructeur de la classe Influencer, communiquant par le transport donné.
+     *
+     * @param id L'identifiant de l'utilisateur.
+     * @param opinion L'opinion initiale de l'utilisateur.
+     * @param influence L'influence initiale de l'utilisateur.
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param port Le port de l'utilisateur.
+     * @param transport Le transport utilisé pour communiquer.
+     */
+    public Influencer(String id, double opinion, double influence, String serverIp, int serverPort, int port, Transport transport) {
+        super(id, opinion, influence, serverIp, serverPort, port, transport);
+    }
+
     /**
      * Diffuse un message à une liste de destinataires sur un sujet donné en utilisant le protocole TCP.
      *
@@ -40,14 +67,102 @@ public class Influencer extends User {
      * @param topic Le sujet du message.
      */
     public void broadcastMessage(List<String> recipientIds, String topic) {
+        broadcastMessage(recipientIds, topic, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Diffuse un message à une liste de destinataires en parallèle.
+     * Les destinataires sont résolus dans la vue partielle de l'annuaire si l'échange est démarré, puis en une
+     * recherche groupée auprès du serveur pour les autres ; les messages sont envoyés avec au plus
+     * {@code maxInFlight} connexions ouvertes simultanément : la durée de la diffusion dépend du destinataire
+     * le plus lent plutôt que de la somme de tous. En mode relais ({@link #setRelayFanout(int)}), l'influenceur
+     * n'envoie le message qu'aux racines des sous-arbres, et le nombre renvoyé est celui des destinataires remis
+     * à un relais. Le message est encodé une seule fois ({@link EncodedMessage}) ; par TCP, il est écrit tel
+     * quel à chaque destinataire.
+     *
+     * @param recipientIds La liste des identifiants des destinataires.
+     * @param topic Le sujet du message.
+     * @param maxInFlight Le nombre maximal d'envois simultanés.
+     * @return Le nombre de destinataires ayant reçu le message.
+     */
+    public int broadcastMessage(List<String> recipientIds, String topic, int maxInFlight) {
+        Map<String, UserInfo> recipients = lookupUsers(recipientIds);
         for (String recipientId : recipientIds) {
-            UserInfo recipientInfo = serverProxy.getUserInfo(recipientId);
-            if (recipientInfo != null) {
-                sendMessage(recipientId, topic);
-            } else {
+            if (!recipients.containsKey(recipientId)) {
                 logger.warning("User info for " + recipientId + " not found. Skipping message.");
             }
         }
+        return broadcast(recipients, topic, maxInFlight);
+    }
+
+    /**
+     * Diffuse un message à tous les utilisateurs enregistrés auprès du serveur, sauf l'influenceur lui-même.
+     *
+     * @param topic Le sujet du message.
+     * @return Le nombre de destinataires ayant reçu le message.
+     */
+    public int broadcastToAll(String topic) {
+        Map<String, UserInfo> recipients = serverProxy.getAllUsers();
+        recipients.remove(getId());
+        return broadcast(recipients, topic, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Choisit le mode de diffusion : envoi direct à chaque destinataire, ou arbre de relais ({@link RelayTree}).
+     *
+     * @param relayFanout Le nombre de sous-arbres de l'arbre de relais, ou 0 pour l'envoi direct.
+     */
+    public void setRelayFanout(int relayFanout) {
+        if (relayFanout < 0 || relayFanout > 0xFF) {
+            throw new IllegalArgumentException("Relay fan-out must be between 0 and 255: " + relayFanout);
+        }
+        this.relayFanout = relayFanout;
+    }
+
+    private int broadcast(Map<String, UserInfo> recipients, String topic, int maxInFlight) {
+        if (recipients.isEmpty()) {
+            return 0;
+        }
+        int fanout = relayFanout;
+        if (fanout > 0) {
+            RelayTree.Relay relay = new RelayTree.Relay(fanout, topic, getOpinion(topic), recipients);
+            int delivered = RelayTree.disseminate(transport, relay);
+            logger.info("Influencer " + getId() + " relayed topic " + topic + " to " + delivered + "/" + recipients.size() + " recipients");
+            return delivered;
+        }
+
+        EncodedMessage message = EncodedMessage.peerMessage(topic, getOpinion(topic));
+        List<Callable<Boolean>> sends = new ArrayList<>(recipients.size());
+        for (Map.Entry<String, UserInfo> recipient : recipients.entrySet()) {
+            sends.add(() -> sendMessage(recipient.getKey(), recipient.getValue(), topic, message));
+        }
+
+        ExecutorService senders = Executors.newFixedThreadPool(Math.max(1, Math.min(maxInFlight, sends.size())), task -> {
+            Thread thread = new Thread(task, "influencer-" + getId() + "-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int delivered = 0;
+        try {
+            for (Future<Boolean> result : senders.invokeAll(sends)) {
+                if (result.get()) {
+                    delivered++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Broadcast on topic " + topic + " interrupted");
+        } catch (ExecutionException e) {
+            logger.warning("Broadcast on topic " + topic + " failed: " + e.getCause());
+        } finally {
+            senders.shutdownNow();
+            // Après une interruption, des envois peuvent encore lire le tampon : il n'est alors pas rendu au pool
+            if (!Thread.currentThread().isInterrupted()) {
+                message.close();
+            }
+        }
+        logger.info("Influencer " + getId() + " broadcast topic " + topic + " to " + delivered + "/" + recipients.size() + " recipients");
+        return delivered;
     }
 
     /**
@@ -56,11 +171,11 @@ public class Influencer extends User {
      * avec les arguments de la ligne de commande.
      *
      * @param args Arguments de la ligne de commande au format :
-     *             --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port>
+     *             --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port> [--relay=<sous-arbres>]
      */
     public static void main(String[] args) {
         if (args.length < 4) {
-            System.out.println("Utilisation : java Influencer --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port>");
+            System.out.println("Utilisation : java Influencer --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port> [--relay=<sous-arbres>]");
             return;
         }
 
@@ -74,18 +189,25 @@ public class Influencer extends User {
         double influence = random.nextDouble();
 
         Influencer influencer = new Influencer(id, opinion, influence, serverIp, serverPort, port);
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].startsWith("--relay=")) {
+                influencer.setRelayFanout(Integer.parseInt(args[i].split("=")[1]));
+            }
+        }
 
         // Utiliser un Scanner pour lire les commandes interactives
         Scanner scanner = new Scanner(System.in);
-        System.out.println("Entrez les commandes. Pour diffuser un message, utilisez la commande : broadcast <topic>");
+        System.out.println("Entrez les commandes. Pour diffuser un message à tous les utilisateurs, utilisez la commande : "
+                + "broadcast <topic> ; à certains utilisateurs : broadcast <topic> <id1>,<id2>,...");
 
         while (true) {
             System.out.print("> ");
             String command = scanner.nextLine();
             if (command.startsWith("broadcast ")) {
-                String topic = command.substring(10);
-                List<String> recipientIds = Arrays.asList("user1", "user2"); // Destinataires par défaut
-                influencer.broadcastMessage(recipientIds, topic);
+                String[] parts = command.substring(10).trim().split("\\s+", 2);
+                int delivered = parts.length > 1 ? influencer.broadcastMessage(Arrays.asList(parts[1].split(",")), parts[0], DEFAULT_MAX_IN_FLIGHT)
+                        : influencer.broadcastToAll(parts[0]);
+                System.out.println("Message diffusé à " + delivered + " utilisateurs");
             } else {
                 System.out.println("Commande inconnue : " + command);
             }
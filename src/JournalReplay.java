@@ -0,0 +1,405 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * La classe JournalReplay relit un journal de mises à jour d'opinion ({@link OpinionJournal}) hors ligne.
+ *
+ * <p>
+ * Les segments sont lus dans l'ordre par projection en mémoire, sans allocation par enregistrement : chaque
+ * mise à jour est transmise à un {@link Visitor} avec les identifiants entiers de l'utilisateur et du sujet,
+ * dont les noms s'obtiennent par {@link #userName(int)} et {@link #topicName(int)}. Le rejeu atteint ainsi
+ * plusieurs millions de mises à jour par seconde.
+ * </p>
+ *
+ * <p>
+ * Chaque segment numérote ses noms à sa façon (le journal a pu être rouvert, ou écrit par plusieurs
+ * processus) : le rejeu traduit les identifiants de chaque segment, d'après ses définitions, en identifiants
+ * propres au rejeu, si bien qu'un même nom garde le même identifiant sur tout le journal.
+ * </p>
+ *
+ * <p>
+ * L'outil en ligne de commande reconstruit l'état final des opinions ({@code --mode=state}), éventuellement
+ * exporté en CSV, ou rejoue un sujet dans un {@link PolarizationHistogram}, comme le mode incrémental du
+ * {@link Polarimeter} ({@code --mode=polarization}).
+ * </p>
+ */
+public class JournalReplay {
+    private static final Logger logger = Logger.getLogger(JournalReplay.class.getName());
+
+    private final List<String> users = new ArrayList<>();
+    private final List<String> topics = new ArrayList<>();
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final Map<String, Integer> topicIds = new HashMap<>();
+
+    /**
+     * Reçoit les mises à jour rejouées, dans l'ordre du journal.
+     */
+    public interface Visitor {
+        /**
+         * Appelée pour chaque mise à jour d'opinion.
+         *
+         * @param timestamp L'instant de la mise à jour (en millisecondes depuis l'époque Unix).
+         * @param user L'identifiant entier de l'utilisateur, propre au rejeu.
+         * @param topic L'identifiant entier du sujet, propre au rejeu, ou {@code -1} pour l'opinion générale.
+         * @param previous L'opinion avant la mise à jour.
+         * @param current L'opinion après la mise à jour.
+         * @param influence Le poids de la mise à jour, ou NaN s'il est inconnu.
+         * @param source Le rang de la cause dans {@link OpinionListener.Source}, ou -1 si elle est inconnue.
+         */
+        void event(long timestamp, int user, int topic, double previous, double current, double influence, int source);
+    }
+
+    /**
+     * Renvoie les segments d'un journal, dans l'ordre.
+     *
+     * @param directory Le dossier du journal.
+     * @return Les chemins des segments.
+     * @throws IOException Si le dossier ne peut pas être lu.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.seg")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        segments.sort((a, b) -> Integer.compare(segmentIndex(a), segmentIndex(b)));
+        return segments;
+    }
+
+    /**
+     * Renvoie le numéro d'un segment d'après le nom de son fichier.
+     *
+     * @param segment Le chemin du segment.
+     * @return Le numéro du segment.
+     */
+    static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".seg".length()));
+    }
+
+    /**
+     * Renvoie le nom d'un utilisateur rencontré pendant le rejeu.
+     *
+     * @param user L'identifiant entier de l'utilisateur.
+     * @return Le nom de l'utilisateur.
+     */
+    public String userName(int user) {
+        return users.get(user);
+    }
+
+    /**
+     * Renvoie le nom d'un sujet rencontré pendant le rejeu.
+     *
+     * @param topic L'identifiant entier du sujet.
+     * @return Le nom du sujet, ou null pour l'opinion générale.
+     */
+    public String topicName(int topic) {
+        return topic == OpinionJournal.GENERAL_TOPIC ? null : topics.get(topic);
+    }
+
+    /**
+     * Renvoie l'identifiant entier d'un sujet rencontré pendant le rejeu.
+     *
+     * @param topic Le nom du sujet.
+     * @return L'identifiant, ou {@code -2} si le sujet n'est pas apparu.
+     */
+    public int topicId(String topic) {
+        return topicIds.getOrDefault(topic, -2);
+    }
+
+    /**
+     * Renvoie le nombre d'utilisateurs rencontrés pendant le rejeu.
+     *
+     * @return Le nombre d'utilisateurs.
+     */
+    public int userCount() {
+        return users.size();
+    }
+
+    /**
+     * Rejoue toutes les mises à jour d'un journal.
+     *
+     * @param directory Le dossier du journal.
+     * @param visitor Le destinataire des mises à jour.
+     * @return Le nombre de mises à jour rejouées.
+     * @throws IOException Si un segment ne peut pas être lu ou est invalide.
+     */
+    public long replay(Path directory, Visitor visitor) throws IOException {
+        long events = 0;
+        for (Path segment : segments(directory)) {
+            events += replaySegment(segment, visitor);
+        }
+        return events;
+    }
+
+    private long replaySegment(Path path, Visitor visitor) throws IOException {
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(path)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (segment.limit() < OpinionJournal.HEADER_SIZE || segment.getInt(0) != OpinionJournal.MAGIC) {
+            throw new IOException("Not an opinion journal segment: " + path);
+        }
+        if (segment.getInt(4) != OpinionJournal.VERSION) {
+            throw new IOException("Unsupported journal version " + segment.getInt(4) + " in " + path);
+        }
+        long events = 0;
+        // Identifiants du segment vers identifiants du rejeu
+        int[] segmentUsers = new int[0];
+        int[] segmentTopics = new int[0];
+        int position = OpinionJournal.HEADER_SIZE;
+        int limit = segment.limit();
+        while (position < limit) {
+            byte type = segment.get(position);
+            if (type == OpinionJournal.EVENT && position + OpinionJournal.EVENT_SIZE <= limit) {
+                int user = segment.getInt(position + 4);
+                int topic = segment.getInt(position + 8);
+                if (user < 0 || user >= segmentUsers.length || segmentUsers[user] < 0
+                        || topic != OpinionJournal.GENERAL_TOPIC && (topic < 0 || topic >= segmentTopics.length || segmentTopics[topic] < 0)) {
+                    // Enregistrement partiellement écrit sur le disque avant un arrêt brutal
+                    logger.warning("Torn record at offset " + position + " in " + path + ", ignoring the rest of the segment");
+                    break;
+                }
+                visitor.event(segment.getLong(position + 12), segmentUsers[user],
+                        topic == OpinionJournal.GENERAL_TOPIC ? topic : segmentTopics[topic],
+                        segment.getDouble(position + 20), segment.getDouble(position + 28), segment.getDouble(position + 36),
+                        segment.get(position + 1));
+                position += OpinionJournal.EVENT_SIZE;
+                events++;
+            } else if ((type == OpinionJournal.USER || type == OpinionJournal.TOPIC) && position + 7 <= limit) {
+                int id = segment.getInt(position + 1);
+                int length = segment.getShort(position + 5) & 0xFFFF;
+                if (id < 0 || position + 7 + length > limit) {
+                    // Définition tronquée par un arrêt brutal : fin des enregistrements du segment
+                    break;
+                }
+                byte[] name = new byte[length];
+                segment.get(position + 7, name);
+                String decoded = new String(name, StandardCharsets.UTF_8);
+                if (type == OpinionJournal.USER) {
+                    segmentUsers = define(segmentUsers, id, intern(users, userIds, decoded));
+                } else {
+                    segmentTopics = define(segmentTopics, id, intern(topics, topicIds, decoded));
+                }
+                position += 7 + length;
+            } else {
+                // Octet nul : fin des enregistrements du segment
+                break;
+            }
+        }
+        return events;
+    }
+
+    private static int[] define(int[] mapping, int id, int replayId) {
+        if (id >= mapping.length) {
+            int length = mapping.length;
+            mapping = Arrays.copyOf(mapping, Math.max(id + 1, 2 * length));
+            Arrays.fill(mapping, length, mapping.length, -1);
+        }
+        mapping[id] = replayId;
+        return mapping;
+    }
+
+    private static int intern(List<String> names, Map<String, Integer> ids, String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Méthode principale de l'outil de rejeu.
+     *
+     * @param args Arguments de la ligne de commande au format :
+     *             --journal=<dossier> [--mode=state|polarization] [--out=<fichier CSV de l'état final>]
+     *             [--topic=<sujet>] [--bins=<bins>] [--alpha=<alpha>] [--k=<K>]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Utilisation : java JournalReplay --journal=<dossier> [--mode=state|polarization] [--out=<fichier.csv>] [--topic=<sujet>] [--bins=<bins>] [--alpha=<alpha>] [--k=<K>]");
+            return;
+        }
+        Path directory = null;
+        String mode = "state";
+        Path out = null;
+        String topic = null;
+        int bins = PolarizationHistogram.DEFAULT_BINS;
+        double alpha = PolarizationHistogram.DEFAULT_ALPHA;
+        double k = PolarizationHistogram.DEFAULT_K;
+        for (String arg : args) {
+            String value = arg.split("=")[1];
+            if (arg.startsWith("--journal=")) {
+                directory = Paths.get(value);
+            } else if (arg.startsWith("--mode=")) {
+                mode = value;
+            } else if (arg.startsWith("--out=")) {
+                out = Paths.get(value);
+            } else if (arg.startsWith("--topic=")) {
+                topic = value;
+            } else if (arg.startsWith("--bins=")) {
+                bins = Integer.parseInt(value);
+            } else if (arg.startsWith("--alpha=")) {
+                alpha = Double.parseDouble(value);
+            } else if (arg.startsWith("--k=")) {
+                k = Double.parseDouble(value);
+            }
+        }
+
+        try {
+            JournalReplay replay = new JournalReplay();
+            long start = System.nanoTime();
+            long events;
+            if (mode.equals("polarization")) {
+                if (topic == null) {
+                    System.out.println("--topic=<sujet> est requis en mode polarization");
+                    return;
+                }
+                PolarizationReplay polarization = new PolarizationReplay(replay, topic, new PolarizationHistogram(bins, alpha, k));
+                events = replay.replay(directory, polarization);
+                printThroughput(events, start);
+                System.out.println("Polarization on topic " + topic + " is " + polarization.histogram.getPolarization()
+                        + " " + Arrays.toString(polarization.histogram.getCounts()));
+            } else {
+                StateReplay state = new StateReplay(replay);
+                events = replay.replay(directory, state);
+                printThroughput(events, start);
+                System.out.println("Rebuilt opinions of " + replay.userCount() + " users on " + replay.topics.size() + " topics");
+                if (out != null) {
+                    state.write(out);
+                    System.out.println("Final opinions written to " + out);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void printThroughput(long events, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Replayed %d updates in %.3f s (%.0f updates/s)%n", events, seconds, events / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Reconstruit la dernière opinion générale et la dernière opinion sur chaque sujet de chaque utilisateur.
+     */
+    private static final class StateReplay implements Visitor {
+        private final JournalReplay replay;
+        private final List<TopicOpinionStore> topicOpinions = new ArrayList<>();
+        private double[] generalOpinions = new double[0];
+
+        StateReplay(JournalReplay replay) {
+            this.replay = replay;
+        }
+
+        @Override
+        public void event(long timestamp, int user, int topic, double previous, double current, double influence, int source) {
+            if (user >= generalOpinions.length) {
+                int length = generalOpinions.length;
+                generalOpinions = Arrays.copyOf(generalOpinions, Math.max(user + 1, 2 * length));
+                Arrays.fill(generalOpinions, length, generalOpinions.length, Double.NaN);
+            }
+            if (topic == OpinionJournal.GENERAL_TOPIC) {
+                generalOpinions[user] = current;
+                return;
+            }
+            while (topicOpinions.size() <= user) {
+                topicOpinions.add(null);
+            }
+            TopicOpinionStore store = topicOpinions.get(user);
+            if (store == null) {
+                store = new TopicOpinionStore();
+                topicOpinions.set(user, store);
+            }
+            store.put(replay.topicName(topic), current);
+        }
+
+        void write(Path out) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(out)) {
+                writer.write("user,topic,opinion\n");
+                for (int user = 0; user < replay.userCount(); user++) {
+                    String name = replay.userName(user);
+                    if (user < generalOpinions.length && !Double.isNaN(generalOpinions[user])) {
+                        writer.write(name + ",," + generalOpinions[user] + "\n");
+                    }
+                    TopicOpinionStore store = user < topicOpinions.size() ? topicOpinions.get(user) : null;
+                    if (store == null) {
+                        continue;
+                    }
+                    for (int topic = 0; topic < replay.topics.size(); topic++) {
+                        double opinion = store.get(replay.topicName(topic), Double.NaN);
+                        if (!Double.isNaN(opinion)) {
+                            writer.write(name + "," + replay.topicName(topic) + "," + opinion + "\n");
+                        }
+                    }
+                }
+            }
+            logger.fine("Wrote final opinions to " + out);
+        }
+    }
+
+    /**
+     * Rejoue les mises à jour d'un sujet dans un histogramme de polarisation. Un utilisateur est compté à
+     * partir de sa première mise à jour sur le sujet, dans le bin de son opinion avant cette mise à jour.
+     */
+    private static final class PolarizationReplay implements Visitor {
+        private final JournalReplay replay;
+        private final String topicName;
+        private final PolarizationHistogram histogram;
+        private int topic = -2;
+        private int knownTopics;
+        private int[] bins = new int[1024];
+
+        PolarizationReplay(JournalReplay replay, String topicName, PolarizationHistogram histogram) {
+            this.replay = replay;
+            this.topicName = topicName;
+            this.histogram = histogram;
+            Arrays.fill(bins, -1);
+        }
+
+        @Override
+        public void event(long timestamp, int user, int topicId, double previous, double current, double influence, int source) {
+            if (topic < 0 && replay.topics.size() != knownTopics) {
+                // Le sujet est défini dans le journal juste avant sa première mise à jour
+                knownTopics = replay.topics.size();
+                topic = replay.topicId(topicName);
+            }
+            if (topicId != topic) {
+                return;
+            }
+            if (user >= bins.length) {
+                int length = bins.length;
+                bins = Arrays.copyOf(bins, Math.max(user + 1, 2 * length));
+                Arrays.fill(bins, length, bins.length, -1);
+            }
+            int from = bins[user];
+            if (from < 0) {
+                from = histogram.binOf(previous);
+                histogram.add(from, 1);
+            }
+            int to = histogram.binOf(current);
+            if (to != from) {
+                histogram.move(from, to);
+            }
+            bins[user] = to;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * La classe LatencyHistogram enregistre des durées (en nanosecondes) et en donne les percentiles.
+ *
+ * <p>
+ * Les durées sont réparties dans des intervalles log-linéaires : chaque puissance de deux est découpée en
+ * {@code 2^SUB_BUCKET_BITS} intervalles de même largeur, ce qui borne l'erreur relative d'un percentile à
+ * environ 3 %, de la nanoseconde à plusieurs jours, avec un tableau de taille fixe. L'enregistrement est
+ * sans verrou et peut être appelé par plusieurs threads à la fois : les effectifs sont répartis entre
+ * plusieurs copies du tableau, choisies selon le thread, pour que des threads enregistrant des durées
+ * voisines n'incrémentent pas la même case.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Enregistre une durée.
+     *
+     * @param nanos La durée en nanosecondes ; une durée négative compte pour zéro.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = System.identityHashCode(Thread.currentThread()) & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + indexOf(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Renvoie le nombre de durées enregistrées.
+     *
+     * @return Le nombre de durées.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Renvoie la durée moyenne.
+     *
+     * @return La moyenne en nanosecondes, ou 0 si aucune durée n'a été enregistrée.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Renvoie la plus grande durée enregistrée.
+     *
+     * @return La durée maximale en nanosecondes.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Renvoie le percentile demandé, c'est-à-dire la durée en dessous de laquelle se trouve la proportion
+     * donnée des durées enregistrées.
+     *
+     * @param percentile Le percentile, entre 0 et 100 (par exemple 99.9).
+     * @return La borne supérieure de l'intervalle contenant ce percentile, en nanosecondes.
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < STRIPES * BUCKETS; i++) {
+            snapshot[i % BUCKETS] += counts.get(i);
+        }
+        for (long bucket : snapshot) {
+            n += bucket;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Remet l'histogramme à zéro. Les durées enregistrées pendant la remise à zéro peuvent être perdues.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES * BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
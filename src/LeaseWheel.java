@@ -0,0 +1,200 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * La classe LeaseWheel suit des baux à durée limitée et signale ceux qui expirent sans avoir été renouvelés.
+ *
+ * <p>
+ * Les baux sont rangés dans une roue temporelle hachée : un tableau de {@code slots} cases, chacune couvrant
+ * un intervalle de {@code tick} millisecondes. Un thread avance la roue d'une case à chaque intervalle et
+ * n'examine que les baux de cette case, si bien que le coût d'un tour ne dépend pas du nombre total de baux.
+ * Un bail dont l'échéance dépasse un tour de roue reste dans sa case et y est réexaminé au tour suivant.
+ * </p>
+ *
+ * <p>
+ * Renouveler un bail ne fait que repousser son échéance, sans le déplacer dans la roue : quand sa case est
+ * examinée, un bail renouvelé est simplement rangé dans la case de sa nouvelle échéance. Un renouvellement,
+ * fréquent, ne coûte ainsi qu'une écriture dans une {@link ConcurrentHashMap}.
+ * </p>
+ */
+public class LeaseWheel implements Closeable {
+    private static final Logger logger = Logger.getLogger(LeaseWheel.class.getName());
+
+    /** Nombre de cases de la roue par défaut. */
+    public static final int DEFAULT_SLOTS = 512;
+
+    private final long tickNanos;
+    private final List<List<Lease>> slots;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Consumer<String> onExpire;
+    private final long origin = System.nanoTime();
+    private final ScheduledExecutorService ticker;
+    private volatile long processedTick;
+
+    /**
+     * Constructeur de la classe LeaseWheel ; la roue commence à tourner aussitôt.
+     *
+     * @param tickMs La durée couverte par une case (en millisecondes), qui borne le retard d'une expiration.
+     * @param slotCount Le nombre de cases de la roue.
+     * @param onExpire Appelé, dans le thread de la roue, avec l'identifiant de chaque bail expiré.
+     */
+    public LeaseWheel(long tickMs, int slotCount, Consumer<String> onExpire) {
+        if (tickMs < 1 || slotCount < 1) {
+            throw new IllegalArgumentException("Tick and slot count must be positive: " + tickMs + ", " + slotCount);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.onExpire = onExpire;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "lease-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accorde un bail ou repousse l'échéance d'un bail en cours.
+     *
+     * @param id L'identifiant du bail.
+     * @param ttlMs La durée du bail à partir de maintenant (en millisecondes).
+     */
+    public void renew(String id, long ttlMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        Lease created = new Lease(id, deadline);
+        if (leases.compute(id, (key, current) -> current != null ? current.extend(deadline) : created) == created) {
+            schedule(created, processedTick + 1);
+        }
+    }
+
+    /**
+     * Met fin à un bail sans le signaler comme expiré.
+     *
+     * @param id L'identifiant du bail.
+     */
+    public void cancel(String id) {
+        leases.remove(id);
+    }
+
+    /**
+     * Indique si un bail est en cours.
+     *
+     * @param id L'identifiant du bail.
+     * @return true si le bail a été accordé et n'a ni expiré ni été annulé.
+     */
+    public boolean isActive(String id) {
+        return leases.containsKey(id);
+    }
+
+    /**
+     * Renvoie le nombre de baux en cours.
+     *
+     * @return Le nombre de baux.
+     */
+    public int size() {
+        return leases.size();
+    }
+
+    /**
+     * Arrête la roue : plus aucun bail n'expire.
+     */
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - origin) / tickNanos;
+    }
+
+    /**
+     * Range un bail dans la case de son échéance, ou dans la case {@code firstTick} si la roue a déjà dépassé
+     * son échéance.
+     */
+    private void schedule(Lease lease, long firstTick) {
+        long tick = Math.max(tickOf(lease.deadline), firstTick);
+        List<Lease> slot = slots.get((int) Math.floorMod(tick, (long) slots.size()));
+        synchronized (slot) {
+            slot.add(lease);
+        }
+    }
+
+    /**
+     * Examine les cases dont l'intervalle est écoulé depuis le tour précédent.
+     */
+    private void advance() {
+        try {
+            long now = System.nanoTime();
+            long target = tickOf(now);
+            List<String> expired = new ArrayList<>();
+            // Au-delà d'un tour de retard, chaque case n'a besoin d'être examinée qu'une fois
+            for (long tick = Math.max(processedTick + 1, target - slots.size() + 1); tick <= target; tick++) {
+                List<Lease> slot = slots.get((int) Math.floorMod(tick, (long) slots.size()));
+                List<Lease> due;
+                synchronized (slot) {
+                    due = new ArrayList<>(slot);
+                    slot.clear();
+                }
+                for (Lease lease : due) {
+                    expire(lease, now, target + 1, expired);
+                }
+            }
+            processedTick = target;
+            for (String id : expired) {
+                onExpire.accept(id);
+            }
+        } catch (RuntimeException e) {
+            logger.warning("Lease expiry failed: " + e);
+        }
+    }
+
+    /**
+     * Retire un bail échu, ou le range dans la case de son échéance s'il a été renouvelé entre-temps. La
+     * vérification de l'échéance et le retrait sont faits sous le verrou de la carte, comme un renouvellement.
+     */
+    private void expire(Lease lease, long now, long nextTick, List<String> expired) {
+        leases.computeIfPresent(lease.id, (key, current) -> {
+            if (current == lease && lease.deadline - now <= 0) {
+                lease.expired = true;
+                return null;
+            }
+            return current;
+        });
+        if (lease.expired) {
+            expired.add(lease.id);
+        } else if (leases.get(lease.id) == lease) {
+            schedule(lease, nextTick);
+        }
+    }
+
+    /**
+     * Un bail : son identifiant et son échéance ({@link System#nanoTime()}). Un bail annulé ou expiré n'est
+     * jamais réutilisé ; un nouveau bail du même identifiant est un nouvel objet, rangé une seule fois dans la roue.
+     */
+    private static final class Lease {
+        private final String id;
+        private volatile long deadline;
+        private volatile boolean expired;
+
+        Lease(String id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+
+        Lease extend(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+    }
+}
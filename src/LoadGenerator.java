@@ -0,0 +1,441 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * La classe LoadGenerator est un outil de test de charge : elle démarre un {@link Server} et des clients
+ * synthétiques dans la même JVM, sur l'interface locale ou en mémoire ({@link LoopbackTransport}), et mesure
+ * le débit et la latence du serveur et de la messagerie entre utilisateurs.
+ *
+ * <p>
+ * Chaque client a son propre canal vers le serveur et émet quatre types d'opérations, chacun à un débit
+ * cible : enregistrements ({@code USER}), recherches ({@code GET_USER_INFO}), propositions de sujets
+ * ({@code PROPOSER}) et messages envoyés à des utilisateurs récepteurs. La charge est en boucle ouverte :
+ * la latence d'une opération est comptée à partir de l'instant où elle aurait dû partir, et non de celui où
+ * elle est effectivement partie, de sorte qu'un serveur saturé n'est pas masqué par des clients qui ralentissent
+ * avec lui. Les latences sont enregistrées dans un {@link LatencyHistogram} par type d'opération.
+ * </p>
+ *
+ * <p>
+ * Avec {@code --steps=<n>}, la charge est appliquée par paliers de débit croissant (1, 2, ..., n fois les débits
+ * demandés) : le point de saturation est le palier où le débit obtenu décroche du débit cible et où les
+ * percentiles élevés s'envolent.
+ * </p>
+ *
+ * <p>
+ * Si le serveur fait partie d'un annuaire partitionné ({@link ShardRing}), chaque client ouvre un canal vers
+ * chaque partition et route ses requêtes comme {@link ServerProxy}. Avec {@code --shards=<n>}, le test démarre
+ * lui-même {@code n} serveurs partitionnés, sur des ports consécutifs.
+ * </p>
+ */
+public class LoadGenerator {
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    /** Les types d'opérations émises par les clients. */
+    public enum Operation {
+        REGISTER, LOOKUP, PROPOSE, MESSAGE
+    }
+
+    private final Transport transport;
+    private final String serverIp;
+    private final int serverPort;
+    private final List<UserInfo> sinks;
+    private final ShardRing ring;
+    private final AtomicInteger registeredUsers = new AtomicInteger();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    /**
+     * Constructeur de la classe LoadGenerator.
+     *
+     * @param transport Le transport utilisé par les clients.
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param sinks Les adresses des utilisateurs qui reçoivent les messages et les notifications.
+     */
+    public LoadGenerator(Transport transport, String serverIp, int serverPort, List<UserInfo> sinks) {
+        this.transport = transport;
+        this.serverIp = serverIp;
+        this.serverPort = serverPort;
+        this.sinks = sinks;
+        this.ring = discoverShards();
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    private ShardRing discoverShards() {
+        try (ServerChannel channel = transport.connect(serverIp, serverPort)) {
+            return ShardRing.discover(channel);
+        } catch (IOException e) {
+            logger.warning("Shard discovery failed, using a single server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ouvre un canal vers chaque partition de l'annuaire, ou vers le seul serveur s'il n'est pas partitionné.
+     */
+    private ServerChannel[] connect() {
+        if (ring == null) {
+            return new ServerChannel[] {transport.connect(serverIp, serverPort)};
+        }
+        ServerChannel[] channels = new ServerChannel[ring.size()];
+        for (int i = 0; i < channels.length; i++) {
+            String shard = ring.getShards().get(i);
+            channels[i] = transport.connect(ShardRing.hostOf(shard), ShardRing.portOf(shard));
+        }
+        return channels;
+    }
+
+    private static void close(ServerChannel[] channels) {
+        for (ServerChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private ServerChannel channelFor(ServerChannel[] channels, String userId) {
+        return ring == null ? channels[0] : channels[ring.shardOf(userId)];
+    }
+
+    /**
+     * Enregistre des utilisateurs synthétiques avant la mesure, afin que les recherches et les notifications
+     * portent sur un annuaire déjà peuplé. Chacun est associé au port d'un utilisateur récepteur.
+     *
+     * @param count Le nombre d'utilisateurs à enregistrer.
+     * @throws IOException Si le serveur ne répond pas.
+     */
+    public void populate(int count) throws IOException {
+        ServerChannel[] channels = connect();
+        try {
+            for (int i = 0; i < count; i++) {
+                register(channels);
+            }
+        } finally {
+            close(channels);
+        }
+        logger.info("Registered " + count + " synthetic users");
+    }
+
+    /**
+     * Applique une charge pendant une durée donnée puis renvoie les mesures de chaque type d'opération.
+     *
+     * @param clients Le nombre de clients.
+     * @param rates Le débit cible de chaque type d'opération, en opérations par seconde pour l'ensemble des clients ;
+     *              un débit nul désactive l'opération.
+     * @param warmupMs La durée de chauffe, non mesurée (en millisecondes).
+     * @param durationMs La durée de la mesure (en millisecondes).
+     * @return Les mesures, par type d'opération.
+     * @throws InterruptedException Si le thread est interrompu pendant la charge.
+     */
+    public Map<Operation, Result> run(int clients, Map<Operation, Double> rates, long warmupMs, long durationMs)
+            throws InterruptedException {
+        for (Operation operation : Operation.values()) {
+            latencies.get(operation).reset();
+            errors.get(operation).reset();
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + warmupMs * 1_000_000L;
+        long end = measureFrom + durationMs * 1_000_000L;
+        long[] intervals = new long[Operation.values().length];
+        for (Operation operation : Operation.values()) {
+            double rate = rates.getOrDefault(operation, 0.0);
+            intervals[operation.ordinal()] = rate > 0 ? Math.max(1, (long) (clients * 1e9 / rate)) : 0;
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> runClient(intervals, start, measureFrom, end), "load-client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<Operation, Result> results = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            if (intervals[operation.ordinal()] > 0) {
+                results.put(operation, new Result(operation, rates.get(operation), latencies.get(operation),
+                        errors.get(operation).sum(), durationMs));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Boucle d'un client : émet chaque opération à son instant prévu, jusqu'à la fin de la charge.
+     */
+    private void runClient(long[] intervals, long start, long measureFrom, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] next = new long[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            // Décale les clients pour ne pas émettre toutes leurs opérations au même instant
+            next[i] = intervals[i] > 0 ? start + random.nextLong(intervals[i]) : Long.MAX_VALUE;
+        }
+        ServerChannel[] channels = connect();
+        try {
+            while (true) {
+                int op = 0;
+                for (int i = 1; i < next.length; i++) {
+                    if (next[i] < next[op]) {
+                        op = i;
+                    }
+                }
+                long due = next[op];
+                if (due >= end || System.nanoTime() >= end) {
+                    return;
+                }
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                Operation operation = Operation.values()[op];
+                boolean succeeded = execute(operation, channels, random);
+                long latency = System.nanoTime() - due;
+                if (due >= measureFrom) {
+                    latencies.get(operation).record(latency);
+                    if (!succeeded) {
+                        errors.get(operation).increment();
+                    }
+                }
+                next[op] = due + intervals[op];
+            }
+        } finally {
+            close(channels);
+        }
+    }
+
+    private boolean execute(Operation operation, ServerChannel[] channels, ThreadLocalRandom random) {
+        try {
+            switch (operation) {
+                case REGISTER:
+                    return register(channels);
+                case LOOKUP:
+                    int registered = registeredUsers.get();
+                    String userId = "load-" + (registered == 0 ? 0 : random.nextInt(registered));
+                    return !channelFor(channels, userId).call("GET_USER_INFO", userId).startsWith("ERROR");
+                case PROPOSE:
+                    return propose(channels, "load-topic-" + random.nextInt(1000));
+                case MESSAGE:
+                    UserInfo sink = sinks.get(random.nextInt(sinks.size()));
+                    return transport.send(null, sink, "load", random.nextDouble());
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean register(ServerChannel[] channels) throws IOException {
+        String userId = "load-" + registeredUsers.getAndIncrement();
+        UserInfo sink = sinks.get(ThreadLocalRandom.current().nextInt(sinks.size()));
+        return !channelFor(channels, userId).call("USER", userId, String.valueOf(sink.getPort())).startsWith("ERROR");
+    }
+
+    /**
+     * Propose un sujet à toutes les partitions à la fois ; l'opération se termine avec la dernière réponse.
+     */
+    private boolean propose(ServerChannel[] channels, String topic) throws IOException {
+        List<CompletableFuture<String>> responses = new ArrayList<>(channels.length);
+        for (ServerChannel channel : channels) {
+            responses.add(channel.request("PROPOSER", topic));
+        }
+        boolean succeeded = true;
+        for (CompletableFuture<String> response : responses) {
+            try {
+                succeeded &= !response.get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).startsWith("ERROR");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Les mesures d'un type d'opération pour un palier de charge.
+     */
+    public static final class Result {
+        private final Operation operation;
+        private final double targetRate;
+        private final long count;
+        private final long errors;
+        private final double throughput;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Result(Operation operation, double targetRate, LatencyHistogram histogram, long errors, long durationMs) {
+            this.operation = operation;
+            this.targetRate = targetRate;
+            this.count = histogram.getCount();
+            this.errors = errors;
+            this.throughput = count * 1000.0 / durationMs;
+            this.p50 = histogram.getPercentile(50);
+            this.p99 = histogram.getPercentile(99);
+            this.p999 = histogram.getPercentile(99.9);
+            this.max = histogram.getMax();
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s target=%9.1f/s achieved=%9.1f/s count=%8d errors=%6d "
+                            + "p50=%9.3fms p99=%9.3fms p999=%9.3fms max=%9.3fms",
+                    operation, targetRate, throughput, count, errors,
+                    p50 / 1e6, p99 / 1e6, p999 / 1e6, max / 1e6);
+        }
+    }
+
+    /**
+     * Méthode principale pour exécuter un test de charge.
+     *
+     * @param args Arguments de la ligne de commande au format :
+     *             [--transport=tcp|loopback] [--port=<port du serveur>] [--engine=threads|nio]
+     *             [--shards=<serveurs partitionnés, tcp seulement>]
+     *             [--clients=<clients>] [--users=<utilisateurs préenregistrés>]
+     *             [--sinks=<utilisateurs récepteurs>] [--sinkPort=<premier port des récepteurs>]
+     *             [--register=<op/s>] [--lookup=<op/s>] [--propose=<op/s>] [--message=<op/s>]
+     *             [--warmup=<s>] [--duration=<s>] [--steps=<paliers>] [--verbose=true]
+     */
+    public static void main(String[] args) {
+        String transportName = "tcp";
+        int port = 12345;
+        String engine = "threads";
+        int clients = 8;
+        int users = 1000;
+        int sinkCount = 4;
+        int sinkPort = 13000;
+        Map<Operation, Double> rates = new EnumMap<>(Operation.class);
+        rates.put(Operation.REGISTER, 100.0);
+        rates.put(Operation.LOOKUP, 1000.0);
+        rates.put(Operation.PROPOSE, 1.0);
+        rates.put(Operation.MESSAGE, 100.0);
+        long warmup = 2;
+        long duration = 10;
+        int steps = 1;
+        boolean verbose = false;
+        int shardCount = 1;
+        for (String arg : args) {
+            String value = arg.split("=")[1];
+            if (arg.startsWith("--transport=")) {
+                transportName = value;
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else if (arg.startsWith("--engine=")) {
+                engine = value;
+            } else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(value);
+            } else if (arg.startsWith("--users=")) {
+                users = Integer.parseInt(value);
+            } else if (arg.startsWith("--sinks=")) {
+                sinkCount = Integer.parseInt(value);
+            } else if (arg.startsWith("--sinkPort=")) {
+                sinkPort = Integer.parseInt(value);
+            } else if (arg.startsWith("--register=")) {
+                rates.put(Operation.REGISTER, Double.parseDouble(value));
+            } else if (arg.startsWith("--lookup=")) {
+                rates.put(Operation.LOOKUP, Double.parseDouble(value));
+            } else if (arg.startsWith("--propose=")) {
+                rates.put(Operation.PROPOSE, Double.parseDouble(value));
+            } else if (arg.startsWith("--message=")) {
+                rates.put(Operation.MESSAGE, Double.parseDouble(value));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Long.parseLong(value);
+            } else if (arg.startsWith("--duration=")) {
+                duration = Long.parseLong(value);
+            } else if (arg.startsWith("--steps=")) {
+                steps = Integer.parseInt(value);
+            } else if (arg.startsWith("--shards=")) {
+                shardCount = Integer.parseInt(value);
+            } else if (arg.startsWith("--verbose=")) {
+                verbose = Boolean.parseBoolean(value);
+            }
+        }
+        if (!verbose) {
+            // Les journaux par requête du serveur et des utilisateurs fausseraient la mesure
+            Logger.getLogger("").setLevel(Level.WARNING);
+        }
+
+        try {
+            Transport transport;
+            String serverIp;
+            if (transportName.equals("loopback")) {
+                transport = new LoopbackTransport();
+                serverIp = LoopbackTransport.LOOPBACK_ADDRESS;
+            } else {
+                transport = Transport.tcp();
+                serverIp = "127.0.0.1";
+                List<String> shards = new ArrayList<>();
+                for (int i = 0; i < shardCount; i++) {
+                    shards.add(serverIp + ":" + (port + i));
+                }
+                ShardRing ring = shardCount > 1 ? new ShardRing(shards) : null;
+                for (int i = 0; i < shardCount; i++) {
+                    Server server = new Server();
+                    server.setShardRing(ring, shards.get(i));
+                    if (engine.equals("nio")) {
+                        new NioServer(server, port + i, Runtime.getRuntime().availableProcessors()).start();
+                    } else {
+                        server.listen(port + i);
+                    }
+                }
+            }
+
+            List<UserInfo> sinks = new ArrayList<>();
+            for (int i = 0; i < sinkCount; i++) {
+                new User("sink-" + i, 0.5, 0.0, serverIp, port, sinkPort + i, transport);
+                sinks.add(new UserInfo(serverIp, sinkPort + i));
+            }
+
+            LoadGenerator generator = new LoadGenerator(transport, serverIp, port, sinks);
+            generator.populate(users);
+            System.out.println("Load test: transport=" + transportName + " clients=" + clients + " users=" + users
+                    + " sinks=" + sinkCount + " shards=" + shardCount + " warmup=" + warmup + "s duration=" + duration + "s");
+            for (int step = 1; step <= steps; step++) {
+                Map<Operation, Double> stepRates = new EnumMap<>(Operation.class);
+                for (Map.Entry<Operation, Double> rate : rates.entrySet()) {
+                    stepRates.put(rate.getKey(), rate.getValue() * step);
+                }
+                System.out.println("Step " + step + "/" + steps + " (x" + step + ")");
+                for (Result result : generator.run(clients, stepRates, warmup * 1000, duration * 1000).values()) {
+                    System.out.println("  " + result);
+                }
+            }
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * La classe LoopbackTransport fait communiquer le serveur et les utilisateurs au sein d'une même JVM,
+ * sans socket : des dizaines de milliers d'utilisateurs peuvent ainsi être simulés sans ouvrir autant de
+ * ports ni de threads.
+ *
+ * <p>
+ * Le transport possède son propre {@link Server}. Les requêtes des utilisateurs sont exécutées directement
+ * par {@link RegistrationHandler#executeCommand}, avec les mêmes réponses qu'en TCP, et les utilisateurs sont
+ * enregistrés avec l'adresse {@link #LOOPBACK_ADDRESS}. Le port annoncé par un utilisateur ne sert que
+ * d'adresse : chaque utilisateur dispose d'une boîte aux lettres, vidée par un petit pool de threads
+ * partagé, qui lui remet les messages dans leur ordre d'arrivée.
+ * </p>
+ */
+public class LoopbackTransport implements Transport {
+    private static final Logger logger = Logger.getLogger(LoopbackTransport.class.getName());
+
+    /** Adresse enregistrée auprès du serveur pour les utilisateurs de ce transport. */
+    public static final String LOOPBACK_ADDRESS = "loopback";
+
+    /** Nombre maximal de messages remis à un utilisateur avant de laisser la place aux autres. */
+    private static final int MAILBOX_BATCH = 256;
+
+    private static final LongAdder RECEIVED = Metrics.counter("user.messages.received");
+
+    private final Server server;
+    private final Map<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService deliveries;
+
+    /**
+     * Constructeur de la classe LoopbackTransport, avec un serveur utilisant ce transport pour ses notifications.
+     */
+    public LoopbackTransport() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        // File non bornée : une boîte aux lettres n'y figure qu'une fois à la fois, la file est donc bornée par le
+        // nombre d'utilisateurs, et une remise n'est jamais refusée ni exécutée par l'expéditeur
+        this.deliveries = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), HandlerExecutors.daemonThreads("loopback"));
+        this.server = new Server(FanOutEngine.DEFAULT_PARALLELISM, this);
+    }
+
+    /**
+     * Renvoie le serveur de ce transport.
+     *
+     * @return Le serveur.
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * Ouvre un canal vers le serveur de ce transport ; l'adresse et le port sont ignorés.
+     */
+    @Override
+    public ServerChannel connect(String serverIp, int serverPort) {
+        return new LoopbackChannel();
+    }
+
+    @Override
+    public void listen(User user, int port) {
+        if (mailboxes.putIfAbsent(port, new Mailbox(user)) != null) {
+            throw new IllegalStateException("Loopback port already in use: " + port);
+        }
+        logger.fine("User " + user.getId() + " listening on loopback port " + port);
+    }
+
+    /**
+     * Remet un message à la boîte aux lettres du port du destinataire ; son identifiant est ignoré, chaque
+     * utilisateur ayant son propre port.
+     */
+    @Override
+    public boolean send(String recipientId, UserInfo recipient, String topic, double opinion) {
+        Mailbox mailbox = mailboxes.get(recipient.getPort());
+        if (mailbox == null) {
+            logger.warning("No loopback user on port " + recipient.getPort());
+            return false;
+        }
+        mailbox.post(new Message(topic, opinion, null, false, null));
+        return true;
+    }
+
+    @Override
+    public boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested) {
+        Mailbox mailbox = mailboxes.get(recipient.getPort());
+        if (mailbox == null) {
+            return false;
+        }
+        mailbox.post(new Message(null, 0.0, List.copyOf(entries), replyRequested, null));
+        return true;
+    }
+
+    /**
+     * Remet un message à relayer sans copier ses destinataires : les relais successifs se partagent des
+     * vues de la liste de l'émetteur.
+     */
+    @Override
+    public boolean relay(String relayId, UserInfo relay, RelayTree.Relay message) {
+        Mailbox mailbox = mailboxes.get(relay.getPort());
+        if (mailbox == null) {
+            logger.warning("No loopback user on port " + relay.getPort());
+            return false;
+        }
+        mailbox.post(new Message(null, 0.0, null, false, message));
+        return true;
+    }
+
+    /**
+     * Un message en attente dans une boîte aux lettres : une opinion sur un sujet, un échange d'annuaire ou un
+     * message à relayer.
+     */
+    private static final class Message {
+        private final String topic;
+        private final double opinion;
+        private final List<GossipDirectory.Entry> gossip;
+        private final boolean replyRequested;
+        private final RelayTree.Relay relay;
+
+        Message(String topic, double opinion, List<GossipDirectory.Entry> gossip, boolean replyRequested, RelayTree.Relay relay) {
+            this.topic = topic;
+            this.opinion = opinion;
+            this.gossip = gossip;
+            this.replyRequested = replyRequested;
+            this.relay = relay;
+        }
+    }
+
+    /**
+     * La boîte aux lettres d'un utilisateur. Au plus une tâche de remise est planifiée à la fois, ce qui
+     * préserve l'ordre d'arrivée des messages.
+     */
+    private final class Mailbox implements Runnable {
+        private final User user;
+        private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(User user) {
+            this.user = user;
+        }
+
+        void post(Message message) {
+            messages.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                deliveries.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Message message;
+            for (int i = 0; i < MAILBOX_BATCH && (message = messages.poll()) != null; i++) {
+                try {
+                    if (message.gossip != null) {
+                        user.receiveGossip(message.gossip, message.replyRequested);
+                        continue;
+                    }
+                    if (message.relay != null) {
+                        RECEIVED.increment();
+                        if (!user.receiveRelay(message.relay)) {
+                            // Aucun émetteur n'attend ce thread : le sous-arbre refusé y est remis
+                            RelayTree.disseminate(LoopbackTransport.this, message.relay);
+                        }
+                        continue;
+                    }
+                    RECEIVED.increment();
+                    user.receiveMessage(message.topic, message.opinion);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            scheduled.set(false);
+            if (!messages.isEmpty() && scheduled.compareAndSet(false, true)) {
+                deliveries.execute(this);
+            }
+        }
+    }
+
+    /**
+     * Un canal vers le serveur exécutant les commandes directement dans le thread appelant.
+     */
+    private final class LoopbackChannel implements ServerChannel {
+        private volatile Server.DirectoryListener directoryListener;
+
+        @Override
+        public CompletableFuture<String> request(String name, String... args) {
+            return CompletableFuture.completedFuture(RegistrationHandler.executeCommand(server, name, args, LOOPBACK_ADDRESS));
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            removeDirectoryListener();
+            if (listener != null) {
+                directoryListener = (userId, userInfo) -> listener.onPush(RegistrationHandler.updateEvent(userId, userInfo));
+                server.addDirectoryListener(directoryListener);
+            }
+        }
+
+        @Override
+        public void close() {
+            removeDirectoryListener();
+        }
+
+        private void removeDirectoryListener() {
+            Server.DirectoryListener current = directoryListener;
+            if (current != null) {
+                server.removeDirectoryListener(current);
+                directoryListener = null;
+            }
+        }
+    }
+}
@@ -1,36 +1,214 @@
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 /**
  * La classe MessageHandler gère les messages reçus par l'utilisateur. 
  * Elle lit les messages depuis le socket et appelle les méthodes appropriées pour mettre à jour l'état de l'utilisateur.
+ *
+ * <p>
+ * Le protocole est reconnu au premier octet : {@link BinaryProtocol#MAGIC} annonce des trames binaires,
+ * sinon le message est lu sous forme de deux lignes de texte (sujet puis opinion). Le décodage binaire
+ * n'alloue rien : la trame est lue dans un tampon propre au thread, le sujet est retrouvé par
+ * {@link TopicTable} et l'opinion est reconstruite à partir de ses 8 octets bruts. Les messages reçus et
+ * les messages invalides sont comptés dans les {@link Metrics}. Le tampon n'est conservé pour la connexion
+ * suivante que s'il n'a pas dû grandir au-delà de {@link #RETAINED_BUFFER_SIZE} octets. Les échanges d'annuaire
+ * entre utilisateurs ({@link BinaryProtocol#GOSSIP}) sont transmis à {@link User#receiveGossip(List, boolean)},
+ * et les messages à relayer ({@link BinaryProtocol#RELAY}) à {@link User#receiveRelay(RelayTree.Relay)}, après
+ * quoi leur réception est confirmée à l'émetteur ({@link BinaryProtocol#RELAY_ACK}) ; un message à relayer
+ * refusé ferme la connexion sans confirmation.
+ * </p>
+ *
+ * <p>
+ * Pour un {@link AgentHost}, le destinataire de chaque trame est l'utilisateur désigné par la dernière trame
+ * {@link BinaryProtocol#TARGET} de la connexion ; les messages en texte, qui ne désignent personne, sont rejetés.
+ * </p>
  */
 public class MessageHandler implements Runnable {
+
+    /** Taille maximale du tampon de réception conservé par un thread entre deux connexions (en octets). */
+    public static final int RETAINED_BUFFER_SIZE = 64 << 10;
+
+    private static final ThreadLocal<ByteBuffer> RECEIVE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+    private static final LongAdder RECEIVED = Metrics.counter("user.messages.received");
+    private static final LongAdder INVALID = Metrics.counter("user.messages.invalid");
+
     private final Socket socket;
     private final User user;
+    private final AgentHost host;
 
     public MessageHandler(Socket socket, User user) {
         this.socket = socket;
         this.user = user;
+        this.host = null;
+    }
+
+    /**
+     * Constructeur d'un gestionnaire remettant les messages aux utilisateurs d'un hôte.
+     *
+     * @param socket La connexion entrante.
+     * @param host L'hôte dont les utilisateurs sont désignés par les trames {@link BinaryProtocol#TARGET}.
+     */
+    public MessageHandler(Socket socket, AgentHost host) {
+        this.socket = socket;
+        this.user = null;
+        this.host = host;
     }
 
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (InputStream input = socket.getInputStream()) {
+            int first = input.read();
+            if (first == BinaryProtocol.MAGIC) {
+                receiveFrames(input);
+                return;
+            }
+            PushbackInputStream pushback = new PushbackInputStream(input, 1);
+            if (first >= 0) {
+                pushback.unread(first);
+            }
+            if (user == null) {
+                INVALID.increment();
+                User.logger.warning("Text messages cannot be routed to hosted agents");
+                return;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(pushback));
             String topic = in.readLine();
             if (topic != null) {
                 String opinionStr = in.readLine();
                 if (opinionStr != null) {
                     double opinion = Double.parseDouble(opinionStr);
+                    RECEIVED.increment();
                     user.receiveMessage(topic, opinion);
                 } else {
+                    INVALID.increment();
                     User.logger.warning("Received null opinion");
                 }
             } else {
+                INVALID.increment();
                 User.logger.warning("Received null topic");
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Lit les trames binaires d'une connexion jusqu'à sa fermeture et transmet chaque message à l'utilisateur.
+     *
+     * @param input Le flux d'entrée, positionné après l'octet {@link BinaryProtocol#MAGIC}.
+     * @throws Exception Si la lecture échoue ou si une trame est invalide.
+     */
+    private void receiveFrames(InputStream input) throws Exception {
+        ByteBuffer buffer = RECEIVE_BUFFER.get();
+        ByteBuffer frame;
+        User target = user;
+        try {
+            while ((frame = BinaryProtocol.readFrame(input, buffer)) != null) {
+                if (frame != buffer) {
+                    RECEIVE_BUFFER.set(frame);
+                    buffer = frame;
+                }
+                if (frame.get(0) == BinaryProtocol.TARGET) {
+                    if (host != null) {
+                        target = host.getAgent(BinaryProtocol.decodeTarget(frame.array(), frame.limit()));
+                    }
+                    continue;
+                }
+                if (target == null) {
+                    INVALID.increment();
+                    User.logger.warning("Ignoring frame for an unknown or missing agent");
+                    continue;
+                }
+                boolean dispatched = dispatchFrame(frame.array(), frame.limit(), target);
+                if (frame.get(0) == BinaryProtocol.RELAY) {
+                    if (!dispatched) {
+                        // Fermer sans accusé de réception : l'émetteur passe aussitôt au destinataire suivant
+                        return;
+                    }
+                    socket.getOutputStream().write(BinaryProtocol.RELAY_ACK);
+                }
+            }
+        } finally {
+            if (buffer.capacity() > RETAINED_BUFFER_SIZE) {
+                // Une trame exceptionnelle ne doit pas immobiliser jusqu'à MAX_FRAME_LENGTH octets par thread
+                RECEIVE_BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * Décode une trame binaire reçue et la transmet à l'utilisateur, sans allocation pour un sujet déjà connu.
+     *
+     * @param frame Le tableau contenant la trame, à partir de son type.
+     * @param length La longueur de la trame.
+     * @param user L'utilisateur destinataire.
+     * @return true si la trame a été remise à l'utilisateur, false si elle était invalide ou, pour un message à
+     *         relayer, si l'utilisateur en a refusé le sous-arbre.
+     */
+    static boolean dispatchFrame(byte[] frame, int length, User user) {
+        if (frame[0] == BinaryProtocol.GOSSIP) {
+            return dispatchGossip(frame, length, user);
+        }
+        if (frame[0] == BinaryProtocol.RELAY) {
+            return dispatchRelay(frame, length, user);
+        }
+        if (frame[0] != BinaryProtocol.PEER_MESSAGE) {
+            INVALID.increment();
+            User.logger.warning("Ignoring unexpected frame type " + frame[0]);
+            return false;
+        }
+        int topicLength = (frame[1] & 0xFF) << 8 | (frame[2] & 0xFF);
+        if (3 + topicLength + 8 > length) {
+            INVALID.increment();
+            User.logger.warning("Received truncated message");
+            return false;
+        }
+        String topic = TopicTable.intern(frame, 3, topicLength);
+        double opinion = Double.longBitsToDouble(BinaryProtocol.getLong(frame, 3 + topicLength));
+        RECEIVED.increment();
+        user.receiveMessage(topic, opinion);
+        return true;
+    }
+
+    /**
+     * Décode un échange d'annuaire et le transmet à l'utilisateur.
+     */
+    private static boolean dispatchGossip(byte[] frame, int length, User user) {
+        List<GossipDirectory.Entry> entries;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+            buffer.position(2);
+            entries = BinaryProtocol.decodeGossip(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            INVALID.increment();
+            User.logger.warning("Received truncated gossip");
+            return false;
+        }
+        user.receiveGossip(entries, frame[1] != 0);
+        return true;
+    }
+
+    /**
+     * Décode un message à relayer et le transmet à l'utilisateur.
+     */
+    private static boolean dispatchRelay(byte[] frame, int length, User user) {
+        RelayTree.Relay relay;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+            buffer.position(1);
+            relay = BinaryProtocol.decodeRelay(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            INVALID.increment();
+            User.logger.warning("Received truncated relay");
+            return false;
+        }
+        RECEIVED.increment();
+        return user.receiveRelay(relay);
+    }
 }
@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * La classe Metrics regroupe les mesures de la JVM : compteurs, jauges et histogrammes de latence, désignés
+ * par des noms hiérarchiques comme {@code server.command.USER} ou {@code user.messages.rejected}.
+ *
+ * <p>
+ * Les compteurs sont des {@link LongAdder}, répartis entre plusieurs cellules pour que les threads qui les
+ * incrémentent ne se disputent pas une même ligne de cache, et les latences sont enregistrées sans verrou
+ * dans des {@link LatencyHistogram}. Une mesure est créée à sa première demande ; les classes instrumentées
+ * la conservent dans un champ statique, de sorte que le chemin critique ne paie qu'une incrémentation.
+ * </p>
+ *
+ * <p>
+ * Les mesures sont lisibles par la commande {@code STATS} du serveur ({@link #format()}) et par JMX, sous le
+ * nom {@link #OBJECT_NAME}, sauf si la propriété système {@code plateforme.jmx} vaut {@code false}.
+ * </p>
+ */
+public final class Metrics implements MetricsMXBean {
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    /** Nom JMX sous lequel les mesures sont publiées. */
+    public static final String OBJECT_NAME = "plateforme:type=Metrics";
+
+    /** Propriété système désactivant la publication JMX. */
+    public static final String JMX_PROPERTY = "plateforme.jmx";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final long startNanos = System.nanoTime();
+
+    static {
+        if (!"false".equals(System.getProperty(JMX_PROPERTY))) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(OBJECT_NAME));
+            } catch (JMException | SecurityException e) {
+                logger.warning("Metrics not published over JMX: " + e);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Renvoie le compteur portant ce nom, en le créant s'il n'existe pas encore.
+     *
+     * @param name Le nom du compteur.
+     * @return Le compteur.
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Déclare une jauge, dont la valeur est lue à chaque consultation des mesures. Une jauge déclarée sous
+     * un nom déjà utilisé remplace la précédente.
+     *
+     * @param name Le nom de la jauge.
+     * @param value La fonction donnant la valeur courante ; elle doit être rapide et ne pas bloquer.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Renvoie l'histogramme de latence portant ce nom, en le créant s'il n'existe pas encore.
+     *
+     * @param name Le nom de l'histogramme.
+     * @return L'histogramme.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Renvoie toutes les mesures sur une ligne : {@code uptime.ms=<durée>}, puis {@code <nom>=<valeur>} pour
+     * chaque compteur et chaque jauge, et {@code <nom>.count}, {@code <nom>.p50}, {@code <nom>.p99},
+     * {@code <nom>.p999} et {@code <nom>.max} (en nanosecondes) pour chaque histogramme, triés par nom.
+     *
+     * @return Les mesures, séparées par des espaces.
+     */
+    public static String format() {
+        StringBuilder line = new StringBuilder("uptime.ms=").append(uptimeMillis());
+        Map<String, Long> values = new TreeMap<>(counterValues());
+        values.putAll(latencyValues());
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            line.append(' ').append(value.getKey()).append('=').append(value.getValue());
+        }
+        return line.toString();
+    }
+
+    private static long uptimeMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    private static Map<String, Long> latencyValues() {
+        Map<String, Long> values = new TreeMap<>();
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".p50", histogram.getPercentile(50));
+            values.put(name + ".p99", histogram.getPercentile(99));
+            values.put(name + ".p999", histogram.getPercentile(99.9));
+            values.put(name + ".max", histogram.getMax());
+        });
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return counterValues();
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        return latencyValues();
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return uptimeMillis();
+    }
+
+    @Override
+    public String getStats() {
+        return format();
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Map;
+
+/**
+ * L'interface MetricsMXBean expose par JMX les mesures de {@link Metrics}, sous le nom
+ * {@link Metrics#OBJECT_NAME}.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Renvoie la valeur de chaque compteur et de chaque jauge.
+     *
+     * @return Les valeurs, par nom de mesure.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Renvoie le nombre de valeurs, les percentiles p50, p99 et p999 et le maximum de chaque histogramme de
+     * latence, sous les noms {@code <histogramme>.count}, {@code <histogramme>.p50}, etc.
+     *
+     * @return Les latences en nanosecondes, par nom.
+     */
+    Map<String, Long> getLatencies();
+
+    /**
+     * Renvoie la durée écoulée depuis le démarrage des mesures, pour calculer des débits à partir de deux
+     * lectures successives des compteurs.
+     *
+     * @return La durée en millisecondes.
+     */
+    long getUptimeMillis();
+
+    /**
+     * Renvoie toutes les mesures sur une ligne, au format de la commande {@code STATS}.
+     *
+     * @return Les mesures.
+     */
+    String getStats();
+}
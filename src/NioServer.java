@@ -0,0 +1,463 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * La classe NioServer est un moteur d'entrées/sorties alternatif pour le serveur central, fondé sur
+ * {@code java.nio} : un petit nombre fixe de threads, chacun avec son propre {@link Selector}, sert
+ * l'ensemble des connexions, au lieu d'un thread par connexion.
+ *
+ * <p>
+ * Il parle exactement le même protocole que {@link RegistrationHandler} (commandes {@code USER:},
+ * {@code PROPOSER:}, {@code GET_USER_INFO:}, {@code GET_USERS_INFO:} et mode multiplexé), dont il
+ * réutilise l'interprétation des commandes, ainsi que le protocole binaire de {@link BinaryProtocol}, reconnu
+ * à son premier octet. Un thread d'acceptation répartit les nouvelles connexions
+ * entre les threads d'entrées/sorties à tour de rôle.
+ * </p>
+ *
+ * <p>
+ * Les threads d'entrées/sorties ne font que lire les requêtes et écrire les réponses : les commandes sont
+ * exécutées par un pool de threads de travail, car certaines attendent le disque (inscription dans un annuaire
+ * durable). Les commandes d'une connexion sont exécutées une à une, dans leur ordre d'arrivée ; une connexion
+ * qui accumule plus de {@link #MAX_PENDING_COMMANDS} commandes sans attendre leurs réponses est fermée.
+ * </p>
+ */
+public class NioServer {
+    private static final Logger logger = Logger.getLogger(NioServer.class.getName());
+
+    /** Taille maximale d'une ligne de commande (en octets). */
+    private static final int MAX_LINE_BYTES = 1 << 20;
+
+    /** Taille de la file d'attente des connexions entrantes. */
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    /** Nombre de threads de travail par défaut. */
+    public static final int DEFAULT_WORKER_THREADS = 64;
+
+    /** Nombre maximal de commandes d'une connexion en attente d'exécution. */
+    public static final int MAX_PENDING_COMMANDS = 4096;
+
+    private final Server server;
+    private final int port;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+    private ServerSocketChannel acceptChannel;
+
+    /**
+     * Constructeur de la classe NioServer.
+     *
+     * @param server Le serveur qui exécute les commandes.
+     * @param port Le port d'écoute.
+     * @param ioThreads Le nombre de threads d'entrées/sorties.
+     */
+    public NioServer(Server server, int port, int ioThreads) {
+        this(server, port, ioThreads, DEFAULT_WORKER_THREADS);
+    }
+
+    /**
+     * Constructeur de la classe NioServer.
+     *
+     * @param server Le serveur qui exécute les commandes.
+     * @param port Le port d'écoute.
+     * @param ioThreads Le nombre de threads d'entrées/sorties.
+     * @param workerThreads Le nombre de threads exécutant les commandes.
+     */
+    public NioServer(Server server, int port, int ioThreads, int workerThreads) {
+        this.server = server;
+        this.port = port;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), task -> {
+            Thread thread = new Thread(task, "nio-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ouvre le port d'écoute et démarre les threads d'acceptation et d'entrées/sorties.
+     *
+     * @throws IOException Si le port ne peut pas être ouvert.
+     */
+    public void start() throws IOException {
+        acceptChannel = ServerSocketChannel.open();
+        acceptChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open());
+            new Thread(loops[i], "nio-io-" + i).start();
+        }
+        new Thread(this::acceptLoop, "nio-acceptor").start();
+        logger.info("NIO server started on port " + port + " with " + loops.length + " I/O threads");
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (acceptChannel.isOpen()) {
+            try {
+                SocketChannel channel = acceptChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (acceptChannel.isOpen()) {
+                    logger.warning("Failed to accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Un thread d'entrées/sorties et son sélecteur.
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        private final Queue<Session> pendingFlushes = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        void requestFlush(Session session) {
+            pendingFlushes.add(session);
+            selector.wakeup();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = incoming.poll()) != null) {
+                        accept(channel);
+                    }
+                    Session flushing;
+                    while ((flushing = pendingFlushes.poll()) != null) {
+                        flushing.flush();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Session session = (Session) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                session.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                session.read();
+                            }
+                        } catch (RuntimeException e) {
+                            // Une connexion défaillante ne doit pas arrêter la boucle des autres
+                            logger.warning("Closing connection from " + session.ipAddress + ": " + e);
+                            session.close();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.warning("I/O loop error: " + e);
+                }
+            }
+        }
+
+        private void accept(SocketChannel channel) {
+            try {
+                Session session = new Session(channel, this);
+                session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Failed to register connection: " + e);
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    // La connexion est déjà fermée
+                }
+            }
+        }
+    }
+
+    /**
+     * L'état d'une connexion cliente : tampon de lecture, commandes en attente d'exécution, réponses en attente
+     * d'écriture et mode du protocole.
+     */
+    private final class Session {
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final String ipAddress;
+        private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        private ByteBuffer input = ByteBuffer.allocate(4096);
+        private SelectionKey key;
+        private boolean multiplexed;
+        private boolean protocolKnown;
+        private boolean binary;
+        private String pendingCommand;
+        private Server.DirectoryListener listener;
+        private final ArrayDeque<Runnable> commands = new ArrayDeque<>();
+        private boolean executing;
+
+        Session(SocketChannel channel, IoLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            this.ipAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+
+        void read() {
+            try {
+                int read = channel.read(input);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                input.flip();
+                if (!protocolKnown && input.hasRemaining()) {
+                    protocolKnown = true;
+                    binary = (input.get(input.position()) & 0xFF) == BinaryProtocol.MAGIC;
+                    if (binary) {
+                        input.get();
+                        listen((userId, userInfo) -> send(BinaryProtocol.encodePush(RegistrationHandler.updateEvent(userId, userInfo))));
+                    }
+                }
+                int lineStart = binary ? readFrames() : readLines();
+                if (!channel.isOpen()) {
+                    return;
+                }
+                input.position(lineStart);
+                input.compact();
+                if (!input.hasRemaining()) {
+                    if (input.capacity() >= (binary ? BinaryProtocol.MAX_FRAME_LENGTH : MAX_LINE_BYTES)) {
+                        logger.warning("Request too large from " + ipAddress + ", closing connection");
+                        close();
+                        return;
+                    }
+                    ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+                    input.flip();
+                    larger.put(input);
+                    input = larger;
+                }
+            } catch (Exception e) {
+                logger.warning("Closing connection from " + ipAddress + ": " + e);
+                close();
+            }
+        }
+
+        /**
+         * Traite les lignes complètes du tampon de lecture.
+         *
+         * @return La position du début de la première ligne incomplète.
+         */
+        private int readLines() {
+            int lineStart = input.position();
+            for (int i = lineStart; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = i > lineStart && input.get(i - 1) == '\r' ? i - 1 : i;
+                    String line = new String(input.array(), lineStart, end - lineStart, StandardCharsets.UTF_8);
+                    lineStart = i + 1;
+                    handleLine(line);
+                    if (!channel.isOpen()) {
+                        break;
+                    }
+                }
+            }
+            return lineStart;
+        }
+
+        /**
+         * Traite les trames binaires complètes du tampon de lecture.
+         *
+         * @return La position du début de la première trame incomplète.
+         */
+        private int readFrames() {
+            int frameStart = input.position();
+            while (input.limit() - frameStart >= 4) {
+                int length = input.getInt(frameStart);
+                if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    logger.warning("Invalid frame length from " + ipAddress + ", closing connection");
+                    close();
+                    break;
+                }
+                if (input.limit() - frameStart - 4 < length) {
+                    break;
+                }
+                ByteBuffer frame = input.duplicate();
+                frame.limit(frameStart + 4 + length).position(frameStart + 4);
+                frame = frame.slice();
+                frameStart += 4 + length;
+                if (frame.get() != BinaryProtocol.REQUEST) {
+                    logger.warning("Unexpected frame type from " + ipAddress + ", closing connection");
+                    close();
+                    break;
+                }
+                BinaryProtocol.Request request = BinaryProtocol.decodeRequest(frame);
+                if (!submit(() -> send(BinaryProtocol.encodeResponse(request.getRequestId(),
+                        RegistrationHandler.executeCommand(server, request.getName(), request.getArgs(), ipAddress))))) {
+                    break;
+                }
+            }
+            return frameStart;
+        }
+
+        private void handleLine(String line) {
+            if (multiplexed) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    send("0 ERROR Malformed request\n");
+                } else {
+                    submit(() -> send(line.substring(0, separator) + " "
+                            + RegistrationHandler.execute(server, line.substring(separator + 1), ipAddress) + "\n"));
+                }
+            } else if (pendingCommand != null) {
+                String command = pendingCommand;
+                pendingCommand = null;
+                submit(() -> send(RegistrationHandler.executeLegacy(server, command, line, ipAddress)));
+            } else if (line.equals(ServerConnection.MUX_HELLO)) {
+                multiplexed = true;
+                listen((userId, userInfo) -> send(ServerConnection.PUSH_PREFIX + RegistrationHandler.updateEvent(userId, userInfo) + "\n"));
+            } else if (RegistrationHandler.expectsContinuation(line)) {
+                pendingCommand = line;
+            } else {
+                submit(() -> send(RegistrationHandler.executeLegacy(server, line, null, ipAddress)));
+            }
+        }
+
+        /**
+         * Confie une commande aux threads de travail, après les commandes de la connexion déjà en attente.
+         *
+         * @return false si la connexion a trop de commandes en attente et vient d'être fermée.
+         */
+        private boolean submit(Runnable command) {
+            boolean start;
+            synchronized (this) {
+                if (commands.size() >= MAX_PENDING_COMMANDS) {
+                    logger.warning("Too many pending requests from " + ipAddress + ", closing connection");
+                    commands.clear();
+                    close();
+                    return false;
+                }
+                commands.add(command);
+                start = !executing;
+                executing = true;
+            }
+            if (start) {
+                workers.execute(this::runCommands);
+            }
+            return true;
+        }
+
+        private void runCommands() {
+            while (true) {
+                Runnable command;
+                synchronized (this) {
+                    command = channel.isOpen() ? commands.poll() : null;
+                    if (command == null) {
+                        commands.clear();
+                        executing = false;
+                        return;
+                    }
+                }
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    logger.warning("Closing connection from " + ipAddress + " after a failed request: " + e);
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Met une réponse en file d'écriture. Peut être appelée depuis n'importe quel thread.
+         *
+         * @param text Le texte à envoyer.
+         */
+        void send(String text) {
+            if (!text.isEmpty()) {
+                send(text.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Met des octets en file d'écriture. Peut être appelée depuis n'importe quel thread.
+         *
+         * @param bytes Les octets à envoyer.
+         */
+        void send(byte[] bytes) {
+            output.add(ByteBuffer.wrap(bytes));
+            if (loop.inLoop()) {
+                flush();
+            } else {
+                loop.requestFlush(this);
+            }
+        }
+
+        void flush() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                ByteBuffer head;
+                while ((head = output.peek()) != null) {
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    output.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (Exception e) {
+                close();
+            }
+        }
+
+        /**
+         * Abonne la connexion aux modifications de l'annuaire, sauf si elle a déjà été fermée.
+         */
+        private synchronized void listen(Server.DirectoryListener directoryListener) {
+            if (channel.isOpen()) {
+                listener = directoryListener;
+                server.addDirectoryListener(listener);
+            }
+        }
+
+        /**
+         * Ferme la connexion. Peut être appelée depuis n'importe quel thread.
+         */
+        synchronized void close() {
+            if (listener != null) {
+                server.removeDirectoryListener(listener);
+                listener = null;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // La connexion est déjà fermée
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * La classe OpinionJournal enregistre les mises à jour d'opinion dans un journal binaire, en ajout seul,
+ * pour les analyser ou les rejouer hors ligne ({@link JournalReplay}).
+ *
+ * <p>
+ * Le journal est un écouteur ({@link OpinionListener}) à abonner aux utilisateurs suivis. Chaque mise à jour
+ * produit un enregistrement de taille fixe : horodatage, identifiant de l'utilisateur, identifiant du sujet,
+ * opinions avant et après, poids et cause de la mise à jour. Les identifiants d'utilisateur et de sujet sont
+ * des entiers, définis par un enregistrement de définition la première fois qu'ils apparaissent dans un segment.
+ * Ces entiers n'ont de sens qu'à l'intérieur de leur segment : un journal rouvert, ou plusieurs processus
+ * partageant le même dossier, numérotent leurs noms indépendamment, et le lecteur traduit les identifiants de
+ * chaque segment d'après ses définitions.
+ * </p>
+ *
+ * <p>
+ * Le journal est découpé en segments de taille fixe ({@code journal-<n>.seg}), préalloués et projetés en
+ * mémoire : un enregistrement est écrit directement dans la projection, sans appel système. Les pages
+ * modifiées sont forcées sur le disque par lots, à intervalle régulier, sans bloquer les ajouts pendant
+ * l'attente du disque ; en cas d'arrêt brutal, seules les mises à jour du dernier intervalle peuvent être
+ * perdues. Un processus qui trouve le numéro de segment suivant déjà pris par un autre passe au suivant.
+ * </p>
+ *
+ * <p>
+ * Les ajouts ne prennent pas de verrou : chacun réserve sa place dans le segment courant par un CAS sur la
+ * position d'écriture, puis écrit son enregistrement en même temps que les autres. Seul le passage au segment
+ * suivant, quand un ajout ne tient plus, est fait sous verrou. L'ordre du journal est celui des réservations ;
+ * deux ajouts concurrents peuvent définir le même identifiant dans un segment, définitions que le lecteur
+ * accepte. Après un arrêt brutal, un enregistrement réservé mais inachevé masque ceux qui le suivent dans son
+ * segment.
+ * </p>
+ *
+ * <p>
+ * Format d'un segment, en petit-boutiste : un en-tête de {@link #HEADER_SIZE} octets ({@link #MAGIC}, version,
+ * numéro du segment), puis les enregistrements, chacun commençant par son type ; un octet nul marque la fin.
+ * </p>
+ * <ul>
+ *   <li>{@link #EVENT} : source (1 octet), 2 octets de bourrage, utilisateur (int), sujet (int, {@link #GENERAL_TOPIC}
+ *       pour l'opinion générale), horodatage en millisecondes (long), opinion avant, opinion après, poids (double) ;</li>
+ *   <li>{@link #USER} et {@link #TOPIC} : identifiant (int), longueur (short) puis nom en UTF-8.</li>
+ * </ul>
+ */
+public class OpinionJournal implements OpinionListener, Closeable {
+    private static final Logger logger = Logger.getLogger(OpinionJournal.class.getName());
+
+    /** Taille par défaut d'un segment (en octets). */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /** Intervalle par défaut entre deux écritures forcées sur le disque (en millisecondes). */
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    /** Premiers octets de chaque segment. */
+    static final int MAGIC = 0x4F504A31;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    /** Type d'un enregistrement de mise à jour d'opinion. */
+    static final byte EVENT = 1;
+    /** Type d'un enregistrement définissant un identifiant d'utilisateur. */
+    static final byte USER = 2;
+    /** Type d'un enregistrement définissant un identifiant de sujet. */
+    static final byte TOPIC = 3;
+
+    static final int EVENT_SIZE = 44;
+
+    /** Identifiant de sujet désignant l'opinion générale d'un utilisateur. */
+    static final int GENERAL_TOPIC = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Timer flusher;
+    private final ConcurrentHashMap<String, Name> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Name> topics = new ConcurrentHashMap<>();
+    private final AtomicInteger userCount = new AtomicInteger();
+    private final AtomicInteger topicCount = new AtomicInteger();
+    private final Object rollLock = new Object();
+    private final List<Segment> retired = new ArrayList<>();
+    private final Object forceLock = new Object();
+    private volatile Segment current;
+    private volatile boolean closed;
+
+    /**
+     * Constructeur de la classe OpinionJournal, avec la taille de segment et l'intervalle d'écriture par défaut.
+     *
+     * @param directory Le dossier du journal, créé s'il n'existe pas.
+     * @throws IOException Si le premier segment ne peut pas être créé.
+     */
+    public OpinionJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Constructeur de la classe OpinionJournal. Les segments déjà présents dans le dossier sont conservés :
+     * le journal reprend au numéro de segment suivant.
+     *
+     * @param directory Le dossier du journal, créé s'il n'existe pas.
+     * @param segmentSize La taille d'un segment (en octets).
+     * @param flushIntervalMs L'intervalle entre deux écritures forcées sur le disque (en millisecondes).
+     * @throws IOException Si le premier segment ne peut pas être créé.
+     */
+    public OpinionJournal(Path directory, int segmentSize, long flushIntervalMs) throws IOException {
+        if (segmentSize < HEADER_SIZE + 2 * EVENT_SIZE) {
+            throw new IllegalArgumentException("Segment too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        int index = 0;
+        for (Path existing : JournalReplay.segments(directory)) {
+            index = Math.max(index, JournalReplay.segmentIndex(existing) + 1);
+        }
+        current = openSegment(index);
+        this.flusher = new Timer("opinion-journal-flush", true);
+        flusher.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMs, flushIntervalMs);
+    }
+
+    /**
+     * Renvoie le nom du fichier d'un segment.
+     *
+     * @param index Le numéro du segment.
+     * @return Le nom du fichier.
+     */
+    static String segmentName(int index) {
+        return String.format("journal-%06d.seg", index);
+    }
+
+    @Override
+    public void opinionChanged(User user, String topic, double previous, double current) {
+        append(user.getId(), topic, previous, current, Double.NaN, -1);
+    }
+
+    @Override
+    public void opinionChanged(User user, String topic, double previous, double current, double influence, Source source) {
+        append(user.getId(), topic, previous, current, influence, source.ordinal());
+    }
+
+    /**
+     * Ajoute une mise à jour d'opinion au journal.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param topic Le sujet, ou null pour l'opinion générale.
+     * @param previous L'opinion avant la mise à jour.
+     * @param current L'opinion après la mise à jour.
+     * @param influence Le poids de la mise à jour, ou NaN s'il est inconnu.
+     * @param source Le rang de la cause dans {@link OpinionListener.Source}, ou -1 si elle est inconnue.
+     */
+    public void append(String userId, String topic, double previous, double current, double influence, int source) {
+        if (closed) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        Name user = nameOf(users, userCount, userId);
+        Name topicName = topic == null ? null : nameOf(topics, topicCount, topic);
+        Segment segment = this.current;
+        while (true) {
+            boolean defineUser = user.definedIn != segment.index;
+            boolean defineTopic = topicName != null && topicName.definedIn != segment.index;
+            int size = EVENT_SIZE + (defineUser ? 7 + user.bytes.length : 0) + (defineTopic ? 7 + topicName.bytes.length : 0);
+            int position = segment.reserve(size);
+            if (position < 0) {
+                segment = roll(segment);
+                if (segment == null) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                // Les ajouts suivants réservent plus loin dans le segment : ils peuvent compter sur cette définition
+                if (defineUser) {
+                    user.definedIn = segment.index;
+                    position = writeDefinition(segment.buffer, position, USER, user);
+                }
+                if (defineTopic) {
+                    topicName.definedIn = segment.index;
+                    position = writeDefinition(segment.buffer, position, TOPIC, topicName);
+                }
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.put(position + 1, (byte) source);
+                buffer.putShort(position + 2, (short) 0);
+                buffer.putInt(position + 4, user.id);
+                buffer.putInt(position + 8, topicName == null ? GENERAL_TOPIC : topicName.id);
+                buffer.putLong(position + 12, timestamp);
+                buffer.putDouble(position + 20, previous);
+                buffer.putDouble(position + 28, current);
+                buffer.putDouble(position + 36, influence);
+                // Le type est écrit en dernier : tant qu'il est nul, le lecteur voit la fin du segment
+                buffer.put(position, EVENT);
+            } finally {
+                segment.release();
+            }
+            return;
+        }
+    }
+
+    private static Name nameOf(ConcurrentHashMap<String, Name> names, AtomicInteger count, String name) {
+        Name known = names.get(name);
+        if (known != null) {
+            return known;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Name too long for the journal: " + name.length() + " characters");
+        }
+        return names.computeIfAbsent(name, key -> new Name(count.getAndIncrement(), bytes));
+    }
+
+    private static int writeDefinition(MappedByteBuffer buffer, int position, byte type, Name name) {
+        buffer.putInt(position + 1, name.id);
+        buffer.putShort(position + 5, (short) name.bytes.length);
+        buffer.put(position + 7, name.bytes);
+        buffer.put(position, type);
+        return position + 7 + name.bytes.length;
+    }
+
+    private Segment openSegment(int index) throws IOException {
+        MappedByteBuffer buffer;
+        while (true) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(segmentName(index)),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // La projection reste valide après la fermeture du canal
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Segment créé entre-temps par un autre processus partageant le dossier
+                index++;
+            }
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(index).putInt(0);
+        return new Segment(buffer, index);
+    }
+
+    /**
+     * Passe au segment suivant quand un ajout ne tient plus dans le segment plein. Seul le premier ajout à
+     * trouver le segment plein ouvre le suivant ; les autres attendent puis écrivent dans le nouveau segment.
+     *
+     * @param full Le segment dans lequel l'ajout n'a pas trouvé de place.
+     * @return Le segment courant, ou null si le journal est fermé.
+     */
+    private Segment roll(Segment full) {
+        synchronized (rollLock) {
+            if (closed) {
+                return null;
+            }
+            if (current != full) {
+                return current;
+            }
+            Segment next;
+            try {
+                next = openSegment(full.index + 1);
+            } catch (IOException e) {
+                logger.warning("Opinion journal disabled, cannot open a new segment: " + e.getMessage());
+                flusher.cancel();
+                closed = true;
+                return null;
+            }
+            // L'ancien segment sera forcé par l'écriture suivante, une fois ses derniers ajouts terminés
+            full.seal();
+            retired.add(full);
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Force sur le disque les enregistrements écrits depuis la dernière écriture forcée. L'attente du disque
+     * ne bloque pas les ajouts, qui continuent pendant ce temps. Deux écritures forcées ne s'exécutent jamais
+     * en même temps, si bien que les enregistrements relevés par une écriture sont sur le disque quand la
+     * suivante commence.
+     */
+    public void flush() {
+        synchronized (forceLock) {
+            List<Segment> sealed;
+            synchronized (rollLock) {
+                sealed = new ArrayList<>(retired);
+                retired.clear();
+            }
+            for (Segment segment : sealed) {
+                segment.forceSealed();
+            }
+            current.forceWritten();
+        }
+    }
+
+    /**
+     * Force les derniers enregistrements sur le disque et ferme le journal ; les mises à jour suivantes sont ignorées.
+     */
+    @Override
+    public void close() {
+        synchronized (rollLock) {
+            if (closed) {
+                return;
+            }
+            flusher.cancel();
+            closed = true;
+            current.seal();
+            retired.add(current);
+        }
+        flush();
+    }
+
+    /**
+     * Un nom d'utilisateur ou de sujet et son identifiant dans le journal.
+     */
+    private static final class Name {
+        private final int id;
+        private final byte[] bytes;
+        /** Le numéro du dernier segment connu pour contenir la définition du nom. */
+        private volatile int definedIn = -1;
+
+        Name(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Un segment projeté en mémoire. Sa position d'écriture et son nombre d'ajouts en cours partagent un même
+     * mot atomique : la position dans les 32 bits de poids fort, les ajouts en cours dans ceux de poids faible.
+     * Une réservation avance la position et compte l'ajout d'un seul CAS, si bien qu'une écriture forcée qui
+     * lit zéro ajout en cours sait que tout ce qui précède la position est écrit.
+     */
+    private static final class Segment {
+        /** Nombre maximal de relectures de l'état par une écriture forcée qui attend la fin des ajouts en cours. */
+        private static final int MAX_FORCE_SPINS = 1000;
+
+        private final MappedByteBuffer buffer;
+        private final int index;
+        private final AtomicLong state;
+        /** La position à laquelle le segment a été scellé, ou -1 s'il accepte encore des ajouts. */
+        private volatile int end = -1;
+        /** Protégé par le verrou des écritures forcées. */
+        private int flushedPosition;
+
+        Segment(MappedByteBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+            this.state = new AtomicLong((long) HEADER_SIZE << 32);
+        }
+
+        /**
+         * Réserve de la place pour un ajout ; l'appelant doit ensuite appeler {@link #release()}.
+         *
+         * @param size La taille à réserver (en octets).
+         * @return La position réservée, ou -1 si le segment n'a plus la place.
+         */
+        int reserve(int size) {
+            while (true) {
+                long current = state.get();
+                int position = (int) (current >>> 32);
+                if (position > buffer.capacity() - size) {
+                    return -1;
+                }
+                if (state.compareAndSet(current, current + ((long) size << 32) + 1)) {
+                    return position;
+                }
+            }
+        }
+
+        void release() {
+            state.getAndDecrement();
+        }
+
+        /**
+         * Refuse les réservations suivantes ; les ajouts déjà réservés se terminent normalement.
+         */
+        void seal() {
+            while (true) {
+                long current = state.get();
+                long sealed = (long) buffer.capacity() << 32 | (current & 0xFFFF_FFFFL);
+                if (state.compareAndSet(current, sealed)) {
+                    end = (int) (current >>> 32);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Force un segment scellé jusqu'à sa fin, après avoir attendu ses derniers ajouts.
+         */
+        void forceSealed() {
+            while ((int) state.get() != 0) {
+                Thread.yield();
+            }
+            force(end);
+        }
+
+        /**
+         * Force les enregistrements écrits d'un segment ouvert. Si des ajouts sont toujours en cours malgré
+         * l'attente, la plage est forcée sans être retenue : l'écriture suivante la forcera de nouveau.
+         */
+        void forceWritten() {
+            if (end >= 0) {
+                return;
+            }
+            long current = state.get();
+            for (int spins = 0; (int) current != 0 && spins < MAX_FORCE_SPINS; spins++) {
+                Thread.yield();
+                current = state.get();
+            }
+            int position = (int) (current >>> 32);
+            if (end >= 0 || position <= flushedPosition) {
+                return;
+            }
+            buffer.force(flushedPosition, position - flushedPosition);
+            if ((int) current == 0) {
+                flushedPosition = position;
+            }
+        }
+
+        private void force(int position) {
+            if (position > flushedPosition) {
+                buffer.force(flushedPosition, position - flushedPosition);
+                flushedPosition = position;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * L'interface OpinionListener reçoit les changements d'opinion d'un {@link User}, par exemple pour tenir
+ * à jour une mesure de polarisation sans parcourir tous les utilisateurs.
+ *
+ * <p>
+ * Elle est appelée dans le thread qui a appliqué la mise à jour, après celle-ci : elle doit être rapide et
+ * ne pas bloquer. Deux mises à jour simultanées d'un même sujet peuvent être signalées dans un ordre
+ * différent de celui de leur application ; un écouteur qui a besoin de la dernière valeur peut la relire
+ * par {@link User#getOpinion(String)}.
+ * </p>
+ */
+public interface OpinionListener {
+
+    /**
+     * Appelée après chaque mise à jour d'une opinion.
+     *
+     * @param user L'utilisateur dont l'opinion a changé.
+     * @param topic Le sujet, ou null pour l'opinion générale.
+     * @param previous L'opinion avant la mise à jour.
+     * @param current L'opinion après la mise à jour.
+     */
+    void opinionChanged(User user, String topic, double previous, double current);
+
+    /**
+     * Appelée après chaque mise à jour d'une opinion, avec son poids et sa cause. Par défaut, délègue à
+     * {@link #opinionChanged(User, String, double, double)}.
+     *
+     * @param user L'utilisateur dont l'opinion a changé.
+     * @param topic Le sujet, ou null pour l'opinion générale.
+     * @param previous L'opinion avant la mise à jour.
+     * @param current L'opinion après la mise à jour.
+     * @param influence Le poids de l'opinion reçue, entre 0 et 1 ; pour une mise à jour regroupée, le poids
+     *                  cumulé des opinions repliées.
+     * @param source La cause de la mise à jour.
+     */
+    default void opinionChanged(User user, String topic, double previous, double current, double influence, Source source) {
+        opinionChanged(user, topic, previous, current);
+    }
+
+    /**
+     * Les causes d'une mise à jour d'opinion.
+     */
+    enum Source {
+        /** Mise à jour de l'opinion générale ({@link User#updateOpinion(double, double)}). */
+        GENERAL,
+        /** Opinion reçue sur un sujet ({@link User#updateOpinion(String, double, double)}). */
+        TOPIC,
+        /** Opinions reçues en rafale et repliées en une seule mise à jour (mode regroupé). */
+        COALESCED,
+        /** Remplacement de l'opinion, par exemple par {@link ConsensusFinder} ({@link User#compareAndSetOpinion}). */
+        REPLACE
+    }
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.logging.Logger;
 import java.util.Random;
 import java.util.ArrayList;
@@ -12,12 +14,29 @@ import java.util.List;
  * <p>
  * Les opinions des utilisateurs sont regroupées en bins, et la polarisation est calculée en fonction de la distribution des opinions dans ces bins.
  * </p>
+ *
+ * <p>
+ * En mode incrémental, le Polarimeter ne parcourt plus les utilisateurs à chaque mesure : il s'abonne à leurs
+ * changements d'opinion ({@link OpinionListener}) et tient à jour un {@link PolarizationHistogram}, dont la
+ * lecture est immédiate. Chaque mise à jour d'opinion coûte alors O(1), ou O(nombre de bins) lorsqu'elle
+ * fait changer l'opinion de bin.
+ * </p>
+ *
+ * <p>
+ * En mode distant, le Polarimeter lit la polarisation globale calculée par le serveur à partir des rapports
+ * de tous les hôtes d'utilisateurs ({@link PolarizationReporter}), y compris ceux d'autres processus.
+ * </p>
  */
 public class Polarimeter {
     private static final Logger logger = Logger.getLogger(Polarimeter.class.getName());
     private final List<User> users;
     private final String topic;
     private final long delay;
+    private final int bins;
+    private final double alpha;
+    private final double k;
+    private final PolarizationHistogram histogram;
+    private final ServerProxy serverProxy;
 
     /**
      * Constructeur de la classe Polarimeter.
@@ -27,9 +46,69 @@ public class Polarimeter {
      * @param delay Le délai entre chaque mesure de la polarisation (en millisecondes).
      */
     public Polarimeter(List<User> users, String topic, long delay) {
+        this(users, topic, delay, PolarizationHistogram.DEFAULT_BINS, PolarizationHistogram.DEFAULT_ALPHA,
+                PolarizationHistogram.DEFAULT_K, false);
+    }
+
+    /**
+     * Constructeur de la classe Polarimeter.
+     *
+     * @param users La liste des utilisateurs participant à la mesure.
+     * @param topic Le sujet sur lequel la polarisation est mesurée.
+     * @param delay Le délai entre chaque mesure de la polarisation (en millisecondes).
+     * @param bins Le nombre de bins.
+     * @param alpha L'exposant appliqué aux effectifs des bins.
+     * @param k Le facteur de normalisation.
+     * @param incremental true pour suivre les changements d'opinion au lieu de parcourir les utilisateurs à chaque mesure.
+     */
+    public Polarimeter(List<User> users, String topic, long delay, int bins, double alpha, double k, boolean incremental) {
         this.users = users;
         this.topic = topic;
         this.delay = delay;
+        this.bins = bins;
+        this.alpha = alpha;
+        this.k = k;
+        this.histogram = incremental ? new PolarizationHistogram(bins, alpha, k) : null;
+        this.serverProxy = null;
+        if (incremental) {
+            for (User user : users) {
+                new Tracker(user).start();
+            }
+        }
+    }
+
+    /**
+     * Constructeur de la classe Polarimeter en mode distant : la polarisation est demandée au serveur.
+     *
+     * @param serverProxy Le proxy vers le serveur.
+     * @param topic Le sujet sur lequel la polarisation est mesurée.
+     * @param delay Le délai entre chaque mesure de la polarisation (en millisecondes).
+     */
+    public Polarimeter(ServerProxy serverProxy, String topic, long delay) {
+        this(serverProxy, topic, delay, PolarizationHistogram.DEFAULT_BINS, PolarizationHistogram.DEFAULT_ALPHA,
+                PolarizationHistogram.DEFAULT_K);
+    }
+
+    /**
+     * Constructeur de la classe Polarimeter en mode distant : l'histogramme agrégé est demandé au serveur, et
+     * la polarisation en est calculée ici avec les paramètres donnés.
+     *
+     * @param serverProxy Le proxy vers le serveur.
+     * @param topic Le sujet sur lequel la polarisation est mesurée.
+     * @param delay Le délai entre chaque mesure de la polarisation (en millisecondes).
+     * @param bins Le nombre de bins, qui doit être celui des rapports envoyés au serveur.
+     * @param alpha L'exposant appliqué aux effectifs des bins.
+     * @param k Le facteur de normalisation.
+     */
+    public Polarimeter(ServerProxy serverProxy, String topic, long delay, int bins, double alpha, double k) {
+        this.users = null;
+        this.topic = topic;
+        this.delay = delay;
+        this.bins = bins;
+        this.alpha = alpha;
+        this.k = k;
+        this.histogram = null;
+        this.serverProxy = serverProxy;
     }
 
     /**
@@ -49,39 +128,88 @@ public class Polarimeter {
      * Mesure la polarisation des opinions des utilisateurs et enregistre le résultat dans les logs.
      */
     private void measurePolarization() {
-        int[] bins = new int[5];
-        double[] midpoints = {0.1, 0.3, 0.5, 0.7, 0.9};
-        double alpha = 1.6;
-        double K = 1.0;
+        logger.info("Polarization on topic " + topic + " is " + getPolarization());
+    }
 
+    /**
+     * Renvoie la polarisation courante des opinions sur le sujet. En mode incrémental, la valeur est lue
+     * sans parcourir les utilisateurs.
+     *
+     * @return La polarisation.
+     */
+    public double getPolarization() {
+        if (serverProxy != null) {
+            long[] counts = serverProxy.getPolarizationCounts(topic);
+            if (counts == null) {
+                return Double.NaN;
+            }
+            if (counts.length != bins) {
+                logger.warning("Server aggregates topic " + topic + " with " + counts.length + " bins, not " + bins);
+                return Double.NaN;
+            }
+            return PolarizationHistogram.polarization(counts, alpha, k);
+        }
+        if (histogram != null) {
+            return histogram.getPolarization();
+        }
+        long[] counts = new long[bins];
         for (User user : users) {
-            double opinion = user.getOpinion();
-            int binIndex = (int) (opinion * 5);
-            if (binIndex == 5) binIndex = 4; // gérer le cas limite pour opinion = 1.0
-            bins[binIndex]++;
+            counts[PolarizationHistogram.binOf(user.getOpinion(topic), bins)]++;
+        }
+        return PolarizationHistogram.polarization(counts, alpha, k);
+    }
+
+    /**
+     * Suit l'opinion d'un utilisateur sur le sujet mesuré et la reporte dans l'histogramme.
+     * Le bin compté pour l'utilisateur est recalculé à partir de son opinion courante, ce qui corrige
+     * les notifications simultanées arrivées dans le désordre.
+     */
+    private final class Tracker implements OpinionListener {
+        private final User user;
+        private int bin;
+
+        Tracker(User user) {
+            this.user = user;
+        }
+
+        void start() {
+            synchronized (this) {
+                user.addOpinionListener(this);
+                bin = histogram.binOf(user.pinOpinion(topic));
+                histogram.add(bin, 1);
+            }
         }
 
-        double polarization = 0.0;
-        for (int i = 0; i < bins.length; i++) {
-            for (int j = 0; j < bins.length; j++) {
-                polarization += Math.pow(bins[i], 1 + alpha) * bins[j] * Math.abs(midpoints[i] - midpoints[j]);
+        @Override
+        public void opinionChanged(User changed, String changedTopic, double previous, double current) {
+            if (!topic.equals(changedTopic)) {
+                return;
+            }
+            synchronized (this) {
+                int updated = histogram.binOf(user.getOpinion(topic));
+                histogram.move(bin, updated);
+                bin = updated;
             }
         }
-        polarization *= K;
-        logger.info("Polarization on topic " + topic + " is " + polarization);
     }
 
     /**
      * Méthode principale pour exécuter Polarimeter. Initialise les utilisateurs avec des opinions
      * et des influences aléatoires et démarre le processus de mesure de la polarisation sur un sujet
-     * spécifié.
+     * spécifié. Avec {@code --transport=loopback}, le serveur et les utilisateurs tournent dans cette JVM
+     * sans socket ({@link LoopbackTransport}), et les adresses du serveur sont ignorées. Avec
+     * {@code --incremental=true}, la polarisation est tenue à jour à chaque changement d'opinion. Avec
+     * {@code --remote=true}, les utilisateurs créés ici rendent compte de leurs opinions au serveur, et la
+     * polarisation mesurée est calculée, avec {@code --bins}, {@code --alpha} et {@code --k}, sur l'histogramme
+     * que le serveur agrège sur tous les hôtes.
      *
      * @param args Arguments de la ligne de commande au format :
      *             --users=<user1,user2,...> --topic=<topic> --delay=<delay> --serverIp=<serverIp> --serverPort=<serverPort> --port=<startPort>
+     *             [--transport=tcp|loopback] [--incremental=true] [--bins=<bins>] [--alpha=<alpha>] [--k=<K>] [--remote=true]
      */
     public static void main(String[] args) {
         if (args.length < 6) {
-            System.out.println("Utilisation : java Polarimeter --users=<user1,user2,...> --topic=<topic> --delay=<delay> --serverIp=<serverIp> --serverPort=<serverPort> --port=<startPort>");
+            System.out.println("Utilisation : java Polarimeter --users=<user1,user2,...> --topic=<topic> --delay=<delay> --serverIp=<serverIp> --serverPort=<serverPort> --port=<startPort> [--transport=tcp|loopback] [--incremental=true] [--bins=<bins>] [--alpha=<alpha>] [--k=<K>] [--remote=true] [--journal=<dossier>]");
             return;
         }
 
@@ -91,16 +219,63 @@ public class Polarimeter {
         String serverIp = args[3].split("=")[1];
         int serverPort = Integer.parseInt(args[4].split("=")[1]);
         int startPort = Integer.parseInt(args[5].split("=")[1]);
+        Transport transport = Transport.tcp();
+        boolean incremental = false;
+        boolean remote = false;
+        String journalDirectory = null;
+        int bins = PolarizationHistogram.DEFAULT_BINS;
+        double alpha = PolarizationHistogram.DEFAULT_ALPHA;
+        double k = PolarizationHistogram.DEFAULT_K;
+        for (int i = 6; i < args.length; i++) {
+            String value = args[i].split("=")[1];
+            if (args[i].startsWith("--transport=")) {
+                transport = value.equals("loopback") ? new LoopbackTransport() : Transport.tcp();
+            } else if (args[i].startsWith("--incremental=")) {
+                incremental = Boolean.parseBoolean(value);
+            } else if (args[i].startsWith("--bins=")) {
+                bins = Integer.parseInt(value);
+            } else if (args[i].startsWith("--alpha=")) {
+                alpha = Double.parseDouble(value);
+            } else if (args[i].startsWith("--k=")) {
+                k = Double.parseDouble(value);
+            } else if (args[i].startsWith("--remote=")) {
+                remote = Boolean.parseBoolean(value);
+            } else if (args[i].startsWith("--journal=")) {
+                journalDirectory = value;
+            }
+        }
 
         Random random = new Random();
         List<User> users = new ArrayList<>();
         for (int i = 0; i < userIds.length; i++) {
             double opinion = random.nextDouble();
             double influence = random.nextDouble();
-            users.add(new User(userIds[i], opinion, influence, serverIp, serverPort, startPort + i));
+            users.add(new User(userIds[i], opinion, influence, serverIp, serverPort, startPort + i, transport));
+        }
+        if (journalDirectory != null) {
+            try {
+                OpinionJournal journal = new OpinionJournal(Paths.get(journalDirectory));
+                for (User user : users) {
+                    user.addOpinionListener(journal);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
-        Polarimeter polarimeter = new Polarimeter(users, topic, delay);
+        Polarimeter polarimeter;
+        if (remote) {
+            ServerProxy serverProxy = new ServerProxy(transport, serverIp, serverPort);
+            PolarizationReporter reporter = new PolarizationReporter("polarimeter-" + startPort, serverProxy,
+                    bins, Math.min(delay, PolarizationReporter.DEFAULT_INTERVAL_MS));
+            for (User user : users) {
+                reporter.track(user);
+            }
+            reporter.start();
+            polarimeter = new Polarimeter(serverProxy, topic, delay, bins, alpha, k);
+        } else {
+            polarimeter = new Polarimeter(users, topic, delay, bins, alpha, k, incremental);
+        }
         polarimeter.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La classe PolarizationAggregator fusionne, côté serveur, les histogrammes d'opinions envoyés par les
+ * hôtes d'utilisateurs ({@link PolarizationReporter}) en un histogramme global par sujet.
+ *
+ * <p>
+ * Chaque hôte est identifié par un identifiant de rapporteur. Sa contribution à chaque sujet est conservée,
+ * afin qu'un rapport complet (par exemple après un redémarrage de l'hôte) remplace exactement l'ancienne
+ * contribution au lieu de s'y ajouter. Les rapports suivants ne transportent que les variations des effectifs.
+ * Un rapport de variations n'est accepté que d'un rapporteur dont le serveur connaît déjà la contribution :
+ * après un redémarrage du serveur, le rapporteur doit d'abord renvoyer ses effectifs complets. Les effectifs
+ * de chaque rapporteur restent positifs ou nuls, même si des variations incohérentes arrivent.
+ * </p>
+ */
+public class PolarizationAggregator {
+    private final Map<String, TopicAggregate> topics = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, long[]>> reporters = new ConcurrentHashMap<>();
+
+    /**
+     * Applique le rapport d'un hôte.
+     *
+     * @param reporterId L'identifiant du rapporteur.
+     * @param full true si le rapport donne les effectifs complets du rapporteur, qui remplacent toute sa
+     *             contribution précédente ; false s'il ne contient que des variations.
+     * @param bins Le nombre de bins des histogrammes.
+     * @param counts Les effectifs (ou leurs variations) de chaque sujet.
+     * @throws IllegalStateException Si un rapport de variations provient d'un rapporteur sans contribution connue.
+     */
+    public void report(String reporterId, boolean full, int bins, Map<String, long[]> counts) {
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            if (entry.getValue().length != bins) {
+                throw new IllegalArgumentException("Expected " + bins + " bins for topic " + entry.getKey());
+            }
+            topic(entry.getKey(), bins);
+        }
+        Map<String, long[]> contributions = full ? reporters.computeIfAbsent(reporterId, id -> new HashMap<>())
+                : reporters.get(reporterId);
+        if (contributions == null) {
+            throw new IllegalStateException("FULL report required from unknown reporter " + reporterId);
+        }
+        synchronized (contributions) {
+            if (full) {
+                for (Map.Entry<String, long[]> previous : contributions.entrySet()) {
+                    if (!counts.containsKey(previous.getKey())) {
+                        topics.get(previous.getKey()).apply(previous.getValue(), -1);
+                    }
+                }
+                contributions.keySet().retainAll(counts.keySet());
+            }
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                long[] values = entry.getValue();
+                TopicAggregate aggregate = topic(entry.getKey(), bins);
+                long[] contribution = contributions.computeIfAbsent(entry.getKey(), topic -> new long[bins]);
+                long[] delta = new long[bins];
+                for (int i = 0; i < bins; i++) {
+                    // Un effectif ne descend jamais sous zéro, ce qui rendrait la polarisation indéfinie
+                    long updated = Math.max(full ? values[i] : contribution[i] + values[i], 0);
+                    delta[i] = updated - contribution[i];
+                    contribution[i] = updated;
+                }
+                aggregate.apply(delta, 1);
+            }
+        }
+    }
+
+    /**
+     * Renvoie l'histogramme global d'un sujet.
+     *
+     * @param topic Le sujet.
+     * @return L'histogramme, ou null si aucun hôte n'a encore rendu compte de ce sujet.
+     */
+    public PolarizationHistogram getHistogram(String topic) {
+        TopicAggregate aggregate = topics.get(topic);
+        return aggregate != null ? aggregate.histogram : null;
+    }
+
+    private TopicAggregate topic(String topic, int bins) {
+        TopicAggregate aggregate = topics.computeIfAbsent(topic, t -> new TopicAggregate(bins));
+        if (aggregate.histogram.getBins() != bins) {
+            throw new IllegalArgumentException("Topic " + topic + " is aggregated with " + aggregate.histogram.getBins() + " bins");
+        }
+        return aggregate;
+    }
+
+    /**
+     * L'histogramme global d'un sujet.
+     */
+    private static final class TopicAggregate {
+        private final PolarizationHistogram histogram;
+
+        TopicAggregate(int bins) {
+            this.histogram = new PolarizationHistogram(bins, PolarizationHistogram.DEFAULT_ALPHA, PolarizationHistogram.DEFAULT_K);
+        }
+
+        void apply(long[] delta, int sign) {
+            synchronized (histogram) {
+                for (int i = 0; i < delta.length; i++) {
+                    histogram.add(i, sign * delta[i]);
+                }
+            }
+        }
+    }
+}
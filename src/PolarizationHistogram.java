@@ -0,0 +1,152 @@
+/**
+ * La classe PolarizationHistogram répartit des opinions comprises entre 0 et 1 en intervalles (bins) de même
+ * largeur et en déduit une mesure de polarisation :
+ * {@code K * somme(i, j) de n_i^(1 + alpha) * n_j * |m_i - m_j|}, où {@code n_i} est le nombre d'opinions
+ * du bin {@code i} et {@code m_i} son milieu.
+ *
+ * <p>
+ * Les effectifs sont mis à jour un par un, et la polarisation est maintenue à chaque changement en
+ * O(nombre de bins) : pour chaque bin {@code i}, la somme entière {@code S_i = somme(j) de n_j * |i - j|}
+ * est conservée exactement, et la polarisation vaut {@code K / bins * somme(i) de n_i^(1 + alpha) * S_i}.
+ * Sa lecture ne coûte qu'une lecture volatile.
+ * </p>
+ */
+public class PolarizationHistogram {
+
+    /** Nombre de bins par défaut. */
+    public static final int DEFAULT_BINS = 5;
+
+    /** Exposant {@code alpha} par défaut. */
+    public static final double DEFAULT_ALPHA = 1.6;
+
+    /** Facteur {@code K} par défaut. */
+    public static final double DEFAULT_K = 1.0;
+
+    private final double alpha;
+    private final double k;
+    private final long[] counts;
+    private final double[] weights;
+    private final long[] distanceSums;
+    private volatile double polarization;
+
+    /**
+     * Constructeur de la classe PolarizationHistogram, avec des effectifs nuls.
+     *
+     * @param bins Le nombre de bins.
+     * @param alpha L'exposant appliqué aux effectifs.
+     * @param k Le facteur de normalisation.
+     */
+    public PolarizationHistogram(int bins, double alpha, double k) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("At least one bin is required: " + bins);
+        }
+        this.alpha = alpha;
+        this.k = k;
+        this.counts = new long[bins];
+        this.weights = new double[bins];
+        this.distanceSums = new long[bins];
+    }
+
+    /**
+     * Renvoie le nombre de bins.
+     *
+     * @return Le nombre de bins.
+     */
+    public int getBins() {
+        return counts.length;
+    }
+
+    /**
+     * Renvoie le bin d'une opinion. Les opinions hors de [0, 1] sont rangées dans le premier ou le dernier bin.
+     *
+     * @param opinion L'opinion.
+     * @return L'indice du bin.
+     */
+    public int binOf(double opinion) {
+        return binOf(opinion, counts.length);
+    }
+
+    /**
+     * Renvoie le bin d'une opinion pour un nombre de bins donné.
+     *
+     * @param opinion L'opinion.
+     * @param bins Le nombre de bins.
+     * @return L'indice du bin.
+     */
+    public static int binOf(double opinion, int bins) {
+        int bin = (int) (opinion * bins);
+        return bin < 0 ? 0 : Math.min(bin, bins - 1); // opinion = 1.0 va dans le dernier bin
+    }
+
+    /**
+     * Ajoute des opinions à un bin.
+     *
+     * @param bin L'indice du bin.
+     * @param delta Le nombre d'opinions à ajouter (négatif pour en retirer).
+     */
+    public synchronized void add(int bin, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        int bins = counts.length;
+        counts[bin] += delta;
+        weights[bin] = Math.pow(counts[bin], 1 + alpha);
+        double sum = 0.0;
+        for (int i = 0; i < bins; i++) {
+            distanceSums[i] += delta * Math.abs(i - bin);
+            sum += weights[i] * distanceSums[i];
+        }
+        polarization = k * sum / bins;
+    }
+
+    /**
+     * Déplace une opinion d'un bin à un autre.
+     *
+     * @param from Le bin de départ.
+     * @param to Le bin d'arrivée.
+     */
+    public synchronized void move(int from, int to) {
+        if (from != to) {
+            add(from, -1);
+            add(to, 1);
+        }
+    }
+
+    /**
+     * Renvoie une copie des effectifs de chaque bin.
+     *
+     * @return Les effectifs.
+     */
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Renvoie la polarisation correspondant aux effectifs courants.
+     *
+     * @return La polarisation.
+     */
+    public double getPolarization() {
+        return polarization;
+    }
+
+    /**
+     * Calcule la polarisation d'une répartition d'opinions en bins.
+     *
+     * @param counts Les effectifs de chaque bin.
+     * @param alpha L'exposant appliqué aux effectifs.
+     * @param k Le facteur de normalisation.
+     * @return La polarisation.
+     */
+    public static double polarization(long[] counts, double alpha, double k) {
+        int bins = counts.length;
+        double polarization = 0.0;
+        for (int i = 0; i < bins; i++) {
+            double weight = Math.pow(counts[i], 1 + alpha);
+            for (int j = 0; j < bins; j++) {
+                polarization += weight * counts[j] * Math.abs(i - j) / (double) bins;
+            }
+        }
+        return k * polarization;
+    }
+}
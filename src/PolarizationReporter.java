@@ -0,0 +1,195 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * La classe PolarizationReporter rend compte au serveur central des opinions des utilisateurs d'un hôte,
+ * pour que le serveur puisse mesurer la polarisation de tous les utilisateurs, quel que soit le processus
+ * où ils tournent.
+ *
+ * <p>
+ * Le rapporteur s'abonne aux changements d'opinion des utilisateurs suivis ({@link OpinionListener}) et
+ * tient, pour chaque sujet, l'histogramme de leurs opinions. Un utilisateur est compté sur un sujet dès sa
+ * première mise à jour sur ce sujet. À intervalles réguliers, un seul message {@code REPORT} transporte les
+ * variations des effectifs de tous les sujets modifiés depuis le rapport précédent : un utilisateur qui change
+ * souvent d'opinion sans changer de bin ne génère aucun trafic. Le premier rapport, puis un rapport sur
+ * {@link #FULL_REPORT_EVERY}, ainsi que le rapport suivant un échec, donnent les effectifs complets, ce qui
+ * resynchronise le serveur après une perte de rapport ou un redémarrage.
+ * </p>
+ */
+public class PolarizationReporter {
+    private static final Logger logger = Logger.getLogger(PolarizationReporter.class.getName());
+
+    /** Intervalle par défaut entre deux rapports (en millisecondes). */
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    /** Nombre de rapports entre deux rapports complets. */
+    public static final int FULL_REPORT_EVERY = 60;
+
+    private final String reporterId;
+    private final ServerProxy serverProxy;
+    private final int bins;
+    private final long intervalMs;
+    private final Map<String, TopicCounts> topics = new ConcurrentHashMap<>();
+    private Timer timer;
+    private boolean synced;
+    private int reportsSinceFull;
+
+    /**
+     * Constructeur de la classe PolarizationReporter.
+     *
+     * @param reporterId L'identifiant de l'hôte, unique parmi les hôtes qui rendent compte au serveur.
+     * @param serverProxy Le proxy vers le serveur.
+     * @param bins Le nombre de bins des histogrammes.
+     * @param intervalMs L'intervalle entre deux rapports (en millisecondes).
+     */
+    public PolarizationReporter(String reporterId, ServerProxy serverProxy, int bins, long intervalMs) {
+        this.reporterId = reporterId;
+        this.serverProxy = serverProxy;
+        this.bins = bins;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Commence à suivre les opinions d'un utilisateur.
+     *
+     * @param user L'utilisateur à suivre.
+     */
+    public void track(User user) {
+        user.addOpinionListener(new Tracker());
+    }
+
+    /**
+     * Démarre l'envoi périodique des rapports.
+     */
+    public synchronized void start() {
+        if (timer == null) {
+            timer = new Timer("polarization-reporter-" + reporterId, true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, intervalMs, intervalMs);
+        }
+    }
+
+    /**
+     * Arrête l'envoi périodique des rapports, après un dernier rapport.
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+            flush();
+        }
+    }
+
+    /**
+     * Envoie immédiatement au serveur les variations accumulées depuis le rapport précédent.
+     *
+     * @return true si le rapport a été accepté ou s'il n'y avait rien à envoyer.
+     */
+    public synchronized boolean flush() {
+        boolean full = !synced || ++reportsSinceFull >= FULL_REPORT_EVERY;
+        Map<String, long[]> report = new LinkedHashMap<>();
+        for (Map.Entry<String, TopicCounts> entry : topics.entrySet()) {
+            long[] counts = entry.getValue().drain(full);
+            if (counts != null) {
+                report.put(entry.getKey(), counts);
+            }
+        }
+        if (report.isEmpty() && !full) {
+            return true;
+        }
+        if (serverProxy.reportPolarization(reporterId, full, bins, report)) {
+            synced = true;
+            if (full) {
+                reportsSinceFull = 0;
+            }
+            return true;
+        }
+        synced = false;
+        if (!full) {
+            for (Map.Entry<String, long[]> entry : report.entrySet()) {
+                topics.get(entry.getKey()).restore(entry.getValue());
+            }
+        }
+        return false;
+    }
+
+    private void record(String topic, Integer previousBin, int bin) {
+        TopicCounts counts = topics.computeIfAbsent(topic, t -> new TopicCounts(bins));
+        counts.move(previousBin, bin);
+    }
+
+    /**
+     * Les effectifs d'un sujet sur cet hôte et leurs variations non encore rapportées.
+     */
+    private static final class TopicCounts {
+        private final long[] totals;
+        private long[] pending;
+        private boolean changed;
+
+        TopicCounts(int bins) {
+            this.totals = new long[bins];
+            this.pending = new long[bins];
+        }
+
+        synchronized void move(Integer from, int to) {
+            if (from != null) {
+                totals[from]--;
+                pending[from]--;
+            }
+            totals[to]++;
+            pending[to]++;
+            changed = true;
+        }
+
+        /**
+         * Renvoie les effectifs complets ou les variations à rapporter, et remet les variations à zéro.
+         *
+         * @return Les effectifs à rapporter, ou null si rien n'a changé depuis le rapport précédent.
+         */
+        synchronized long[] drain(boolean full) {
+            if (!full && !changed) {
+                return null;
+            }
+            long[] drained = full ? totals.clone() : pending;
+            pending = new long[totals.length];
+            changed = false;
+            return drained;
+        }
+
+        synchronized void restore(long[] delta) {
+            for (int i = 0; i < delta.length; i++) {
+                pending[i] += delta[i];
+            }
+            changed = true;
+        }
+    }
+
+    /**
+     * Suit les opinions d'un utilisateur. Le bin compté pour chaque sujet est recalculé à partir de l'opinion
+     * courante, ce qui corrige les notifications simultanées arrivées dans le désordre.
+     */
+    private final class Tracker implements OpinionListener {
+        private final Map<String, Integer> bins = new HashMap<>();
+
+        @Override
+        public synchronized void opinionChanged(User user, String topic, double previous, double current) {
+            if (topic == null) {
+                return;
+            }
+            int bin = PolarizationHistogram.binOf(user.getOpinion(topic), PolarizationReporter.this.bins);
+            Integer previousBin = bins.put(topic, bin);
+            if (previousBin == null || previousBin != bin) {
+                record(topic, previousBin, bin);
+            }
+        }
+    }
+}
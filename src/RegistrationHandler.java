@@ -1,13 +1,47 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * La classe RegistrationHandler gère les enregistrements des utilisateurs et les notifications des nouveaux sujets. 
  * Elle traite les messages entrants des utilisateurs et prend les actions appropriées.
+ *
+ * <p>
+ * Une même connexion peut transporter plusieurs commandes : le gestionnaire les traite tant que le client
+ * ne ferme pas la connexion. Si la première ligne est {@link ServerConnection#MUX_HELLO}, la connexion passe
+ * en mode multiplexé, où chaque requête et chaque réponse tiennent sur une ligne préfixée par un identifiant.
+ * Une connexion multiplexée reçoit aussi les changements de l'annuaire, poussés sous la forme
+ * {@code ! UPDATE <ip> <port> <id>} pour invalider les caches des clients.
+ * </p>
+ *
+ * <p>
+ * Si le premier octet reçu est {@link BinaryProtocol#MAGIC}, la connexion utilise le protocole binaire :
+ * les requêtes sont des trames dont les arguments sont délimités par leur longueur.
+ * </p>
  */
 public class RegistrationHandler implements Runnable {
+    private static final Map<String, CommandMetrics> COMMAND_METRICS = new HashMap<>();
+    private static final LongAdder UNKNOWN_COMMANDS = Metrics.counter("server.command.unknown");
+
+    static {
+        for (String name : BinaryProtocol.commandNames()) {
+            COMMAND_METRICS.put(name, new CommandMetrics(name));
+        }
+    }
+
     private final Socket socket;
     private final Server server;
 
@@ -29,30 +63,30 @@ public class RegistrationHandler implements Runnable {
      */
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-
-            String message = in.readLine();
-            if (message.startsWith("USER:")) {
-                String userId = message.split(":")[1];
-                String ipAddress = socket.getInetAddress().getHostAddress();
-                int port = Integer.parseInt(in.readLine());
-                server.registerUser(userId, ipAddress, port);
-                out.println("Registration successful");
-            } else if (message.startsWith("PROPOSER:")) {
-                String topic = message.split(":")[1];
-                server.notifyNewTopic(topic);
-                out.println("Topic registered: " + topic);
-            } else if (message.startsWith("GET_USER_INFO:")) {
-                String userId = message.split(":")[1];
-                UserInfo userInfo = server.getUserInfo(userId);
-                if (userInfo != null) {
-                    out.println(userInfo.getIpAddress());
-                    out.println(userInfo.getPort());
-                } else {
-                    out.println("null");
-                    out.println("0");
+        try (BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+             OutputStream output = socket.getOutputStream()) {
+
+            String ipAddress = socket.getInetAddress().getHostAddress();
+            input.mark(1);
+            int first = input.read();
+            if (first == BinaryProtocol.MAGIC) {
+                serveBinary(input, new BufferedOutputStream(output), ipAddress);
+                socket.close();
+                return;
+            }
+            input.reset();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            PrintWriter out = new PrintWriter(output, true);
+            String message;
+            while ((message = in.readLine()) != null) {
+                if (message.equals(ServerConnection.MUX_HELLO)) {
+                    serveMultiplexed(in, out, ipAddress);
+                    break;
                 }
+                String continuation = expectsContinuation(message) ? in.readLine() : null;
+                out.print(executeLegacy(server, message, continuation, ipAddress));
+                out.flush();
             }
 
             socket.close();
@@ -60,4 +94,402 @@ public class RegistrationHandler implements Runnable {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Indique si une commande du protocole historique est suivie d'une seconde ligne.
+     * C'est le cas de {@code USER:<id>}, suivie du port d'écoute de l'utilisateur.
+     *
+     * @param message La première ligne de la commande.
+     * @return true si une seconde ligne doit être lue avant d'exécuter la commande.
+     */
+    static boolean expectsContinuation(String message) {
+        return message.startsWith("USER:");
+    }
+
+    /**
+     * Exécute une commande du protocole historique et renvoie sa réponse, chaque ligne étant terminée par
+     * {@code '\n'}. Une commande inconnue ne produit aucune réponse.
+     *
+     * @param server Le serveur sur lequel exécuter la commande.
+     * @param message La première ligne de la commande.
+     * @param continuation La seconde ligne de la commande, si {@link #expectsContinuation(String)} l'exige.
+     * @param ipAddress L'adresse IP du client.
+     * @return La réponse à renvoyer au client.
+     * @throws IllegalArgumentException Si la commande désigne un utilisateur d'une autre partition de l'annuaire ;
+     *                                  le protocole historique n'ayant pas de réponse d'erreur, la connexion est
+     *                                  alors fermée.
+     */
+    static String executeLegacy(Server server, String message, String continuation, String ipAddress) {
+        long start = System.nanoTime();
+        StringBuilder out = new StringBuilder();
+        String name;
+        if (message.startsWith("USER:")) {
+            name = "USER";
+            String userId = message.split(":")[1];
+            int port = Integer.parseInt(continuation);
+            server.registerUser(userId, ipAddress, port);
+            out.append("Registration successful\n");
+        } else if (message.startsWith("PROPOSER:")) {
+            name = "PROPOSER";
+            String topic = message.split(":")[1];
+            server.notifyNewTopic(topic);
+            out.append("Topic registered: ").append(topic).append('\n');
+        } else if (message.startsWith("GET_USERS_INFO:")) {
+            name = "GET_USERS_INFO";
+            String[] userIds = message.substring(15).split(",");
+            Map<String, UserInfo> userInfos = server.getUserInfos(Arrays.asList(userIds));
+            for (String userId : userIds) {
+                appendLegacyUserInfo(out, userInfos.get(userId));
+            }
+        } else if (message.startsWith("GET_USER_INFO:")) {
+            name = "GET_USER_INFO";
+            String userId = message.split(":")[1];
+            appendLegacyUserInfo(out, server.getUserInfo(userId));
+        } else if (message.equals("STATS")) {
+            name = "STATS";
+            out.append(Metrics.format()).append('\n');
+        } else if (message.equals("SHARDS")) {
+            name = "SHARDS";
+            out.append(formatShards(server)).append('\n');
+        } else {
+            UNKNOWN_COMMANDS.increment();
+            return out.toString();
+        }
+        recordCommand(name, start, false);
+        return out.toString();
+    }
+
+    private static String formatUsers(Map<String, UserInfo> users) {
+        StringBuilder response = new StringBuilder(users.size() * 32);
+        for (Map.Entry<String, UserInfo> user : users.entrySet()) {
+            if (response.length() > 0) {
+                response.append(' ');
+            }
+            response.append(user.getKey()).append(' ').append(user.getValue().getIpAddress())
+                    .append(' ').append(user.getValue().getPort());
+        }
+        return response.toString();
+    }
+
+    private static String formatShards(Server server) {
+        ShardRing ring = server.getShardRing();
+        return ring == null ? "" : String.join(" ", ring.getShards());
+    }
+
+    /**
+     * Enregistre l'exécution d'une commande dans les mesures du serveur.
+     *
+     * @param name Le nom de la commande.
+     * @param start L'instant de début de l'exécution ({@link System#nanoTime()}).
+     * @param failed true si la commande a renvoyé une erreur.
+     */
+    private static void recordCommand(String name, long start, boolean failed) {
+        CommandMetrics metrics = COMMAND_METRICS.get(name);
+        if (metrics == null) {
+            UNKNOWN_COMMANDS.increment();
+            return;
+        }
+        metrics.latency.record(System.nanoTime() - start);
+        if (failed) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * Les mesures d'une commande : sa latence, dont l'effectif donne le nombre d'exécutions, et ses erreurs.
+     */
+    private static final class CommandMetrics {
+        private final LatencyHistogram latency;
+        private final LongAdder errors;
+
+        CommandMetrics(String name) {
+            this.latency = Metrics.histogram("server.command." + name);
+            this.errors = Metrics.counter("server.command." + name + ".errors");
+        }
+    }
+
+    private static void appendLegacyUserInfo(StringBuilder out, UserInfo userInfo) {
+        if (userInfo != null) {
+            out.append(userInfo.getIpAddress()).append('\n').append(userInfo.getPort()).append('\n');
+        } else {
+            out.append("null\n0\n");
+        }
+    }
+
+    /**
+     * Traite les trames d'une connexion binaire jusqu'à sa fermeture.
+     *
+     * @param in Le flux d'entrée, positionné après l'octet {@link BinaryProtocol#MAGIC}.
+     * @param out Le flux de sortie de la connexion.
+     * @param ipAddress L'adresse IP du client.
+     * @throws IOException Si la lecture ou l'écriture échoue.
+     */
+    private void serveBinary(InputStream in, OutputStream out, String ipAddress) throws IOException {
+        Server.DirectoryListener listener = (userId, userInfo) -> writeFrame(out, BinaryProtocol.encodePush(updateEvent(userId, userInfo)));
+        server.addDirectoryListener(listener);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            ByteBuffer frame;
+            while ((frame = BinaryProtocol.readFrame(in, buffer)) != null) {
+                buffer = frame;
+                if (frame.get() != BinaryProtocol.REQUEST) {
+                    throw new IOException("Unexpected frame type from " + ipAddress);
+                }
+                BinaryProtocol.Request request = BinaryProtocol.decodeRequest(frame);
+                String response = executeCommand(server, request.getName(), request.getArgs(), ipAddress);
+                writeFrame(out, BinaryProtocol.encodeResponse(request.getRequestId(), response));
+            }
+        } finally {
+            server.removeDirectoryListener(listener);
+        }
+    }
+
+    private static void writeFrame(OutputStream out, byte[] frame) {
+        synchronized (out) {
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                // La connexion est fermée ; la boucle de lecture s'arrêtera
+            }
+        }
+    }
+
+    /**
+     * Traite les requêtes d'une connexion multiplexée jusqu'à sa fermeture.
+     * Chaque ligne reçue a la forme {@code <id> <commande>} et reçoit une réponse {@code <id> <résultat>}.
+     *
+     * @param in Le flux d'entrée de la connexion.
+     * @param out Le flux de sortie de la connexion.
+     * @param ipAddress L'adresse IP du client.
+     * @throws Exception Si la lecture échoue.
+     */
+    private void serveMultiplexed(BufferedReader in, PrintWriter out, String ipAddress) throws Exception {
+        Server.DirectoryListener listener = (userId, userInfo) -> out.println(ServerConnection.PUSH_PREFIX + updateEvent(userId, userInfo));
+        server.addDirectoryListener(listener);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    out.println("0 ERROR Malformed request");
+                    continue;
+                }
+                String requestId = line.substring(0, separator);
+                out.println(requestId + " " + execute(server, line.substring(separator + 1), ipAddress));
+            }
+        } finally {
+            server.removeDirectoryListener(listener);
+        }
+    }
+
+    /**
+     * Construit l'événement poussé aux clients multiplexés lorsqu'un utilisateur change d'adresse
+     * ({@code UPDATE <ip> <port> <id>}) ou est retiré de l'annuaire ({@code REMOVE <id>}).
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Les nouvelles informations de l'utilisateur, ou null s'il a été retiré.
+     * @return L'événement, sans le préfixe {@link ServerConnection#PUSH_PREFIX} du mode texte.
+     */
+    static String updateEvent(String userId, UserInfo userInfo) {
+        if (userInfo == null) {
+            return "REMOVE " + userId;
+        }
+        return "UPDATE " + userInfo.getIpAddress() + " " + userInfo.getPort() + " " + userId;
+    }
+
+    /**
+     * Exécute une commande du protocole multiplexé et renvoie sa réponse sur une seule ligne.
+     *
+     * <ul>
+     *   <li>{@code USER:<id>:<port>} renvoie {@code Registration successful} ;</li>
+     *   <li>{@code PROPOSER:<topic>} renvoie {@code Topic registered: <topic>} ;</li>
+     *   <li>{@code GET_USER_INFO:<id>} renvoie {@code <ip> <port>}, ou {@code null 0} si l'utilisateur est inconnu ;</li>
+     *   <li>{@code GET_USERS_INFO:<id1>,<id2>,...} renvoie les paires {@code <ip> <port>} de chaque identifiant,
+     *       dans l'ordre, séparées par des espaces ;</li>
+     *   <li>{@code REPORT:<rapporteur>:FULL|DELTA:<bins>:<n0,n1,...>:<longueur du sujet>:<sujet>:...} fusionne
+     *       les histogrammes d'un hôte et renvoie {@code Report accepted} ; un rapport {@code DELTA} d'un
+     *       rapporteur inconnu (par exemple après un redémarrage du serveur) est refusé, et le rapporteur envoie
+     *       alors un rapport {@code FULL} ;</li>
+     *   <li>{@code POLARIZATION:<sujet>} renvoie {@code <polarisation> <n0,n1,...>}, ou {@code null} si aucun
+     *       hôte n'a rendu compte du sujet ;</li>
+     *   <li>{@code STATS} renvoie les mesures de la JVM du serveur ({@link Metrics#format()}) ;</li>
+     *   <li>{@code SHARDS} renvoie les partitions de l'annuaire ({@code <hôte>:<port>} séparés par des espaces),
+     *       ou une réponse vide si le serveur n'est pas partitionné ;</li>
+     *   <li>{@code SUBSCRIBE:<id>:[drop-oldest|coalesce|disconnect]:<motif>} abonne un utilisateur aux sujets
+     *       d'un motif, en choisissant éventuellement la politique de débordement de sa file, et renvoie
+     *       {@code Subscribed <motif>} ; la forme {@code SUBSCRIBE:<id>:<motif>} reste acceptée pour un motif
+     *       sans {@code ':'} ;</li>
+     *   <li>{@code UNSUBSCRIBE:<id>:<motif>} retire un abonnement et renvoie {@code Unsubscribed <motif>}, ou
+     *       {@code Not subscribed <motif>} ;</li>
+     *   <li>{@code SAMPLE:<n>} renvoie au plus {@code n} utilisateurs tirés au hasard, sous la forme de triplets
+     *       {@code <id> <ip> <port>} séparés par des espaces ;</li>
+     *   <li>{@code USERS:<rang>:<nombre>} renvoie une page des utilisateurs enregistrés, dans l'ordre de leur
+     *       inscription, sous la même forme ; une réponse vide marque la fin de la liste ;</li>
+     *   <li>{@code USER_BATCH:<port>:<id1>,<id2>,...} enregistre en une fois plusieurs utilisateurs partageant
+     *       l'adresse du client et le port donné, et renvoie {@code Registration successful <nombre>} ;</li>
+     *   <li>{@code HEARTBEAT:<id>} renouvelle le bail d'un utilisateur et renvoie {@code Lease renewed <durée>}
+     *       (0 si les baux sont désactivés), ou {@code Unknown user} s'il doit se réinscrire.</li>
+     * </ul>
+     *
+     * @param server Le serveur sur lequel exécuter la commande.
+     * @param command La commande, sans identifiant de requête.
+     * @param ipAddress L'adresse IP du client.
+     * @return La réponse à renvoyer au client.
+     */
+    static String execute(Server server, String command, String ipAddress) {
+        int colon = command.indexOf(':');
+        if (colon < 0) {
+            return executeCommand(server, command, new String[0], ipAddress);
+        }
+        String name = command.substring(0, colon);
+        String rest = command.substring(colon + 1);
+        String[] args;
+        if (name.equals("USER")) {
+            int separator = rest.lastIndexOf(':');
+            args = separator < 0 ? new String[] {rest} : new String[] {rest.substring(0, separator), rest.substring(separator + 1)};
+        } else if (name.equals("GET_USERS_INFO")) {
+            args = rest.split(",");
+        } else if (name.equals("USER_BATCH")) {
+            int separator = rest.indexOf(':');
+            String[] userIds = separator < 0 ? new String[0] : rest.substring(separator + 1).split(",");
+            args = new String[userIds.length + 1];
+            args[0] = separator < 0 ? rest : rest.substring(0, separator);
+            System.arraycopy(userIds, 0, args, 1, userIds.length);
+        } else if (name.equals("REPORT")) {
+            args = parseReport(rest);
+        } else if (name.equals("SUBSCRIBE")) {
+            String[] parts = rest.split(":", 3);
+            args = parts.length < 3 ? parts
+                    : parts[1].isEmpty() ? new String[] {parts[0], parts[2]} : new String[] {parts[0], parts[2], parts[1]};
+        } else if (name.equals("UNSUBSCRIBE") || name.equals("USERS")) {
+            args = rest.split(":", 2);
+        } else {
+            args = new String[] {rest};
+        }
+        return executeCommand(server, name, args, ipAddress);
+    }
+
+    /**
+     * Découpe les arguments d'une commande {@code REPORT} texte, dont chaque sujet est précédé de sa longueur,
+     * dans l'ordre des arguments binaires : rapporteur, type, bins, puis sujet et effectifs de chaque sujet.
+     */
+    private static String[] parseReport(String rest) {
+        String[] header = rest.split(":", 4);
+        List<String> args = new ArrayList<>(Arrays.asList(header).subList(0, Math.min(3, header.length)));
+        String body = header.length > 3 ? header[3] : "";
+        int position = 0;
+        while (position < body.length()) {
+            int countsEnd = body.indexOf(':', position);
+            int lengthEnd = countsEnd < 0 ? -1 : body.indexOf(':', countsEnd + 1);
+            if (lengthEnd < 0) {
+                throw new IllegalArgumentException("Malformed REPORT topic at " + position);
+            }
+            String counts = body.substring(position, countsEnd);
+            int topicEnd = lengthEnd + 1 + Integer.parseInt(body.substring(countsEnd + 1, lengthEnd));
+            args.add(body.substring(lengthEnd + 1, topicEnd));
+            args.add(counts);
+            position = topicEnd + 1;
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Exécute une commande déjà découpée en nom et arguments, quel que soit le protocole qui l'a transportée.
+     *
+     * @param server Le serveur sur lequel exécuter la commande.
+     * @param name Le nom de la commande (par exemple {@code USER}).
+     * @param args Les arguments de la commande.
+     * @param ipAddress L'adresse IP du client.
+     * @return La réponse à renvoyer au client, sur une seule ligne.
+     */
+    static String executeCommand(Server server, String name, String[] args, String ipAddress) {
+        long start = System.nanoTime();
+        String response = dispatch(server, name, args, ipAddress);
+        recordCommand(name, start, response.startsWith("ERROR"));
+        return response;
+    }
+
+    private static String dispatch(Server server, String name, String[] args, String ipAddress) {
+        try {
+            switch (name) {
+                case "USER":
+                    server.registerUser(args[0], ipAddress, Integer.parseInt(args[1]));
+                    return "Registration successful";
+                case "PROPOSER":
+                    server.notifyNewTopic(args[0]);
+                    return "Topic registered: " + args[0];
+                case "GET_USERS_INFO": {
+                    Map<String, UserInfo> userInfos = server.getUserInfos(Arrays.asList(args));
+                    StringBuilder response = new StringBuilder(args.length * 24);
+                    for (String userId : args) {
+                        UserInfo userInfo = userInfos.get(userId);
+                        if (response.length() > 0) {
+                            response.append(' ');
+                        }
+                        if (userInfo != null) {
+                            response.append(userInfo.getIpAddress()).append(' ').append(userInfo.getPort());
+                        } else {
+                            response.append("null 0");
+                        }
+                    }
+                    return response.toString();
+                }
+                case "GET_USER_INFO": {
+                    UserInfo userInfo = server.getUserInfo(args[0]);
+                    return userInfo != null ? userInfo.getIpAddress() + " " + userInfo.getPort() : "null 0";
+                }
+                case "REPORT": {
+                    int bins = Integer.parseInt(args[2]);
+                    Map<String, long[]> counts = new HashMap<>();
+                    for (int i = 3; i + 1 < args.length; i += 2) {
+                        String[] values = args[i + 1].split(",");
+                        long[] topicCounts = new long[values.length];
+                        for (int j = 0; j < values.length; j++) {
+                            topicCounts[j] = Long.parseLong(values[j]);
+                        }
+                        counts.put(args[i], topicCounts);
+                    }
+                    server.reportPolarization(args[0], args[1].equals("FULL"), bins, counts);
+                    return "Report accepted";
+                }
+                case "POLARIZATION": {
+                    PolarizationHistogram histogram = server.getPolarization(args[0]);
+                    if (histogram == null) {
+                        return "null";
+                    }
+                    StringBuilder response = new StringBuilder().append(histogram.getPolarization()).append(' ');
+                    long[] counts = histogram.getCounts();
+                    for (int i = 0; i < counts.length; i++) {
+                        response.append(i > 0 ? "," : "").append(counts[i]);
+                    }
+                    return response.toString();
+                }
+                case "STATS":
+                    return Metrics.format();
+                case "SHARDS":
+                    return formatShards(server);
+                case "SUBSCRIBE":
+                    server.subscribe(args[0], args[1], args.length > 2 ? FanOutEngine.OverflowPolicy.parse(args[2]) : null);
+                    return "Subscribed " + args[1];
+                case "UNSUBSCRIBE":
+                    return (server.unsubscribe(args[0], args[1]) ? "Unsubscribed " : "Not subscribed ") + args[1];
+                case "SAMPLE":
+                    return formatUsers(server.sampleUsers(Integer.parseInt(args[0])));
+                case "USERS":
+                    return formatUsers(server.listUsers(Integer.parseInt(args[0]), Integer.parseInt(args[1])));
+                case "USER_BATCH": {
+                    List<String> userIds = Arrays.asList(args).subList(1, args.length);
+                    server.registerUsers(userIds, ipAddress, Integer.parseInt(args[0]));
+                    return "Registration successful " + userIds.size();
+                }
+                case "HEARTBEAT":
+                    return server.renewLease(args[0]) ? "Lease renewed " + server.getLeaseTtl() : "Unknown user";
+                default:
+                    return "ERROR Unknown command";
+            }
+        } catch (RuntimeException e) {
+            return "ERROR " + e;
+        }
+    }
+}
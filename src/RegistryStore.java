@@ -0,0 +1,602 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * La classe RegistryStore rend durable l'annuaire des utilisateurs du {@link Server} : après un redémarrage,
+ * le serveur retrouve toutes les inscriptions sans que les utilisateurs aient à se réenregistrer.
+ *
+ * <p>
+ * Chaque modification de l'annuaire est ajoutée à un journal d'écriture anticipée ({@code wal-<n>.log}).
+ * Les ajouts sont regroupés : un thread unique écrit d'un coup toutes les modifications en attente puis force
+ * leur écriture sur le disque, et les appelants attendent ({@link #awaitDurable(long)}) que leur modification
+ * fasse partie d'un lot écrit. Une seule écriture forcée sert ainsi toutes les inscriptions arrivées pendant
+ * la précédente.
+ * </p>
+ *
+ * <p>
+ * Toutes les {@link #SNAPSHOT_EVERY} modifications, le journal passe à une nouvelle génération et un
+ * instantané binaire compact de l'annuaire ({@code registry.snap}) est écrit en arrière-plan, puis les
+ * générations précédentes du journal sont supprimées. L'instantané est parcouru pendant que les inscriptions
+ * continuent : il peut contenir des modifications de la nouvelle génération, que rejouer une seconde fois ne
+ * change pas. Au démarrage, {@link #load()} lit l'instantané puis rejoue les générations suivantes.
+ * </p>
+ *
+ * <p>
+ * Si l'écriture d'un lot échoue, le journal est ramené à la fin du dernier lot écrit et le lot est réécrit
+ * dans une nouvelle génération : après un échec de l'écriture forcée, le système peut avoir abandonné les
+ * pages concernées, qu'il serait vain de forcer de nouveau. Si cette reprise échoue aussi, le registre passe
+ * en échec : les modifications suivantes et les attentes de {@link #awaitDurable(long)} sont refusées
+ * ({@link IllegalStateException}), au lieu d'être confirmées sans être écrites.
+ * </p>
+ *
+ * <p>
+ * Formats, en petit-boutiste. Un enregistrement du journal est préfixé par la longueur (int) et la somme
+ * CRC-32C (int) de son contenu : type ({@link #PUT} ou {@link #REMOVE}), identifiant, puis pour {@link #PUT}
+ * l'adresse et le port (int) ; les chaînes sont en UTF-8, précédées de leur longueur (short). Le rejeu
+ * s'arrête au premier enregistrement incomplet ou corrompu, laissé par un arrêt brutal. L'instantané contient
+ * {@link #SNAPSHOT_MAGIC}, la version, la génération du journal qui le suit, le dictionnaire des adresses
+ * puis les utilisateurs (identifiant, rang de l'adresse dans le dictionnaire, port).
+ * </p>
+ */
+public class RegistryStore implements Closeable {
+    private static final Logger logger = Logger.getLogger(RegistryStore.class.getName());
+
+    /** Nombre de modifications journalisées entre deux instantanés. */
+    public static final int SNAPSHOT_EVERY = 100_000;
+
+    static final String SNAPSHOT_FILE = "registry.snap";
+    static final int SNAPSHOT_MAGIC = 0x52454731;
+    static final int VERSION = 1;
+
+    /** Type d'un enregistrement inscrivant ou mettant à jour un utilisateur. */
+    static final byte PUT = 1;
+    /** Type d'un enregistrement retirant un utilisateur. */
+    static final byte REMOVE = 2;
+
+    private static final int RECORD_HEADER = 8;
+    private static final int WRITE_CHUNK = 1 << 20;
+
+    private final Path directory;
+    private final boolean synchronous;
+    private final CRC32C crc = new CRC32C();
+    private Map<String, UserInfo> registry;
+    private Thread syncer;
+    private ByteBuffer pending = newBuffer(1 << 16);
+    private ByteBuffer writing = newBuffer(1 << 16);
+    private FileChannel wal;
+    private long generation;
+    private long appended;
+    private long durable;
+    private long sinceSnapshot;
+    private long walSize;
+    private IOException failure;
+    private boolean snapshotRunning;
+    private boolean closed;
+    private boolean stopped;
+
+    /**
+     * Constructeur de la classe RegistryStore. Rien n'est lu ni écrit avant {@link #load()}.
+     *
+     * @param directory Le dossier de l'annuaire, créé s'il n'existe pas.
+     * @param synchronous true pour que {@link #awaitDurable(long)} attende l'écriture sur le disque, false
+     *                    pour qu'il rende la main aussitôt ; les dernières modifications peuvent alors être
+     *                    perdues en cas d'arrêt brutal.
+     */
+    public RegistryStore(Path directory, boolean synchronous) {
+        this.directory = directory;
+        this.synchronous = synchronous;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Charge l'annuaire enregistré (instantané puis journal), puis ouvre une nouvelle génération du journal
+     * pour les modifications suivantes.
+     *
+     * @return L'annuaire, dimensionné d'après l'instantané, que les modifications suivantes doivent mettre à jour.
+     * @throws IOException Si l'annuaire ne peut pas être lu ou si le journal ne peut pas être créé.
+     */
+    public Map<String, UserInfo> load() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        long snapshotGeneration = 0;
+        Map<String, UserInfo> users;
+        if (Files.exists(snapshotPath)) {
+            ByteBuffer snapshot = readFully(snapshotPath);
+            if (snapshot.remaining() < 16 || snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != VERSION) {
+                throw new IOException("Invalid registry snapshot: " + snapshotPath);
+            }
+            snapshotGeneration = snapshot.getLong();
+            users = readSnapshot(snapshot);
+        } else {
+            users = new ConcurrentHashMap<>();
+        }
+        long nextGeneration = snapshotGeneration;
+        long records = 0;
+        for (Path log : walFiles()) {
+            long logGeneration = walGeneration(log);
+            if (Files.size(log) == 0) {
+                Files.delete(log);
+            } else if (logGeneration >= snapshotGeneration) {
+                records += replay(log, users);
+            }
+            nextGeneration = Math.max(nextGeneration, logGeneration + 1);
+        }
+        logger.info("Loaded " + users.size() + " users (" + records + " journal records) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        synchronized (this) {
+            registry = users;
+            generation = nextGeneration;
+            wal = openWal(generation);
+            walSize = wal.size();
+            sinceSnapshot = records;
+            syncer = new Thread(this::syncLoop, "registry-wal");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+        return users;
+    }
+
+    private static ByteBuffer readFully(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Lecture jusqu'à la fin du fichier
+            }
+            return buffer.flip();
+        }
+    }
+
+    private static Map<String, UserInfo> readSnapshot(ByteBuffer snapshot) {
+        String[] addresses = new String[snapshot.getInt()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = getString(snapshot);
+        }
+        int count = snapshot.getInt();
+        // Dimensionnée pour l'instantané et les inscriptions suivantes, sans agrandissement pendant le chargement
+        Map<String, UserInfo> users = new ConcurrentHashMap<>(count + count / 2 + 16);
+        for (int i = 0; i < count; i++) {
+            String userId = getString(snapshot);
+            String address = addresses[snapshot.getInt()];
+            users.put(userId, new UserInfo(address, snapshot.getInt()));
+        }
+        return users;
+    }
+
+    /**
+     * Rejoue une génération du journal dans l'annuaire, jusqu'au premier enregistrement incomplet ou corrompu.
+     */
+    private static long replay(Path log, Map<String, UserInfo> users) throws IOException {
+        ByteBuffer buffer = readFully(log);
+        Map<String, String> addresses = new HashMap<>();
+        CRC32C checksum = new CRC32C();
+        long records = 0;
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                logger.warning("Ignoring incomplete registry journal tail in " + log);
+                break;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            if ((int) checksum.getValue() != expected) {
+                logger.warning("Ignoring corrupted registry journal tail in " + log);
+                break;
+            }
+            byte type = buffer.get();
+            String userId = getString(buffer);
+            if (type == PUT) {
+                String address = addresses.computeIfAbsent(getString(buffer), ip -> ip);
+                users.put(userId, new UserInfo(address, buffer.getInt()));
+            } else {
+                users.remove(userId);
+            }
+            records++;
+        }
+        return records;
+    }
+
+    private List<Path> walFiles() throws IOException {
+        List<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                logs.add(file);
+            }
+        }
+        logs.sort((a, b) -> Long.compare(walGeneration(a), walGeneration(b)));
+        return logs;
+    }
+
+    private static long walGeneration(Path log) {
+        String name = log.getFileName().toString();
+        return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+
+    private FileChannel openWal(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(String.format("wal-%012d.log", generation)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            // Rendre durable l'entrée du nouveau fichier, sans quoi ses lots forcés pourraient être perdus avec lui
+            forceDirectory();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for the registry: " + value.length() + " characters");
+        }
+        return bytes;
+    }
+
+    /**
+     * Journalise l'inscription ou la mise à jour d'un utilisateur. Les modifications doivent être journalisées
+     * dans l'ordre où elles sont appliquées à l'annuaire, c'est-à-dire sous le verrou du serveur.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Les informations de l'utilisateur.
+     * @return Le numéro de la modification, à passer à {@link #awaitDurable(long)}.
+     */
+    public synchronized long put(String userId, UserInfo userInfo) {
+        byte[] id = encode(userId);
+        byte[] address = encode(userInfo.getIpAddress());
+        int start = reserve(1 + 2 + id.length + 2 + address.length + 4);
+        pending.put(PUT).putShort((short) id.length).put(id)
+                .putShort((short) address.length).put(address).putInt(userInfo.getPort());
+        return seal(start);
+    }
+
+    /**
+     * Journalise le retrait d'un utilisateur, sous le verrou du serveur comme {@link #put(String, UserInfo)}.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Le numéro de la modification, à passer à {@link #awaitDurable(long)}.
+     */
+    public synchronized long remove(String userId) {
+        byte[] id = encode(userId);
+        int start = reserve(1 + 2 + id.length);
+        pending.put(REMOVE).putShort((short) id.length).put(id);
+        return seal(start);
+    }
+
+    /**
+     * Réserve la place d'un enregistrement dans le lot en attente, en l'agrandissant si nécessaire.
+     *
+     * @return La position de l'en-tête de l'enregistrement.
+     */
+    private int reserve(int length) {
+        if (closed) {
+            throw new IllegalStateException("Registry store closed");
+        }
+        checkFailure();
+        if (pending.remaining() < RECORD_HEADER + length) {
+            ByteBuffer grown = newBuffer(Math.max(2 * pending.capacity(), pending.position() + RECORD_HEADER + length));
+            grown.put(pending.flip());
+            pending = grown;
+        }
+        int start = pending.position();
+        pending.position(start + RECORD_HEADER);
+        return start;
+    }
+
+    /**
+     * Complète l'en-tête de l'enregistrement commençant à la position donnée et réveille le thread d'écriture.
+     */
+    private long seal(int start) {
+        int contentStart = start + RECORD_HEADER;
+        int length = pending.position() - contentStart;
+        crc.reset();
+        crc.update(pending.slice(contentStart, length));
+        pending.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        appended++;
+        notifyAll();
+        return appended;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Registry journal failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Attend que la modification donnée soit écrite sur le disque. Rend la main aussitôt en mode asynchrone,
+     * ou si le thread d'écriture s'est arrêté.
+     *
+     * @param sequence Le numéro renvoyé par {@link #put(String, UserInfo)} ou {@link #remove(String)}.
+     * @throws IllegalStateException Si le journal ne peut plus être écrit et que la modification n'est pas durable.
+     */
+    public void awaitDurable(long sequence) {
+        synchronized (this) {
+            if (!synchronous) {
+                checkFailure();
+                return;
+            }
+            while (durable < sequence && failure == null && !stopped) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (durable < sequence) {
+                checkFailure();
+            }
+        }
+    }
+
+    /**
+     * Boucle du thread d'écriture : écrit et force chaque lot en attente, réveille les appelants, puis
+     * déclenche un instantané lorsque suffisamment de modifications ont été journalisées.
+     */
+    private void syncLoop() {
+        try {
+            writeBatches();
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeBatches() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appended;
+            }
+            batch.flip();
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                logger.warning("Cannot write the registry journal, retrying in a new generation: " + e.getMessage());
+                try {
+                    recover(batch);
+                } catch (IOException retryError) {
+                    logger.severe("Registry journal failed, registrations are refused: " + retryError.getMessage());
+                    synchronized (this) {
+                        failure = retryError;
+                        notifyAll();
+                    }
+                    return;
+                }
+            }
+            batch.clear();
+            long snapshotGeneration = -1;
+            synchronized (this) {
+                sinceSnapshot += batchEnd - durable;
+                durable = batchEnd;
+                notifyAll();
+                if (sinceSnapshot >= SNAPSHOT_EVERY && !snapshotRunning && !closed) {
+                    snapshotGeneration = rotate();
+                }
+            }
+            if (snapshotGeneration >= 0) {
+                long snapshotOf = snapshotGeneration;
+                Thread snapshotter = new Thread(() -> snapshot(snapshotOf), "registry-snapshot");
+                snapshotter.setDaemon(true);
+                snapshotter.start();
+            }
+        }
+    }
+
+    private void writeBatch(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining()) {
+            wal.write(batch);
+        }
+        wal.force(false);
+        walSize += batch.limit();
+    }
+
+    /**
+     * Reprend après l'échec de l'écriture d'un lot : tronque la génération courante à la fin du dernier lot
+     * écrit, pour que le rejeu ne s'arrête pas sur un lot partiel, puis réécrit le lot dans une nouvelle génération.
+     */
+    private void recover(ByteBuffer batch) throws IOException {
+        try {
+            wal.truncate(walSize);
+            wal.close();
+        } catch (IOException e) {
+            // La génération se termine alors par un lot partiel, où son rejeu s'arrêtera
+            logger.warning("Cannot truncate the failed registry journal: " + e.getMessage());
+        }
+        FileChannel next = openWal(generation + 1);
+        synchronized (this) {
+            wal = next;
+            generation++;
+        }
+        walSize = 0;
+        batch.rewind();
+        writeBatch(batch);
+    }
+
+    /**
+     * Passe le journal à la génération suivante. Seul le thread d'écriture utilise le canal du journal :
+     * le lot suivant sera écrit dans la nouvelle génération.
+     *
+     * @return La nouvelle génération, ou -1 si elle n'a pas pu être créée.
+     */
+    private long rotate() {
+        try {
+            FileChannel next = openWal(generation + 1);
+            wal.close();
+            wal = next;
+            walSize = 0;
+            generation++;
+            sinceSnapshot = 0;
+            snapshotRunning = true;
+            return generation;
+        } catch (IOException e) {
+            logger.warning("Cannot rotate the registry journal: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Écrit un instantané de l'annuaire, suivi par la génération donnée du journal, puis supprime les
+     * générations précédentes : toutes leurs modifications sont déjà appliquées à l'annuaire parcouru.
+     */
+    private void snapshot(long snapshotGeneration) {
+        long start = System.nanoTime();
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try {
+            // Copie préalable : le dictionnaire des adresses doit couvrir toutes les entrées écrites
+            int capacity = registry.size() + 1024;
+            List<String> ids = new ArrayList<>(capacity);
+            List<UserInfo> infos = new ArrayList<>(capacity);
+            registry.forEach((userId, userInfo) -> {
+                ids.add(userId);
+                infos.add(userInfo);
+            });
+            Map<String, Integer> addressIndex = new HashMap<>();
+            List<byte[]> addresses = new ArrayList<>();
+            for (UserInfo userInfo : infos) {
+                addressIndex.computeIfAbsent(userInfo.getIpAddress(), ip -> {
+                    addresses.add(encode(ip));
+                    return addresses.size() - 1;
+                });
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = newBuffer(WRITE_CHUNK);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(snapshotGeneration).putInt(addresses.size());
+                for (byte[] address : addresses) {
+                    buffer = ensure(channel, buffer, 2 + address.length);
+                    buffer.putShort((short) address.length).put(address);
+                }
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    byte[] id = encode(ids.get(i));
+                    UserInfo userInfo = infos.get(i);
+                    buffer = ensure(channel, buffer, 2 + id.length + 8);
+                    buffer.putShort((short) id.length).put(id)
+                            .putInt(addressIndex.get(userInfo.getIpAddress())).putInt(userInfo.getPort());
+                }
+                drain(channel, buffer);
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Le renommage n'est durable qu'une fois le dossier écrit : sans cela, un arrêt brutal après la
+            // suppression des anciennes générations pourrait laisser l'ancien instantané sans son journal
+            forceDirectory();
+            for (Path log : walFiles()) {
+                if (walGeneration(log) < snapshotGeneration) {
+                    Files.delete(log);
+                }
+            }
+            logger.info("Registry snapshot of " + ids.size() + " users written in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            logger.warning("Cannot write the registry snapshot: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotRunning = false;
+            }
+        }
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Certains systèmes (Windows) ne permettent pas d'ouvrir un dossier
+            if (Files.isDirectory(directory) && !System.getProperty("os.name", "").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            drain(channel, buffer);
+            if (buffer.capacity() < length) {
+                return newBuffer(length);
+            }
+        }
+        return buffer;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Écrit les dernières modifications sur le disque et ferme le journal ; les appelants de
+     * {@link #awaitDurable(long)} sont libérés.
+     */
+    @Override
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            writer = syncer;
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+                wal.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                logger.warning("Cannot close the registry journal: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * La classe RelayTree diffuse un message par un arbre de relais plutôt que par un envoi direct à chaque
+ * destinataire.
+ *
+ * <p>
+ * L'émetteur découpe la liste des destinataires en {@code fanout} sous-arbres contigus et remet chacun à son
+ * premier membre, qui reçoit le message et relaie à son tour le reste de son sous-arbre de la même façon. Un
+ * nœud n'envoie ainsi jamais plus de {@code fanout} messages, et la diffusion à {@code n} destinataires se fait
+ * en {@code log_fanout(n)} étapes. Si le premier membre d'un sous-arbre est injoignable ou ne confirme pas la
+ * réception ({@link BinaryProtocol#RELAY_ACK}), le suivant le remplace, de sorte qu'un destinataire absent ne
+ * coupe pas son sous-arbre.
+ * </p>
+ *
+ * <p>
+ * La remise est au plus une fois au-delà du premier relais : l'accusé de réception confirme seulement que le
+ * relais a reçu le message, pas qu'il a remis son sous-arbre. Un relais qui s'arrête après l'avoir confirmé
+ * prive ses descendants du message, sans que l'émetteur ne le sache ; les destinataires qui ne doivent rien
+ * manquer passent par les files par utilisateur du {@link FanOutEngine}.
+ * </p>
+ *
+ * <p>
+ * Chaque diffusion porte un identifiant aléatoire : un destinataire qui reçoit deux fois le même message, par
+ * exemple après une nouvelle tentative de son parent, l'ignore ({@link User#receiveRelay(Relay)}).
+ * </p>
+ */
+public final class RelayTree {
+
+    /** Nombre de sous-arbres par défaut. */
+    public static final int DEFAULT_FANOUT = 4;
+
+    /** Nombre d'identifiants de diffusion mémorisés par un destinataire pour écarter les doublons. */
+    public static final int HISTORY = 4096;
+
+    private RelayTree() {
+    }
+
+    /**
+     * Diffuse un message à tous ses destinataires en le remettant aux premiers membres de ses sous-arbres.
+     *
+     * @param transport Le transport des envois.
+     * @param relay Le message et ses destinataires.
+     * @return Le nombre de destinataires remis à un relais qui en a confirmé la réception ; les autres étaient
+     *         injoignables.
+     */
+    public static int disseminate(Transport transport, Relay relay) {
+        int delivered = 0;
+        for (Relay subtree : split(relay, relay.getFanout())) {
+            delivered += handOff(transport, subtree);
+        }
+        return delivered;
+    }
+
+    /**
+     * Découpe les destinataires d'un message en sous-arbres contigus de tailles égales à un près.
+     *
+     * @param relay Le message et ses destinataires.
+     * @param fanout Le nombre maximal de sous-arbres.
+     * @return Les sous-arbres, non vides, chacun portant le message et ses propres destinataires.
+     */
+    public static List<Relay> split(Relay relay, int fanout) {
+        int size = relay.getRecipients().size();
+        int count = Math.min(Math.max(fanout, 1), size);
+        List<Relay> subtrees = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            subtrees.add(relay.range((int) ((long) size * i / count), (int) ((long) size * (i + 1) / count)));
+        }
+        return subtrees;
+    }
+
+    /**
+     * Remet un sous-arbre à son premier membre joignable, avec le reste du sous-arbre à relayer.
+     *
+     * @param transport Le transport des envois.
+     * @param subtree Le message et les destinataires du sous-arbre.
+     * @return Le nombre de destinataires remis à un relais.
+     */
+    public static int handOff(Transport transport, Relay subtree) {
+        int size = subtree.recipients.size();
+        for (int i = 0; i < size; i++) {
+            if (transport.relay(subtree.recipientIds.get(i), subtree.recipients.get(i), subtree.range(i + 1, size))) {
+                return size - i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Un message à relayer : identifiant de diffusion, nombre de sous-arbres, sujet, opinion et destinataires
+     * restant à atteindre, chacun avec son identifiant, qui désigne le destinataire d'un {@link AgentHost}.
+     */
+    public static final class Relay {
+        private final long messageId;
+        private final int fanout;
+        private final String topic;
+        private final double opinion;
+        private final List<String> recipientIds;
+        private final List<UserInfo> recipients;
+
+        /**
+         * Constructeur d'une nouvelle diffusion, avec un identifiant aléatoire.
+         *
+         * @param fanout Le nombre de sous-arbres à chaque étape.
+         * @param topic Le sujet du message.
+         * @param opinion L'opinion contenue dans le message.
+         * @param recipients Les destinataires, par identifiant.
+         */
+        public Relay(int fanout, String topic, double opinion, Map<String, UserInfo> recipients) {
+            this(ThreadLocalRandom.current().nextLong(), fanout, topic, opinion,
+                    new ArrayList<>(recipients.keySet()), new ArrayList<>(recipients.values()));
+        }
+
+        /**
+         * Constructeur de la classe Relay.
+         *
+         * @param messageId L'identifiant de la diffusion.
+         * @param fanout Le nombre de sous-arbres à chaque étape.
+         * @param topic Le sujet du message.
+         * @param opinion L'opinion contenue dans le message.
+         * @param recipientIds Les identifiants des destinataires restant à atteindre.
+         * @param recipients Les destinataires restant à atteindre, dans le même ordre.
+         */
+        public Relay(long messageId, int fanout, String topic, double opinion, List<String> recipientIds, List<UserInfo> recipients) {
+            if (fanout < 1 || fanout > 0xFF) {
+                throw new IllegalArgumentException("Relay fan-out must be between 1 and 255: " + fanout);
+            }
+            if (recipientIds.size() != recipients.size()) {
+                throw new IllegalArgumentException("Relay needs one identifier per recipient");
+            }
+            this.messageId = messageId;
+            this.fanout = fanout;
+            this.topic = topic;
+            this.opinion = opinion;
+            this.recipientIds = recipientIds;
+            this.recipients = recipients;
+        }
+
+        /**
+         * Renvoie le même message, limité à une partie de ses destinataires, sans copier leurs listes.
+         *
+         * @param from L'indice du premier destinataire, inclus.
+         * @param to L'indice du dernier destinataire, exclu.
+         * @return Le message limité.
+         */
+        public Relay range(int from, int to) {
+            return new Relay(messageId, fanout, topic, opinion, recipientIds.subList(from, to), recipients.subList(from, to));
+        }
+
+        public long getMessageId() {
+            return messageId;
+        }
+
+        public int getFanout() {
+            return fanout;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public double getOpinion() {
+            return opinion;
+        }
+
+        public List<String> getRecipientIds() {
+            return recipientIds;
+        }
+
+        public List<UserInfo> getRecipients() {
+            return recipients;
+        }
+    }
+}
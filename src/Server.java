@@ -1,32 +1,506 @@
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 /**
  * La classe Server gère l'enregistrement des utilisateurs et la notification des nouveaux sujets.
  * Elle maintient une liste des utilisateurs enregistrés avec leurs adresses IP et leurs ports.
  * Les communications avec les utilisateurs sont réalisées en utilisant des sockets TCP.
+ *
+ * <p>
+ * Chaque commande est mesurée (nombre d'exécutions, erreurs, latence) dans les {@link Metrics}, consultables
+ * par la commande {@code STATS} ou par JMX ; les journaux par requête sont au niveau {@code FINE}. Les jauges
+ * {@code server.users} et {@code server.leases} additionnent tous les serveurs de la JVM.
+ * </p>
+ *
+ * <p>
+ * L'annuaire peut être rendu durable par {@link #openRegistry(Path, boolean)} : il est alors rechargé au
+ * démarrage et chaque inscription est journalisée par un {@link RegistryStore}.
+ * </p>
+ *
+ * <p>
+ * Plusieurs serveurs peuvent se partager l'annuaire ({@link #setShardRing(ShardRing, String)}) : chaque
+ * utilisateur s'enregistre auprès du serveur qui possède son identifiant sur l'anneau de hachage cohérent, et un
+ * nouveau sujet est proposé à tous les serveurs, qui notifient chacun leurs propres utilisateurs. Le routage est
+ * fait par les clients ({@link ServerProxy}), qui obtiennent la liste des partitions par la commande
+ * {@code SHARDS} ; un serveur refuse l'inscription et la recherche d'un identifiant qu'il ne possède pas, en
+ * désignant la partition qui le possède.
+ * </p>
+ *
+ * <p>
+ * Avec une durée de bail ({@link #setLeaseTtl(long)}), un utilisateur reste dans l'annuaire tant qu'il renouvelle
+ * son bail par la commande {@code HEARTBEAT} ou par une nouvelle inscription. Un utilisateur dont le bail
+ * expire est retiré de l'annuaire, de son journal, des abonnements et des files de notification, et le retrait
+ * est poussé aux caches des clients.
+ * </p>
  */
 public class Server {
     private static final Logger logger = Logger.getLogger(Server.class.getName());
-    private final Map<String, UserInfo> users = new ConcurrentHashMap<>();
+
+    /** Nombre de cases parcourues par la roue des baux pendant une durée de bail. */
+    private static final int LEASE_TICKS = 64;
+
+    private static final LongAdder EVICTED = Metrics.counter("server.users.evicted");
+
+    /** Threads qui remettent les modifications de l'annuaire aux écouteurs, hors du verrou du serveur. */
+    private static final ExecutorService PUSHERS = HandlerExecutors.create(HandlerExecutors.Mode.THREAD, 0, "directory-push");
+
+    /** Serveurs de la JVM additionnés par les jauges ; un serveur abandonné n'y est pas retenu. */
+    private static final Set<Server> SERVERS = Collections.newSetFromMap(new WeakHashMap<>());
+
+    static {
+        Metrics.gauge("server.users", () -> sumOverServers(server -> server.users.size()));
+        Metrics.gauge("server.leases", () -> sumOverServers(server -> {
+            LeaseWheel wheel = server.leases;
+            return wheel == null ? 0 : wheel.size();
+        }));
+    }
+
+    // Remplacée par openRegistry : volatile pour que les lectures hors du verrou voient l'annuaire rechargé
+    private volatile Map<String, UserInfo> users = new ConcurrentHashMap<>();
+    private final List<String> userIds = new ArrayList<>();
+    private final Map<String, Integer> userIndexes = new HashMap<>();
+    private final Map<DirectoryListener, PushQueue> directoryListeners = new ConcurrentHashMap<>();
+    private final FanOutEngine fanOutEngine;
+    private final TopicSubscriptions subscriptions = new TopicSubscriptions();
+    private final PolarizationAggregator polarization = new PolarizationAggregator();
+    private volatile RegistryStore registryStore;
+    private volatile ShardRing shardRing;
+    private volatile int localShard;
+    private volatile int relayFanout;
+    private volatile long leaseTtl;
+    private volatile LeaseWheel leases;
 
     /**
-     * Enregistre un utilisateur avec son identifiant, son adresse IP et son port.
-     * Cette méthode synchronisée assure qu'un seul thread peut enregistrer un utilisateur à la fois,
-     * évitant ainsi les problèmes potentiels de concurrence lors de la mise à jour de la carte des utilisateurs (`users`).
+     * Constructeur de la classe Server, avec le nombre d'envois simultanés par défaut.
+     */
+    public Server() {
+        this(FanOutEngine.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructeur de la classe Server.
      *
+     * @param fanOutParallelism Le nombre maximal de notifications envoyées simultanément.
+     */
+    public Server(int fanOutParallelism) {
+        this(fanOutParallelism, Transport.tcp());
+    }
+
+    /**
+     * Constructeur de la classe Server, notifiant les utilisateurs par le transport donné.
+     *
+     * @param fanOutParallelism Le nombre maximal de notifications envoyées simultanément.
+     * @param transport Le transport par lequel les utilisateurs sont notifiés.
+     */
+    public Server(int fanOutParallelism, Transport transport) {
+        this(fanOutParallelism, transport, FanOutEngine.DEFAULT_QUEUE_CAPACITY, FanOutEngine.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructeur de la classe Server, notifiant les utilisateurs par le transport donné.
+     *
+     * @param fanOutParallelism Le nombre maximal de notifications envoyées simultanément.
+     * @param transport Le transport par lequel les utilisateurs sont notifiés.
+     * @param queueCapacity Le nombre maximal de notifications en attente par utilisateur.
+     * @param overflowPolicy La politique de débordement des utilisateurs qui n'en ont pas choisi.
+     */
+    public Server(int fanOutParallelism, Transport transport, int queueCapacity, FanOutEngine.OverflowPolicy overflowPolicy) {
+        this.fanOutEngine = new FanOutEngine(fanOutParallelism, transport, queueCapacity, overflowPolicy);
+        fanOutEngine.setOverflowListener(this::disconnectSubscriber);
+        synchronized (SERVERS) {
+            SERVERS.add(this);
+        }
+    }
+
+    private static long sumOverServers(ToLongFunction<Server> value) {
+        long sum = 0;
+        synchronized (SERVERS) {
+            for (Server server : SERVERS) {
+                sum += value.applyAsLong(server);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Reçoit les modifications de l'annuaire des utilisateurs, afin de les pousser vers les caches des clients.
+     * Chaque écouteur reçoit les modifications dans l'ordre où elles ont été faites, dans un thread qui ne
+     * détient pas le verrou du serveur : un écouteur lent ne retarde ni les inscriptions ni les autres écouteurs.
+     */
+    public interface DirectoryListener {
+        /**
+         * Appelée lorsque les informations d'un utilisateur déjà enregistré changent, ou lorsqu'il est retiré de
+         * l'annuaire.
+         *
+         * @param userId L'identifiant de l'utilisateur.
+         * @param userInfo Les nouvelles informations de l'utilisateur, ou null s'il a été retiré.
+         */
+        void userUpdated(String userId, UserInfo userInfo);
+    }
+
+    /**
+     * Rend l'annuaire durable : remplace l'annuaire par les inscriptions enregistrées dans le dossier donné,
+     * puis journalise les suivantes. À appeler avant d'accepter des connexions, dont les threads verront
+     * ainsi l'annuaire rechargé.
+     *
+     * @param directory Le dossier de l'annuaire.
+     * @param synchronous true pour qu'une inscription ne soit confirmée qu'une fois écrite sur le disque.
+     * @throws IOException Si l'annuaire ne peut pas être rechargé.
+     */
+    public void openRegistry(Path directory, boolean synchronous) throws IOException {
+        RegistryStore store = new RegistryStore(directory, synchronous);
+        Map<String, UserInfo> loaded = store.load();
+        synchronized (this) {
+            users = loaded;
+            userIds.clear();
+            userIndexes.clear();
+            for (String userId : loaded.keySet()) {
+                addUserId(userId);
+            }
+            grantLeases();
+        }
+        registryStore = store;
+    }
+
+    /**
+     * Déclare les partitions de l'annuaire dont ce serveur fait partie, annoncées aux clients par la commande
+     * {@code SHARDS}. Le serveur n'accepte ensuite que les identifiants que l'anneau attribue à sa partition.
+     *
+     * @param shardRing L'anneau des partitions, ou null si le serveur détient seul tout l'annuaire.
+     * @param localShard La partition de ce serveur, au format {@code <hôte>:<port>} ; ignorée sans anneau.
+     * @throws IllegalArgumentException Si la partition de ce serveur ne fait pas partie de l'anneau.
+     */
+    public void setShardRing(ShardRing shardRing, String localShard) {
+        if (shardRing != null) {
+            int index = localShard != null ? shardRing.getShards().indexOf(localShard) : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("Local shard " + localShard + " is not in the shard list " + shardRing);
+            }
+            this.localShard = index;
+        }
+        this.shardRing = shardRing;
+    }
+
+    /**
+     * Renvoie les partitions de l'annuaire dont ce serveur fait partie.
+     *
+     * @return L'anneau des partitions, ou null si le serveur n'est pas partitionné.
+     */
+    public ShardRing getShardRing() {
+        return shardRing;
+    }
+
+    /**
+     * Vérifie que l'anneau des partitions attribue un identifiant à ce serveur.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @throws IllegalArgumentException Si l'identifiant appartient à une autre partition, désignée par le message.
+     */
+    private void checkOwner(String userId) {
+        ShardRing ring = shardRing;
+        if (ring != null) {
+            int owner = ring.shardOf(userId);
+            if (owner != localShard) {
+                throw new IllegalArgumentException("User " + userId + " is owned by shard " + ring.getShards().get(owner));
+            }
+        }
+    }
+
+    /**
+     * Choisit le mode de notification des nouveaux sujets : files par utilisateur du {@link FanOutEngine}, ou
+     * arbre de relais ({@link RelayTree}) dont seules les racines sont contactées par le serveur.
+     *
+     * @param relayFanout Le nombre de sous-arbres de l'arbre de relais, ou 0 pour les files par utilisateur.
+     */
+    public void setRelayFanout(int relayFanout) {
+        if (relayFanout < 0 || relayFanout > 0xFF) {
+            throw new IllegalArgumentException("Relay fan-out must be between 0 and 255: " + relayFanout);
+        }
+        this.relayFanout = relayFanout;
+    }
+
+    /**
+     * Active le suivi de la présence des utilisateurs : chaque utilisateur, y compris ceux déjà enregistrés,
+     * reçoit un bail de la durée donnée, renouvelé à chaque inscription et à chaque commande {@code HEARTBEAT}.
+     * Les baux expirés sont détectés par une {@link LeaseWheel} dont une case couvre un
+     * {@value #LEASE_TICKS}<sup>e</sup> de la durée du bail.
+     *
+     * @param leaseTtl La durée d'un bail (en millisecondes), ou 0 pour conserver les utilisateurs indéfiniment.
+     */
+    public synchronized void setLeaseTtl(long leaseTtl) {
+        if (leaseTtl < 0) {
+            throw new IllegalArgumentException("Lease duration must not be negative: " + leaseTtl);
+        }
+        if (leases != null) {
+            leases.close();
+            leases = null;
+        }
+        this.leaseTtl = leaseTtl;
+        if (leaseTtl > 0) {
+            leases = new LeaseWheel(Math.max(1, leaseTtl / LEASE_TICKS), LeaseWheel.DEFAULT_SLOTS, this::evictUser);
+            grantLeases();
+        }
+    }
+
+    /**
+     * Renvoie la durée d'un bail.
+     *
+     * @return La durée (en millisecondes), ou 0 si les utilisateurs sont conservés indéfiniment.
+     */
+    public long getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    private synchronized void grantLeases() {
+        if (leases != null) {
+            for (String userId : userIds) {
+                leases.renew(userId, leaseTtl);
+            }
+        }
+    }
+
+    /**
+     * Renouvelle le bail d'un utilisateur enregistré.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return false si l'utilisateur n'est pas (ou plus) enregistré : il doit alors se réinscrire.
+     */
+    public boolean renewLease(String userId) {
+        if (!users.containsKey(userId)) {
+            return false;
+        }
+        LeaseWheel wheel = leases;
+        if (wheel != null) {
+            wheel.renew(userId, leaseTtl);
+        }
+        return true;
+    }
+
+    /**
+     * Retire de l'annuaire un utilisateur dont le bail a expiré, sauf s'il s'est réinscrit entre-temps. Le retrait
+     * est journalisé sans attendre son écriture sur le disque : un utilisateur rechargé à tort après un arrêt
+     * reçoit un nouveau bail et expire de nouveau.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     */
+    private void evictUser(String userId) {
+        synchronized (this) {
+            if (leases == null || leases.isActive(userId) || users.remove(userId) == null) {
+                return;
+            }
+            removeUserId(userId);
+            publish(userId, null);
+            RegistryStore store = registryStore;
+            if (store != null) {
+                try {
+                    store.remove(userId);
+                } catch (IllegalStateException e) {
+                    logger.warning("Eviction of " + userId + " not journaled: " + e.getMessage());
+                }
+            }
+        }
+        subscriptions.remove(userId);
+        fanOutEngine.forget(userId);
+        EVICTED.increment();
+        logger.info("User " + userId + " evicted, lease expired");
+    }
+
+    private void addUserId(String userId) {
+        userIndexes.put(userId, userIds.size());
+        userIds.add(userId);
+    }
+
+    /**
+     * Retire un identifiant de la liste des utilisateurs en le remplaçant par le dernier, pour que le retrait ne
+     * coûte pas de décaler toute la liste.
+     */
+    private void removeUserId(String userId) {
+        int index = userIndexes.remove(userId);
+        String last = userIds.remove(userIds.size() - 1);
+        if (index < userIds.size()) {
+            userIds.set(index, last);
+            userIndexes.put(last, index);
+        }
+    }
+
+    /**
+     * Enregistre un utilisateur avec son identifiant, son adresse IP et son port.
+     * La mise à jour de la carte des utilisateurs (`users`), des files des écouteurs et du journal de l'annuaire
+     * est faite sous le verrou du serveur, afin qu'ils voient les inscriptions dans le même ordre ; les écouteurs
+     * sont appelés ensuite, hors du verrou. Si l'annuaire
+     * est durable, la méthode attend ensuite, hors du verrou, que l'inscription soit écrite sur le disque :
+     * les inscriptions simultanées partagent ainsi la même écriture.
      *
      * @param userId L'identifiant de l'utilisateur.
      * @param ipAddress L'adresse IP de l'utilisateur.
      * @param port Le port sur lequel l'utilisateur écoute.
+     * @throws IllegalStateException Si le journal de l'annuaire ne peut plus être écrit : l'inscription n'est
+     *                               alors pas confirmée.
+     * @throws IllegalArgumentException Si l'utilisateur appartient à une autre partition de l'annuaire.
+     */
+    public void registerUser(String userId, String ipAddress, int port) {
+        checkOwner(userId);
+        UserInfo userInfo = new UserInfo(ipAddress, port);
+        RegistryStore store = registryStore;
+        long sequence;
+        synchronized (this) {
+            sequence = register(userId, userInfo, store);
+        }
+        if (sequence > 0) {
+            store.awaitDurable(sequence);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("User " + userId + " registered with IP " + ipAddress + " and port " + port);
+        }
+    }
+
+    /**
+     * Enregistre en une fois plusieurs utilisateurs partageant la même adresse, par exemple les utilisateurs
+     * d'un {@link AgentHost}. Les inscriptions sont faites sous un seul verrou et, si l'annuaire est durable,
+     * la méthode n'attend qu'une fois leur écriture sur le disque.
+     *
+     * @param userIds Les identifiants des utilisateurs.
+     * @param ipAddress L'adresse IP commune des utilisateurs.
+     * @param port Le port commun des utilisateurs.
+     * @throws IllegalStateException Si le journal de l'annuaire ne peut plus être écrit.
+     * @throws IllegalArgumentException Si l'un des utilisateurs appartient à une autre partition de l'annuaire :
+     *                                  aucun n'est alors enregistré.
+     */
+    public void registerUsers(Collection<String> userIds, String ipAddress, int port) {
+        for (String userId : userIds) {
+            checkOwner(userId);
+        }
+        UserInfo userInfo = new UserInfo(ipAddress, port);
+        RegistryStore store = registryStore;
+        long sequence = 0;
+        synchronized (this) {
+            for (String userId : userIds) {
+                sequence = Math.max(sequence, register(userId, userInfo, store));
+            }
+        }
+        if (sequence > 0) {
+            store.awaitDurable(sequence);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(userIds.size() + " users registered with IP " + ipAddress + " and port " + port);
+        }
+    }
+
+    /**
+     * Enregistre un utilisateur sous le verrou du serveur. L'inscription est journalisée avant d'être appliquée,
+     * si bien qu'un journal en échec la refuse sans modifier l'annuaire.
+     *
+     * @return Le numéro de l'inscription dans le journal de l'annuaire, ou 0 si rien n'est à écrire.
      */
-    public synchronized void registerUser(String userId, String ipAddress, int port) {
-        users.put(userId, new UserInfo(ipAddress, port));
-        logger.info("User " + userId + " registered with IP " + ipAddress + " and port " + port);
+    private long register(String userId, UserInfo userInfo, RegistryStore store) {
+        UserInfo current = users.get(userId);
+        long sequence = store != null && !userInfo.equals(current) ? store.put(userId, userInfo) : 0;
+        UserInfo previous = users.put(userId, userInfo);
+        if (previous == null) {
+            addUserId(userId);
+        }
+        if (leases != null) {
+            leases.renew(userId, leaseTtl);
+        }
+        if (previous != null && !previous.equals(userInfo)) {
+            fanOutEngine.closeCircuit(userId);
+            publish(userId, userInfo);
+        }
+        return sequence;
+    }
+
+    /**
+     * Dépose une modification de l'annuaire dans la file de chaque écouteur. Appelée sous le verrou du serveur,
+     * pour que les files reçoivent les modifications dans l'ordre où elles sont faites.
+     */
+    private void publish(String userId, UserInfo userInfo) {
+        for (PushQueue queue : directoryListeners.values()) {
+            queue.offer(userId, userInfo);
+        }
+    }
+
+    /**
+     * La file des modifications de l'annuaire en attente d'un écouteur. Au plus une tâche la vide à la fois,
+     * ce qui conserve leur ordre.
+     */
+    private static final class PushQueue implements Runnable {
+        private final DirectoryListener listener;
+        private final ArrayDeque<Map.Entry<String, UserInfo>> events = new ArrayDeque<>();
+        private boolean scheduled;
+
+        PushQueue(DirectoryListener listener) {
+            this.listener = listener;
+        }
+
+        void offer(String userId, UserInfo userInfo) {
+            synchronized (this) {
+                events.add(new AbstractMap.SimpleImmutableEntry<>(userId, userInfo));
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            PUSHERS.execute(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Map.Entry<String, UserInfo> event;
+                synchronized (this) {
+                    event = events.poll();
+                    if (event == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    listener.userUpdated(event.getKey(), event.getValue());
+                } catch (RuntimeException e) {
+                    logger.warning("Directory listener failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Abonne un écouteur aux modifications de l'annuaire.
+     *
+     * @param listener L'écouteur à abonner.
+     */
+    public void addDirectoryListener(DirectoryListener listener) {
+        directoryListeners.putIfAbsent(listener, new PushQueue(listener));
+    }
+
+    /**
+     * Désabonne un écouteur des modifications de l'annuaire.
+     *
+     * @param listener L'écouteur à désabonner.
+     */
+    public void removeDirectoryListener(DirectoryListener listener) {
+        directoryListeners.remove(listener);
     }
 
     /**
@@ -34,72 +508,298 @@ public class Server {
      *
      * @param userId L'identifiant de l'utilisateur.
      * @return Un objet UserInfo contenant l'adresse IP et le port de l'utilisateur, ou null si non trouvé.
+     * @throws IllegalArgumentException Si l'utilisateur appartient à une autre partition de l'annuaire.
      */
     public UserInfo getUserInfo(String userId) {
+        checkOwner(userId);
         return users.get(userId);
     }
 
     /**
-     * Notifie tous les utilisateurs enregistrés d'un nouveau sujet.
+     * Récupère en une seule fois les informations de plusieurs utilisateurs.
      *
-     * <p>
-     * Cette méthode synchronisée garantit qu'un seul thread peut notifier les utilisateurs d'un nouveau sujet à la fois.
-     * Cela évite les conditions de course où plusieurs notifications pourraient interférer les unes avec les autres.
-     * </p>
+     * @param userIds Les identifiants des utilisateurs.
+     * @return Les informations des utilisateurs trouvés, dans l'ordre des identifiants demandés.
+     * @throws IllegalArgumentException Si l'un des utilisateurs appartient à une autre partition de l'annuaire.
+     */
+    public Map<String, UserInfo> getUserInfos(Collection<String> userIds) {
+        Map<String, UserInfo> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            checkOwner(userId);
+            UserInfo userInfo = users.get(userId);
+            if (userInfo != null) {
+                result.put(userId, userInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tire au hasard des utilisateurs enregistrés, pour amorcer l'annuaire partiel ({@link GossipDirectory})
+     * d'un utilisateur. Le tirage est fait avec remise, sous le verrou des inscriptions : les doublons sont
+     * fusionnés, si bien que moins de {@code count} utilisateurs peuvent être renvoyés.
      *
-     * @param topic Le nouveau sujet proposé.
+     * @param count Le nombre d'utilisateurs souhaité.
+     * @return Les informations des utilisateurs tirés.
      */
-    public synchronized void notifyNewTopic(String topic) {
-        for (UserInfo userInfo : users.values()) {
-            notifyUser(userInfo, topic);
+    public synchronized Map<String, UserInfo> sampleUsers(int count) {
+        Map<String, UserInfo> sample = new LinkedHashMap<>();
+        if (userIds.isEmpty()) {
+            return sample;
         }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            String userId = userIds.get(random.nextInt(userIds.size()));
+            sample.put(userId, users.get(userId));
+        }
+        return sample;
     }
 
     /**
-     * Notifie un utilisateur spécifique d'un nouveau sujet.
+     * Renvoie une page des utilisateurs enregistrés, dans l'ordre de leur première inscription. Le retrait d'un
+     * utilisateur dont le bail a expiré place le dernier inscrit à sa place.
      *
-     * @param userInfo Les informations de l'utilisateur à notifier.
-     * @param topic Le nouveau sujet proposé.
+     * @param offset Le rang du premier utilisateur de la page.
+     * @param limit Le nombre maximal d'utilisateurs de la page.
+     * @return Les informations des utilisateurs de la page ; vide au-delà du dernier utilisateur.
      */
-    private void notifyUser(UserInfo userInfo, String topic) {
-        try (Socket socket = new Socket(userInfo.getIpAddress(), userInfo.getPort());
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            out.println(topic);
-            out.println(0.0); // Envoi d'une opinion fictive
-            logger.info("Notified user with IP " + userInfo.getIpAddress() + " of new topic: " + topic);
-        } catch (Exception e) {
-            logger.warning("Failed to notify user: " + e.getMessage());
+    public synchronized Map<String, UserInfo> listUsers(int offset, int limit) {
+        Map<String, UserInfo> page = new LinkedHashMap<>();
+        for (int i = Math.max(offset, 0); i < userIds.size() && page.size() < limit; i++) {
+            page.put(userIds.get(i), users.get(userIds.get(i)));
         }
+        return page;
     }
 
     /**
-     * Méthode principale pour exécuter le serveur. Initialise le serveur et démarre
-     * un thread pour gérer les enregistrements entrants.
+     * Fusionne dans les histogrammes globaux le rapport de polarisation d'un hôte d'utilisateurs.
      *
-     * @param args Arguments de la ligne de commande. Le premier argument peut être
-     *             le port du serveur au format --port=<port>.
+     * @param reporterId L'identifiant du rapporteur.
+     * @param full true si le rapport remplace toute la contribution précédente du rapporteur.
+     * @param bins Le nombre de bins des histogrammes.
+     * @param counts Les effectifs, ou leurs variations, de chaque sujet.
      */
-    public static void main(String[] args) {
-        final int port;
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0].split("=")[1]);
-        } else {
-            port = 12345;  // Port par défaut
+    public void reportPolarization(String reporterId, boolean full, int bins, Map<String, long[]> counts) {
+        polarization.report(reporterId, full, bins, counts);
+    }
+
+    /**
+     * Renvoie l'histogramme global des opinions rapportées sur un sujet.
+     *
+     * @param topic Le sujet.
+     * @return L'histogramme, ou null si aucun hôte n'a rendu compte de ce sujet.
+     */
+    public PolarizationHistogram getPolarization(String topic) {
+        return polarization.getHistogram(topic);
+    }
+
+    /**
+     * Abonne un utilisateur aux sujets correspondant à un motif ({@link TopicSubscriptions}). Dès son premier
+     * abonnement, l'utilisateur ne reçoit plus que les sujets de ses motifs.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet, par exemple {@code climat.*}.
+     * @param overflowPolicy La politique de débordement de sa file de notifications, ou null pour la conserver.
+     * @throws IllegalArgumentException Si l'utilisateur appartient à une autre partition de l'annuaire.
+     */
+    public void subscribe(String userId, String pattern, FanOutEngine.OverflowPolicy overflowPolicy) {
+        checkOwner(userId);
+        subscriptions.subscribe(userId, pattern);
+        if (overflowPolicy != null) {
+            fanOutEngine.setOverflowPolicy(userId, overflowPolicy);
         }
+    }
+
+    /**
+     * Retire l'abonnement d'un utilisateur à un motif.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet.
+     * @return true si l'utilisateur était abonné à ce motif.
+     */
+    public boolean unsubscribe(String userId, String pattern) {
+        return subscriptions.unsubscribe(userId, pattern);
+    }
+
+    /**
+     * Renvoie les motifs auxquels un utilisateur est abonné.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Les motifs, vide si l'utilisateur ne s'est jamais abonné (il reçoit alors tous les sujets).
+     */
+    public Set<String> getSubscriptions(String userId) {
+        return subscriptions.getPatterns(userId);
+    }
+
+    /**
+     * Retire tous les abonnements d'un utilisateur dont la file de notifications a débordé avec la politique
+     * {@link FanOutEngine.OverflowPolicy#DISCONNECT} : il ne reçoit plus rien jusqu'à son prochain abonnement.
+     */
+    private void disconnectSubscriber(String userId) {
+        subscriptions.unsubscribeAll(userId);
+    }
 
-        Server server = new Server();
+    /**
+     * Notifie d'un nouveau sujet les utilisateurs qui y sont abonnés, ainsi que ceux qui ne se sont jamais abonnés.
+     *
+     * <p>
+     * La diffusion est asynchrone : cette méthode rend la main dès que la notification est déposée dans la
+     * file de chaque destinataire, et le {@link FanOutEngine} vide ces files en parallèle, avec des délais de
+     * connexion et d'écriture par utilisateur. Un utilisateur lent ou injoignable ne retarde ni le proposeur
+     * ni les autres utilisateurs : seule sa file se remplit, jusqu'à sa politique de débordement. En mode
+     * relais ({@link #setRelayFanout(int)}), le serveur ne contacte que les racines de l'arbre de relais.
+     * </p>
+     *
+     * @param topic Le nouveau sujet proposé.
+     * @return Un future complété par le rapport de diffusion.
+     */
+    public CompletableFuture<FanOutReport> notifyNewTopic(String topic) {
+        Map<String, UserInfo> directory = users;
+        int fanout = relayFanout;
+        CompletableFuture<FanOutReport> report;
+        // Envoi d'une opinion fictive
+        if (fanout > 0) {
+            // L'arbre de relais découpe la liste des destinataires : elle doit être copiée
+            Map<String, UserInfo> recipients = new HashMap<>();
+            subscriptions.forEachRecipient(topic, directory, recipients::put);
+            report = fanOutEngine.relay(recipients, topic, 0.0, fanout);
+        } else {
+            report = fanOutEngine.fanOut(action -> subscriptions.forEachRecipient(topic, directory, action), topic, 0.0);
+        }
+        report.thenAccept(result -> logger.fine(() -> "Notified users of new topic: " + result));
+        return report;
+    }
 
+    /**
+     * Ouvre le port du serveur et démarre un thread qui accepte les connexions entrantes. Chaque connexion
+     * est traitée par l'exécuteur de {@link HandlerExecutors}. Le port est ouvert avant le retour de la
+     * méthode, de sorte que des clients peuvent s'y connecter aussitôt.
+     *
+     * @param port Le port d'écoute.
+     * @return Le socket d'écoute ; le fermer arrête le thread d'acceptation.
+     * @throws IOException Si le port ne peut pas être ouvert.
+     */
+    public ServerSocket listen(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
         // Exécute le serveur dans un thread séparé pour gérer les enregistrements entrants
         new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
+            try (serverSocket) {
                 logger.info("Server started on port " + port);
                 while (true) {
                     Socket socket = serverSocket.accept();
-                    new Thread(new RegistrationHandler(socket, server)).start();
+                    HandlerExecutors.dispatch(socket, new RegistrationHandler(socket, this), "ERROR Server busy");
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
             }
         }).start();
+        return serverSocket;
+    }
+
+    /**
+     * Méthode principale pour exécuter le serveur. Initialise le serveur et démarre
+     * un thread pour gérer les enregistrements entrants. Avec {@code --engine=nio}, les connexions
+     * sont servies par un {@link NioServer} au lieu d'un thread par connexion. Sinon, chaque connexion
+     * est traitée par l'exécuteur de {@link HandlerExecutors}, configurable par la propriété système
+     * {@code plateforme.executor}.
+     *
+     * @param args Arguments de la ligne de commande au format :
+     *             [--port=<port>] [--fanout=<notifications simultanées>]
+     *             [--queue=<notifications en attente par utilisateur>] [--overflow=drop-oldest|coalesce|disconnect]
+     *             [--engine=threads|nio] [--ioThreads=<threads d'entrées/sorties du moteur nio>]
+     *             [--workers=<threads exécutant les commandes du moteur nio>]
+     *             [--data=<dossier de l'annuaire durable>] [--dataSync=true|false]
+     *             [--shards=<hôte>:<port>,<hôte>:<port>,... (partitions de l'annuaire, dont ce serveur)]
+     *             [--shard=<hôte>:<port> (partition de ce serveur, par défaut la seule partition sur son port)]
+     *             [--relay=<sous-arbres de l'arbre de relais des notifications, 0 pour les files par utilisateur>]
+     *             [--lease=<durée du bail des utilisateurs en millisecondes, 0 pour les conserver indéfiniment>]
+     */
+    public static void main(String[] args) {
+        int portArg = 12345;  // Port par défaut
+        int fanOutParallelism = FanOutEngine.DEFAULT_PARALLELISM;
+        int queueCapacity = FanOutEngine.DEFAULT_QUEUE_CAPACITY;
+        FanOutEngine.OverflowPolicy overflowPolicy = FanOutEngine.OverflowPolicy.DROP_OLDEST;
+        String engine = "threads";
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+        int workerThreads = NioServer.DEFAULT_WORKER_THREADS;
+        String dataDirectory = null;
+        boolean dataSync = true;
+        ShardRing shardRing = null;
+        String localShard = null;
+        int relayFanout = 0;
+        long leaseTtl = 0;
+        for (String arg : args) {
+            String value = arg.split("=")[1];
+            if (arg.startsWith("--port=")) {
+                portArg = Integer.parseInt(value);
+            } else if (arg.startsWith("--fanout=")) {
+                fanOutParallelism = Integer.parseInt(value);
+            } else if (arg.startsWith("--queue=")) {
+                queueCapacity = Integer.parseInt(value);
+            } else if (arg.startsWith("--overflow=")) {
+                overflowPolicy = FanOutEngine.OverflowPolicy.parse(value);
+            } else if (arg.startsWith("--engine=")) {
+                engine = value;
+            } else if (arg.startsWith("--ioThreads=")) {
+                ioThreads = Integer.parseInt(value);
+            } else if (arg.startsWith("--workers=")) {
+                workerThreads = Integer.parseInt(value);
+            } else if (arg.startsWith("--data=")) {
+                dataDirectory = value;
+            } else if (arg.startsWith("--dataSync=")) {
+                dataSync = Boolean.parseBoolean(value);
+            } else if (arg.startsWith("--shards=")) {
+                shardRing = ShardRing.parse(value);
+            } else if (arg.startsWith("--shard=")) {
+                localShard = value;
+            } else if (arg.startsWith("--relay=")) {
+                relayFanout = Integer.parseInt(value);
+            } else if (arg.startsWith("--lease=")) {
+                leaseTtl = Long.parseLong(value);
+            }
+        }
+        final int port = portArg;
+
+        Server server = new Server(fanOutParallelism, Transport.tcp(), queueCapacity, overflowPolicy);
+        if (shardRing != null && localShard == null) {
+            localShard = shardRing.shardOnPort(port);
+            if (localShard == null) {
+                logger.severe("No single shard on port " + port + " in " + shardRing + ", use --shard=<host>:<port>");
+                return;
+            }
+        }
+        try {
+            server.setShardRing(shardRing, localShard);
+        } catch (IllegalArgumentException e) {
+            logger.severe(e.getMessage());
+            return;
+        }
+        server.setRelayFanout(relayFanout);
+        if (dataDirectory != null) {
+            try {
+                server.openRegistry(Paths.get(dataDirectory), dataSync);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        server.setLeaseTtl(leaseTtl);
+
+        if (engine.equals("nio")) {
+            try {
+                new NioServer(server, port, ioThreads, workerThreads).start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        try {
+            server.listen(port);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * L'interface ServerChannel représente un canal de requêtes vers le serveur central, quel que soit le
+ * {@link Transport} qui le porte : connexion TCP multiplexée ({@link ServerConnection}) ou appel direct
+ * dans la même JVM ({@link LoopbackTransport}).
+ *
+ * <p>
+ * Les réponses ont le même format que celles du mode multiplexé du protocole texte, et les événements
+ * poussés par le serveur sont transmis au {@link Listener} enregistré.
+ * </p>
+ */
+public interface ServerChannel extends Closeable {
+
+    /**
+     * Reçoit les événements poussés par le serveur et les pertes de connexion.
+     */
+    interface Listener {
+        /**
+         * Appelée pour chaque événement poussé par le serveur.
+         *
+         * @param event L'événement, sans le préfixe {@link ServerConnection#PUSH_PREFIX}.
+         */
+        void onPush(String event);
+
+        /**
+         * Appelée lorsque la connexion est perdue ; des événements ont pu être manqués.
+         */
+        void onDisconnect();
+    }
+
+    /**
+     * Envoie une commande au serveur sans attendre la réponse.
+     *
+     * @param name Le nom de la commande (par exemple {@code GET_USER_INFO}).
+     * @param args Les arguments de la commande.
+     * @return Un future complété avec la réponse du serveur, sans son identifiant.
+     */
+    CompletableFuture<String> request(String name, String... args);
+
+    /**
+     * Envoie une commande au serveur et attend sa réponse.
+     *
+     * @param name Le nom de la commande.
+     * @param args Les arguments de la commande.
+     * @return La réponse du serveur.
+     * @throws IOException Si la connexion échoue ou si le serveur ne répond pas à temps.
+     */
+    default String call(String name, String... args) throws IOException {
+        try {
+            return request(name, args).get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for server response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new IOException("No response from server for: " + name, e.getCause());
+            }
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("No response from server for: " + name, e);
+        }
+    }
+
+    /**
+     * Enregistre le destinataire des événements poussés par le serveur.
+     *
+     * @param listener Le destinataire des événements, ou null pour les ignorer.
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Ferme le canal. Les requêtes en attente échouent.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,322 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * La classe ServerConnection maintient une connexion TCP persistante vers le serveur central
+ * et y multiplexe les requêtes de plusieurs threads.
+ *
+ * <p>
+ * Après l'envoi de la ligne {@code MUX}, chaque requête est une ligne {@code <id> <commande>} et
+ * chaque réponse une ligne {@code <id> <résultat>}. Les réponses sont associées aux requêtes en
+ * attente par leur identifiant, ce qui permet d'envoyer plusieurs requêtes sans attendre les
+ * réponses précédentes. En cas de coupure, les requêtes en attente échouent et la connexion est
+ * rétablie à la requête suivante. Une requête sans réponse après {@link #REQUEST_TIMEOUT_MS} ms échoue et
+ * est oubliée, même si la connexion reste ouverte.
+ * </p>
+ *
+ * <p>
+ * Le serveur peut aussi pousser des événements non sollicités, sous la forme de lignes commençant
+ * par {@code "! "}, qui sont transmis au {@link ServerChannel.Listener} enregistré.
+ * </p>
+ *
+ * <p>
+ * En mode binaire ({@link BinaryProtocol}), les mêmes requêtes, réponses et événements sont transportés
+ * dans des trames préfixées par leur longueur, et les arguments des commandes ne sont plus découpés sur
+ * {@code ':'} ou {@code ','}.
+ * </p>
+ */
+public class ServerConnection implements ServerChannel {
+    private static final Logger logger = Logger.getLogger(ServerConnection.class.getName());
+
+    /** Ligne envoyée par le client pour passer la connexion en mode multiplexé. */
+    public static final String MUX_HELLO = "MUX";
+
+    /** Délai maximal d'attente d'une réponse du serveur (en millisecondes). */
+    public static final long REQUEST_TIMEOUT_MS = 5000;
+
+    /** Délai maximal d'établissement de la connexion au serveur (en millisecondes). */
+    public static final int CONNECT_TIMEOUT_MS = 2000;
+
+    /** Préfixe des lignes poussées par le serveur sans requête préalable. */
+    public static final String PUSH_PREFIX = "! ";
+
+    private final String serverIp;
+    private final int serverPort;
+    private final boolean binary;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private volatile Channel channel;
+    private volatile boolean closed;
+    private volatile Listener listener;
+
+    /**
+     * Constructeur de la classe ServerConnection. La connexion est ouverte à la première requête.
+     *
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     */
+    public ServerConnection(String serverIp, int serverPort) {
+        this(serverIp, serverPort, BinaryProtocol.enabled());
+    }
+
+    /**
+     * Constructeur de la classe ServerConnection.
+     *
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param binary true pour utiliser le protocole binaire, false pour le mode multiplexé texte.
+     */
+    public ServerConnection(String serverIp, int serverPort, boolean binary) {
+        this.serverIp = serverIp;
+        this.serverPort = serverPort;
+        this.binary = binary;
+    }
+
+    /**
+     * Formate une commande pour le protocole texte, par exemple {@code USER:<id>:<port>}.
+     *
+     * @param name Le nom de la commande.
+     * @param args Les arguments de la commande.
+     * @return La commande sur une ligne.
+     */
+    static String formatCommand(String name, String... args) {
+        if (args.length == 0) {
+            return name;
+        }
+        switch (name) {
+            case "GET_USERS_INFO":
+                return name + ":" + String.join(",", args);
+            case "SUBSCRIBE":
+                // Le motif, qui peut contenir ':', est placé en dernier
+                return name + ":" + args[0] + ":" + (args.length > 2 ? args[2] : "") + ":" + args[1];
+            case "REPORT": {
+                // Chaque sujet est précédé de ses effectifs et de sa longueur, et peut donc contenir ':'
+                StringBuilder command = new StringBuilder(name).append(':').append(args[0]).append(':')
+                        .append(args[1]).append(':').append(args[2]);
+                for (int i = 3; i + 1 < args.length; i += 2) {
+                    command.append(':').append(args[i + 1]).append(':').append(args[i].length()).append(':').append(args[i]);
+                }
+                return command.toString();
+            }
+            default:
+                return name + ":" + String.join(":", args);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> request(String name, String... args) {
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<String> response = new CompletableFuture<>();
+        Channel current;
+        try {
+            current = ensureConnected();
+        } catch (IOException e) {
+            response.completeExceptionally(e);
+            return response;
+        }
+        current.pending.put(requestId, response);
+        // Une requête restée sans réponse ne doit pas rester en attente jusqu'à la coupure de la connexion
+        response.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((result, failure) -> current.pending.remove(requestId, response));
+        if (!current.send(requestId, name, args)) {
+            response.completeExceptionally(new IOException("Connection to server lost"));
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Channel current = channel;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    private Channel ensureConnected() throws IOException {
+        Channel current = channel;
+        if (current != null && current.open) {
+            return current;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Server connection closed");
+            }
+            current = channel;
+            if (current == null || !current.open) {
+                // Connexion bornée : les autres appelants attendent sur ce moniteur
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(serverIp, serverPort), CONNECT_TIMEOUT_MS);
+                    current = new Channel(socket);
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                channel = current;
+                current.start();
+            }
+            return current;
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private void onUnsolicited(String line) {
+        Listener current = listener;
+        if (line.startsWith(PUSH_PREFIX)) {
+            if (current != null) {
+                current.onPush(line.substring(PUSH_PREFIX.length()));
+            }
+        } else {
+            logger.warning("Unexpected line from server: " + line);
+        }
+    }
+
+    /**
+     * Une connexion physique au serveur, avec ses requêtes en attente et son thread de lecture.
+     */
+    private final class Channel implements Runnable {
+        private final Socket socket;
+        private final InputStream input;
+        private final OutputStream output;
+        private final PrintWriter out;
+        private final Map<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+
+        Channel(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+            this.out = binary ? null : new PrintWriter(output, true);
+            if (binary) {
+                output.write(BinaryProtocol.MAGIC);
+                output.flush();
+            } else {
+                out.println(MUX_HELLO);
+            }
+        }
+
+        void start() {
+            Thread reader = new Thread(this, "server-connection-" + serverIp + ":" + serverPort);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean send(long requestId, String name, String[] args) {
+            if (!binary) {
+                out.println(requestId + " " + formatCommand(name, args));
+                return open && !out.checkError();
+            }
+            byte[] frame = BinaryProtocol.encodeRequest(requestId, name, args);
+            synchronized (output) {
+                try {
+                    output.write(frame);
+                    output.flush();
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return open;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (binary) {
+                    readFrames();
+                } else {
+                    readLines();
+                }
+            } catch (IOException e) {
+                if (open && !closed) {
+                    logger.warning("Connection to server lost: " + e.getMessage());
+                }
+            } finally {
+                shutdown();
+            }
+        }
+
+        private void readLines() throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                CompletableFuture<String> response = null;
+                if (separator > 0) {
+                    try {
+                        response = pending.remove(Long.parseLong(line.substring(0, separator)));
+                    } catch (NumberFormatException e) {
+                        response = null;
+                    }
+                }
+                if (response != null) {
+                    response.complete(line.substring(separator + 1));
+                } else {
+                    onUnsolicited(line);
+                }
+            }
+        }
+
+        private void readFrames() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(512);
+            ByteBuffer frame;
+            while ((frame = BinaryProtocol.readFrame(input, buffer)) != null) {
+                buffer = frame;
+                byte type = frame.get();
+                if (type == BinaryProtocol.RESPONSE) {
+                    CompletableFuture<String> response = pending.remove(frame.getLong());
+                    String text = BinaryProtocol.getString(frame);
+                    if (response != null) {
+                        response.complete(text);
+                    }
+                } else if (type == BinaryProtocol.PUSH) {
+                    onUnsolicited(PUSH_PREFIX + BinaryProtocol.getString(frame));
+                } else {
+                    throw new IOException("Unexpected frame type from server: " + type);
+                }
+            }
+        }
+
+        void shutdown() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // La connexion est déjà fermée
+            }
+            IOException failure = new IOException("Connection to server lost");
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<String> response = pending.remove(requestId);
+                if (response != null) {
+                    response.completeExceptionally(failure);
+                }
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.onDisconnect();
+            }
+        }
+    }
+}
@@ -1,6 +1,16 @@
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.io.PrintWriter;
 
@@ -12,23 +22,286 @@ import java.io.PrintWriter;
  *
  * <p>
  * Les communications avec le serveur sont réalisées en utilisant des sockets TCP pour assurer
- * la fiabilité des transmissions.
+ * la fiabilité des transmissions. Par défaut, toutes les requêtes passent par une seule connexion
+ * persistante et multiplexée ({@link ServerConnection}) ; le mode historique, qui ouvre un socket
+ * par requête, reste disponible. Le canal vers le serveur peut aussi être fourni par un autre
+ * {@link Transport}, par exemple {@link LoopbackTransport}.
+ * </p>
+ *
+ * <p>
+ * Les informations des utilisateurs sont conservées dans un cache local ({@link UserInfoCache}) borné et à
+ * durée de vie limitée. En mode persistant, le serveur pousse les changements d'adresse, ce qui met à jour
+ * le cache et les écouteurs du proxy ({@link #addPushListener(Server.DirectoryListener)}) ; le cache est vidé si
+ * la connexion est perdue, car des changements ont pu être manqués.
+ * </p>
+ *
+ * <p>
+ * Si le serveur fait partie d'un annuaire partitionné (commande {@code SHARDS}), le proxy ouvre un canal vers
+ * chaque partition et route les requêtes d'après l'anneau de hachage cohérent ({@link ShardRing}) :
+ * l'enregistrement et la recherche d'un utilisateur vont directement au serveur qui le possède, les
+ * recherches groupées sont découpées par partition, et un nouveau sujet est proposé à toutes les partitions.
+ * Les autres requêtes (rapports de polarisation, mesures) vont au premier serveur contacté. Le mode historique
+ * suit aussi l'anneau : chaque socket est ouvert vers la partition qui possède l'utilisateur, et un nouveau sujet
+ * est proposé à toutes les partitions.
  * </p>
  */
 public class ServerProxy {
     private static final Logger logger = Logger.getLogger(ServerProxy.class.getName());
     private final String serverIp;
     private final int serverPort;
+    private final ServerChannel connection;
+    private final UserInfoCache cache;
+    private final ShardRing ring;
+    private final ServerChannel[] shards;
+    private final List<Server.DirectoryListener> pushListeners = new CopyOnWriteArrayList<>();
+
+    /** Nombre maximal d'utilisateurs conservés dans le cache local. */
+    public static final int CACHE_SIZE = 10000;
+
+    /** Durée de vie d'une entrée du cache local (en millisecondes). */
+    public static final long CACHE_TTL_MS = 60000;
+
+    /** Nombre maximal d'identifiants par requête de recherche groupée. */
+    public static final int BULK_LOOKUP_BATCH = 500;
+
+    /** Nombre maximal d'utilisateurs enregistrés par une même requête {@code USER_BATCH}. */
+    public static final int REGISTER_BATCH = 5000;
+
+    /** Nombre d'utilisateurs par page lors de la liste de tous les utilisateurs. */
+    public static final int USER_LIST_PAGE = 10000;
 
     /**
-     * Constructeur de la classe ServerProxy.
+     * Constructeur de la classe ServerProxy, utilisant une connexion persistante.
      *
      * @param serverIp L'adresse IP du serveur.
      * @param serverPort Le port du serveur.
      */
     public ServerProxy(String serverIp, int serverPort) {
+        this(serverIp, serverPort, true);
+    }
+
+    /**
+     * Constructeur de la classe ServerProxy.
+     *
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param persistent true pour multiplexer les requêtes sur une connexion persistante, en suivant le
+     *                   partitionnement de l'annuaire, false pour ouvrir un socket par requête.
+     */
+    public ServerProxy(String serverIp, int serverPort, boolean persistent) {
+        this(serverIp, serverPort, persistent ? new ServerConnection(serverIp, serverPort) : null,
+                persistent ? Transport.tcp() : null);
+    }
+
+    /**
+     * Constructeur de la classe ServerProxy, communiquant par le transport donné. Si le serveur fait partie
+     * d'un annuaire partitionné, un canal est ouvert vers chaque partition.
+     *
+     * @param transport Le transport vers le serveur.
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     */
+    public ServerProxy(Transport transport, String serverIp, int serverPort) {
+        this(serverIp, serverPort, transport.connect(serverIp, serverPort), transport);
+    }
+
+    /**
+     * Constructeur de la classe ServerProxy, utilisant un canal déjà ouvert par un {@link Transport},
+     * sans partitionnement.
+     *
+     * @param connection Le canal vers le serveur.
+     */
+    public ServerProxy(ServerChannel connection) {
+        this(null, 0, connection, null);
+    }
+
+    private ServerProxy(String serverIp, int serverPort, ServerChannel connection, Transport transport) {
         this.serverIp = serverIp;
         this.serverPort = serverPort;
+        this.connection = connection;
+        this.ring = transport != null ? discoverShards(connection)
+                : connection == null ? discoverLegacyShards(serverIp, serverPort) : null;
+        this.shards = connectShards(serverIp, serverPort, connection, ring, transport);
+        this.cache = new UserInfoCache(CACHE_SIZE, CACHE_TTL_MS);
+        ServerChannel.Listener listener = new ServerChannel.Listener() {
+            @Override
+            public void onPush(String event) {
+                handlePush(event);
+            }
+
+            @Override
+            public void onDisconnect() {
+                cache.clear();
+            }
+        };
+        for (ServerChannel shard : shards) {
+            shard.setListener(listener);
+        }
+    }
+
+    /**
+     * Demande au serveur les partitions de l'annuaire.
+     *
+     * @return L'anneau des partitions, ou null si le serveur n'est pas partitionné ou injoignable.
+     */
+    private static ShardRing discoverShards(ServerChannel connection) {
+        try {
+            return ShardRing.discover(connection);
+        } catch (IOException e) {
+            logger.warning("Shard discovery failed, using a single server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Demande les partitions de l'annuaire par le protocole historique.
+     *
+     * @return L'anneau des partitions, ou null si le serveur n'est pas partitionné ou injoignable.
+     */
+    private static ShardRing discoverLegacyShards(String serverIp, int serverPort) {
+        try (Socket socket = new Socket(serverIp, serverPort);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            socket.setSoTimeout((int) ServerConnection.REQUEST_TIMEOUT_MS);
+            out.println("SHARDS");
+            String response = in.readLine();
+            ShardRing ring = response != null ? ShardRing.parse(response) : null;
+            return ring != null && ring.size() > 1 ? ring : null;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warning("Shard discovery failed, using a single server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ouvre un canal vers chaque partition, en réutilisant la connexion initiale pour la partition contactée.
+     * Le mode historique n'ouvre aucun canal.
+     */
+    private static ServerChannel[] connectShards(String serverIp, int serverPort, ServerChannel connection,
+                                                 ShardRing ring, Transport transport) {
+        if (connection == null) {
+            return new ServerChannel[0];
+        }
+        if (ring == null) {
+            return new ServerChannel[] {connection};
+        }
+        ServerChannel[] channels = new ServerChannel[ring.size()];
+        for (int i = 0; i < channels.length; i++) {
+            String shard = ring.getShards().get(i);
+            if (shard.equals(serverIp + ":" + serverPort)) {
+                channels[i] = connection;
+            } else {
+                channels[i] = transport.connect(ShardRing.hostOf(shard), ShardRing.portOf(shard));
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Renvoie le canal vers la partition qui possède un utilisateur.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Le canal, ou null en mode historique.
+     */
+    private ServerChannel channelFor(String userId) {
+        return ring == null ? connection : shards[ring.shardOf(userId)];
+    }
+
+    /**
+     * Renvoie les partitions jointes par le mode historique, dans l'ordre de {@link #groupByShard(List)}.
+     *
+     * @return Les partitions, au format {@code <hôte>:<port>} ; le seul serveur contacté sans partitionnement.
+     */
+    private List<String> legacyShards() {
+        return ring == null ? List.of(serverIp + ":" + serverPort) : ring.getShards();
+    }
+
+    /**
+     * Ouvre en mode historique un socket vers la partition qui possède un utilisateur.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Le socket connecté.
+     * @throws IOException Si la partition est injoignable.
+     */
+    private Socket openLegacy(String userId) throws IOException {
+        String shard = ring == null ? serverIp + ":" + serverPort : ring.getShards().get(ring.shardOf(userId));
+        return new Socket(ShardRing.hostOf(shard), ShardRing.portOf(shard));
+    }
+
+    /**
+     * Répartit des identifiants entre les partitions qui les possèdent.
+     *
+     * @param userIds Les identifiants.
+     * @return Un groupe d'identifiants par partition, dans l'ordre des canaux ; un seul groupe en mode historique.
+     */
+    private List<List<String>> groupByShard(List<String> userIds) {
+        List<List<String>> groups = new ArrayList<>();
+        if (ring == null) {
+            groups.add(userIds);
+            return groups;
+        }
+        for (int i = 0; i < ring.size(); i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (String userId : userIds) {
+            groups.get(ring.shardOf(userId)).add(userId);
+        }
+        return groups;
+    }
+
+    /**
+     * Renvoie les partitions de l'annuaire suivies par ce proxy.
+     *
+     * @return L'anneau des partitions, ou null si l'annuaire n'est pas partitionné.
+     */
+    public ShardRing getShardRing() {
+        return ring;
+    }
+
+    /**
+     * Ajoute un écouteur des modifications de l'annuaire poussées par le serveur, par exemple la vue partielle
+     * d'un utilisateur ({@link GossipDirectory}). Les modifications ne sont poussées qu'en mode persistant.
+     *
+     * @param listener L'écouteur, appelé par le thread de lecture de la connexion.
+     */
+    public void addPushListener(Server.DirectoryListener listener) {
+        pushListeners.add(listener);
+    }
+
+    /**
+     * Retire un écouteur ajouté par {@link #addPushListener(Server.DirectoryListener)}.
+     *
+     * @param listener L'écouteur.
+     */
+    public void removePushListener(Server.DirectoryListener listener) {
+        pushListeners.remove(listener);
+    }
+
+    /**
+     * Applique au cache local et aux écouteurs un événement poussé par le serveur.
+     *
+     * @param event L'événement, par exemple {@code UPDATE <ip> <port> <id>}.
+     */
+    private void handlePush(String event) {
+        String[] parts = event.split(" ", 4);
+        String userId;
+        UserInfo userInfo;
+        if (parts[0].equals("UPDATE") && parts.length == 4) {
+            userId = parts[3];
+            userInfo = new UserInfo(parts[1], Integer.parseInt(parts[2]));
+            cache.refresh(userId, userInfo);
+        } else if (parts[0].equals("REMOVE") && parts.length == 2) {
+            userId = parts[1];
+            userInfo = null;
+            cache.invalidate(userId);
+        } else {
+            logger.warning("Unknown server event: " + event);
+            return;
+        }
+        for (Server.DirectoryListener listener : pushListeners) {
+            listener.userUpdated(userId, userInfo);
+        }
     }
 
     /**
@@ -38,7 +311,16 @@ public class ServerProxy {
      * @param port Le port sur lequel l'utilisateur écoute les connexions entrantes.
      */
     public void registerUser(String userId, int port) {
-        try (Socket socket = new Socket(serverIp, serverPort);
+        if (connection != null) {
+            try {
+                String response = channelFor(userId).call("USER", userId, String.valueOf(port));
+                logger.info("Server response: " + response);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try (Socket socket = openLegacy(userId);
              PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
              BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
 
@@ -52,6 +334,63 @@ public class ServerProxy {
         }
     }
 
+    /**
+     * Enregistre en une fois plusieurs utilisateurs écoutant sur le même port, par lots de
+     * {@link #REGISTER_BATCH} envoyés simultanément à la partition qui possède chacun. Sans connexion
+     * persistante, les utilisateurs sont enregistrés un à un.
+     *
+     * <p>
+     * Un lot refusé par le serveur est journalisé et abandonné : le renvoyer obtiendrait la même réponse. Les
+     * identifiants d'un lot resté sans réponse (connexion perdue, délai dépassé) sont ajoutés à {@code failed}
+     * pour que l'appelant puisse les renvoyer.
+     * </p>
+     *
+     * @param userIds Les identifiants des utilisateurs.
+     * @param port Le port commun des utilisateurs.
+     * @param failed Reçoit les identifiants dont la requête a échoué.
+     * @return Le nombre d'utilisateurs dont l'inscription a été confirmée.
+     */
+    public int registerUsers(List<String> userIds, int port, Collection<String> failed) {
+        if (connection == null) {
+            for (String userId : userIds) {
+                registerUser(userId, port);
+            }
+            return userIds.size();
+        }
+        List<List<String>> groups = groupByShard(userIds);
+        List<List<String>> batches = new ArrayList<>();
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (int shard = 0; shard < groups.size(); shard++) {
+            List<String> group = groups.get(shard);
+            for (int start = 0; start < group.size(); start += REGISTER_BATCH) {
+                List<String> batch = group.subList(start, Math.min(start + REGISTER_BATCH, group.size()));
+                String[] args = new String[batch.size() + 1];
+                args[0] = String.valueOf(port);
+                for (int i = 0; i < batch.size(); i++) {
+                    args[i + 1] = batch.get(i);
+                }
+                batches.add(batch);
+                responses.add(shards[shard].request("USER_BATCH", args));
+            }
+        }
+        int registered = 0;
+        for (int i = 0; i < responses.size(); i++) {
+            try {
+                String response = responses.get(i).get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (response.startsWith("Registration successful")) {
+                    registered += batches.get(i).size();
+                } else {
+                    logger.warning("Bulk registration rejected: " + response);
+                }
+            } catch (Exception e) {
+                logger.warning("Bulk registration failed: " + e);
+                failed.addAll(batches.get(i));
+            }
+        }
+        logger.info("Registered " + registered + "/" + userIds.size() + " users on port " + port);
+        return registered;
+    }
+
     /**
      * Récupère les informations d'un utilisateur à partir de son identifiant.
      *
@@ -59,7 +398,38 @@ public class ServerProxy {
      * @return Un objet UserInfo contenant l'adresse IP et le port de l'utilisateur, ou null si non trouvé.
      */
     public UserInfo getUserInfo(String userId) {
-        try (Socket socket = new Socket(serverIp, serverPort);
+        UserInfo cached = cache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+        UserInfo userInfo = fetchUserInfo(userId);
+        if (userInfo != null) {
+            cache.put(userId, userInfo);
+        }
+        return userInfo;
+    }
+
+    /**
+     * Interroge le serveur sur les informations d'un utilisateur, sans passer par le cache.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Les informations de l'utilisateur, ou null si non trouvé.
+     */
+    private UserInfo fetchUserInfo(String userId) {
+        if (connection != null) {
+            try {
+                String response = channelFor(userId).call("GET_USER_INFO", userId);
+                int separator = response.lastIndexOf(' ');
+                String ipAddress = response.substring(0, separator);
+                if (!ipAddress.equals("null")) {
+                    return new UserInfo(ipAddress, Integer.parseInt(response.substring(separator + 1)));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+        try (Socket socket = openLegacy(userId);
              PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
              BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
 
@@ -67,7 +437,7 @@ public class ServerProxy {
             String ipAddress = in.readLine();
             String portStr = in.readLine();
 
-            if (ipAddress != null && portStr != null) {
+            if (ipAddress != null && portStr != null && !ipAddress.equals("null")) {
                 int port = Integer.parseInt(portStr);
                 return new UserInfo(ipAddress, port);
             }
@@ -78,17 +448,371 @@ public class ServerProxy {
     }
 
     /**
-     * Notifie le serveur d'un nouveau sujet proposé.
+     * Récupère les informations de plusieurs utilisateurs en un minimum d'allers-retours.
+     * Les utilisateurs absents du cache sont demandés au serveur par lots de {@link #BULK_LOOKUP_BATCH},
+     * envoyés simultanément sur la connexion persistante.
+     *
+     * @param userIds Les identifiants des utilisateurs.
+     * @return Les informations des utilisateurs trouvés ; les utilisateurs inconnus sont absents de la carte.
+     */
+    public Map<String, UserInfo> getUserInfos(List<String> userIds) {
+        Map<String, UserInfo> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            UserInfo cached = cache.get(userId);
+            if (cached != null) {
+                result.put(userId, cached);
+            } else {
+                missing.add(userId);
+            }
+        }
+
+        // Un groupe d'identifiants par partition, chaque groupe étant découpé en lots
+        List<List<String>> groups = groupByShard(missing);
+        List<List<String>> batches = new ArrayList<>();
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (int shard = 0; shard < groups.size(); shard++) {
+            List<String> group = groups.get(shard);
+            for (int start = 0; start < group.size(); start += BULK_LOOKUP_BATCH) {
+                List<String> batch = group.subList(start, Math.min(start + BULK_LOOKUP_BATCH, group.size()));
+                String[] ids = batch.toArray(new String[0]);
+                batches.add(batch);
+                responses.add(connection != null ? shards[shard].request("GET_USERS_INFO", ids)
+                        : CompletableFuture.completedFuture(legacyCall(legacyShards().get(shard),
+                                ServerConnection.formatCommand("GET_USERS_INFO", ids), batch.size())));
+            }
+        }
+
+        for (int i = 0; i < batches.size(); i++) {
+            try {
+                String[] fields = responses.get(i).get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).split(" ");
+                List<String> batch = batches.get(i);
+                for (int j = 0; j < batch.size() && 2 * j + 1 < fields.length; j++) {
+                    if (!fields[2 * j].equals("null")) {
+                        UserInfo userInfo = new UserInfo(fields[2 * j], Integer.parseInt(fields[2 * j + 1]));
+                        cache.put(batch.get(j), userInfo);
+                        result.put(batch.get(j), userInfo);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warning("Bulk lookup failed: " + e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Envoie une commande de recherche groupée en mode historique et rassemble les réponses sur une ligne.
+     *
+     * @param shard La partition interrogée, au format {@code <hôte>:<port>}.
+     * @param command La commande à envoyer.
+     * @param expectedUsers Le nombre d'utilisateurs demandés.
+     * @return Les paires {@code <ip> <port>} séparées par des espaces.
+     */
+    private static String legacyCall(String shard, String command, int expectedUsers) {
+        StringBuilder response = new StringBuilder();
+        try (Socket socket = new Socket(ShardRing.hostOf(shard), ShardRing.portOf(shard));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            out.println(command);
+            for (int i = 0; i < 2 * expectedUsers; i++) {
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (response.length() > 0) {
+                    response.append(' ');
+                }
+                response.append(line);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return response.toString();
+    }
+
+    /**
+     * Notifie le serveur d'un nouveau sujet proposé. Si l'annuaire est partitionné, le sujet est proposé
+     * simultanément à toutes les partitions, qui notifient chacune leurs utilisateurs.
      *
      * @param topic Le nouveau sujet proposé.
      */
     public void notifyNewTopic(String topic) {
-        try (Socket socket = new Socket(serverIp, serverPort);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            out.println("PROPOSER:" + topic);
+        if (connection != null) {
+            List<CompletableFuture<String>> responses = new ArrayList<>(shards.length);
+            for (ServerChannel shard : shards) {
+                responses.add(shard.request("PROPOSER", topic));
+            }
+            for (CompletableFuture<String> response : responses) {
+                try {
+                    response.get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    logger.warning("Topic proposal failed: " + e);
+                }
+            }
             logger.info("Notified server about new topic: " + topic);
-        } catch (Exception e) {
-            e.printStackTrace();
+            return;
+        }
+        for (String shard : legacyShards()) {
+            try (Socket socket = new Socket(ShardRing.hostOf(shard), ShardRing.portOf(shard));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                out.println("PROPOSER:" + topic);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        logger.info("Notified server about new topic: " + topic);
+    }
+
+    /**
+     * Renouvelle le bail d'un utilisateur auprès du serveur qui le possède ({@link Server#setLeaseTtl(long)}).
+     * Nécessite une connexion persistante. Un échec de communication n'est que journalisé : le prochain
+     * renouvellement réessaiera.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return false si le serveur ne connaît pas (ou plus) l'utilisateur, qui doit alors se réinscrire.
+     */
+    public boolean renewLease(String userId) {
+        if (connection == null) {
+            logger.warning("Heartbeats require a persistent server connection");
+            return true;
+        }
+        try {
+            return !channelFor(userId).call("HEARTBEAT", userId).equals("Unknown user");
+        } catch (IOException e) {
+            logger.warning("Heartbeat failed: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Abonne un utilisateur aux nouveaux sujets correspondant à un motif, auprès du serveur qui le possède.
+     * Nécessite une connexion persistante.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet ({@link TopicSubscriptions}).
+     * @param overflowPolicy La politique de débordement de sa file de notifications, ou null pour celle du serveur.
+     * @return true si le serveur a accepté l'abonnement.
+     */
+    public boolean subscribe(String userId, String pattern, FanOutEngine.OverflowPolicy overflowPolicy) {
+        if (connection == null) {
+            logger.warning("Subscriptions require a persistent server connection");
+            return false;
+        }
+        try {
+            String response = overflowPolicy == null ? channelFor(userId).call("SUBSCRIBE", userId, pattern)
+                    : channelFor(userId).call("SUBSCRIBE", userId, pattern, overflowPolicy.name());
+            if (response.startsWith("ERROR")) {
+                logger.warning("Subscription rejected: " + response);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warning("Subscription failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Retire l'abonnement d'un utilisateur à un motif de sujet. Nécessite une connexion persistante.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet.
+     * @return true si l'utilisateur était abonné à ce motif.
+     */
+    public boolean unsubscribe(String userId, String pattern) {
+        if (connection == null) {
+            logger.warning("Subscriptions require a persistent server connection");
+            return false;
+        }
+        try {
+            return channelFor(userId).call("UNSUBSCRIBE", userId, pattern).startsWith("Unsubscribed");
+        } catch (IOException e) {
+            logger.warning("Unsubscription failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Demande au serveur des utilisateurs tirés au hasard, pour amorcer un {@link GossipDirectory}. Si
+     * l'annuaire est partitionné, chaque partition en fournit une part. Nécessite une connexion persistante.
+     *
+     * @param count Le nombre d'utilisateurs souhaité.
+     * @return Les informations des utilisateurs tirés ; vide si le serveur est injoignable.
+     */
+    public Map<String, UserInfo> sampleUsers(int count) {
+        Map<String, UserInfo> sample = new LinkedHashMap<>();
+        if (connection == null) {
+            logger.warning("User sampling requires a persistent server connection");
+            return sample;
+        }
+        String perShard = String.valueOf((count + shards.length - 1) / shards.length);
+        List<CompletableFuture<String>> responses = new ArrayList<>(shards.length);
+        for (ServerChannel shard : shards) {
+            responses.add(shard.request("SAMPLE", perShard));
+        }
+        for (CompletableFuture<String> response : responses) {
+            try {
+                String[] fields = response.get(ServerConnection.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).split(" ");
+                for (int i = 0; i + 2 < fields.length; i += 3) {
+                    sample.put(fields[i], new UserInfo(fields[i + 1], Integer.parseInt(fields[i + 2])));
+                }
+            } catch (Exception e) {
+                logger.warning("User sampling failed: " + e);
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Demande au serveur la liste de tous les utilisateurs enregistrés, page par page, auprès de chaque
+     * partition. Nécessite une connexion persistante.
+     *
+     * @return Les informations de tous les utilisateurs ; incomplète si un serveur est injoignable.
+     */
+    public Map<String, UserInfo> getAllUsers() {
+        Map<String, UserInfo> users = new LinkedHashMap<>();
+        if (connection == null) {
+            logger.warning("User listing requires a persistent server connection");
+            return users;
+        }
+        for (ServerChannel shard : shards) {
+            try {
+                for (int offset = 0; ; offset += USER_LIST_PAGE) {
+                    String response = shard.call("USERS", String.valueOf(offset), String.valueOf(USER_LIST_PAGE));
+                    if (response.isEmpty()) {
+                        break;
+                    }
+                    String[] fields = response.split(" ");
+                    for (int i = 0; i + 2 < fields.length; i += 3) {
+                        users.put(fields[i], new UserInfo(fields[i + 1], Integer.parseInt(fields[i + 2])));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                logger.warning("User listing failed: " + e.getMessage());
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Envoie au serveur un rapport de polarisation ({@link PolarizationReporter}).
+     * Nécessite une connexion persistante.
+     *
+     * @param reporterId L'identifiant du rapporteur.
+     * @param full true si le rapport donne les effectifs complets, false s'il n'en donne que les variations.
+     * @param bins Le nombre de bins des histogrammes.
+     * @param counts Les effectifs, ou leurs variations, de chaque sujet.
+     * @return true si le serveur a accepté le rapport.
+     */
+    public boolean reportPolarization(String reporterId, boolean full, int bins, Map<String, long[]> counts) {
+        if (connection == null) {
+            logger.warning("Polarization reports require a persistent server connection");
+            return false;
+        }
+        List<String> args = new ArrayList<>(3 + 2 * counts.size());
+        args.add(reporterId);
+        args.add(full ? "FULL" : "DELTA");
+        args.add(String.valueOf(bins));
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            StringBuilder values = new StringBuilder();
+            for (long value : entry.getValue()) {
+                values.append(values.length() > 0 ? "," : "").append(value);
+            }
+            args.add(entry.getKey());
+            args.add(values.toString());
+        }
+        try {
+            String response = connection.call("REPORT", args.toArray(new String[0]));
+            if (response.startsWith("ERROR")) {
+                logger.warning("Polarization report rejected: " + response);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warning("Polarization report failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Demande au serveur la polarisation globale d'un sujet, calculée sur les rapports de tous les hôtes.
+     * Nécessite une connexion persistante.
+     *
+     * @param topic Le sujet.
+     * @return La polarisation, ou {@code NaN} si aucun hôte n'a rendu compte du sujet ou si le serveur est injoignable.
+     */
+    public double getPolarization(String topic) {
+        String response = queryPolarization(topic);
+        return response != null ? Double.parseDouble(response.substring(0, response.indexOf(' '))) : Double.NaN;
+    }
+
+    /**
+     * Demande au serveur l'histogramme global d'un sujet, agrégé sur les rapports de tous les hôtes, pour en
+     * calculer la polarisation avec d'autres paramètres que ceux du serveur.
+     * Nécessite une connexion persistante.
+     *
+     * @param topic Le sujet.
+     * @return Les effectifs de chaque bin, ou null si aucun hôte n'a rendu compte du sujet ou si le serveur est injoignable.
+     */
+    public long[] getPolarizationCounts(String topic) {
+        String response = queryPolarization(topic);
+        if (response == null) {
+            return null;
+        }
+        String[] values = response.substring(response.indexOf(' ') + 1).split(",");
+        long[] counts = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            counts[i] = Long.parseLong(values[i]);
+        }
+        return counts;
+    }
+
+    private String queryPolarization(String topic) {
+        if (connection == null) {
+            logger.warning("Polarization queries require a persistent server connection");
+            return null;
+        }
+        try {
+            String response = connection.call("POLARIZATION", topic);
+            return response.equals("null") || response.startsWith("ERROR") ? null : response;
+        } catch (IOException e) {
+            logger.warning("Polarization query failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Demande au serveur ses mesures ({@link Metrics}). Nécessite une connexion persistante.
+     *
+     * @return Les mesures, par nom, triées ; vide si le serveur est injoignable.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        if (connection == null) {
+            logger.warning("Server statistics require a persistent server connection");
+            return stats;
+        }
+        try {
+            for (String field : connection.call("STATS").split(" ")) {
+                int separator = field.indexOf('=');
+                if (separator > 0) {
+                    stats.put(field.substring(0, separator), Long.parseLong(field.substring(separator + 1)));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warning("Statistics query failed: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    /**
+     * Ferme les connexions persistantes au serveur et à ses partitions, si elles existent.
+     */
+    public void close() {
+        for (ServerChannel shard : shards) {
+            shard.close();
         }
     }
 }
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * La classe ShardRing répartit les identifiants d'utilisateurs entre plusieurs serveurs (partitions) par
+ * hachage cohérent : chaque identifiant appartient à la partition dont le point suit le sien sur un anneau de
+ * hachage 64 bits.
+ *
+ * <p>
+ * Chaque partition occupe {@link #VIRTUAL_NODES} points de l'anneau (nœuds virtuels), ce qui équilibre la
+ * répartition et limite les déplacements quand une partition est ajoutée ou retirée : seuls les identifiants
+ * des arcs concernés changent de partition. Une partition est désignée par {@code <hôte>:<port>} ; l'anneau ne
+ * dépend que de l'ensemble des partitions, pas de l'ordre dans lequel elles sont données, de sorte que les
+ * serveurs et les clients qui reçoivent la même liste calculent les mêmes propriétaires.
+ * </p>
+ */
+public final class ShardRing {
+
+    /** Nombre de points de l'anneau par partition. */
+    public static final int VIRTUAL_NODES = 128;
+
+    private final List<String> shards;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Constructeur de la classe ShardRing.
+     *
+     * @param shards Les partitions, au format {@code <hôte>:<port>}.
+     */
+    public ShardRing(List<String> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No shard");
+        }
+        this.shards = List.copyOf(shards);
+        long[] keys = new long[shards.size() * VIRTUAL_NODES];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                keys[shard * VIRTUAL_NODES + node] = hash(shards.get(shard) + "#" + node);
+            }
+        }
+        // Tri des points en conservant leur partition
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        this.points = new long[keys.length];
+        this.owners = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = keys[order[i]];
+            owners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    /**
+     * Construit un anneau à partir d'une liste de partitions séparées par des virgules ou des espaces.
+     *
+     * @param spec Les partitions, par exemple {@code 127.0.0.1:12345,127.0.0.1:12346}.
+     * @return L'anneau, ou null si la liste est vide.
+     */
+    public static ShardRing parse(String spec) {
+        List<String> shards = new ArrayList<>();
+        for (String shard : spec.trim().split("[,\\s]+")) {
+            if (!shard.isEmpty()) {
+                portOf(shard);
+                shards.add(shard);
+            }
+        }
+        return shards.isEmpty() ? null : new ShardRing(shards);
+    }
+
+    /**
+     * Demande à un serveur la liste des partitions dont il fait partie (commande {@code SHARDS}).
+     *
+     * @param channel Le canal vers le serveur.
+     * @return L'anneau des partitions, ou null si le serveur n'est pas partitionné.
+     * @throws IOException Si le serveur ne répond pas.
+     */
+    public static ShardRing discover(ServerChannel channel) throws IOException {
+        String response = channel.call("SHARDS");
+        if (response.startsWith("ERROR")) {
+            throw new IOException("Shard discovery failed: " + response);
+        }
+        ShardRing ring = parse(response);
+        return ring != null && ring.size() > 1 ? ring : null;
+    }
+
+    /**
+     * Renvoie le hachage 64 bits d'une chaîne : FNV-1a sur ses caractères, suivi d'un mélange final qui
+     * répartit sur tout l'anneau des chaînes qui ne diffèrent que par leurs derniers caractères.
+     *
+     * @param key La chaîne.
+     * @return Le hachage.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Renvoie le rang de la partition à laquelle appartient un identifiant.
+     *
+     * @param key L'identifiant.
+     * @return Le rang de la partition dans {@link #getShards()}.
+     */
+    public int shardOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Renvoie les partitions, dans l'ordre où elles ont été données.
+     *
+     * @return Les partitions, au format {@code <hôte>:<port>}.
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * Renvoie la partition qui écoute sur un port donné, quel que soit son hôte.
+     *
+     * @param port Le port.
+     * @return La partition, ou null si aucune ou plusieurs partitions utilisent ce port.
+     */
+    public String shardOnPort(int port) {
+        String found = null;
+        for (String shard : shards) {
+            if (portOf(shard) == port) {
+                if (found != null) {
+                    return null;
+                }
+                found = shard;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Renvoie le nombre de partitions.
+     *
+     * @return Le nombre de partitions.
+     */
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * Renvoie l'hôte d'une partition.
+     *
+     * @param shard La partition, au format {@code <hôte>:<port>}.
+     * @return L'hôte.
+     */
+    public static String hostOf(String shard) {
+        return shard.substring(0, shard.lastIndexOf(':'));
+    }
+
+    /**
+     * Renvoie le port d'une partition.
+     *
+     * @param shard La partition, au format {@code <hôte>:<port>}.
+     * @return Le port.
+     */
+    public static int portOf(String shard) {
+        int separator = shard.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid shard, expected <host>:<port>: " + shard);
+        }
+        return Integer.parseInt(shard.substring(separator + 1));
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", shards);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * La classe TcpTransport est le transport par sockets TCP : une connexion persistante
+ * ({@link ServerConnection}) vers le serveur, un port d'écoute par utilisateur et une connexion
+ * par message envoyé, en protocole binaire ou texte selon {@link BinaryProtocol#enabled()}. Les échanges
+ * d'annuaire et les messages à relayer, propres au protocole binaire, sont toujours envoyés en binaire. En
+ * binaire, chaque connexion commence par désigner son destinataire ({@link BinaryProtocol#TARGET}), pour les
+ * utilisateurs d'un {@link AgentHost} ; les messages en texte ne peuvent pas leur parvenir. Tous les envois
+ * respectent les délais de connexion et d'écriture du {@link FanOutEngine}, et un message à relayer n'est
+ * compté comme remis qu'une fois sa réception confirmée par le relais.
+ */
+public final class TcpTransport implements Transport {
+    private static final Logger logger = Logger.getLogger(TcpTransport.class.getName());
+
+    static final TcpTransport INSTANCE = new TcpTransport();
+
+    private TcpTransport() {
+    }
+
+    @Override
+    public ServerChannel connect(String serverIp, int serverPort) {
+        return new ServerConnection(serverIp, serverPort);
+    }
+
+    /**
+     * Démarre l'écoute des messages entrants. Chaque connexion est traitée par un {@link MessageHandler}
+     * exécuté par l'exécuteur partagé de {@link HandlerExecutors}.
+     */
+    @Override
+    public void listen(User user, int port) {
+        HandlerExecutors.startLoop("user-" + user.getId() + "-listener", () -> {
+            try (ServerSocket serverSocket = new ServerSocket(port)) {
+                logger.info("User " + user.getId() + " started server on port " + port);
+                while (true) {
+                    Socket clientSocket = serverSocket.accept();
+                    HandlerExecutors.dispatch(clientSocket, new MessageHandler(clientSocket, user), null);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public boolean send(String recipientId, UserInfo recipient, String topic, double opinion) {
+        try (Socket socket = connectWithTimeout(recipient)) {
+            byte[] frame = BinaryProtocol.enabled()
+                    ? BinaryProtocol.addressed(recipientId, BinaryProtocol.encodePeerMessage(topic, opinion))
+                    : (topic + "\n" + opinion + "\n").getBytes(StandardCharsets.UTF_8);
+            writeWithTimeout(socket, frame);
+            return true;
+        } catch (Exception e) {
+            logger.warning("Failed to notify user at " + recipient.getIpAddress() + ":" + recipient.getPort() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Écrit tel quel un message encodé une seule fois pour tous les destinataires d'une diffusion, en respectant
+     * les délais de connexion et d'écriture du {@link FanOutEngine}.
+     */
+    @Override
+    public boolean send(String recipientId, UserInfo recipient, EncodedMessage message) {
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.socket().connect(new InetSocketAddress(recipient.getIpAddress(), recipient.getPort()), FanOutEngine.CONNECT_TIMEOUT_MS);
+            ScheduledFuture<?> timeout = HandlerExecutors.timers().schedule(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Le socket est déjà fermé
+                }
+            }, FanOutEngine.WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            try {
+                message.writeTo(channel, recipientId);
+            } finally {
+                timeout.cancel(false);
+            }
+            return true;
+        } catch (Exception e) {
+            logger.warning("Failed to notify user at " + recipient.getIpAddress() + ":" + recipient.getPort() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested) {
+        try (Socket socket = connectWithTimeout(recipient)) {
+            writeWithTimeout(socket, BinaryProtocol.addressed(recipientId, BinaryProtocol.encodeGossip(entries, replyRequested)));
+            return true;
+        } catch (Exception e) {
+            logger.fine("Gossip to " + recipient.getIpAddress() + ":" + recipient.getPort() + " failed: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Remet un message à relayer et attend, au plus {@link FanOutEngine#WRITE_TIMEOUT_MS} ms, que le relais en
+     * confirme la réception ({@link BinaryProtocol#RELAY_ACK}).
+     */
+    @Override
+    public boolean relay(String relayId, UserInfo relay, RelayTree.Relay message) {
+        try (Socket socket = connectWithTimeout(relay)) {
+            writeWithTimeout(socket, BinaryProtocol.addressed(relayId, BinaryProtocol.encodeRelay(message)));
+            socket.setSoTimeout(FanOutEngine.WRITE_TIMEOUT_MS);
+            if (socket.getInputStream().read() != BinaryProtocol.RELAY_ACK) {
+                logger.warning("Relay to " + relay.getIpAddress() + ":" + relay.getPort() + " not acknowledged");
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            logger.warning("Relay to " + relay.getIpAddress() + ":" + relay.getPort() + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static Socket connectWithTimeout(UserInfo recipient) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(recipient.getIpAddress(), recipient.getPort()), FanOutEngine.CONNECT_TIMEOUT_MS);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Écrit une trame, en fermant le socket si l'écriture dépasse {@link FanOutEngine#WRITE_TIMEOUT_MS} ms.
+     */
+    private static void writeWithTimeout(Socket socket, byte[] frame) throws IOException {
+        ScheduledFuture<?> timeout = HandlerExecutors.timers().schedule(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Le socket est déjà fermé
+            }
+        }, FanOutEngine.WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            socket.getOutputStream().write(frame);
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * La classe TopicOpinionStore conserve l'opinion d'un utilisateur pour chaque sujet.
+ *
+ * <p>
+ * Les opinions sont stockées dans des tables à adressage ouvert, avec les sujets et les valeurs dans des
+ * tableaux parallèles ({@code String[]} et {@code long[]} contenant les bits des {@code double}) : aucune
+ * valeur n'est encapsulée dans un {@link Double} et aucun objet n'est créé par entrée. Les sujets sont
+ * répartis entre plusieurs segments alloués à leur première utilisation, afin qu'un utilisateur ne suivant
+ * que quelques sujets reste peu coûteux en mémoire.
+ * </p>
+ *
+ * <p>
+ * Les lectures et les mises à jour d'un sujet existant sont sans verrou : une mise à jour lit la valeur
+ * courante puis la remplace par compare-and-set, et recommence si une autre mise à jour est passée entre
+ * temps. Seule l'insertion d'un nouveau sujet prend le verrou de son segment. Lors d'un agrandissement,
+ * chaque valeur de l'ancienne table est d'abord gelée (remplacée par une valeur sentinelle) avant d'être
+ * copiée, de sorte qu'aucune mise à jour concurrente ne soit perdue ni appliquée deux fois.
+ * </p>
+ *
+ * <p>
+ * Une opinion peut aussi être réservée ({@link #lock}) : sa valeur est remplacée par une autre sentinelle
+ * jusqu'à {@link #unlock}, et les lectures et mises à jour de ce seul sujet attendent pendant ce temps. Les
+ * autres sujets ne sont pas concernés, et une mise à jour ordinaire n'écrit rien d'autre que sa propre valeur.
+ * </p>
+ */
+public class TopicOpinionStore {
+    private static final int STRIPES = 8;
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Bits marquant une valeur en cours de copie vers une table agrandie (un NaN non canonique). */
+    private static final long FROZEN = 0x7FF0_0000_0000_0BADL;
+
+    /** Bits marquant une valeur réservée par {@link #lock} (un autre NaN non canonique). */
+    private static final long LOCKED = 0x7FF0_0000_0000_0BAEL;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(String[].class);
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    /**
+     * Renvoie l'opinion associée à un sujet.
+     *
+     * @param topic Le sujet.
+     * @param defaultOpinion L'opinion à renvoyer si le sujet n'a encore jamais été mis à jour.
+     * @return L'opinion sur le sujet.
+     */
+    public double get(String topic, double defaultOpinion) {
+        Stripe stripe = stripes.get(stripeIndex(topic));
+        if (stripe == null) {
+            return defaultOpinion;
+        }
+        while (true) {
+            Table table = stripe.table;
+            int slot = table.find(topic);
+            if (slot < 0) {
+                return defaultOpinion;
+            }
+            long bits = (long) BITS.getVolatile(table.bits, slot);
+            if (!reserved(bits)) {
+                return Double.longBitsToDouble(bits);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Rapproche l'opinion sur un sujet d'une opinion cible :
+     * {@code opinion + (cible - opinion) * influence}.
+     *
+     * @param topic Le sujet.
+     * @param initialOpinion L'opinion de départ si le sujet n'a encore jamais été mis à jour.
+     * @param target L'opinion cible.
+     * @param influence Le poids de l'opinion cible, entre 0 et 1.
+     * @return L'opinion avant la mise à jour.
+     */
+    public double blend(String topic, double initialOpinion, double target, double influence) {
+        Stripe stripe = stripe(topic);
+        while (true) {
+            Table table = stripe.table;
+            int slot = stripe.slotFor(table, topic, initialOpinion);
+            if (slot < 0) {
+                continue;
+            }
+            long bits = (long) BITS.getVolatile(table.bits, slot);
+            if (reserved(bits)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            double previous = Double.longBitsToDouble(bits);
+            double next = previous + (target - previous) * influence;
+            if (BITS.compareAndSet(table.bits, slot, bits, Double.doubleToRawLongBits(next))) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Applique à l'opinion sur un sujet une transformation affine {@code opinion * scale + offset},
+     * qui peut représenter une suite de mises à jour {@link #blend} repliées en une seule.
+     *
+     * @param topic Le sujet.
+     * @param initialOpinion L'opinion de départ si le sujet n'a encore jamais été mis à jour.
+     * @param scale Le facteur appliqué à l'opinion courante.
+     * @param offset Le terme ajouté.
+     * @return L'opinion avant la mise à jour.
+     */
+    public double apply(String topic, double initialOpinion, double scale, double offset) {
+        Stripe stripe = stripe(topic);
+        while (true) {
+            Table table = stripe.table;
+            int slot = stripe.slotFor(table, topic, initialOpinion);
+            if (slot < 0) {
+                continue;
+            }
+            long bits = (long) BITS.getVolatile(table.bits, slot);
+            if (reserved(bits)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            double previous = Double.longBitsToDouble(bits);
+            if (BITS.compareAndSet(table.bits, slot, bits, Double.doubleToRawLongBits(previous * scale + offset))) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Remplace l'opinion sur un sujet si elle vaut encore la valeur attendue.
+     *
+     * @param topic Le sujet.
+     * @param initialOpinion L'opinion de départ si le sujet n'a encore jamais été mis à jour.
+     * @param expected L'opinion attendue, telle que lue par {@link #get}.
+     * @param opinion La nouvelle opinion.
+     * @return true si l'opinion a été remplacée, false si elle avait changé entre temps.
+     */
+    public boolean compareAndSet(String topic, double initialOpinion, double expected, double opinion) {
+        Stripe stripe = stripe(topic);
+        long expectedBits = Double.doubleToRawLongBits(expected);
+        while (true) {
+            Table table = stripe.table;
+            int slot = stripe.slotFor(table, topic, initialOpinion);
+            if (slot < 0) {
+                continue;
+            }
+            long bits = (long) BITS.getVolatile(table.bits, slot);
+            if (reserved(bits)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            return bits == expectedBits && BITS.compareAndSet(table.bits, slot, bits, Double.doubleToRawLongBits(opinion));
+        }
+    }
+
+    /**
+     * Réserve l'opinion sur un sujet : jusqu'à {@link #unlock}, les lectures et les mises à jour de ce sujet
+     * attendent. Un seul thread peut réserver un sujet à la fois ; il doit le libérer rapidement, sans attendre
+     * autre chose que d'autres réservations prises dans un ordre fixe.
+     *
+     * @param topic Le sujet.
+     * @param initialOpinion L'opinion de départ si le sujet n'a encore jamais été mis à jour.
+     * @return L'opinion sur le sujet au moment de la réservation.
+     */
+    public double lock(String topic, double initialOpinion) {
+        Stripe stripe = stripe(topic);
+        while (true) {
+            Table table = stripe.table;
+            int slot = stripe.slotFor(table, topic, initialOpinion);
+            if (slot < 0) {
+                continue;
+            }
+            long bits = (long) BITS.getVolatile(table.bits, slot);
+            if (reserved(bits)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (BITS.compareAndSet(table.bits, slot, bits, LOCKED)) {
+                return Double.longBitsToDouble(bits);
+            }
+        }
+    }
+
+    /**
+     * Libère un sujet réservé par {@link #lock} en lui donnant sa nouvelle opinion.
+     *
+     * @param topic Le sujet réservé.
+     * @param opinion La nouvelle opinion.
+     */
+    public void unlock(String topic, double opinion) {
+        // Une table ne peut pas être remplacée tant qu'elle contient une valeur réservée
+        Table table = stripes.get(stripeIndex(topic)).table;
+        int slot = table.find(topic);
+        if (slot < 0 || !BITS.compareAndSet(table.bits, slot, LOCKED, Double.doubleToRawLongBits(opinion))) {
+            throw new IllegalStateException("Topic not locked: " + topic);
+        }
+    }
+
+    /**
+     * Remplace l'opinion sur un sujet.
+     *
+     * @param topic Le sujet.
+     * @param opinion La nouvelle opinion.
+     * @return L'opinion avant le remplacement, ou {@code opinion} si le sujet était inconnu.
+     */
+    public double put(String topic, double opinion) {
+        return apply(topic, opinion, 0.0, opinion);
+    }
+
+    /**
+     * Renvoie le nombre de sujets suivis.
+     *
+     * @return Le nombre de sujets.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                synchronized (stripe) {
+                    size += stripe.size;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static boolean reserved(long bits) {
+        return bits == FROZEN || bits == LOCKED;
+    }
+
+    private static int stripeIndex(String topic) {
+        int hash = topic.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private Stripe stripe(String topic) {
+        int index = stripeIndex(topic);
+        Stripe stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new Stripe());
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    /**
+     * Une table à adressage ouvert et sondage linéaire. Sa taille ne change jamais : un agrandissement
+     * crée une nouvelle table.
+     */
+    private static final class Table {
+        private final String[] keys;
+        private final long[] bits;
+
+        Table(int capacity) {
+            this.keys = new String[capacity];
+            this.bits = new long[capacity];
+        }
+
+        int find(String topic) {
+            int mask = keys.length - 1;
+            for (int i = slot(topic, mask); ; i = (i + 1) & mask) {
+                String key = (String) KEYS.getAcquire(keys, i);
+                if (key == null) {
+                    return -1;
+                }
+                if (key.equals(topic)) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Insère un sujet absent. Doit être appelée sous le verrou du segment, avec de la place disponible.
+         */
+        int insert(String topic, double initialOpinion) {
+            int mask = keys.length - 1;
+            int i = slot(topic, mask);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            BITS.setVolatile(bits, i, Double.doubleToRawLongBits(initialOpinion));
+            KEYS.setRelease(keys, i, topic);
+            return i;
+        }
+
+        private static int slot(String topic, int mask) {
+            int hash = topic.hashCode() * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+
+    /**
+     * Un segment : sa table courante et le verrou protégeant les insertions et les agrandissements.
+     */
+    private static final class Stripe {
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        private int size;
+
+        /**
+         * Renvoie l'emplacement d'un sujet dans la table donnée, en l'insérant s'il est absent.
+         *
+         * @return L'emplacement, ou -1 si la table a été remplacée entre temps.
+         */
+        int slotFor(Table current, String topic, double initialOpinion) {
+            int slot = current.find(topic);
+            if (slot >= 0) {
+                return slot;
+            }
+            synchronized (this) {
+                if (table != current) {
+                    return -1;
+                }
+                slot = current.find(topic);
+                if (slot >= 0) {
+                    return slot;
+                }
+                if ((size + 1) * 4 > current.keys.length * 3) {
+                    table = grow(current);
+                    return -1;
+                }
+                size++;
+                return current.insert(topic, initialOpinion);
+            }
+        }
+
+        private static Table grow(Table old) {
+            Table grown = new Table(old.keys.length * 2);
+            for (int i = 0; i < old.keys.length; i++) {
+                String key = old.keys[i];
+                if (key == null) {
+                    continue;
+                }
+                long bits = (long) BITS.getVolatile(old.bits, i);
+                // Une valeur réservée est attendue, pour être copiée avec la valeur que lui donne sa libération
+                while (bits == LOCKED || !BITS.compareAndSet(old.bits, i, bits, FROZEN)) {
+                    if (bits == LOCKED) {
+                        Thread.onSpinWait();
+                    }
+                    bits = (long) BITS.getVolatile(old.bits, i);
+                }
+                grown.insert(key, Double.longBitsToDouble(bits));
+            }
+            return grown;
+        }
+    }
+}
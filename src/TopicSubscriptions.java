@@ -0,0 +1,199 @@
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * La classe TopicSubscriptions conserve les abonnements des utilisateurs aux sujets, pour que le
+ * {@link Server} ne notifie un nouveau sujet qu'aux utilisateurs qu'il intéresse.
+ *
+ * <p>
+ * Un abonnement est un motif de sujet : un nom exact ({@code climat}) ou un motif contenant des {@code *},
+ * chacun remplaçant une suite quelconque de caractères ({@code climat.*}, {@code *}). Les motifs exacts sont
+ * indexés par sujet ; seuls les motifs génériques, en général peu nombreux, sont comparés à chaque sujet.
+ * </p>
+ *
+ * <p>
+ * Un utilisateur qui ne s'est jamais abonné reçoit tous les sujets, comme s'il était abonné à {@code *}. Dès
+ * son premier abonnement, il ne reçoit plus que les sujets de ses motifs, même s'il les retire tous ensuite.
+ * </p>
+ */
+public class TopicSubscriptions {
+
+    /** Motif correspondant à tous les sujets. */
+    public static final String ALL = "*";
+
+    private final Map<String, Set<String>> patternsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> exactSubscribers = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> patternSubscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Abonne un utilisateur aux sujets correspondant à un motif.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet.
+     * @return true si l'abonnement est nouveau.
+     */
+    public synchronized boolean subscribe(String userId, String pattern) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("Empty topic pattern");
+        }
+        if (!patternsByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(pattern)) {
+            return false;
+        }
+        index(pattern).computeIfAbsent(pattern, key -> ConcurrentHashMap.newKeySet()).add(userId);
+        return true;
+    }
+
+    /**
+     * Retire l'abonnement d'un utilisateur à un motif. L'utilisateur reste abonné à ses autres motifs.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param pattern Le motif de sujet.
+     * @return true si l'utilisateur était abonné à ce motif.
+     */
+    public synchronized boolean unsubscribe(String userId, String pattern) {
+        Set<String> patterns = patternsByUser.get(userId);
+        if (patterns == null || !patterns.remove(pattern)) {
+            return false;
+        }
+        Map<String, Set<String>> index = index(pattern);
+        Set<String> subscribers = index.get(pattern);
+        subscribers.remove(userId);
+        if (subscribers.isEmpty()) {
+            index.remove(pattern);
+        }
+        return true;
+    }
+
+    /**
+     * Retire tous les abonnements d'un utilisateur, qui ne reçoit plus aucun sujet jusqu'à son prochain
+     * abonnement.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     */
+    public synchronized void unsubscribeAll(String userId) {
+        Set<String> patterns = patternsByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet());
+        for (String pattern : new HashSet<>(patterns)) {
+            unsubscribe(userId, pattern);
+        }
+    }
+
+    /**
+     * Oublie un utilisateur retiré de l'annuaire : ses abonnements sont retirés et, s'il se réinscrit, il
+     * reçoit de nouveau tous les sujets jusqu'à son premier abonnement.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     */
+    public synchronized void remove(String userId) {
+        unsubscribeAll(userId);
+        patternsByUser.remove(userId);
+    }
+
+    private Map<String, Set<String>> index(String pattern) {
+        return pattern.indexOf('*') < 0 ? exactSubscribers : patternSubscribers;
+    }
+
+    /**
+     * Indique si un utilisateur a choisi ses sujets. Sinon, il reçoit tous les sujets.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return true si l'utilisateur s'est déjà abonné.
+     */
+    public boolean hasSubscriptions(String userId) {
+        return patternsByUser.containsKey(userId);
+    }
+
+    /**
+     * Renvoie les motifs auxquels un utilisateur est abonné.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Les motifs, ou un ensemble vide.
+     */
+    public Set<String> getPatterns(String userId) {
+        Set<String> patterns = patternsByUser.get(userId);
+        return patterns == null ? Set.of() : Set.copyOf(patterns);
+    }
+
+    /**
+     * Renvoie les utilisateurs explicitement abonnés à un sujet, par un motif exact ou générique.
+     * Les utilisateurs sans abonnement, qui reçoivent tous les sujets, n'y figurent pas.
+     *
+     * @param topic Le sujet.
+     * @return Les identifiants des abonnés.
+     */
+    public Set<String> subscribers(String topic) {
+        Set<String> result = new HashSet<>();
+        Set<String> exact = exactSubscribers.get(topic);
+        if (exact != null) {
+            result.addAll(exact);
+        }
+        for (Map.Entry<String, Set<String>> entry : patternSubscribers.entrySet()) {
+            if (matches(entry.getKey(), topic)) {
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Énumère les destinataires d'un sujet parmi les utilisateurs enregistrés : ceux qui n'ont pas choisi leurs
+     * sujets, puis les abonnés au sujet. Les deux groupes étant disjoints, chaque destinataire n'est énuméré
+     * qu'une fois, sans copie de l'annuaire ; tant que personne ne s'est abonné, l'annuaire est parcouru tel quel.
+     *
+     * @param topic Le sujet.
+     * @param users Les utilisateurs enregistrés, par identifiant.
+     * @param action L'action appelée pour chaque destinataire, avec ses informations.
+     */
+    public void forEachRecipient(String topic, Map<String, UserInfo> users, BiConsumer<String, UserInfo> action) {
+        if (patternsByUser.isEmpty()) {
+            users.forEach(action);
+            return;
+        }
+        users.forEach((userId, userInfo) -> {
+            if (!patternsByUser.containsKey(userId)) {
+                action.accept(userId, userInfo);
+            }
+        });
+        for (String userId : subscribers(topic)) {
+            UserInfo userInfo = users.get(userId);
+            if (userInfo != null) {
+                action.accept(userId, userInfo);
+            }
+        }
+    }
+
+    /**
+     * Indique si un sujet correspond à un motif, où chaque {@code *} remplace une suite quelconque de caractères.
+     *
+     * @param pattern Le motif.
+     * @param topic Le sujet.
+     * @return true si le sujet correspond au motif.
+     */
+    public static boolean matches(String pattern, String topic) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int resume = 0;
+        while (t < topic.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                resume = t;
+            } else if (p < pattern.length() && pattern.charAt(p) == topic.charAt(t)) {
+                p++;
+                t++;
+            } else if (star >= 0) {
+                // Le dernier * absorbe un caractère de plus
+                p = star + 1;
+                t = ++resume;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
@@ -0,0 +1,105 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La classe TopicTable associe les sujets encodés en UTF-8 à une instance unique de {@link String}.
+ *
+ * <p>
+ * Elle permet au décodeur binaire de retrouver le sujet d'un message à partir des octets reçus sans rien
+ * allouer : la recherche passe par une clé propre à chaque thread, qui désigne les octets du tampon de
+ * réception et les compare à ceux des sujets déjà connus. Seul le premier message d'un nouveau sujet crée
+ * une chaîne et une clé. La table est
+ * bornée ; une fois pleine, les nouveaux sujets sont décodés normalement sans être mémorisés. Ni la
+ * recherche ni l'insertion ne prennent de verrou global.
+ * </p>
+ */
+public final class TopicTable {
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final Map<Key, String> topics = new ConcurrentHashMap<>(MAX_ENTRIES * 2);
+
+    private static final ThreadLocal<Key> LOOKUP_KEY = ThreadLocal.withInitial(Key::new);
+
+    private TopicTable() {
+    }
+
+    /**
+     * Renvoie le sujet correspondant aux octets donnés.
+     *
+     * @param bytes Le tampon contenant le sujet encodé en UTF-8.
+     * @param offset La position du sujet dans le tampon.
+     * @param length La longueur du sujet en octets.
+     * @return Le sujet, partagé avec les appels précédents portant sur les mêmes octets.
+     */
+    public static String intern(byte[] bytes, int offset, int length) {
+        // La clé de recherche désigne les octets du tampon sans les copier
+        Key lookup = LOOKUP_KEY.get().set(bytes, offset, length);
+        String topic = topics.get(lookup);
+        // Ne pas retenir le tampon de réception, que le thread peut abandonner
+        lookup.set(null, 0, 0);
+        if (topic != null) {
+            return topic;
+        }
+        topic = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        if (topics.size() >= MAX_ENTRIES) {
+            return topic;
+        }
+        // Plusieurs threads peuvent dépasser légèrement la borne ; seul le premier sujet inséré est partagé
+        String previous = topics.putIfAbsent(new Key(Arrays.copyOfRange(bytes, offset, offset + length), 0, length), topic);
+        return previous != null ? previous : topic;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Les octets d'un sujet, comparés par contenu. Les clés de la table ne changent jamais ; seule la clé de
+     * recherche d'un thread est redirigée vers d'autres octets.
+     */
+    private static final class Key {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+        private int hash;
+
+        Key() {
+        }
+
+        Key(byte[] bytes, int offset, int length) {
+            set(bytes, offset, length);
+        }
+
+        Key set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.hash = TopicTable.hash(bytes, offset, length);
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && length == other.length
+                    && Arrays.equals(bytes, offset, offset + length, other.bytes, other.offset, other.offset + length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
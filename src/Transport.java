@@ -0,0 +1,116 @@
+import java.util.List;
+
+/**
+ * L'interface Transport abstrait la façon dont les utilisateurs et le serveur communiquent : requêtes vers
+ * le serveur, réception des messages par un utilisateur et envoi d'un message à un utilisateur.
+ *
+ * <p>
+ * {@link TcpTransport} est le transport historique, par sockets TCP. {@link LoopbackTransport} fait
+ * tourner le serveur et tous les utilisateurs dans la même JVM, sans socket ni port ouvert, pour les
+ * simulations à grande échelle. {@link AgentHost} sert de nombreux utilisateurs sur un seul port TCP.
+ * </p>
+ *
+ * <p>
+ * Les envois désignent le destinataire par son identifiant en plus de son adresse : plusieurs utilisateurs
+ * d'un même {@link AgentHost} partagent la même adresse.
+ * </p>
+ */
+public interface Transport {
+
+    /**
+     * Renvoie le transport TCP partagé, utilisé par défaut.
+     *
+     * @return Le transport TCP.
+     */
+    static Transport tcp() {
+        return TcpTransport.INSTANCE;
+    }
+
+    /**
+     * Ouvre un canal de requêtes vers le serveur central.
+     *
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @return Le canal, connecté au plus tard à la première requête.
+     */
+    ServerChannel connect(String serverIp, int serverPort);
+
+    /**
+     * Crée le mandataire par lequel un utilisateur de ce transport parle au serveur.
+     *
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @return Un nouveau mandataire ; un {@link AgentHost} partage le sien entre tous ses utilisateurs.
+     */
+    default ServerProxy serverProxy(String serverIp, int serverPort) {
+        return new ServerProxy(this, serverIp, serverPort);
+    }
+
+    /**
+     * Inscrit un utilisateur auprès du serveur, avant que {@link #listen(User, int)} ne démarre sa réception.
+     *
+     * @param serverProxy Le mandataire de l'utilisateur.
+     * @param userId L'identifiant de l'utilisateur.
+     * @param port Le port annoncé au serveur.
+     */
+    default void register(ServerProxy serverProxy, String userId, int port) {
+        serverProxy.registerUser(userId, port);
+    }
+
+    /**
+     * Démarre la réception des messages destinés à un utilisateur, qui les reçoit par
+     * {@link User#receiveMessage(String, double)}.
+     *
+     * @param user L'utilisateur destinataire.
+     * @param port Le port annoncé au serveur par l'utilisateur.
+     */
+    void listen(User user, int port);
+
+    /**
+     * Envoie un message à un utilisateur.
+     *
+     * @param recipientId L'identifiant du destinataire, ou null s'il est seul à son adresse.
+     * @param recipient Les informations de connexion du destinataire.
+     * @param topic Le sujet du message.
+     * @param opinion L'opinion contenue dans le message.
+     * @return true si le message a été remis au transport, false en cas d'échec.
+     */
+    boolean send(String recipientId, UserInfo recipient, String topic, double opinion);
+
+    /**
+     * Envoie à un utilisateur un message encodé une seule fois pour tous les destinataires d'une diffusion.
+     * Par défaut, le message est envoyé par {@link #send(String, UserInfo, String, double)} ; un transport par
+     * sockets l'écrit tel quel.
+     *
+     * @param recipientId L'identifiant du destinataire, ou null s'il est seul à son adresse.
+     * @param recipient Les informations de connexion du destinataire.
+     * @param message Le message encodé, que l'appelant ferme après le dernier envoi.
+     * @return true si le message a été remis au transport, false en cas d'échec.
+     */
+    default boolean send(String recipientId, UserInfo recipient, EncodedMessage message) {
+        return send(recipientId, recipient, message.getTopic(), message.getOpinion());
+    }
+
+    /**
+     * Envoie à un utilisateur des entrées de l'annuaire, qu'il reçoit par
+     * {@link User#receiveGossip(List, boolean)}.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     * @param recipient Les informations de connexion du destinataire.
+     * @param entries Les entrées, celle de l'émetteur en premier.
+     * @param replyRequested true si le destinataire doit répondre par ses propres entrées.
+     * @return true si l'échange a été remis au transport, false en cas d'échec.
+     */
+    boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested);
+
+    /**
+     * Remet à un utilisateur un message à recevoir puis à relayer au reste de son sous-arbre, qu'il reçoit par
+     * {@link User#receiveRelay(RelayTree.Relay)}.
+     *
+     * @param relayId L'identifiant du relais.
+     * @param relay Les informations de connexion du relais.
+     * @param message Le message et les destinataires que le relais doit atteindre.
+     * @return true si le message a été remis au transport, false en cas d'échec.
+     */
+    boolean relay(String relayId, UserInfo relay, RelayTree.Relay message);
+}
@@ -1,6 +1,25 @@
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Random;
 
@@ -12,16 +31,78 @@ import java.util.Random;
  *
  * <p>
  * Les communications entre les utilisateurs et avec le serveur sont réalisées en utilisant des sockets TCP pour
- * assurer la fiabilité des transmissions.
+ * assurer la fiabilité des transmissions. Un autre {@link Transport} peut être fourni au constructeur, par
+ * exemple {@link LoopbackTransport} pour simuler de nombreux utilisateurs dans une seule JVM.
+ * </p>
+ *
+ * <p>
+ * Les opinions sont mises à jour sans verrou, par compare-and-set sur les bits du {@code double}, et leur
+ * lecture voit toujours la dernière valeur écrite. En mode regroupé ({@link #setCoalescing(boolean)}),
+ * les opinions reçues en rafale sont mises en file puis repliées, dans leur ordre d'arrivée, en une seule
+ * mise à jour par sujet. Chaque mise à jour est signalée aux {@link OpinionListener} enregistrés et
+ * comptée dans les {@link Metrics} {@code user.*}, communes à tous les utilisateurs de la JVM.
+ * </p>
+ *
+ * <p>
+ * Avec {@link #startGossip(long, int)}, l'utilisateur entretient une vue partielle de l'annuaire
+ * ({@link GossipDirectory}) en échangeant périodiquement des entrées avec des utilisateurs tirés au hasard :
+ * ses destinataires sont alors cherchés dans cette vue, et le serveur n'est interrogé qu'en cas d'absence.
+ * </p>
+ *
+ * <p>
+ * Avec {@link #startHeartbeat(long)}, l'utilisateur renouvelle périodiquement son bail auprès du serveur
+ * ({@link Server#setLeaseTtl(long)}) ; si le serveur l'a retiré de l'annuaire entre-temps, il se réinscrit et
+ * renouvelle ses abonnements.
+ * </p>
+ *
+ * <p>
+ * Un utilisateur peut enfin servir de relais à une diffusion ({@link RelayTree}) : il reçoit le message puis le
+ * remet au reste de son sous-arbre, en écartant les diffusions déjà reçues.
  * </p>
  */
 public class User {
     protected static final Logger logger = Logger.getLogger(User.class.getName());
+
+    /** Nombre maximal d'opinions repliées en une seule mise à jour par sujet. */
+    static final int MAX_COALESCED = 1024;
+
+    /** Nombre maximal d'opinions en attente en mode regroupé, au-delà duquel la réception ralentit. */
+    static final int MAX_PENDING_OPINIONS = 16 * MAX_COALESCED;
+
+    private static final LongAdder OPINION_UPDATES = Metrics.counter("user.opinion.updates");
+    private static final LongAdder COALESCED = Metrics.counter("user.opinion.coalesced");
+    private static final LongAdder MESSAGES_SENT = Metrics.counter("user.messages.sent");
+    private static final LongAdder MESSAGES_FAILED = Metrics.counter("user.messages.failed");
+    private static final LongAdder GOSSIP_SENT = Metrics.counter("user.gossip.sent");
+    private static final LongAdder GOSSIP_RECEIVED = Metrics.counter("user.gossip.received");
+    private static final LongAdder GOSSIP_MERGED = Metrics.counter("user.gossip.merged");
+    private static final LongAdder GOSSIP_HITS = Metrics.counter("user.gossip.hits");
+    private static final LongAdder GOSSIP_MISSES = Metrics.counter("user.gossip.misses");
+    private static final LongAdder RELAY_FORWARDED = Metrics.counter("user.relay.forwarded");
+    private static final LongAdder RELAY_DUPLICATES = Metrics.counter("user.relay.duplicates");
+    private static final LongAdder RELAY_REFUSED = Metrics.counter("user.relay.refused");
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
     private final String id;
-    private double opinion;
+    private final AtomicLong opinionBits;
+    private final TopicOpinionStore topicOpinions = new TopicOpinionStore();
     private final double influence;
     protected final ServerProxy serverProxy;
+    protected final Transport transport;
     private final int port;
+    private final Queue<PendingOpinion> pendingOpinions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final long lockOrder = LOCK_ORDER.incrementAndGet();
+    private final List<OpinionListener> opinionListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean coalescing;
+    private volatile GossipDirectory gossip;
+    private Server.DirectoryListener gossipListener;
+    private volatile long registeredAt;
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> heartbeat;
+    private final Set<Long> relayedIds = new HashSet<>();
+    private final ArrayDeque<Long> relayedOrder = new ArrayDeque<>();
 
     /**
      * Constructeur de la classe User.
@@ -34,10 +115,26 @@ public class User {
      * @param port Le port sur lequel l'utilisateur écoute les connexions entrantes.
      */
     public User(String id, double opinion, double influence, String serverIp, int serverPort, int port) {
+        this(id, opinion, influence, serverIp, serverPort, port, Transport.tcp());
+    }
+
+    /**
+     * Constructeur de la classe User, communiquant par le transport donné.
+     *
+     * @param id L'identifiant de l'utilisateur.
+     * @param opinion L'opinion initiale de l'utilisateur.
+     * @param influence L'influence initiale de l'utilisateur.
+     * @param serverIp L'adresse IP du serveur.
+     * @param serverPort Le port du serveur.
+     * @param port Le port sur lequel l'utilisateur reçoit les messages.
+     * @param transport Le transport utilisé pour communiquer avec le serveur et les autres utilisateurs.
+     */
+    public User(String id, double opinion, double influence, String serverIp, int serverPort, int port, Transport transport) {
         this.id = id;
-        this.opinion = opinion;
+        this.opinionBits = new AtomicLong(Double.doubleToRawLongBits(opinion));
         this.influence = influence;
-        this.serverProxy = new ServerProxy(serverIp, serverPort);
+        this.transport = transport;
+        this.serverProxy = transport.serverProxy(serverIp, serverPort);
         this.port = port;
         registerWithServer();
         startServer();
@@ -48,12 +145,209 @@ public class User {
     }
 
     public double getOpinion() {
-        return opinion;
+        return Double.longBitsToDouble(opinionBits.get());
+    }
+
+    public void updateOpinion(double newOpinion, double influence) {
+        long bits;
+        double updated;
+        do {
+            bits = opinionBits.get();
+            double current = Double.longBitsToDouble(bits);
+            updated = current + (newOpinion - current) * influence;
+        } while (!opinionBits.compareAndSet(bits, Double.doubleToRawLongBits(updated)));
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("User " + id + " updated opinion to " + updated);
+        }
+        fireOpinionChanged(null, Double.longBitsToDouble(bits), updated, influence, OpinionListener.Source.GENERAL);
     }
 
-    public synchronized void updateOpinion(double newOpinion, double influence) {
-        this.opinion = this.opinion + (newOpinion - this.opinion) * influence;
-        logger.info("User " + id + " updated opinion to " + this.opinion);
+    /**
+     * Renvoie l'opinion de l'utilisateur sur un sujet. Tant que le sujet n'a reçu aucune mise à jour,
+     * c'est l'opinion générale de l'utilisateur.
+     *
+     * @param topic Le sujet.
+     * @return L'opinion sur le sujet.
+     */
+    public double getOpinion(String topic) {
+        return topicOpinions.get(topic, getOpinion());
+    }
+
+    /**
+     * Met à jour l'opinion de l'utilisateur sur un sujet, sans toucher aux autres sujets.
+     * En mode regroupé, la mise à jour peut être appliquée par un autre thread recevant des messages
+     * au même moment, mais toujours dans l'ordre d'arrivée.
+     *
+     * @param topic Le sujet.
+     * @param newOpinion L'opinion reçue.
+     * @param influence Le poids de l'opinion reçue.
+     */
+    public void updateOpinion(String topic, double newOpinion, double influence) {
+        if (coalescing) {
+            // Réserver une place avant de déposer l'opinion, pour que la file ne dépasse jamais sa borne
+            for (int pending = pendingCount.get(); pending >= MAX_PENDING_OPINIONS
+                    || !pendingCount.compareAndSet(pending, pending + 1); pending = pendingCount.get()) {
+                // File pleine : aider à la vider, ou céder le processeur au thread qui la vide
+                if (pending >= MAX_PENDING_OPINIONS && !drainPendingOpinions()) {
+                    Thread.yield();
+                }
+            }
+            pendingOpinions.add(new PendingOpinion(topic, newOpinion, influence));
+            drainPendingOpinions();
+            return;
+        }
+        double previous = topicOpinions.blend(topic, getOpinion(), newOpinion, influence);
+        double updated = previous + (newOpinion - previous) * influence;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("User " + id + " updated opinion on " + topic + " to " + updated);
+        }
+        fireOpinionChanged(topic, previous, updated, influence, OpinionListener.Source.TOPIC);
+    }
+
+    /**
+     * Remplace l'opinion de l'utilisateur sur un sujet si elle n'a pas changé depuis sa lecture.
+     *
+     * @param topic Le sujet.
+     * @param expected L'opinion lue par {@link #getOpinion(String)}.
+     * @param newOpinion La nouvelle opinion.
+     * @return true si l'opinion a été remplacée, false si elle avait changé entre temps.
+     */
+    public boolean compareAndSetOpinion(String topic, double expected, double newOpinion) {
+        if (!topicOpinions.compareAndSet(topic, getOpinion(), expected, newOpinion)) {
+            return false;
+        }
+        fireOpinionChanged(topic, expected, newOpinion, 1.0, OpinionListener.Source.REPLACE);
+        return true;
+    }
+
+    /**
+     * Remplace les opinions de deux utilisateurs sur un sujet par leur moyenne, en une seule opération : aucune
+     * autre mise à jour de l'un ou l'autre ne peut s'intercaler entre la lecture des deux opinions et leur
+     * remplacement, et aucune valeur intermédiaire n'est publiée. Seul le sujet de la moyenne est réservé
+     * ({@link TopicOpinionStore#lock}) chez les deux utilisateurs : les mises à jour de leurs autres sujets
+     * continuent pendant ce temps. Les écouteurs de chaque utilisateur sont prévenus une fois, après le
+     * remplacement.
+     *
+     * @param first Le premier utilisateur.
+     * @param second Le second utilisateur, distinct du premier.
+     * @param topic Le sujet.
+     * @return La moyenne.
+     */
+    static double average(User first, User second, String topic) {
+        // Sujets toujours réservés dans le même ordre, ce qui exclut les interblocages entre paires
+        User lower = first.lockOrder < second.lockOrder ? first : second;
+        User upper = lower == first ? second : first;
+        // La réservation fige aussi l'opinion d'un sujet encore jamais mis à jour, qui ne suit plus l'opinion générale
+        double lowerOpinion = lower.topicOpinions.lock(topic, lower.getOpinion());
+        double upperOpinion = lowerOpinion;
+        double average = lowerOpinion;
+        try {
+            upperOpinion = upper.topicOpinions.lock(topic, upper.getOpinion());
+            try {
+                average = (lowerOpinion + upperOpinion) / 2;
+            } finally {
+                upper.topicOpinions.unlock(topic, average);
+            }
+        } finally {
+            lower.topicOpinions.unlock(topic, average);
+        }
+        double opinion1 = lower == first ? lowerOpinion : upperOpinion;
+        double opinion2 = lower == first ? upperOpinion : lowerOpinion;
+        first.fireOpinionChanged(topic, opinion1, average, 1.0, OpinionListener.Source.REPLACE);
+        second.fireOpinionChanged(topic, opinion2, average, 1.0, OpinionListener.Source.REPLACE);
+        return average;
+    }
+
+    /**
+     * Fige l'opinion de l'utilisateur sur un sujet à sa valeur courante : si le sujet n'a encore reçu aucune
+     * mise à jour, son opinion cesse de suivre l'opinion générale. Aucun écouteur n'est prévenu, la valeur
+     * ne changeant pas.
+     *
+     * @param topic Le sujet.
+     * @return L'opinion sur le sujet.
+     */
+    public double pinOpinion(String topic) {
+        return topicOpinions.blend(topic, getOpinion(), 0.0, 0.0);
+    }
+
+    /**
+     * Abonne un écouteur aux changements d'opinion de l'utilisateur.
+     *
+     * @param listener L'écouteur à abonner.
+     */
+    public void addOpinionListener(OpinionListener listener) {
+        opinionListeners.add(listener);
+    }
+
+    /**
+     * Désabonne un écouteur des changements d'opinion de l'utilisateur.
+     *
+     * @param listener L'écouteur à désabonner.
+     */
+    public void removeOpinionListener(OpinionListener listener) {
+        opinionListeners.remove(listener);
+    }
+
+    private void fireOpinionChanged(String topic, double previous, double current, double influence, OpinionListener.Source source) {
+        OPINION_UPDATES.increment();
+        for (OpinionListener listener : opinionListeners) {
+            listener.opinionChanged(this, topic, previous, current, influence, source);
+        }
+    }
+
+    /**
+     * Active ou désactive le mode regroupé des mises à jour d'opinion.
+     *
+     * @param coalescing true pour replier les opinions reçues en rafale en une seule mise à jour par sujet.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        if (!coalescing) {
+            drainPendingOpinions();
+        }
+    }
+
+    /**
+     * Applique les opinions en attente. Un seul thread vide la file à la fois ; les autres se contentent
+     * d'y déposer leur opinion. Pour chaque sujet, la suite des mises à jour
+     * {@code o -> o + (n - o) * k} est repliée en une transformation affine {@code o -> o * scale + offset},
+     * appliquée ensuite par un unique compare-and-set. Les opinions sont repliées par lots d'au plus
+     * {@link #MAX_COALESCED} messages : sans cette borne, un flux continu maintenait le thread qui vide la file
+     * dans la boucle de lecture, sans jamais rien appliquer. La file elle-même est bornée par
+     * {@link #MAX_PENDING_OPINIONS} ; au-delà, les threads qui reçoivent des opinions aident à la vider.
+     *
+     * @return true si ce thread a vidé la file, false si un autre thread s'en chargeait.
+     */
+    private boolean drainPendingOpinions() {
+        boolean drained = false;
+        while (!pendingOpinions.isEmpty() && draining.compareAndSet(false, true)) {
+            drained = true;
+            Map<String, double[]> folds = new LinkedHashMap<>();
+            int count = 0;
+            try {
+                PendingOpinion pending;
+                while (count < MAX_COALESCED && (pending = pendingOpinions.poll()) != null) {
+                    double[] fold = folds.computeIfAbsent(pending.topic, topic -> new double[] {1.0, 0.0});
+                    fold[0] *= 1.0 - pending.influence;
+                    fold[1] = fold[1] * (1.0 - pending.influence) + pending.opinion * pending.influence;
+                    count++;
+                }
+                pendingCount.addAndGet(-count);
+                COALESCED.add(count);
+                for (Map.Entry<String, double[]> fold : folds.entrySet()) {
+                    double previous = topicOpinions.apply(fold.getKey(), getOpinion(), fold.getValue()[0], fold.getValue()[1]);
+                    double updated = previous * fold.getValue()[0] + fold.getValue()[1];
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("User " + id + " updated opinion on " + fold.getKey() + " to " + updated
+                                + " (" + count + " messages coalesced)");
+                    }
+                    fireOpinionChanged(fold.getKey(), previous, updated, 1.0 - fold.getValue()[0], OpinionListener.Source.COALESCED);
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
+        return drained;
     }
 
     public double getInfluence() {
@@ -61,21 +355,252 @@ public class User {
     }
 
     private void registerWithServer() {
-        serverProxy.registerUser(id, port); // Enregistrement auprès du serveur avec le port d'écoute
+        registeredAt = System.currentTimeMillis();
+        transport.register(serverProxy, id, port); // Enregistrement auprès du serveur avec le port d'écoute
     }
 
-    private void startServer() {
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
-                logger.info("User " + id + " started server on port " + port);
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(new MessageHandler(clientSocket, this)).start();
-                }
+    /**
+     * Démarre l'échange périodique de l'annuaire avec d'autres utilisateurs. À chaque tour, espacé de
+     * {@code intervalMs} en moyenne avec une gigue aléatoire qui évite que tous les utilisateurs échangent en
+     * même temps, l'utilisateur envoie un échantillon de sa vue à {@code fanout} utilisateurs qu'elle contient,
+     * qui répondent par un échantillon de la leur. Tant que la vue est vide, elle est amorcée par des
+     * utilisateurs tirés au hasard par le serveur (commande {@code SAMPLE}). Les retraits et changements
+     * d'adresse poussés par le serveur sont appliqués à la vue.
+     *
+     * @param intervalMs L'intervalle moyen entre deux tours (en millisecondes).
+     * @param fanout Le nombre d'utilisateurs contactés à chaque tour.
+     */
+    public synchronized void startGossip(long intervalMs, int fanout) {
+        if (gossip != null) {
+            return;
+        }
+        UserInfo self = serverProxy.getUserInfo(id);
+        if (self == null) {
+            logger.warning("User " + id + " is not registered, gossip not started");
+            return;
+        }
+        GossipDirectory directory = new GossipDirectory(id, GossipDirectory.DEFAULT_CAPACITY);
+        directory.setSelf(self, registeredAt);
+        gossip = directory;
+        gossipListener = (userId, userInfo) -> {
+            if (userInfo == null) {
+                directory.remove(userId);
+            } else {
+                directory.update(userId, userInfo);
+            }
+        };
+        serverProxy.addPushListener(gossipListener);
+        scheduleGossip(directory, intervalMs, fanout);
+    }
+
+    /**
+     * Arrête l'échange de l'annuaire ; les destinataires sont de nouveau cherchés auprès du serveur.
+     */
+    public synchronized void stopGossip() {
+        gossip = null;
+        if (gossipListener != null) {
+            serverProxy.removePushListener(gossipListener);
+            gossipListener = null;
+        }
+    }
+
+    /**
+     * Renvoie la vue partielle de l'annuaire de l'utilisateur.
+     *
+     * @return La vue, ou null si l'échange de l'annuaire n'est pas démarré.
+     */
+    public GossipDirectory getGossipDirectory() {
+        return gossip;
+    }
+
+    private void scheduleGossip(GossipDirectory directory, long intervalMs, int fanout) {
+        long delay = intervalMs / 2 + ThreadLocalRandom.current().nextLong(intervalMs + 1);
+        HandlerExecutors.timers().schedule(() -> {
+            if (gossip != directory) {
+                return;
+            }
+            try {
+                gossipRound(directory, fanout);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }).start();
+            scheduleGossip(directory, intervalMs, fanout);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void gossipRound(GossipDirectory directory, int fanout) {
+        if (directory.size() == 0) {
+            for (Map.Entry<String, UserInfo> user : serverProxy.sampleUsers(GossipDirectory.EXCHANGE_SIZE).entrySet()) {
+                directory.learn(user.getKey(), user.getValue());
+            }
+        }
+        // Une version plus récente garde l'entrée de l'utilisateur en vie dans les autres vues
+        directory.refreshSelf(System.currentTimeMillis());
+        List<GossipDirectory.Entry> sample = directory.sample(GossipDirectory.EXCHANGE_SIZE);
+        for (GossipDirectory.Entry peer : directory.randomPeers(fanout)) {
+            if (transport.sendGossip(peer.getId(), peer.getInfo(), sample, true)) {
+                GOSSIP_SENT.increment();
+            } else {
+                directory.remove(peer.getId());
+            }
+        }
+    }
+
+    /**
+     * Reçoit des entrées de l'annuaire envoyées par un autre utilisateur, la première étant la sienne, et les
+     * fusionne dans la vue. Si l'émetteur attend une réponse, un échantillon de la vue lui est renvoyé, tiré
+     * avant la fusion pour ne pas lui renvoyer ses propres entrées.
+     *
+     * @param entries Les entrées reçues.
+     * @param replyRequested true si l'émetteur attend une réponse.
+     */
+    public void receiveGossip(List<GossipDirectory.Entry> entries, boolean replyRequested) {
+        GossipDirectory directory = gossip;
+        if (directory == null || entries.isEmpty()) {
+            return;
+        }
+        GOSSIP_RECEIVED.increment();
+        if (replyRequested && transport.sendGossip(entries.get(0).getId(), entries.get(0).getInfo(), directory.sample(GossipDirectory.EXCHANGE_SIZE), false)) {
+            GOSSIP_SENT.increment();
+        }
+        for (GossipDirectory.Entry entry : entries) {
+            if (directory.merge(entry)) {
+                GOSSIP_MERGED.increment();
+            }
+        }
+    }
+
+    /**
+     * Recherche les informations de connexion d'un utilisateur, d'abord dans la vue partielle de l'annuaire
+     * si l'échange est démarré, puis auprès du serveur ; la réponse du serveur est ajoutée à la vue.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Ses informations de connexion, ou null s'il est inconnu.
+     */
+    protected UserInfo lookupUser(String userId) {
+        GossipDirectory directory = gossip;
+        if (directory == null) {
+            return serverProxy.getUserInfo(userId);
+        }
+        UserInfo known = directory.lookup(userId);
+        if (known != null) {
+            GOSSIP_HITS.increment();
+            return known;
+        }
+        GOSSIP_MISSES.increment();
+        UserInfo userInfo = serverProxy.getUserInfo(userId);
+        if (userInfo != null) {
+            directory.learn(userId, userInfo);
+        }
+        return userInfo;
+    }
+
+    /**
+     * Recherche les informations de connexion de plusieurs utilisateurs, d'abord dans la vue partielle de
+     * l'annuaire, puis en une recherche groupée auprès du serveur pour les absents.
+     *
+     * @param userIds Les identifiants des utilisateurs.
+     * @return Les informations des utilisateurs trouvés ; les utilisateurs inconnus sont absents de la carte.
+     */
+    protected Map<String, UserInfo> lookupUsers(List<String> userIds) {
+        GossipDirectory directory = gossip;
+        if (directory == null) {
+            return serverProxy.getUserInfos(userIds);
+        }
+        Map<String, UserInfo> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            UserInfo known = directory.lookup(userId);
+            if (known != null) {
+                result.put(userId, known);
+            } else {
+                missing.add(userId);
+            }
+        }
+        GOSSIP_HITS.add(result.size());
+        GOSSIP_MISSES.add(missing.size());
+        if (!missing.isEmpty()) {
+            for (Map.Entry<String, UserInfo> fetched : serverProxy.getUserInfos(missing).entrySet()) {
+                directory.learn(fetched.getKey(), fetched.getValue());
+                result.put(fetched.getKey(), fetched.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Abonne l'utilisateur aux nouveaux sujets correspondant à un motif. Tant qu'il ne s'est abonné à
+     * aucun motif, l'utilisateur est notifié de tous les sujets.
+     *
+     * @param pattern Le motif de sujet, par exemple {@code climat.*}.
+     * @return true si le serveur a accepté l'abonnement.
+     */
+    public boolean subscribe(String pattern) {
+        if (!serverProxy.subscribe(id, pattern, null)) {
+            return false;
+        }
+        subscriptions.add(pattern);
+        return true;
+    }
+
+    /**
+     * Retire l'abonnement de l'utilisateur à un motif de sujet.
+     *
+     * @param pattern Le motif de sujet.
+     * @return true si l'utilisateur était abonné à ce motif.
+     */
+    public boolean unsubscribe(String pattern) {
+        subscriptions.remove(pattern);
+        return serverProxy.unsubscribe(id, pattern);
+    }
+
+    /**
+     * Démarre le renouvellement périodique du bail de l'utilisateur auprès du serveur. L'intervalle doit être
+     * nettement inférieur à la durée du bail, par exemple son tiers, pour qu'un renouvellement perdu ne suffise
+     * pas à faire expirer le bail.
+     *
+     * @param intervalMs L'intervalle entre deux renouvellements (en millisecondes).
+     */
+    public synchronized void startHeartbeat(long intervalMs) {
+        if (heartbeat != null) {
+            return;
+        }
+        // Un premier délai aléatoire étale les renouvellements des utilisateurs démarrés ensemble
+        heartbeat = HandlerExecutors.timers().scheduleAtFixedRate(() -> {
+            try {
+                renewLease();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, ThreadLocalRandom.current().nextLong(intervalMs), intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrête le renouvellement du bail : le serveur retirera l'utilisateur à son expiration.
+     */
+    public synchronized void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+    }
+
+    private void renewLease() {
+        if (serverProxy.renewLease(id)) {
+            return;
+        }
+        logger.info("User " + id + " lease expired, registering again");
+        registerWithServer();
+        for (String pattern : subscriptions) {
+            serverProxy.subscribe(id, pattern, null);
+        }
+    }
+
+    /**
+     * Démarre la réception des messages entrants par le transport de l'utilisateur.
+     */
+    private void startServer() {
+        transport.listen(this, port);
     }
 
     /**
@@ -85,17 +610,52 @@ public class User {
      * @param topic Le sujet du message.
      */
     public void sendMessage(String recipientId, String topic) {
-        UserInfo recipientInfo = serverProxy.getUserInfo(recipientId);
+        UserInfo recipientInfo = lookupUser(recipientId);
         if (recipientInfo != null) {
-            try (Socket socket = new Socket(recipientInfo.getIpAddress(), recipientInfo.getPort());
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-                out.println(topic);
-                out.println(opinion);
-                logger.info("User " + id + " sent message to " + recipientId + " on topic " + topic);
-            } catch (Exception e) {
-                e.printStackTrace();
+            sendMessage(recipientId, recipientInfo, topic);
+        }
+    }
+
+    /**
+     * Envoie un message à un utilisateur dont les informations de connexion sont déjà connues.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     * @param recipientInfo Les informations de connexion du destinataire.
+     * @param topic Le sujet du message.
+     * @return true si le message a été envoyé, false en cas d'échec.
+     */
+    protected boolean sendMessage(String recipientId, UserInfo recipientInfo, String topic) {
+        return recordSend(recipientId, topic, transport.send(recipientId, recipientInfo, topic, getOpinion(topic)));
+    }
+
+    /**
+     * Envoie à un utilisateur un message déjà encodé pour toute une diffusion.
+     *
+     * @param recipientId L'identifiant du destinataire.
+     * @param recipientInfo Les informations de connexion du destinataire.
+     * @param topic Le sujet du message.
+     * @param message Le message encodé par {@link EncodedMessage#peerMessage(String, double)}.
+     * @return true si le message a été envoyé, false en cas d'échec.
+     */
+    protected boolean sendMessage(String recipientId, UserInfo recipientInfo, String topic, EncodedMessage message) {
+        return recordSend(recipientId, topic, transport.send(recipientId, recipientInfo, message));
+    }
+
+    private boolean recordSend(String recipientId, String topic, boolean sent) {
+        if (!sent) {
+            MESSAGES_FAILED.increment();
+            GossipDirectory directory = gossip;
+            if (directory != null) {
+                // Le destinataire a peut-être quitté l'annuaire : la prochaine recherche interrogera le serveur
+                directory.remove(recipientId);
             }
+            return false;
         }
+        MESSAGES_SENT.increment();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("User " + id + " sent message to " + recipientId + " on topic " + topic);
+        }
+        return true;
     }
 
     /**
@@ -105,12 +665,79 @@ public class User {
      * @param opinion L'opinion contenue dans le message.
      */
     public void receiveMessage(String topic, double opinion) {
-        updateOpinion(opinion, this.influence);
+        updateOpinion(topic, opinion, this.influence);
+    }
+
+    /**
+     * Reçoit un message diffusé par un arbre de relais : confie à l'exécuteur partagé la remise du reste du
+     * sous-arbre dont l'utilisateur est la racine, puis met à jour son opinion sans attendre cette remise, ni la
+     * faire attendre à l'émetteur qui attend l'accusé de réception. Un message dont la diffusion a déjà été reçue
+     * est ignoré.
+     *
+     * <p>
+     * Si l'exécuteur est saturé, l'opinion est tout de même mise à jour, mais le sous-arbre est refusé plutôt
+     * que remis dans ce thread, ce qui retarderait l'accusé de réception : faute d'accusé, l'émetteur confie
+     * le sous-arbre au destinataire suivant.
+     * </p>
+     *
+     * @param relay Le message et les destinataires restant à atteindre.
+     * @return false si le reste du sous-arbre n'a pas pu être pris en charge.
+     */
+    public boolean receiveRelay(RelayTree.Relay relay) {
+        if (!markRelayed(relay.getMessageId())) {
+            RELAY_DUPLICATES.increment();
+            return true;
+        }
+        boolean accepted = true;
+        if (!relay.getRecipients().isEmpty()) {
+            try {
+                HandlerExecutors.shared().execute(() -> RELAY_FORWARDED.add(RelayTree.disseminate(transport, relay)));
+            } catch (RejectedExecutionException e) {
+                RELAY_REFUSED.increment();
+                logger.fine("Handlers saturated, relay subtree of " + relay.getRecipients().size() + " refused");
+                accepted = false;
+            }
+        }
+        receiveMessage(relay.getTopic(), relay.getOpinion());
+        return accepted;
+    }
+
+    /**
+     * Mémorise une diffusion reçue, en oubliant la plus ancienne au-delà de {@link RelayTree#HISTORY}.
+     *
+     * @return true si la diffusion n'avait pas encore été reçue.
+     */
+    private boolean markRelayed(long messageId) {
+        synchronized (relayedIds) {
+            if (!relayedIds.add(messageId)) {
+                return false;
+            }
+            relayedOrder.addLast(messageId);
+            if (relayedOrder.size() > RelayTree.HISTORY) {
+                relayedIds.remove(relayedOrder.removeFirst());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Une opinion reçue en attente d'application en mode regroupé.
+     */
+    private static final class PendingOpinion {
+        private final String topic;
+        private final double opinion;
+        private final double influence;
+
+        PendingOpinion(String topic, double opinion, double influence) {
+            this.topic = topic;
+            this.opinion = opinion;
+            this.influence = influence;
+        }
     }
 
     public static void main(String[] args) {
         if (args.length < 4) {
-            System.out.println("Utilisation : java User --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port>");
+            System.out.println("Utilisation : java User --id=<id> --serverIp=<serverIp> --serverPort=<serverPort> --port=<port> [--coalesce=true] [--report=<intervalle ms>] [--journal=<dossier>] [--subscribe=<motif>,<motif>,...] [--gossip=<intervalle ms>] [--heartbeat=<intervalle ms>]");
             return;
         }
 
@@ -123,7 +750,32 @@ public class User {
         double opinion = random.nextDouble();
         double influence = random.nextDouble();
 
-        new User(id, opinion, influence, serverIp, serverPort, port);
+        User user = new User(id, opinion, influence, serverIp, serverPort, port);
+        for (int i = 4; i < args.length; i++) {
+            String value = args[i].split("=")[1];
+            if (args[i].startsWith("--coalesce=")) {
+                user.setCoalescing(Boolean.parseBoolean(value));
+            } else if (args[i].startsWith("--report=")) {
+                PolarizationReporter reporter = new PolarizationReporter(id, user.serverProxy,
+                        PolarizationHistogram.DEFAULT_BINS, Long.parseLong(value));
+                reporter.track(user);
+                reporter.start();
+            } else if (args[i].startsWith("--journal=")) {
+                try {
+                    user.addOpinionListener(new OpinionJournal(Paths.get(value)));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (args[i].startsWith("--subscribe=")) {
+                for (String pattern : value.split(",")) {
+                    user.subscribe(pattern);
+                }
+            } else if (args[i].startsWith("--gossip=")) {
+                user.startGossip(Long.parseLong(value), GossipDirectory.DEFAULT_FANOUT);
+            } else if (args[i].startsWith("--heartbeat=")) {
+                user.startHeartbeat(Long.parseLong(value));
+            }
+        }
     }
 }
 
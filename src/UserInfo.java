@@ -24,4 +24,21 @@ public class UserInfo {
     public int getPort() {
         return port;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserInfo)) {
+            return false;
+        }
+        UserInfo other = (UserInfo) o;
+        return port == other.port && ipAddress.equals(other.ipAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ipAddress.hashCode() + port;
+    }
 }
@@ -0,0 +1,99 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * La classe UserInfoCache est un annuaire local des informations des utilisateurs, tenu côté client
+ * pour éviter d'interroger le serveur central à chaque envoi de message.
+ *
+ * <p>
+ * Le cache est borné : au-delà de sa capacité, l'entrée la moins récemment utilisée est évincée.
+ * Chaque entrée expire après une durée de vie fixe, afin qu'une information ne reste jamais obsolète
+ * longtemps même si une invalidation poussée par le serveur a été perdue.
+ * </p>
+ */
+public class UserInfoCache {
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Constructeur de la classe UserInfoCache.
+     *
+     * @param maxEntries Le nombre maximal d'entrées conservées.
+     * @param ttlMillis La durée de vie d'une entrée (en millisecondes).
+     */
+    public UserInfoCache(int maxEntries, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Récupère les informations d'un utilisateur si elles sont présentes et non expirées.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @return Les informations de l'utilisateur, ou null si absentes ou expirées.
+     */
+    public synchronized UserInfo get(String userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(userId);
+            return null;
+        }
+        return entry.userInfo;
+    }
+
+    /**
+     * Ajoute ou remplace les informations d'un utilisateur.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Les informations de l'utilisateur.
+     */
+    public synchronized void put(String userId, UserInfo userInfo) {
+        entries.put(userId, new Entry(userInfo, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Met à jour les informations d'un utilisateur uniquement s'il est déjà présent dans le cache.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     * @param userInfo Les nouvelles informations de l'utilisateur.
+     */
+    public synchronized void refresh(String userId, UserInfo userInfo) {
+        if (entries.containsKey(userId)) {
+            entries.put(userId, new Entry(userInfo, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Retire un utilisateur du cache.
+     *
+     * @param userId L'identifiant de l'utilisateur.
+     */
+    public synchronized void invalidate(String userId) {
+        entries.remove(userId);
+    }
+
+    /**
+     * Vide entièrement le cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+        private final UserInfo userInfo;
+        private final long expiresAt;
+
+        Entry(UserInfo userInfo, long expiresAt) {
+            this.userInfo = userInfo;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryProtocolTest {
+
+    @Test
+    void peerMessageIsDispatchedToUser() throws IOException {
+        User user = new User("u1", 0.0, 1.0, "127.0.0.1", 1, 20001, new LoopbackTransport());
+        ByteBuffer frame = readOnlyFrame(BinaryProtocol.encodePeerMessage("climat", 0.75));
+        assertEquals(BinaryProtocol.PEER_MESSAGE, frame.get(0));
+        assertTrue(MessageHandler.dispatchFrame(frame.array(), frame.limit(), user));
+        assertEquals(0.75, user.getOpinion("climat"));
+    }
+
+    @Test
+    void truncatedPeerMessageIsRejected() throws IOException {
+        User user = new User("u1", 0.5, 1.0, "127.0.0.1", 1, 20001, new LoopbackTransport());
+        ByteBuffer frame = readOnlyFrame(BinaryProtocol.encodePeerMessage("climat", 0.75));
+        assertFalse(MessageHandler.dispatchFrame(frame.array(), frame.limit() - 1, user));
+        assertEquals(0.5, user.getOpinion("climat"));
+    }
+
+    @Test
+    void unknownFrameTypeIsRejected() {
+        User user = new User("u1", 0.5, 1.0, "127.0.0.1", 1, 20001, new LoopbackTransport());
+        byte[] frame = {(byte) 0x7F, 0, 0};
+        assertFalse(MessageHandler.dispatchFrame(frame, frame.length, user));
+    }
+
+    @Test
+    void addressedFrameStartsWithItsTarget() throws IOException {
+        byte[] bytes = BinaryProtocol.addressed("agent-7", BinaryProtocol.encodePeerMessage("t", 0.5));
+        assertEquals(BinaryProtocol.MAGIC, bytes[0] & 0xFF);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        ByteBuffer target = BinaryProtocol.readFrame(in, ByteBuffer.allocate(16));
+        assertEquals(BinaryProtocol.TARGET, target.get(0));
+        assertEquals("agent-7", BinaryProtocol.decodeTarget(target.array(), target.limit()));
+        ByteBuffer message = BinaryProtocol.readFrame(in, target);
+        assertEquals(BinaryProtocol.PEER_MESSAGE, message.get(0));
+        assertNull(BinaryProtocol.readFrame(in, message));
+    }
+
+    @Test
+    void requestRoundTrip() throws IOException {
+        String name = BinaryProtocol.commandNames().get(0);
+        byte[] bytes = BinaryProtocol.encodeRequest(42L, name, "a:b,c", "");
+        ByteBuffer frame = BinaryProtocol.readFrame(new ByteArrayInputStream(bytes), ByteBuffer.allocate(8));
+        assertEquals(BinaryProtocol.REQUEST, frame.get());
+        BinaryProtocol.Request request = BinaryProtocol.decodeRequest(frame);
+        assertEquals(42L, request.getRequestId());
+        assertEquals(name, request.getName());
+        assertArrayEquals(new String[] {"a:b,c", ""}, request.getArgs());
+    }
+
+    @Test
+    void invalidFrameLengthIsRejected() {
+        byte[] bytes = {0, 0, 0, 0};
+        assertThrows(IOException.class, () -> BinaryProtocol.readFrame(new ByteArrayInputStream(bytes), ByteBuffer.allocate(8)));
+    }
+
+    /**
+     * Lit la trame d'une connexion ne transportant qu'elle, après son octet {@link BinaryProtocol#MAGIC}.
+     */
+    private static ByteBuffer readOnlyFrame(byte[] bytes) throws IOException {
+        assertEquals(BinaryProtocol.MAGIC, bytes[0] & 0xFF);
+        byte[] frames = Arrays.copyOfRange(bytes, 1, bytes.length);
+        return BinaryProtocol.readFrame(new ByteArrayInputStream(frames), ByteBuffer.allocate(64));
+    }
+}
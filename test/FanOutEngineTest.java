@@ -0,0 +1,193 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class FanOutEngineTest {
+    private static final UserInfo ADDRESS = new UserInfo("127.0.0.1", 1);
+
+    private final ScriptedTransport transport = new ScriptedTransport();
+    private FanOutEngine engine;
+
+    @AfterEach
+    void shutdown() {
+        transport.release();
+        if (engine != null) {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void deliversToEveryRecipient() throws Exception {
+        engine = new FanOutEngine(4, transport);
+        Map<String, UserInfo> recipients = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            recipients.put("u" + i, ADDRESS);
+        }
+        FanOutReport report = engine.fanOut(recipients, "t", 0.5).get(5, TimeUnit.SECONDS);
+        assertEquals(100, report.getDelivered());
+        assertEquals(0, report.getFailed() + report.getDropped());
+        assertEquals(100, transport.sent.size());
+    }
+
+    @Test
+    void dropOldestKeepsNewestMessages() throws Exception {
+        engine = new FanOutEngine(1, transport, 2, FanOutEngine.OverflowPolicy.DROP_OLDEST);
+        List<CompletableFuture<FanOutReport>> reports = fillBehindBlockedSend("t1", "t2", "t3", "t4");
+        transport.release();
+        assertEquals(List.of(1, 1, 0, 0), dropped(reports));
+        assertEquals(List.of("r t0 0.0", "r t3 3.0", "r t4 4.0"), transport.sent);
+    }
+
+    @Test
+    void coalesceReplacesQueuedMessageOnSameTopic() throws Exception {
+        engine = new FanOutEngine(1, transport, 2, FanOutEngine.OverflowPolicy.COALESCE);
+        List<CompletableFuture<FanOutReport>> reports = fillBehindBlockedSend("x", "y", "x");
+        transport.release();
+        assertEquals(List.of(1, 0, 0), dropped(reports));
+        assertEquals(List.of("r t0 0.0", "r y 2.0", "r x 3.0"), transport.sent);
+    }
+
+    @Test
+    void disconnectDropsWholeQueueAndNotifies() throws Exception {
+        engine = new FanOutEngine(1, transport, 2, FanOutEngine.OverflowPolicy.DROP_OLDEST);
+        engine.setOverflowPolicy("r", FanOutEngine.OverflowPolicy.DISCONNECT);
+        List<String> disconnected = new CopyOnWriteArrayList<>();
+        engine.setOverflowListener(disconnected::add);
+        List<CompletableFuture<FanOutReport>> reports = fillBehindBlockedSend("t1", "t2", "t3");
+        assertEquals(List.of("r"), disconnected);
+        transport.release();
+        assertEquals(List.of(1, 1, 1), dropped(reports));
+        assertEquals(List.of("r t0 0.0"), transport.sent);
+    }
+
+    @Test
+    void openCircuitShortCircuitsSends() throws Exception {
+        engine = new FanOutEngine(1, transport);
+        transport.failing.add("dead");
+        for (int i = 0; i < 2 * FanOutEngine.BREAKER_THRESHOLD; i++) {
+            FanOutReport report = engine.fanOut(Map.of("dead", ADDRESS), "t", i).get(5, TimeUnit.SECONDS);
+            assertEquals(1, report.getFailed());
+        }
+        // Seuls les premiers envois sont tentés, les suivants sont écartés par le disjoncteur
+        assertEquals(FanOutEngine.BREAKER_THRESHOLD, transport.attempts("dead"));
+        assertEquals(1, engine.fanOut(Map.of("alive", ADDRESS), "t", 0).get(5, TimeUnit.SECONDS).getDelivered());
+
+        transport.failing.remove("dead");
+        engine.closeCircuit("dead");
+        assertEquals(1, engine.fanOut(Map.of("dead", ADDRESS), "t", 0).get(5, TimeUnit.SECONDS).getDelivered());
+        assertEquals(FanOutEngine.BREAKER_THRESHOLD + 1, transport.attempts("dead"));
+    }
+
+    @Test
+    void circuitClosesAfterSuccessfulRetry() throws Exception {
+        engine = new FanOutEngine(1, transport);
+        transport.failing.add("flaky");
+        for (int i = 0; i < FanOutEngine.BREAKER_THRESHOLD + 1; i++) {
+            engine.fanOut(Map.of("flaky", ADDRESS), "t", i).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(FanOutEngine.BREAKER_THRESHOLD, transport.attempts("flaky"));
+
+        transport.failing.remove("flaky");
+        Thread.sleep(FanOutEngine.BREAKER_COOLDOWN_MS + 100);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, engine.fanOut(Map.of("flaky", ADDRESS), "t", i).get(5, TimeUnit.SECONDS).getDelivered());
+        }
+        assertEquals(FanOutEngine.BREAKER_THRESHOLD + 3, transport.attempts("flaky"));
+    }
+
+    /**
+     * Bloque l'envoi d'un premier message au destinataire "r", puis lui diffuse les sujets donnés, d'opinions
+     * 1, 2, 3... : ils s'accumulent dans sa file.
+     */
+    private List<CompletableFuture<FanOutReport>> fillBehindBlockedSend(String... topics) throws InterruptedException {
+        transport.block();
+        engine.fanOut(Map.of("r", ADDRESS), "t0", 0.0);
+        assertTrue(transport.blocked.await(5, TimeUnit.SECONDS));
+        List<CompletableFuture<FanOutReport>> reports = new ArrayList<>();
+        for (int i = 0; i < topics.length; i++) {
+            reports.add(engine.fanOut(Map.of("r", ADDRESS), topics[i], i + 1));
+        }
+        return reports;
+    }
+
+    private static List<Integer> dropped(List<CompletableFuture<FanOutReport>> reports) throws Exception {
+        List<Integer> dropped = new ArrayList<>();
+        for (CompletableFuture<FanOutReport> report : reports) {
+            dropped.add(report.get(5, TimeUnit.SECONDS).getDropped());
+        }
+        return dropped;
+    }
+
+    /**
+     * Un transport qui note chaque envoi et fait échouer ceux destinés à {@link #failing} ; le premier envoi
+     * peut être retenu jusqu'à {@link #release()}.
+     */
+    private static final class ScriptedTransport implements Transport {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final Set<String> failing = ConcurrentHashMap.newKeySet();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch gate;
+
+        void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            CountDownLatch current = gate;
+            if (current != null) {
+                current.countDown();
+            }
+        }
+
+        @Override
+        public ServerChannel connect(String serverIp, int serverPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void listen(User user, int port) {
+        }
+
+        @Override
+        public boolean send(String recipientId, UserInfo recipient, String topic, double opinion) {
+            sent.add(recipientId + " " + topic + " " + opinion);
+            CountDownLatch current = gate;
+            if (current != null && blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    current.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return !failing.contains(recipientId);
+        }
+
+        long attempts(String recipientId) {
+            return sent.stream().filter(send -> send.startsWith(recipientId + " ")).count();
+        }
+
+        @Override
+        public boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested) {
+            return false;
+        }
+
+        @Override
+        public boolean relay(String relayId, UserInfo relay, RelayTree.Relay message) {
+            return false;
+        }
+    }
+}
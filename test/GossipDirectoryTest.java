@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class GossipDirectoryTest {
+    private static final UserInfo OLD = new UserInfo("127.0.0.1", 5001);
+    private static final UserInfo NEW = new UserInfo("127.0.0.1", 5002);
+
+    @Test
+    void mergeKeepsNewestVersion() {
+        GossipDirectory directory = new GossipDirectory("self", 16);
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", OLD, 1)));
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", NEW, 2)));
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 1)));
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 2)));
+        assertEquals(NEW, directory.lookup("u1"));
+        assertEquals(1, directory.size());
+    }
+
+    @Test
+    void mergeIgnoresOwnEntry() {
+        GossipDirectory directory = new GossipDirectory("self", 16);
+        assertFalse(directory.merge(new GossipDirectory.Entry("self", OLD, 1)));
+        assertNull(directory.lookup("self"));
+        assertEquals(0, directory.size());
+    }
+
+    @Test
+    void capacityBoundsTheView() {
+        GossipDirectory directory = new GossipDirectory("self", 10);
+        for (int i = 0; i < 100; i++) {
+            directory.merge(new GossipDirectory.Entry("u" + i, OLD, 1));
+        }
+        assertEquals(10, directory.size());
+        assertEquals(10, directory.randomPeers(100).size());
+    }
+
+    @Test
+    void removeLeavesTombstoneUntilNewerVersion() {
+        GossipDirectory directory = new GossipDirectory("self", 16);
+        directory.merge(new GossipDirectory.Entry("u1", OLD, 5));
+        assertTrue(directory.remove("u1"));
+        assertFalse(directory.remove("u1"));
+        assertNull(directory.lookup("u1"));
+        // Les copies de l'entrée retirée qui circulent encore sont écartées
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 5)));
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 4)));
+        assertNull(directory.lookup("u1"));
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", NEW, 6)));
+        assertEquals(NEW, directory.lookup("u1"));
+    }
+
+    @Test
+    void learnOverridesTombstone() {
+        GossipDirectory directory = new GossipDirectory("self", 16);
+        directory.merge(new GossipDirectory.Entry("u1", OLD, 5));
+        directory.remove("u1");
+        directory.learn("u1", NEW);
+        assertEquals(NEW, directory.lookup("u1"));
+        // Une entrée apprise du serveur a la version 0 : toute rumeur plus récente la remplace
+        directory.learn("u1", OLD);
+        assertEquals(NEW, directory.lookup("u1"));
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", OLD, 1)));
+    }
+
+    @Test
+    void updateOnlyChangesKnownEntries() {
+        GossipDirectory directory = new GossipDirectory("self", 16);
+        assertFalse(directory.update("u1", NEW));
+        assertNull(directory.lookup("u1"));
+        directory.merge(new GossipDirectory.Entry("u1", OLD, 3));
+        assertTrue(directory.update("u1", NEW));
+        assertFalse(directory.update("u1", NEW));
+        assertEquals(NEW, directory.lookup("u1"));
+        // La version est conservée : une rumeur de même version ne revient pas à l'ancienne adresse
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 3)));
+        assertEquals(NEW, directory.lookup("u1"));
+    }
+
+    @Test
+    void expiredEntriesAreDroppedAndBuried() throws InterruptedException {
+        GossipDirectory directory = new GossipDirectory("self", 16, 50);
+        directory.merge(new GossipDirectory.Entry("u1", OLD, 1));
+        Thread.sleep(80);
+        assertNull(directory.lookup("u1"));
+        assertTrue(directory.randomPeers(10).isEmpty());
+        assertEquals(0, directory.size());
+        assertFalse(directory.merge(new GossipDirectory.Entry("u1", OLD, 1)));
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", OLD, 2)));
+        // La pierre tombale expire à son tour
+        directory.remove("u1");
+        Thread.sleep(80);
+        assertTrue(directory.merge(new GossipDirectory.Entry("u1", OLD, 2)));
+    }
+
+    @Test
+    void sampleStartsWithSelfAndHasDistinctEntries() {
+        GossipDirectory directory = new GossipDirectory("self", 64);
+        directory.setSelf(OLD, 7);
+        for (int i = 0; i < 50; i++) {
+            directory.merge(new GossipDirectory.Entry("u" + i, NEW, 1));
+        }
+        List<GossipDirectory.Entry> sample = directory.sample(GossipDirectory.EXCHANGE_SIZE);
+        assertEquals(GossipDirectory.EXCHANGE_SIZE, sample.size());
+        assertEquals("self", sample.get(0).getId());
+        assertEquals(7, sample.get(0).getVersion());
+        Set<String> ids = new HashSet<>();
+        for (GossipDirectory.Entry entry : sample) {
+            assertTrue(ids.add(entry.getId()), "duplicate " + entry.getId());
+        }
+        directory.refreshSelf(3);
+        assertEquals(8, directory.sample(1).get(0).getVersion());
+    }
+}
@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LeaseWheelTest {
+    private final BlockingQueue<String> expired = new LinkedBlockingQueue<>();
+    // Une roue plus courte que les baux testés, pour que les échéances fassent plus d'un tour
+    private final LeaseWheel wheel = new LeaseWheel(10, 8, expired::add);
+
+    @AfterEach
+    void closeWheel() {
+        wheel.close();
+    }
+
+    @Test
+    void leaseExpiresAfterItsTtl() throws InterruptedException {
+        long start = System.nanoTime();
+        wheel.renew("u1", 200);
+        assertTrue(wheel.isActive("u1"));
+        assertEquals("u1", expired.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200), "expired early");
+        assertFalse(wheel.isActive("u1"));
+        assertEquals(0, wheel.size());
+        assertNull(expired.poll(100, TimeUnit.MILLISECONDS), "expired twice");
+    }
+
+    @Test
+    void renewPostponesExpiry() throws InterruptedException {
+        wheel.renew("u1", 150);
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600);
+        while (System.nanoTime() < until) {
+            Thread.sleep(50);
+            wheel.renew("u1", 150);
+        }
+        assertTrue(expired.isEmpty(), "renewed lease expired: " + expired);
+        assertTrue(wheel.isActive("u1"));
+        assertEquals("u1", expired.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledLeaseIsNotReported() throws InterruptedException {
+        wheel.renew("u1", 50);
+        wheel.renew("u2", 50);
+        wheel.cancel("u1");
+        assertEquals("u2", expired.poll(5, TimeUnit.SECONDS));
+        assertNull(expired.poll(200, TimeUnit.MILLISECONDS));
+        assertFalse(wheel.isActive("u1"));
+    }
+
+    @Test
+    void leaseGrantedAgainAfterExpiryExpiresAgain() throws InterruptedException {
+        wheel.renew("u1", 30);
+        assertEquals("u1", expired.poll(5, TimeUnit.SECONDS));
+        wheel.renew("u1", 30);
+        assertTrue(wheel.isActive("u1"));
+        assertEquals("u1", expired.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void manyLeasesAllExpire() throws InterruptedException {
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            wheel.renew("u" + i, 20 + i % 300);
+        }
+        for (int i = 0; i < count; i++) {
+            assertNotNull(expired.poll(5, TimeUnit.SECONDS), "only " + i + " leases expired");
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rejectsInvalidWheel() {
+        assertThrows(IllegalArgumentException.class, () -> new LeaseWheel(0, 8, id -> { }));
+        assertThrows(IllegalArgumentException.class, () -> new LeaseWheel(10, 0, id -> { }));
+    }
+}
@@ -0,0 +1,160 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OpinionJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysEventsInOrder() throws IOException {
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            journal.append("u1", "t", 0.1, 0.2, 0.5, 1);
+            journal.append("u2", null, 0.3, 0.4, Double.NaN, -1);
+            journal.append("u1", "t", 0.2, 0.25, 0.5, 2);
+        }
+        JournalReplay replay = new JournalReplay();
+        List<String> events = replay(replay);
+        assertEquals(List.of("u1 t 0.1 0.2 0.5 1", "u2 - 0.3 0.4 NaN -1", "u1 t 0.2 0.25 0.5 2"), events);
+        assertEquals(2, replay.userCount());
+    }
+
+    @Test
+    void translatesIdsOfEachSegment() throws IOException {
+        int count = 1000;
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            for (int i = 0; i < count; i++) {
+                journal.append("user-" + i % 37, "topic-" + i % 5, 0, i, 1, 0);
+            }
+        }
+        assertTrue(JournalReplay.segments(directory).size() > 1, "journal did not roll over");
+        List<String> events = replay(new JournalReplay());
+        assertEquals(count, events.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("user-" + i % 37 + " topic-" + i % 5 + " 0.0 " + (double) i + " 1.0 0", events.get(i));
+        }
+    }
+
+    @Test
+    void reopenedJournalContinuesInNextSegment() throws IOException {
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            journal.append("u1", "t", 0, 1, 1, 0);
+        }
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            journal.append("u2", "t", 1, 0, 1, 0);
+        }
+        assertEquals(2, JournalReplay.segments(directory).size());
+        assertEquals(List.of("u1 t 0.0 1.0 1.0 0", "u2 t 1.0 0.0 1.0 0"), replay(new JournalReplay()));
+    }
+
+    @Test
+    void ignoresTornEventAtTail() throws IOException {
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            journal.append("u1", "t", 0.1, 0.2, 0.5, 1);
+            journal.append("u1", "t", 0.2, 0.3, 0.5, 1);
+        }
+        // Événement dont le type a atteint le disque, mais pas la définition de son utilisateur
+        ByteBuffer torn = ByteBuffer.allocate(OpinionJournal.EVENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        torn.put(OpinionJournal.EVENT).put((byte) 1).putShort((short) 0).putInt(42).putInt(0).flip();
+        write(onlySegment(), endOfRecords(2), torn);
+        assertEquals(List.of("u1 t 0.1 0.2 0.5 1", "u1 t 0.2 0.3 0.5 1"), replay(new JournalReplay()));
+    }
+
+    @Test
+    void ignoresTruncatedDefinitionAtTail() throws IOException {
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 60_000)) {
+            journal.append("u1", "t", 0.1, 0.2, 0.5, 1);
+        }
+        // Définition d'utilisateur coupée par la fin du fichier
+        Path segment = onlySegment();
+        int end = endOfRecords(1);
+        ByteBuffer definition = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN);
+        definition.put(OpinionJournal.USER).putInt(1).putShort((short) 10).put((byte) 'u').put((byte) '2').flip();
+        write(segment, end, definition);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(end + 9);
+        }
+        assertEquals(List.of("u1 t 0.1 0.2 0.5 1"), replay(new JournalReplay()));
+    }
+
+    @Test
+    void concurrentAppendsKeepEachThreadInOrder() throws Exception {
+        int threads = 8;
+        int perThread = 2000;
+        try (OpinionJournal journal = new OpinionJournal(directory, SEGMENT_SIZE, 1)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        journal.append("user-" + thread, "topic-" + i % 3, i, i + 1, 1, 0);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        assertTrue(JournalReplay.segments(directory).size() > 1, "journal did not roll over");
+        int[] next = new int[threads];
+        for (String event : replay(new JournalReplay())) {
+            String[] fields = event.split(" ");
+            int thread = Integer.parseInt(fields[0].substring("user-".length()));
+            int i = next[thread]++;
+            assertEquals("topic-" + i % 3 + " " + (double) i + " " + (double) (i + 1), fields[1] + " " + fields[2] + " " + fields[3]);
+        }
+        for (int count : next) {
+            assertEquals(perThread, count);
+        }
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        Files.write(directory.resolve(OpinionJournal.segmentName(0)), new byte[OpinionJournal.HEADER_SIZE]);
+        assertThrows(IOException.class, () -> new JournalReplay().replay(directory, (timestamp, user, topic, previous, current, influence, source) -> { }));
+    }
+
+    /**
+     * Renvoie la fin des enregistrements d'un segment contenant les définitions de "u1" et "t" suivies
+     * d'événements.
+     */
+    private static int endOfRecords(int events) {
+        return OpinionJournal.HEADER_SIZE + (7 + 2) + (7 + 1) + events * OpinionJournal.EVENT_SIZE;
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = JournalReplay.segments(directory);
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+
+    private static void write(Path segment, long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    private List<String> replay(JournalReplay replay) throws IOException {
+        List<String> events = new ArrayList<>();
+        replay.replay(directory, (timestamp, user, topic, previous, current, influence, source) ->
+                events.add(replay.userName(user) + " " + (topic < 0 ? "-" : replay.topicName(topic)) + " "
+                        + previous + " " + current + " " + influence + " " + source));
+        return events;
+    }
+}
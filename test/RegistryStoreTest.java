@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RegistryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reloadsPutsAndRemoves() throws IOException {
+        Map<String, UserInfo> expected = new HashMap<>();
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            Map<String, UserInfo> users = store.load();
+            assertTrue(users.isEmpty());
+            for (int i = 0; i < 1000; i++) {
+                put(store, users, "u" + i, new UserInfo("10.0.0." + i % 7, 5000 + i));
+            }
+            put(store, users, "u3", new UserInfo("10.0.1.1", 6000));
+            users.remove("u5");
+            store.awaitDurable(store.remove("u5"));
+            expected.putAll(users);
+        }
+        assertEquals(new TreeMap<>(expected), new TreeMap<>(reload()));
+    }
+
+    @Test
+    void keepsModificationsAcrossSeveralRestarts() throws IOException {
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            put(store, store.load(), "first", new UserInfo("127.0.0.1", 5001));
+        }
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            Map<String, UserInfo> users = store.load();
+            put(store, users, "second", new UserInfo("127.0.0.1", 5002));
+            users.remove("first");
+            store.awaitDurable(store.remove("first"));
+        }
+        assertEquals(Map.of("second", new UserInfo("127.0.0.1", 5002)), reload());
+    }
+
+    @Test
+    void ignoresTornTailRecord() throws IOException {
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            Map<String, UserInfo> users = store.load();
+            put(store, users, "u1", new UserInfo("127.0.0.1", 5001));
+            put(store, users, "u2", new UserInfo("127.0.0.1", 5002));
+        }
+        // Enregistrement dont seuls l'en-tête et le début du contenu ont atteint le disque
+        ByteBuffer torn = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        torn.putInt(64).putInt(0x12345678).put(RegistryStore.PUT).put((byte) 2).put((byte) 0).put((byte) 'u').flip();
+        append(latestWal(), torn);
+        assertEquals(2, reload().size());
+
+        // Le registre rechargé continue dans une nouvelle génération, lisible au redémarrage suivant
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            Map<String, UserInfo> users = store.load();
+            put(store, users, "u3", new UserInfo("127.0.0.1", 5003));
+        }
+        Map<String, UserInfo> users = reload();
+        assertEquals(3, users.size());
+        assertEquals(new UserInfo("127.0.0.1", 5003), users.get("u3"));
+    }
+
+    @Test
+    void stopsAtCorruptedRecord() throws IOException {
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            Map<String, UserInfo> users = store.load();
+            put(store, users, "u1", new UserInfo("127.0.0.1", 5001));
+            put(store, users, "u2", new UserInfo("127.0.0.1", 5002));
+        }
+        Path wal = latestWal();
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            // Dernier octet du port de u2 : la somme de contrôle ne correspond plus
+            channel.write(ByteBuffer.wrap(new byte[] {0x7F}), channel.size() - 1);
+        }
+        assertEquals(Map.of("u1", new UserInfo("127.0.0.1", 5001)), reload());
+    }
+
+    @Test
+    void reloadsFromSnapshotAndFollowingJournal() throws Exception {
+        int count = RegistryStore.SNAPSHOT_EVERY + 1000;
+        try (RegistryStore store = new RegistryStore(directory, false)) {
+            Map<String, UserInfo> users = store.load();
+            for (int i = 0; i < count; i++) {
+                UserInfo userInfo = new UserInfo("10.0." + i % 3 + ".1", 5000 + i % 1000);
+                users.put("u" + i, userInfo);
+                store.put("u" + i, userInfo);
+            }
+            long deadline = System.nanoTime() + 30_000_000_000L;
+            while (!Files.exists(directory.resolve(RegistryStore.SNAPSHOT_FILE)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(directory.resolve(RegistryStore.SNAPSHOT_FILE)), "no snapshot written");
+            users.remove("u0");
+            store.remove("u0");
+        }
+        Map<String, UserInfo> users = reload();
+        assertEquals(count - 1, users.size());
+        assertEquals(new UserInfo("10.0.1.1", 5001), users.get("u1"));
+        assertEquals(new UserInfo("10.0.1.1", 5000), users.get("u" + (count - 1000)));
+    }
+
+    @Test
+    void refusesModificationsAfterClose() throws IOException {
+        RegistryStore store = new RegistryStore(directory, true);
+        store.load();
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.put("u1", new UserInfo("127.0.0.1", 5001)));
+    }
+
+    private static void put(RegistryStore store, Map<String, UserInfo> users, String userId, UserInfo userInfo) {
+        users.put(userId, userInfo);
+        store.awaitDurable(store.put(userId, userInfo));
+    }
+
+    private Map<String, UserInfo> reload() throws IOException {
+        try (RegistryStore store = new RegistryStore(directory, true)) {
+            return new HashMap<>(store.load());
+        }
+    }
+
+    private Path latestWal() throws IOException {
+        Path latest = null;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path log : logs) {
+                if (Files.size(log) > 0 && (latest == null || log.getFileName().compareTo(latest.getFileName()) > 0)) {
+                    latest = log;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static void append(Path file, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class RelayTreeTest {
+
+    @Test
+    void splitCoversRecipientsInContiguousSubtrees() {
+        RelayTree.Relay relay = relay(10, 3);
+        List<Integer> sizes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (RelayTree.Relay subtree : RelayTree.split(relay, relay.getFanout())) {
+            assertEquals(relay.getMessageId(), subtree.getMessageId());
+            assertEquals(subtree.getRecipientIds().size(), subtree.getRecipients().size());
+            sizes.add(subtree.getRecipients().size());
+            ids.addAll(subtree.getRecipientIds());
+        }
+        assertEquals(List.of(3, 3, 4), sizes);
+        assertEquals(relay.getRecipientIds(), ids);
+    }
+
+    @Test
+    void splitNeverReturnsEmptySubtrees() {
+        assertEquals(2, RelayTree.split(relay(2, 4), 4).size());
+        assertEquals(0, RelayTree.split(relay(0, 4), 4).size());
+        assertEquals(1, RelayTree.split(relay(5, 1), 1).size());
+    }
+
+    @Test
+    void handOffSkipsUnreachableRoots() {
+        RecordingTransport transport = new RecordingTransport(Set.of("u0", "u1"));
+        assertEquals(3, RelayTree.handOff(transport, relay(5, 2)));
+        assertEquals(List.of("u0 [u1, u2, u3, u4]", "u1 [u2, u3, u4]", "u2 [u3, u4]"), transport.relays);
+    }
+
+    @Test
+    void handOffFailsWhenNoRootIsReachable() {
+        RecordingTransport transport = new RecordingTransport(Set.of("u0", "u1", "u2"));
+        assertEquals(0, RelayTree.handOff(transport, relay(3, 2)));
+        assertEquals(3, transport.relays.size());
+    }
+
+    @Test
+    void disseminationReachesEveryRecipient() throws InterruptedException {
+        LoopbackTransport transport = new LoopbackTransport();
+        int count = 40;
+        Map<String, UserInfo> recipients = new LinkedHashMap<>();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User("u" + i, 0.0, 1.0, "127.0.0.1", 1, 21000 + i, transport));
+            recipients.put("u" + i, new UserInfo("127.0.0.1", 21000 + i));
+        }
+        RelayTree.Relay relay = new RelayTree.Relay(3, "t", 0.9, recipients);
+        assertEquals(count, RelayTree.disseminate(transport, relay));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (User user : users) {
+            while (user.getOpinion("t") != 0.9 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0.9, user.getOpinion("t"), user.getId());
+        }
+    }
+
+    @Test
+    void duplicateRelayIsIgnored() {
+        User user = new User("u0", 0.0, 0.5, "127.0.0.1", 1, 21000, new LoopbackTransport());
+        AtomicInteger updates = new AtomicInteger();
+        user.addOpinionListener((u, topic, previous, current) -> updates.incrementAndGet());
+        RelayTree.Relay relay = new RelayTree.Relay(2, "t", 1.0, Map.of());
+        assertTrue(user.receiveRelay(relay));
+        assertTrue(user.receiveRelay(relay));
+        assertEquals(1, updates.get());
+        assertEquals(0.5, user.getOpinion("t"));
+    }
+
+    /**
+     * Un message à relayer aux destinataires u0, u1... dans cet ordre.
+     */
+    private static RelayTree.Relay relay(int count, int fanout) {
+        Map<String, UserInfo> recipients = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            recipients.put("u" + i, new UserInfo("127.0.0.1", 21000 + i));
+        }
+        return new RelayTree.Relay(fanout, "t", 0.5, recipients);
+    }
+
+    /**
+     * Un transport qui note chaque remise à un relais, et fait échouer celles destinées aux relais injoignables.
+     */
+    private static final class RecordingTransport implements Transport {
+        final List<String> relays = new CopyOnWriteArrayList<>();
+        private final Set<String> unreachable;
+
+        RecordingTransport(Set<String> unreachable) {
+            this.unreachable = unreachable;
+        }
+
+        @Override
+        public ServerChannel connect(String serverIp, int serverPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void listen(User user, int port) {
+        }
+
+        @Override
+        public boolean send(String recipientId, UserInfo recipient, String topic, double opinion) {
+            return false;
+        }
+
+        @Override
+        public boolean sendGossip(String recipientId, UserInfo recipient, List<GossipDirectory.Entry> entries, boolean replyRequested) {
+            return false;
+        }
+
+        @Override
+        public boolean relay(String relayId, UserInfo relay, RelayTree.Relay message) {
+            relays.add(relayId + " " + message.getRecipientIds());
+            return !unreachable.contains(relayId);
+        }
+    }
+}
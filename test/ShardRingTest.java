@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ShardRingTest {
+    private static final List<String> SHARDS = List.of("127.0.0.1:12345", "127.0.0.1:12346", "127.0.0.1:12347");
+
+    @Test
+    void ownerDoesNotDependOnShardOrder() {
+        ShardRing ring = new ShardRing(SHARDS);
+        ShardRing reversed = new ShardRing(List.of(SHARDS.get(2), SHARDS.get(1), SHARDS.get(0)));
+        for (int i = 0; i < 10_000; i++) {
+            String userId = "user-" + i;
+            assertEquals(ownerOf(ring, userId), ownerOf(reversed, userId), userId);
+        }
+    }
+
+    @Test
+    void usersAreSpreadOverAllShards() {
+        ShardRing ring = new ShardRing(SHARDS);
+        int[] counts = new int[ring.size()];
+        int users = 30_000;
+        for (int i = 0; i < users; i++) {
+            counts[ring.shardOf("user-" + i)]++;
+        }
+        for (int count : counts) {
+            // Les nœuds virtuels gardent chaque partition près du tiers des utilisateurs
+            assertTrue(count > users / 4 && count < users / 2, "unbalanced ring: " + count);
+        }
+    }
+
+    @Test
+    void addingShardOnlyMovesUsersToIt() {
+        ShardRing ring = new ShardRing(SHARDS);
+        String added = "127.0.0.1:12348";
+        ShardRing grown = new ShardRing(List.of(SHARDS.get(0), SHARDS.get(1), SHARDS.get(2), added));
+        int moved = 0;
+        int users = 20_000;
+        for (int i = 0; i < users; i++) {
+            String userId = "user-" + i;
+            String before = ownerOf(ring, userId);
+            String after = ownerOf(grown, userId);
+            if (!before.equals(after)) {
+                assertEquals(added, after, userId);
+                moved++;
+            }
+        }
+        assertTrue(moved > users / 8 && moved < users / 2, "moved " + moved);
+    }
+
+    @Test
+    void singleShardOwnsEveryone() {
+        ShardRing ring = new ShardRing(List.of("127.0.0.1:12345"));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, ring.shardOf("user-" + i));
+        }
+    }
+
+    @Test
+    void parsesCommaAndSpaceSeparatedLists() {
+        ShardRing ring = ShardRing.parse(" 127.0.0.1:12345, 127.0.0.1:12346 127.0.0.1:12347 ");
+        assertEquals(SHARDS, ring.getShards());
+        assertNull(ShardRing.parse("  "));
+        assertThrows(IllegalArgumentException.class, () -> ShardRing.parse("127.0.0.1"));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of()));
+    }
+
+    @Test
+    void findsShardListeningOnPort() {
+        ShardRing ring = new ShardRing(SHARDS);
+        assertEquals("127.0.0.1:12346", ring.shardOnPort(12346));
+        assertNull(ring.shardOnPort(9999));
+        ShardRing samePort = new ShardRing(List.of("10.0.0.1:12345", "10.0.0.2:12345"));
+        assertNull(samePort.shardOnPort(12345));
+        assertEquals("10.0.0.2", ShardRing.hostOf("10.0.0.2:12345"));
+        assertEquals(12345, ShardRing.portOf("10.0.0.2:12345"));
+    }
+
+    private static String ownerOf(ShardRing ring, String userId) {
+        return ring.getShards().get(ring.shardOf(userId));
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TopicOpinionStoreTest {
+
+    @Test
+    void unknownTopicHasDefaultOpinion() {
+        TopicOpinionStore store = new TopicOpinionStore();
+        assertEquals(0.3, store.get("t", 0.3));
+        assertEquals(0, store.size());
+        assertEquals(0.7, store.put("t", 0.7));
+        assertEquals(0.7, store.get("t", 0.3));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void blendMovesOpinionTowardsTarget() {
+        TopicOpinionStore store = new TopicOpinionStore();
+        assertEquals(0.0, store.blend("t", 0.0, 1.0, 0.25));
+        assertEquals(0.25, store.get("t", 0.0));
+        assertEquals(0.25, store.apply("t", 0.0, 2.0, 0.5));
+        assertEquals(1.0, store.get("t", 0.0));
+    }
+
+    @Test
+    void compareAndSetFailsOnStaleOpinion() {
+        TopicOpinionStore store = new TopicOpinionStore();
+        assertTrue(store.compareAndSet("t", 0.5, 0.5, 0.6));
+        assertFalse(store.compareAndSet("t", 0.5, 0.5, 0.9));
+        assertEquals(0.6, store.get("t", 0.5));
+    }
+
+    @Test
+    void lockedTopicHoldsUpdatesUntilUnlocked() throws InterruptedException {
+        TopicOpinionStore store = new TopicOpinionStore();
+        store.put("other", 0.1);
+        assertEquals(0.4, store.lock("t", 0.4));
+        Thread updater = new Thread(() -> store.blend("t", 0.0, 1.0, 0.5));
+        updater.start();
+        updater.join(100);
+        assertTrue(updater.isAlive(), "update of a locked topic went through");
+        // Les autres sujets restent libres
+        assertEquals(0.1, store.blend("other", 0.0, 0.3, 1.0));
+        store.unlock("t", 0.6);
+        updater.join(5000);
+        assertEquals(0.8, store.get("t", 0.0), 1e-12);
+    }
+
+    @Test
+    void unlockRequiresLock() {
+        TopicOpinionStore store = new TopicOpinionStore();
+        store.put("t", 0.5);
+        assertThrows(IllegalStateException.class, () -> store.unlock("t", 0.6));
+        assertEquals(0.5, store.get("t", 0.0));
+    }
+
+    @Test
+    void growthKeepsEveryTopic() {
+        TopicOpinionStore store = new TopicOpinionStore();
+        int topics = 10_000;
+        for (int i = 0; i < topics; i++) {
+            store.put("topic-" + i, i);
+        }
+        assertEquals(topics, store.size());
+        for (int i = 0; i < topics; i++) {
+            assertEquals(i, store.get("topic-" + i, -1), "topic-" + i);
+        }
+    }
+
+    @Test
+    void updatesDuringGrowthAreNotLost() throws InterruptedException {
+        TopicOpinionStore store = new TopicOpinionStore();
+        int hotTopics = 8;
+        int updaters = 4;
+        int updates = 50_000;
+        int inserters = 4;
+        int inserted = 5_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < updaters; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < updates; i++) {
+                    store.apply("hot-" + i % hotTopics, 0.0, 1.0, 1.0);
+                }
+            }));
+        }
+        for (int t = 0; t < inserters; t++) {
+            int inserter = t;
+            // Les insertions agrandissent les tables pendant les mises à jour des sujets déjà présents
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < inserted; i++) {
+                    store.put("new-" + inserter + "-" + i, i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < hotTopics; i++) {
+            assertEquals((double) updaters * updates / hotTopics, store.get("hot-" + i, -1), "hot-" + i);
+        }
+        assertEquals(hotTopics + inserters * inserted, store.size());
+        for (int t = 0; t < inserters; t++) {
+            for (int i = 0; i < inserted; i++) {
+                assertEquals(i, store.get("new-" + t + "-" + i, -1));
+            }
+        }
+    }
+}
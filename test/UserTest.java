@@ -0,0 +1,170 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class UserTest {
+    private static final double EPSILON = 1e-12;
+
+    private final LoopbackTransport transport = new LoopbackTransport();
+
+    @Test
+    void updateBlendsTowardsReceivedOpinion() {
+        User user = new User("u1", 0.2, 0.5, "127.0.0.1", 1, 20001, transport);
+        user.updateOpinion("t", 1.0, 0.25);
+        assertEquals(0.4, user.getOpinion("t"), EPSILON);
+        assertEquals(0.2, user.getOpinion(), EPSILON);
+    }
+
+    @Test
+    void coalescedUpdatesEqualSequentialBlends() throws InterruptedException {
+        User user = new User("u1", 0.2, 0.5, "127.0.0.1", 1, 20001, transport);
+        user.setCoalescing(true);
+        CountDownLatch firstApplied = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<OpinionListener.Source> sources = new CopyOnWriteArrayList<>();
+        user.addOpinionListener(new BlockingListener(sources, firstApplied, release));
+
+        // Le premier thread vide la file, puis reste bloqué dans l'écouteur pendant que les suivantes s'accumulent
+        Thread drainer = new Thread(() -> user.updateOpinion("t", 1.0, 0.5));
+        drainer.start();
+        assertTrue(firstApplied.await(5, TimeUnit.SECONDS));
+        double[][] updates = {{0.0, 0.3}, {0.8, 0.1}, {0.5, 0.9}, {1.0, 0.2}};
+        for (double[] update : updates) {
+            user.updateOpinion("t", update[0], update[1]);
+        }
+        assertEquals(0.6, user.getOpinion("t"), EPSILON, "queued opinions applied before the drain resumed");
+        release.countDown();
+        drainer.join();
+
+        double expected = 0.2 + (1.0 - 0.2) * 0.5;
+        for (double[] update : updates) {
+            expected += (update[0] - expected) * update[1];
+        }
+        assertEquals(expected, user.getOpinion("t"), EPSILON);
+        // Les quatre opinions en attente sont repliées en une seule mise à jour
+        assertEquals(List.of(OpinionListener.Source.COALESCED, OpinionListener.Source.COALESCED), sources);
+    }
+
+    @Test
+    void fullQueueHoldsBackNewOpinions() throws InterruptedException {
+        User user = new User("u1", 0.0, 0.5, "127.0.0.1", 1, 20001, transport);
+        user.setCoalescing(true);
+        CountDownLatch firstApplied = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        user.addOpinionListener(new BlockingListener(new CopyOnWriteArrayList<>(), firstApplied, release));
+
+        Thread drainer = new Thread(() -> user.updateOpinion("t", 1.0, 0.0));
+        drainer.start();
+        assertTrue(firstApplied.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < User.MAX_PENDING_OPINIONS; i++) {
+            user.updateOpinion("t", 1.0, 0.0);
+        }
+        Thread overflow = new Thread(() -> user.updateOpinion("t", 1.0, 1.0));
+        overflow.start();
+        overflow.join(200);
+        assertTrue(overflow.isAlive(), "opinion queued beyond the bound");
+        release.countDown();
+        overflow.join(5000);
+        drainer.join(5000);
+        assertEquals(1.0, user.getOpinion("t"), EPSILON);
+    }
+
+    @Test
+    void averageReplacesBothOpinions() {
+        User first = new User("u1", 0.2, 0.5, "127.0.0.1", 1, 20001, transport);
+        User second = new User("u2", 0.8, 0.5, "127.0.0.1", 1, 20002, transport);
+        second.updateOpinion("t", 0.0, 1.0);
+        List<String> events = new CopyOnWriteArrayList<>();
+        OpinionListener listener = (user, topic, previous, current) -> events.add(user.getId() + " " + previous + " " + current);
+        first.addOpinionListener(listener);
+        second.addOpinionListener(listener);
+        assertEquals(0.1, User.average(second, first, "t"), EPSILON);
+        assertEquals(0.1, first.getOpinion("t"), EPSILON);
+        assertEquals(0.1, second.getOpinion("t"), EPSILON);
+        assertEquals(List.of("u2 0.0 0.1", "u1 0.2 0.1"), events);
+        // La moyenne fige le sujet : il ne suit plus l'opinion générale
+        first.updateOpinion(1.0, 1.0);
+        assertEquals(0.1, first.getOpinion("t"), EPSILON);
+    }
+
+    @Test
+    void concurrentAveragesPreserveTheSum() throws InterruptedException {
+        int users = 32;
+        List<User> population = new ArrayList<>();
+        Random random = new Random(1);
+        double sum = 0;
+        for (int i = 0; i < users; i++) {
+            User user = new User("u" + i, random.nextDouble(), 0.5, "127.0.0.1", 1, 20001 + i, transport);
+            sum += user.getOpinion("t");
+            population.add(user);
+        }
+        AtomicLong events = new AtomicLong();
+        population.forEach(user -> user.addOpinionListener((u, topic, previous, current) -> events.incrementAndGet()));
+        int threads = 8;
+        int averages = 20_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom local = ThreadLocalRandom.current();
+                for (int i = 0; i < averages; i++) {
+                    int a = local.nextInt(users);
+                    int b = (a + 1 + local.nextInt(users - 1)) % users;
+                    User.average(population.get(a), population.get(b), "t");
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double after = 0;
+        for (User user : population) {
+            after += user.getOpinion("t");
+        }
+        // Une moyenne qui verrait une opinion déjà remplacée par une autre paire ferait dériver la somme
+        assertEquals(sum, after, 1e-9);
+        assertEquals(2L * threads * averages, events.get());
+    }
+
+    /**
+     * Un écouteur qui retient le premier thread à appliquer une mise à jour, jusqu'à sa libération.
+     */
+    private static final class BlockingListener implements OpinionListener {
+        private final List<Source> sources;
+        private final CountDownLatch firstApplied;
+        private final CountDownLatch release;
+
+        BlockingListener(List<Source> sources, CountDownLatch firstApplied, CountDownLatch release) {
+            this.sources = sources;
+            this.firstApplied = firstApplied;
+            this.release = release;
+        }
+
+        @Override
+        public void opinionChanged(User user, String topic, double previous, double current) {
+        }
+
+        @Override
+        public void opinionChanged(User user, String topic, double previous, double current, double influence, Source source) {
+            sources.add(source);
+            if (firstApplied.getCount() > 0) {
+                firstApplied.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}